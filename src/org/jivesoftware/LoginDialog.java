@@ -95,6 +95,7 @@ import org.jivesoftware.spark.util.DummySSLSocketFactory;
 import org.jivesoftware.spark.util.GraphicUtils;
 import org.jivesoftware.spark.util.ModelUtil;
 import org.jivesoftware.spark.util.ResourceUtils;
+import org.jivesoftware.spark.util.StartupTrace;
 import org.jivesoftware.spark.util.SwingWorker;
 import org.jivesoftware.spark.util.log.Log;
 import org.jivesoftware.sparkimpl.plugin.layout.LayoutSettings;
@@ -799,7 +800,12 @@ public class LoginDialog {
                     setLoginServer(getServerName());
                     boolean loginSuccessfull = beforeLoginValidations() && login();
                     if (loginSuccessfull) {
-                        afterLogin();
+                        final StartupTrace.Span span = StartupTrace.getInstance().begin("login.after");
+                        try {
+                            afterLogin();
+                        } finally {
+                            span.end();
+                        }
                         progressBar.setText(Res.getString("message.connecting.please.wait"));
 
                         // Startup Spark
@@ -990,29 +996,44 @@ public class LoginDialog {
                     connection = new XMPPConnection(config, this);
                     //If we want to use the debug version of smack, we have to check if
                     //we are on the dispatch thread because smack will create an UI
-                    if (localPref.isDebuggerEnabled()) {
-                        if (EventQueue.isDispatchThread()) {
-                            connection.connect();
+                    final StartupTrace.Span connect = StartupTrace.getInstance().begin("login.connect");
+                    try {
+                        if (localPref.isDebuggerEnabled()) {
+                            if (EventQueue.isDispatchThread()) {
+                                connection.connect();
+                            } else {
+                                EventQueue.invokeAndWait(() -> {
+                                    try {
+                                        connection.connect();
+                                    } catch (XMPPException e) {
+                                        Log.error("connection error", e);
+                                    }
+                                });
+                            }
                         } else {
-                            EventQueue.invokeAndWait(() -> {
-                                try {
-                                    connection.connect();
-                                } catch (XMPPException e) {
-                                    Log.error("connection error", e);
-                                }
-                            });
+                            connection.connect();
                         }
-                    } else {
-                        connection.connect();
+                    } finally {
+                        connect.end();
                     }
 
                     String resource = localPref.getResource();
-                    connection.login(getLoginUsername(), getLoginPassword(),
-                            org.jivesoftware.spark.util.StringUtils.modifyWildcards(resource).trim());
+                    final StartupTrace.Span authenticate = StartupTrace.getInstance().begin("login.authenticate");
+                    try {
+                        connection.login(getLoginUsername(), getLoginPassword(),
+                                org.jivesoftware.spark.util.StringUtils.modifyWildcards(resource).trim());
+                    } finally {
+                        authenticate.end();
+                    }
 
-                    sessionManager.setServerAddress(connection.getServiceName());
-                    sessionManager.initializeSession(connection, getLoginUsername(), getLoginPassword());
-                    sessionManager.setJID(connection.getUser());
+                    final StartupTrace.Span session = StartupTrace.getInstance().begin("login.session");
+                    try {
+                        sessionManager.setServerAddress(connection.getServiceName());
+                        sessionManager.initializeSession(connection, getLoginUsername(), getLoginPassword());
+                        sessionManager.setJID(connection.getUser());
+                    } finally {
+                        session.end();
+                    }
                 } catch (InterruptedException | InvocationTargetException | XMPPException xee) {
                     if (!loginDialog.isVisible()) {
                         loginDialog.setVisible(true);
@@ -1129,61 +1150,66 @@ public class LoginDialog {
         // Invoke the MainWindow.
         try {
             EventQueue.invokeLater(() -> {
-                final MainWindow mainWindow = MainWindow.getInstance();
+                final StartupTrace.Span span = StartupTrace.getInstance().begin("workspace.window");
+                try {
+                    final MainWindow mainWindow = MainWindow.getInstance();
                 
                 
-                /*
-                if (tray != null) {
-                // Remove trayIcon
-                tray.removeTrayIcon(trayIcon);
-                }
-                */
-                // Creates the Spark  Workspace and add to MainWindow
-                Workspace workspace = Workspace.getInstance();
+                    /*
+                    if (tray != null) {
+                    // Remove trayIcon
+                    tray.removeTrayIcon(trayIcon);
+                    }
+                    */
+                    // Creates the Spark  Workspace and add to MainWindow
+                    Workspace workspace = Workspace.getInstance();
                 
-                LayoutSettings settings = LayoutSettingsManager.getLayoutSettings();
-                int x = settings.getMainWindowX();
-                int y = settings.getMainWindowY();
-                int width = settings.getMainWindowWidth();
-                int height = settings.getMainWindowHeight();
+                    LayoutSettings settings = LayoutSettingsManager.getLayoutSettings();
+                    int x = settings.getMainWindowX();
+                    int y = settings.getMainWindowY();
+                    int width = settings.getMainWindowWidth();
+                    int height = settings.getMainWindowHeight();
                 
-                LocalPreferences pref = SettingsManager.getLocalPreferences();
-                if (pref.isDockingEnabled()) {
-                    JSplitPane splitPane = mainWindow.getSplitPane();
-                    workspace.getCardPanel().setMinimumSize(null);
-                    splitPane.setLeftComponent(workspace.getCardPanel());
-                    SparkManager.getChatManager().getChatContainer().setMinimumSize(null);
-                    splitPane.setRightComponent(SparkManager.getChatManager().getChatContainer());
-                    int dividerLoc = settings.getSplitPaneDividerLocation();
-                    if (dividerLoc != -1) {
-                        mainWindow.getSplitPane().setDividerLocation(dividerLoc);
+                    LocalPreferences pref = SettingsManager.getLocalPreferences();
+                    if (pref.isDockingEnabled()) {
+                        JSplitPane splitPane = mainWindow.getSplitPane();
+                        workspace.getCardPanel().setMinimumSize(null);
+                        splitPane.setLeftComponent(workspace.getCardPanel());
+                        SparkManager.getChatManager().getChatContainer().setMinimumSize(null);
+                        splitPane.setRightComponent(SparkManager.getChatManager().getChatContainer());
+                        int dividerLoc = settings.getSplitPaneDividerLocation();
+                        if (dividerLoc != -1) {
+                            mainWindow.getSplitPane().setDividerLocation(dividerLoc);
+                        } else {
+                            mainWindow.getSplitPane().setDividerLocation(240);
+                        }
+                    
+                        mainWindow.getContentPane().add(splitPane, BorderLayout.CENTER);
                     } else {
-                        mainWindow.getSplitPane().setDividerLocation(240);
+                        mainWindow.getContentPane().add(workspace.getCardPanel(), BorderLayout.CENTER);
                     }
-                    
-                    mainWindow.getContentPane().add(splitPane, BorderLayout.CENTER);
-                } else {
-                    mainWindow.getContentPane().add(workspace.getCardPanel(), BorderLayout.CENTER);
-                }
                 
-                if (x == 0 && y == 0) {
-                    // Use Default size
-                    mainWindow.setSize(310, 520);
+                    if (x == 0 && y == 0) {
+                        // Use Default size
+                        mainWindow.setSize(310, 520);
                     
-                    // Center Window on Screen
-                    GraphicUtils.centerWindowOnScreen(mainWindow);
-                } else {
-                    mainWindow.setBounds(x, y, width, height);
-                }
+                        // Center Window on Screen
+                        GraphicUtils.centerWindowOnScreen(mainWindow);
+                    } else {
+                        mainWindow.setBounds(x, y, width, height);
+                    }
                 
-                if (loginDialog.isVisible()) {
-                    mainWindow.setVisible(true);
-                }
+                    if (loginDialog.isVisible()) {
+                        mainWindow.setVisible(true);
+                    }
                 
-                loginDialog.setVisible(false);
+                    loginDialog.setVisible(false);
+                } finally {
+                    span.end();
+                }
                 
                 // Build the layout in the workspace
-                workspace.buildLayout();
+                Workspace.getInstance().buildLayout();
             });
         } catch (Exception e) {
             e.printStackTrace();
@@ -17,7 +17,6 @@
  */
 package org.jivesoftware.spark;
 
-import java.net.URL;
 import javax.swing.ImageIcon;
 import javax.swing.JLabel;
 import org.jivesoftware.resource.Res;
@@ -63,8 +62,7 @@ public class ButtonFactory {
         final EmoticonManager emoticonManager = EmoticonManager.getInstance();
         final String activeEmoticonSetName = emoticonManager.getActiveEmoticonSetName();
         final Emoticon smileEmoticon = emoticonManager.getEmoticon(activeEmoticonSetName, ":)");
-        URL smileURL = emoticonManager.getEmoticonURL(smileEmoticon);
-        ImageIcon icon = new ImageIcon(smileURL);
+        ImageIcon icon = emoticonManager.getEmoticonImage(smileEmoticon, 0);
 
         return new RolloverButton(icon);
     }
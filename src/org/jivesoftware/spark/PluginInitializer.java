@@ -0,0 +1,259 @@
+/**
+ * Copyright (C) 2004-2011 Jive Software. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.jivesoftware.spark;
+
+import java.awt.EventQueue;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.jivesoftware.spark.plugin.BackgroundPlugin;
+import org.jivesoftware.spark.plugin.Plugin;
+import org.jivesoftware.spark.util.StartupTrace;
+import org.jivesoftware.spark.util.TaskEngine;
+import org.jivesoftware.spark.util.log.Log;
+
+/**
+ * Initializes plugins in the order of their dependencies. A plugin is started
+ * as soon as the plugins it depends on are initialized, so plugins that do not
+ * depend on each other are initialized concurrently. {@link BackgroundPlugin}s
+ * are initialized on the <code>TaskEngine</code> and only their UI work runs
+ * on the event dispatch thread. Other plugins are initialized on the event
+ * dispatch thread, one event each, so the UI stays responsive in between.
+ * <p>
+ * The wall and CPU time spent initializing each plugin are recorded in a
+ * startup report, and each initialization is a span of the
+ * {@link StartupTrace}, which is finished once all plugins are initialized.
+ */
+class PluginInitializer {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final Map<Plugin, Task> tasks = new LinkedHashMap<>();
+    private int remaining;
+    private long startTime;
+    private long endTime;
+
+    /**
+     * Creates the initializer. Plugins that are part of a dependency cycle are
+     * not initialized.
+     *
+     * @param plugins the plugins, in the order they were registered.
+     * @param dependencies the plugins each plugin depends on.
+     */
+    PluginInitializer(List<Plugin> plugins, Map<Plugin, List<Plugin>> dependencies) {
+        for (Plugin plugin : plugins) {
+            tasks.putIfAbsent(plugin, new Task(plugin));
+        }
+        for (Task task : tasks.values()) {
+            final List<Plugin> depends = dependencies.getOrDefault(task.plugin, Collections.emptyList());
+            for (Plugin plugin : depends) {
+                final Task dependency = tasks.get(plugin);
+                if (dependency != null && dependency != task) {
+                    dependency.dependents.add(task);
+                    task.waiting++;
+                }
+            }
+        }
+
+        // Drop the plugins that would wait for each other forever.
+        final List<Task> sorted = sort();
+        if (sorted.size() < tasks.size()) {
+            tasks.values().retainAll(sorted);
+            for (Task task : tasks.values()) {
+                task.dependents.retainAll(sorted);
+            }
+        }
+        remaining = tasks.size();
+    }
+
+    /**
+     * Starts initializing the plugins.
+     */
+    void start() {
+        final List<Task> ready = new ArrayList<>();
+        final boolean finished;
+        synchronized (this) {
+            startTime = System.nanoTime();
+            tasks.values().stream().filter((task) -> task.waiting == 0).forEach(ready::add);
+            finished = remaining == 0;
+            if (finished) {
+                endTime = startTime;
+            }
+        }
+        ready.stream().forEach(this::dispatch);
+
+        if (finished) {
+            finished();
+        }
+    }
+
+    /**
+     * Returns the wall and CPU time spent initializing each plugin, slowest
+     * first.
+     *
+     * @return the report.
+     */
+    synchronized String getReport() {
+        final List<Task> sorted = new ArrayList<>(tasks.values());
+        sorted.sort((a, b) -> Long.compare(b.wallTime + b.uiTime, a.wallTime + a.uiTime));
+
+        final StringBuilder report = new StringBuilder();
+        report.append("Initialized ").append(tasks.size() - remaining).append(" of ").append(tasks.size())
+                .append(" plugins in ").append(millis((remaining == 0 ? endTime : System.nanoTime()) - startTime))
+                .append(" ms.\n");
+        for (Task task : sorted) {
+            report.append(String.format("%6d ms wall %6d ms cpu %6d ms ui  %s%n", millis(task.wallTime),
+                    millis(task.cpuTime), millis(task.uiTime), task.plugin.getClass().getName()));
+        }
+        return report.toString();
+    }
+
+    private void dispatch(Task task) {
+        if (task.plugin instanceof BackgroundPlugin) {
+            TaskEngine.getInstance().submit(() -> initialize(task));
+        } else {
+            EventQueue.invokeLater(() -> initialize(task));
+        }
+    }
+
+    private void initialize(Task task) {
+        if (Log.debugging) Log.debug("Trying to initialize " + task.plugin);
+        final long wall = System.nanoTime();
+        final long cpu = getCpuTime();
+        final StartupTrace.Span span = StartupTrace.getInstance().begin("plugin " + task.plugin.getClass().getName());
+        try {
+            task.plugin.initialize();
+        } catch (Throwable e) {
+            Log.error(e);
+        } finally {
+            span.end();
+        }
+        synchronized (this) {
+            task.wallTime = System.nanoTime() - wall;
+            task.cpuTime = getCpuTime() - cpu;
+        }
+
+        if (task.plugin instanceof BackgroundPlugin) {
+            EventQueue.invokeLater(() -> initializeUI(task));
+        } else {
+            done(task);
+        }
+    }
+
+    private void initializeUI(Task task) {
+        final long wall = System.nanoTime();
+        final long cpu = getCpuTime();
+        final StartupTrace.Span span = StartupTrace.getInstance().begin("plugin " + task.plugin.getClass().getName() + " ui");
+        try {
+            ((BackgroundPlugin) task.plugin).initializeUI();
+        } catch (Throwable e) {
+            Log.error(e);
+        } finally {
+            span.end();
+        }
+        synchronized (this) {
+            task.uiTime = System.nanoTime() - wall;
+            task.cpuTime += getCpuTime() - cpu;
+        }
+        done(task);
+    }
+
+    private void done(Task task) {
+        if (Log.debugging) Log.debug("Took " + millis(task.wallTime + task.uiTime) + " ms. to load " + task.plugin);
+
+        final List<Task> ready = new ArrayList<>();
+        final boolean finished;
+        synchronized (this) {
+            for (Task dependent : task.dependents) {
+                if (--dependent.waiting == 0) {
+                    ready.add(dependent);
+                }
+            }
+            finished = --remaining == 0;
+            if (finished) {
+                endTime = System.nanoTime();
+            }
+        }
+        ready.stream().forEach(this::dispatch);
+
+        if (finished) {
+            finished();
+        }
+    }
+
+    /**
+     * Orders the tasks so that each comes after the tasks it waits for.
+     *
+     * @return the tasks that are not part of a cycle, in order.
+     */
+    private List<Task> sort() {
+        final Map<Task, Integer> waiting = new LinkedHashMap<>();
+        final List<Task> sorted = new ArrayList<>();
+        for (Task task : tasks.values()) {
+            waiting.put(task, task.waiting);
+            if (task.waiting == 0) {
+                sorted.add(task);
+            }
+        }
+        for (int i = 0; i < sorted.size(); i++) {
+            for (Task dependent : sorted.get(i).dependents) {
+                if (waiting.merge(dependent, -1, Integer::sum) == 0) {
+                    sorted.add(dependent);
+                }
+            }
+        }
+        waiting.keySet().removeAll(sorted);
+        waiting.keySet().stream().forEach((task) -> {
+            Log.error("Plugin " + task.plugin.getClass().getName() + " has cyclic dependencies and is not loaded.");
+        });
+        return sorted;
+    }
+
+    private void finished() {
+        if (Log.debugging) Log.debug(getReport());
+        StartupTrace.getInstance().mark("plugins.initialized");
+        StartupTrace.getInstance().finish();
+    }
+
+    private static long getCpuTime() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+
+    private static long millis(long nanos) {
+        return nanos / 1000000;
+    }
+
+    /**
+     * A plugin waiting to be or being initialized.
+     */
+    private static class Task {
+
+        private final Plugin plugin;
+        private final List<Task> dependents = new ArrayList<>();
+        private int waiting;
+        private long wallTime;
+        private long cpuTime;
+        private long uiTime;
+
+        Task(Plugin plugin) {
+            this.plugin = plugin;
+        }
+    }
+}
@@ -32,8 +32,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.PropertyResourceBundle;
 import java.util.ResourceBundle;
 import java.util.StringTokenizer;
@@ -54,6 +56,7 @@ import org.jivesoftware.spark.PluginRes.ResourceType;
 import org.jivesoftware.spark.plugin.Plugin;
 import org.jivesoftware.spark.plugin.PluginClassLoader;
 import org.jivesoftware.spark.plugin.PluginDependency;
+import org.jivesoftware.spark.plugin.PluginIndex;
 import org.jivesoftware.spark.plugin.PublicPlugin;
 import org.jivesoftware.spark.util.StringUtils;
 import org.jivesoftware.spark.util.URLFileSystem;
@@ -81,6 +84,7 @@ public class PluginManager implements MainWindowListener {
 
     private Plugin pluginClass;
     private PluginClassLoader classLoader;
+    private PluginInitializer initializer;
 
     private final Collection<String> _blacklistPlugins;
 
@@ -254,19 +258,15 @@ public class PluginManager implements MainWindowListener {
         }
 
         loadPluginResources();
+
+        final PluginIndex index = PluginIndex.getInstance();
+        if (Log.debugging) Log.debug("Plugin index: " + index.getHitCount() + " files unchanged, saving "
+                + index.getTimeSaved() + " ms, " + index.getMissCount() + " files read in " + index.getTimeSpent() + " ms.");
     }
 
     private boolean hasDependencies(File pluginFile) {
-        SAXReader saxReader = new SAXReader();
-        Document pluginXML = null;
-        try {
-            pluginXML = saxReader.read(pluginFile);
-            List<? extends Node> dependencies = pluginXML.selectNodes("plugin/depends/plugin");
-            return dependencies != null && dependencies.size() > 0;
-        } catch (DocumentException e) {
-            Log.error(e);
-            return false;
-        }
+        final PluginIndex.Descriptor descriptor = PluginIndex.getInstance().getDescriptor(pluginFile);
+        return descriptor != null && !descriptor.getDependencies().isEmpty();
     }
 
     /**
@@ -278,135 +278,90 @@ public class PluginManager implements MainWindowListener {
     private Plugin loadPublicPlugin(File pluginDir) {
 
         File pluginFile = new File(pluginDir, "plugin.xml");
-        SAXReader saxReader = new SAXReader();
-        Document pluginXML = null;
-        try {
-            pluginXML = saxReader.read(pluginFile);
-        } catch (DocumentException e) {
-            Log.error(e);
+        final PluginIndex.Descriptor descriptor = PluginIndex.getInstance().getDescriptor(pluginFile);
+        if (descriptor == null) {
+            return null;
         }
 
-        Plugin pluginClass = null;
+        final String name = descriptor.getName();
+        final String clazz = descriptor.getPluginClass();
+        if (name == null || clazz == null) {
+            Log.error("Unable to load plugin in " + pluginDir + " due to missing <name> or <class>-Tag in plugin.xml.");
+            return null;
+        }
 
-        List<? extends Node> plugins = pluginXML.selectNodes("/plugin");
-        for (Node plugin1 : plugins) {
-            PublicPlugin publicPlugin = new PublicPlugin();
+        try {
+            String lower = name.replaceAll("[^0-9a-zA-Z]", "").toLowerCase();
+            // Dont load the plugin if its on the Blacklist
+            if (_blacklistPlugins.contains(lower) || _blacklistPlugins.contains(clazz)
+                    || SettingsManager.getLocalPreferences().getDeactivatedPlugins().contains(name)) {
+                return null;
+            }
+        } catch (Exception e) {
+            // Whatever^^
+            return null;
+        }
 
-            String clazz = null;
-            String name;
-            String minVersion;
+        // Check for minimum Spark version
+        final String minVersion = descriptor.getMinSparkVersion();
+        if (minVersion == null) {
+            Log.error("Unable to load plugin " + name + " due to missing <minSparkVersion>-Tag in plugin.xml.");
+            return null;
+        }
+        if (JiveInfo.getVersion().compareTo(minVersion) < 0) {
+            return null;
+        }
 
+        // Check for minimum Java version
+        if (descriptor.getJavaVersion() != null) {
             try {
+                String javaversion = descriptor.getJavaVersion().replaceAll("[^0-9]", "");
+                int jv = Integer.parseInt(attachMissingZero(javaversion));
 
-                name = plugin1.selectSingleNode("name").getText();
-                clazz = plugin1.selectSingleNode("class").getText();
+                String myversion = System.getProperty("java.version").replaceAll("[^0-9]", "");
+                int mv = Integer.parseInt(attachMissingZero(myversion));
 
-                try {
-                    String lower = name.replaceAll("[^0-9a-zA-Z]", "").toLowerCase();
-                    // Dont load the plugin if its on the Blacklist
-                    if (_blacklistPlugins.contains(lower) || _blacklistPlugins.contains(clazz)
-                            || SettingsManager.getLocalPreferences().getDeactivatedPlugins().contains(name)) {
-                        return null;
-                    }
-                } catch (Exception e) {
-                    // Whatever^^
+                if (mv < jv) {
+                    Log.error("Unable to load plugin " + name
+                            + " due to old JavaVersion.\nIt Requires " + descriptor.getJavaVersion()
+                            + " you have " + System.getProperty("java.version"));
                     return null;
                 }
-
-                // Check for minimum Spark version
-                try {
-                    minVersion = plugin1.selectSingleNode("minSparkVersion").getText();
-
-                    String buildNumber = JiveInfo.getVersion();
-                    boolean ok = buildNumber.compareTo(minVersion) >= 0;
-
-                    if (!ok) {
-                        return null;
-                    }
-                } catch (Exception e) {
-                    Log.error("Unable to load plugin " + name + " due to missing <minSparkVersion>-Tag in plugin.xml.");
-                    return null;
-                }
-
-                // Check for minimum Java version
-                try {
-                    String javaversion = plugin1.selectSingleNode("java").getText().replaceAll("[^0-9]", "");
-                    javaversion = javaversion == null ? "0" : javaversion;
-                    int jv = Integer.parseInt(attachMissingZero(javaversion));
-
-                    String myversion = System.getProperty("java.version").replaceAll("[^0-9]", "");
-                    int mv = Integer.parseInt(attachMissingZero(myversion));
-
-                    boolean ok = (mv >= jv);
-
-                    if (!ok) {
-                        Log.error("Unable to load plugin " + name
-                                + " due to old JavaVersion.\nIt Requires " + plugin1.selectSingleNode("java").getText()
-                                + " you have " + System.getProperty("java.version"));
-                        return null;
-                    }
-
-                } catch (NullPointerException e) {
-                    Log.warning("Plugin " + name + " has no <java>-Tag, consider getting a newer Version");
-                }
-
-                // set dependencies
-                try {
-                    List<? extends Node> dependencies = plugin1.selectNodes("depends/plugin");
-                    dependencies.stream().map((depend1) -> (Element) depend1).map((depend) -> {
-                        PluginDependency dependency = new PluginDependency();
-                        dependency.setVersion(depend.selectSingleNode("version").getText());
-                        dependency.setName(depend.selectSingleNode("name").getText());
-                        return dependency;
-                    }).forEach((dependency) -> {
-                        publicPlugin.addDependency(dependency);
-                    });
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-
-                // Do operating system check.
-                boolean operatingSystemOK = isOperatingSystemOK(plugin1);
-                if (!operatingSystemOK) {
-                    return null;
-                }
-
-                publicPlugin.setPluginClass(clazz);
-                publicPlugin.setName(name);
-
-                try {
-                    String version = plugin1.selectSingleNode("version").getText();
-                    publicPlugin.setVersion(version);
-
-                    String author = plugin1.selectSingleNode("author").getText();
-                    publicPlugin.setAuthor(author);
-
-                    String email = plugin1.selectSingleNode("email").getText();
-                    publicPlugin.setEmail(email);
-
-                    String description = plugin1.selectSingleNode("description").getText();
-                    publicPlugin.setDescription(description);
-
-                    String homePage = plugin1.selectSingleNode("homePage").getText();
-                    publicPlugin.setHomePage(homePage);
-                } catch (Exception e) {
-                    if (Log.debugging) Log.debug("We can ignore these.");
-                }
-
-                try {
-                    pluginClass = (Plugin) getParentClassLoader().loadClass(clazz).newInstance();
-                    if (Log.debugging) Log.debug(name + " has been loaded.");
-                    publicPlugin.setPluginDir(pluginDir);
-                    publicPlugins.add(publicPlugin);
-
-                    registerPlugin(pluginClass);
-                } catch (ClassNotFoundException | IllegalAccessException | InstantiationException e) {
-                    Log.error("Unable to load plugin " + clazz + ".", e);
-                }
             } catch (NumberFormatException ex) {
                 Log.error("Unable to load plugin " + clazz + ".", ex);
+                return null;
             }
+        } else {
+            Log.warning("Plugin " + name + " has no <java>-Tag, consider getting a newer Version");
+        }
 
+        // Do operating system check.
+        if (!isOperatingSystemOK(descriptor)) {
+            return null;
+        }
+
+        PublicPlugin publicPlugin = new PublicPlugin();
+        descriptor.getDependencies().stream().forEach((dependency) -> {
+            publicPlugin.addDependency(dependency);
+        });
+        publicPlugin.setPluginClass(clazz);
+        publicPlugin.setName(name);
+        publicPlugin.setVersion(descriptor.getVersion());
+        publicPlugin.setAuthor(descriptor.getAuthor());
+        publicPlugin.setEmail(descriptor.getEmail());
+        publicPlugin.setDescription(descriptor.getDescription());
+        publicPlugin.setHomePage(descriptor.getHomePage());
+
+        Plugin pluginClass = null;
+        try {
+            pluginClass = (Plugin) getParentClassLoader().loadClass(clazz).newInstance();
+            if (Log.debugging) Log.debug(name + " has been loaded.");
+            publicPlugin.setPluginDir(pluginDir);
+            publicPlugins.add(publicPlugin);
+
+            registerPlugin(pluginClass);
+        } catch (ClassNotFoundException | IllegalAccessException | InstantiationException e) {
+            Log.error("Unable to load plugin " + clazz + ".", e);
         }
 
         return pluginClass;
@@ -542,107 +497,97 @@ public class PluginManager implements MainWindowListener {
     }
 
     /**
-     * Loads and initalizes all Plugins.
+     * Loads and initalizes all Plugins. Plugins are initialized once the
+     * plugins they depend on are, plugins that do not depend on each other
+     * concurrently.
      *
      * @see Plugin
+     * @see org.jivesoftware.spark.plugin.BackgroundPlugin
      */
     public void initializePlugins() {
-        try {
-            int j = 0;
-            boolean dependsfound = false;
-
-            // Dependency check
-            for (int i = 0; i < publicPlugins.size(); i++) {
-                // if dependencies are available, check these
-                if ((publicPlugins.get(i)).getDependency().size() > 0) {
-                    List<PluginDependency> dependencies = (publicPlugins.get(i)).getDependency();
-
-                    // go trough all dependencies
-                    for (PluginDependency dependency : dependencies) {
-                        j = 0;
-                        dependsfound = false;
-                        // look for the specific plugin
-                        for (PublicPlugin plugin1 : publicPlugins) {
-
-                            if (plugin1.getName() != null
-                                    && plugin1.getName().equals(dependency.getName())) {
-                                // if the version is compatible then reorder
-                                if (dependency.compareVersion(plugin1.getVersion())) {
-                                    dependsfound = true;
-                                    // when depended Plugin hadn't been installed yet
-                                    if (j > i) {
-
-                                        // find the position of plugins-List because it has more entries
-                                        int counter = 0, x = 0, z = 0;
-                                        for (Plugin plug : plugins) {
-                                            // find the position of the aim-object
-                                            if (plug.getClass().toString().substring(6).equals(publicPlugins.get(j).getPluginClass())) {
-                                                x = counter;
-                                            } // find the change-position
-                                            else if (plug.getClass().toString().substring(6).equals(publicPlugins.get(i).getPluginClass())) {
-                                                z = counter;
-                                            }
-                                            counter++;
-                                        }
-                                        // change the order
-                                        publicPlugins.add(i, publicPlugins.get(j));
-                                        publicPlugins.remove(j + 1);
-
-                                        plugins.add(z, plugins.get(x));
-                                        plugins.remove(x + 1);
-
-                                        // start again, to check the other dependencies
-                                        i--;
-                                    }
-                                } // else don't load the plugin and show an error
-                                else {
-                                    Log.error("Depended Plugin " + dependency.getName() + " hasn't the right version (" + dependency.getVersion() + "<>" + plugin1.getVersion());
-                                }
-                                break;
-                            }
-                            j++;
-                        }
-                        // if the depended Plugin wasn't found, then show error
-                        if (!dependsfound) {
-                            Log.error("Depended Plugin " + dependency.getName() + " is missing for the Plugin " + (publicPlugins.get(i)).getName());
-
-                            // find the posiion of plugins-List because it has more entries
-                            int counter = 0;
-                            for (Plugin plug : plugins) {
-                                // find the delete-position
-                                if (plug.getClass().toString().substring(6).equals(publicPlugins.get(i).getPluginClass())) {
-                                    break;
-                                }
-                                counter++;
-                            }
-                            // delete the Plugin, because the depended Plugin is missing
-                            publicPlugins.remove(i);
-                            plugins.remove(counter);
-                            i--;
-                            break;
-                        }
+        // Internal plugins are registered on the event dispatch thread, take
+        // the plugins once those registrations are done.
+        EventQueue.invokeLater(() -> {
+            try {
+                final Map<Plugin, List<Plugin>> dependencies = resolveDependencies();
+                initializer = new PluginInitializer(new ArrayList<>(plugins), dependencies);
+                initializer.start();
+            } catch (Exception e) {
+                Log.error("Unable to initialize plugins.", e);
+            }
+        });
+    }
+
+    /**
+     * Returns the time spent initializing each plugin during startup.
+     *
+     * @return the startup report, or null if the plugins were not initialized
+     * yet.
+     */
+    public String getStartupReport() {
+        return initializer != null ? initializer.getReport() : null;
+    }
+
+    /**
+     * Finds the plugins each public plugin depends on. Plugins whose
+     * dependencies are missing or have an incompatible version are removed.
+     *
+     * @return the plugins each plugin depends on.
+     */
+    private Map<Plugin, List<Plugin>> resolveDependencies() {
+        final Map<String, Plugin> byClass = new HashMap<>();
+        plugins.stream().forEach((plugin) -> {
+            byClass.putIfAbsent(plugin.getClass().getName(), plugin);
+        });
+
+        final Map<Plugin, List<Plugin>> dependencies = new HashMap<>();
+        boolean removed = true;
+        while (removed) {
+            removed = false;
+            dependencies.clear();
+
+            final Map<String, PublicPlugin> byName = new HashMap<>();
+            publicPlugins.stream().filter((publicPlugin) -> publicPlugin.getName() != null).forEach((publicPlugin) -> {
+                byName.putIfAbsent(publicPlugin.getName(), publicPlugin);
+            });
+
+            for (PublicPlugin publicPlugin : publicPlugins) {
+                final List<Plugin> depends = new ArrayList<>();
+                boolean resolved = true;
+                for (PluginDependency dependency : publicPlugin.getDependency()) {
+                    final PublicPlugin target = byName.get(dependency.getName());
+                    final Plugin targetPlugin = target != null ? byClass.get(target.getPluginClass()) : null;
+                    if (targetPlugin == null) {
+                        Log.error("Depended Plugin " + dependency.getName() + " is missing for the Plugin " + publicPlugin.getName());
+                        resolved = false;
+                        break;
+                    }
+                    if (!dependency.compareVersion(target.getVersion())) {
+                        Log.error("Depended Plugin " + dependency.getName() + " hasn't the right version (" + dependency.getVersion() + "<>" + target.getVersion());
+                        resolved = false;
+                        break;
                     }
+                    depends.add(targetPlugin);
                 }
-            }
 
-            EventQueue.invokeLater(() -> {
-                plugins.stream().forEach((plugin1) -> {
-                    long start = System.currentTimeMillis();
-                    if (Log.debugging) Log.debug("Trying to initialize " + plugin1);
-                    try {
-                        plugin1.initialize();
-                    } catch (Throwable e) {
-                        Log.error(e);
+                final Plugin plugin = byClass.get(publicPlugin.getPluginClass());
+                if (resolved) {
+                    if (plugin != null) {
+                        dependencies.put(plugin, depends);
                     }
-                    
-                    long end = System.currentTimeMillis();
-                    if (Log.debugging) Log.debug("Took " + (end - start) + " ms. to load " + plugin1);
-                });
-            });
-        } catch (Exception e) {
-            e.printStackTrace();
+                } else {
+                    // Drop the plugin, then resolve again for the plugins
+                    // depending on it.
+                    publicPlugins.remove(publicPlugin);
+                    if (plugin != null) {
+                        plugins.remove(plugin);
+                        byClass.remove(publicPlugin.getPluginClass());
+                    }
+                    removed = true;
+                }
+            }
         }
-
+        return dependencies;
     }
 
     @Override
@@ -906,34 +851,27 @@ public class PluginManager implements MainWindowListener {
      * @param plugin the Plugin element to check.
      * @return true if the operating system is ok for the plugin to run on.
      */
-    private boolean isOperatingSystemOK(Node plugin) {
+    private boolean isOperatingSystemOK(PluginIndex.Descriptor descriptor) {
         // Check for operating systems
-        try {
-
-            final Element osElement = (Element) plugin.selectSingleNode("os");
-            if (osElement != null) {
-                String operatingSystem = osElement.getText();
-
-                boolean ok = false;
-
-                final String currentOS = JiveInfo.getOS().toLowerCase();
-
-                // Iterate through comma delimited string
-                StringTokenizer tkn = new StringTokenizer(operatingSystem, ",");
-                while (tkn.hasMoreTokens()) {
-                    String os = tkn.nextToken().toLowerCase();
-                    if (currentOS.contains(os) || currentOS.equalsIgnoreCase(os)) {
-                        ok = true;
-                    }
+        final String operatingSystem = descriptor.getOS();
+        if (operatingSystem != null) {
+            boolean ok = false;
+
+            final String currentOS = JiveInfo.getOS().toLowerCase();
+
+            // Iterate through comma delimited string
+            StringTokenizer tkn = new StringTokenizer(operatingSystem, ",");
+            while (tkn.hasMoreTokens()) {
+                String os = tkn.nextToken().toLowerCase();
+                if (currentOS.contains(os) || currentOS.equalsIgnoreCase(os)) {
+                    ok = true;
                 }
+            }
 
-                if (!ok) {
-                    if (Log.debugging) Log.debug("Unable to load plugin " + plugin.selectSingleNode("name").getText() + " due to invalid operating system. Required OS = " + operatingSystem);
-                    return false;
-                }
+            if (!ok) {
+                if (Log.debugging) Log.debug("Unable to load plugin " + descriptor.getName() + " due to invalid operating system. Required OS = " + operatingSystem);
+                return false;
             }
-        } catch (Exception e) {
-            Log.error(e);
         }
 
         return true;
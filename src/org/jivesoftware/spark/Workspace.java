@@ -23,7 +23,6 @@ import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.Insets;
 import java.awt.event.ActionEvent;
-import java.util.TimerTask;
 import javax.swing.AbstractAction;
 import javax.swing.BorderFactory;
 import javax.swing.JComponent;
@@ -58,7 +57,7 @@ import org.jivesoftware.spark.ui.ContactList;
 import org.jivesoftware.spark.ui.conferences.ConferenceServices;
 import org.jivesoftware.spark.ui.status.StatusBar;
 import org.jivesoftware.spark.util.ModelUtil;
-import org.jivesoftware.spark.util.TaskEngine;
+import org.jivesoftware.spark.util.StartupTrace;
 import org.jivesoftware.spark.util.UIComponentRegistry;
 import org.jivesoftware.spark.util.log.Log;
 import org.jivesoftware.sparkimpl.plugin.alerts.BroadcastPlugin;
@@ -191,88 +190,121 @@ public class Workspace extends JPanel implements PacketListener {
      * Builds the Workspace layout.
      */
     public void buildLayout() {
-        new Enterprise();
+        final StartupTrace trace = StartupTrace.getInstance();
+        final StartupTrace.Span span = trace.begin("workspace.layout");
+        try {
+            new Enterprise();
+
+            // Initialize Contact List
+            contactList = UIComponentRegistry.createContactList();
+            conferences = UIComponentRegistry.createConferenceServices();
 
-        // Initialize Contact List
-        contactList = UIComponentRegistry.createContactList();
-        conferences = UIComponentRegistry.createConferenceServices();
+            // Init contact list.
+            contactList.initialize();
 
-        // Init contact list.
-        contactList.initialize();
+            // The stages below do not need the roster, so they run while it loads.
+            // Load VCard information for status box
+            statusBox.loadVCard();
 
-        // Load VCard information for status box
-        statusBox.loadVCard();
+            // Load bookmarks and discover the conference and search services.
+            conferences.loadConferenceBookmarks();
+            final StartupTrace.Span search = trace.begin("search.init");
+            try {
+                SearchManager.getInstance();
+            } finally {
+                search.end();
+            }
 
-        // Initialise TransferManager
-        SparkTransferManager.getInstance();
+            final StartupTrace.Span transcripts = trace.begin("transcripts.init");
+            try {
+                transcriptPlugin = new ChatTranscriptPlugin();
+            } finally {
+                transcripts.end();
+            }
+
+            // Initialise TransferManager
+            SparkTransferManager.getInstance();
+        } finally {
+            span.end();
+        }
     }
 
     /**
      * Starts the Loading of all Spark Plugins.
      */
     public void loadPlugins() {
-
-        // Send Available status
-        SparkManager.getSessionManager().changePresence(statusBox.getPresence());
-
-        // Add presence and message listeners
-        // we listen for these to force open a 1-1 peer chat window from other operators if
-        // one isn't already open
-        PacketFilter workspaceMessageFilter = new PacketTypeFilter(Message.class);
-
-        // Add the packetListener to this instance
-        SparkManager.getSessionManager().getConnection().addPacketListener(this, workspaceMessageFilter);
-
-        // Make presence available to anonymous requests, if from anonymous user in the system.
-        PacketListener workspacePresenceListener = (Packet packet) -> {
-            Presence presence = (Presence) packet;
-            if (presence.getProperty("anonymous") != null) {
-                boolean isAvailable = statusBox.getPresence().getMode() == Presence.Mode.available;
-                Presence reply = new Presence(Presence.Type.available);
-                if (!isAvailable) {
-                    reply.setType(Presence.Type.unavailable);
+        final StartupTrace trace = StartupTrace.getInstance();
+        final StartupTrace.Span span = trace.begin("workspace.plugins");
+        try {
+            // Send Available status
+            SparkManager.getSessionManager().changePresence(statusBox.getPresence());
+
+            // Add presence and message listeners
+            // we listen for these to force open a 1-1 peer chat window from other operators if
+            // one isn't already open
+            PacketFilter workspaceMessageFilter = new PacketTypeFilter(Message.class);
+
+            // Add the packetListener to this instance
+            SparkManager.getSessionManager().getConnection().addPacketListener(this, workspaceMessageFilter);
+
+            // Make presence available to anonymous requests, if from anonymous user in the system.
+            PacketListener workspacePresenceListener = (Packet packet) -> {
+                Presence presence = (Presence) packet;
+                if (presence.getProperty("anonymous") != null) {
+                    boolean isAvailable = statusBox.getPresence().getMode() == Presence.Mode.available;
+                    Presence reply = new Presence(Presence.Type.available);
+                    if (!isAvailable) {
+                        reply.setType(Presence.Type.unavailable);
+                    }
+                    reply.setTo(presence.getFrom());
+                    SparkManager.getSessionManager().getConnection().sendPacket(reply);
                 }
-                reply.setTo(presence.getFrom());
-                SparkManager.getSessionManager().getConnection().sendPacket(reply);
-            }
-        };
+            };
 
-        SparkManager.getSessionManager().getConnection().addPacketListener(workspacePresenceListener, new PacketTypeFilter(Presence.class));
+            SparkManager.getSessionManager().getConnection().addPacketListener(workspacePresenceListener, new PacketTypeFilter(Presence.class));
 
-        // Until we have better plugin management, will init after presence updates.
-        gatewayPlugin = new GatewayPlugin();
-        gatewayPlugin.initialize();
-
-        // Load all non-presence related items.
-        conferences.loadConferenceBookmarks();
-        SearchManager.getInstance();
-        transcriptPlugin = new ChatTranscriptPlugin();
-
-        // Load Broadcast Plugin
-        broadcastPlugin = new BroadcastPlugin();
-        broadcastPlugin.initialize();
+            // Until we have better plugin management, will init after presence updates.
+            final StartupTrace.Span gateways = trace.begin("gateways.init");
+            try {
+                gatewayPlugin = new GatewayPlugin();
+                gatewayPlugin.initialize();
+            } finally {
+                gateways.end();
+            }
 
-        // Load BookmarkPlugin
-        bookmarkPlugin = new BookmarkPlugin();
-        bookmarkPlugin.initialize();
+            // Load Broadcast Plugin
+            final StartupTrace.Span broadcast = trace.begin("broadcast.init");
+            try {
+                broadcastPlugin = new BroadcastPlugin();
+                broadcastPlugin.initialize();
+            } finally {
+                broadcast.end();
+            }
 
-        // Schedule loading of the plugins after two seconds.
-        TaskEngine.getInstance().schedule(new TimerTask() {
-            @Override
-            public void run() {
-                final PluginManager pluginManager = PluginManager.getInstance();
+            // Load BookmarkPlugin
+            final StartupTrace.Span bookmarks = trace.begin("bookmarks.plugin.init");
+            try {
+                bookmarkPlugin = new BookmarkPlugin();
+                bookmarkPlugin.initialize();
+            } finally {
+                bookmarks.end();
+            }
 
-                SparkManager.getMainWindow().addMainWindowListener(pluginManager);
-                pluginManager.initializePlugins();
+            // Plugins are initialized in the background or one event at a time,
+            // so the workspace stays responsive while they load.
+            final PluginManager pluginManager = PluginManager.getInstance();
+            SparkManager.getMainWindow().addMainWindowListener(pluginManager);
+            pluginManager.initializePlugins();
 
-                // Subscriptions are always manual
-                Roster roster = SparkManager.getConnection().getRoster();
-                roster.setSubscriptionMode(Roster.SubscriptionMode.manual);
-            }
-        }, 2000);
+            // Subscriptions are always manual
+            Roster roster = SparkManager.getConnection().getRoster();
+            roster.setSubscriptionMode(Roster.SubscriptionMode.manual);
 
-        // Check URI Mappings
-        SparkManager.getChatManager().handleURIMapping(Spark.ARGUMENTS);
+            // Check URI Mappings
+            SparkManager.getChatManager().handleURIMapping(Spark.ARGUMENTS);
+        } finally {
+            span.end();
+        }
     }
 
     /**
@@ -286,7 +286,7 @@ public class JContactItemField extends JPanel {
             } else {
                 setIcon(contactItem.getIcon());
             }
-            setFont(contactItem.getNicknameLabel().getFont());
+            setFont(contactItem.getNicknameFont());
             setForeground(contactItem.getForeground());
 
             return this;
@@ -21,40 +21,58 @@ import java.awt.Component;
 import javax.swing.JList;
 import javax.swing.ListCellRenderer;
 import org.jivesoftware.spark.ui.ContactItem;
+import org.jivesoftware.spark.ui.ContactRow;
 
 /**
  * Extends ContactItem because ContactItem is a JPanel When ContactItem will be
  * redesigned, and won't implement JPanel, we will extend JPanel here directly
  * and customize here.
- *
+ * <p>
+ * Items are painted from their {@link ContactRow}, so a single renderer can be
+ * shared by all lists showing contacts.
  */
 public class JContactItemRenderer extends ContactItem implements ListCellRenderer {
 
+    private static JContactItemRenderer sharedInstance;
+
     JPanelRenderer basicPanelRenderer;
 
     public JContactItemRenderer() {
-        super("", "", "");
+        super("", "", "", true);
         setOpaque(true);
         basicPanelRenderer = new JPanelRenderer();
     }
 
+    /**
+     * Returns the renderer shared by the groups of the contact list. Must be
+     * called on the event dispatch thread.
+     *
+     * @return the shared renderer.
+     */
+    public static JContactItemRenderer getSharedInstance() {
+        if (sharedInstance == null) {
+            sharedInstance = new JContactItemRenderer();
+        }
+        return sharedInstance;
+    }
+
     @Override
     public Component getListCellRendererComponent(JList list, Object value, int index,
             boolean isSelected, boolean cellHasFocus) {
 
         basicPanelRenderer.getListCellRendererComponent(list, this, index, isSelected, cellHasFocus);
-        ContactItem renderItem = (ContactItem) value;
+        ContactRow row = ((ContactItem) value).getContactRow();
         setFocusable(false);
-        setNickname(renderItem.getNickname());
-        setAlias(renderItem.getAlias());
-        setIcon(renderItem.getIcon());
-        setStatus(renderItem.getStatus());
-        getNicknameLabel().setFont(renderItem.getNicknameLabel().getFont());
-        getNicknameLabel().setForeground(renderItem.getNicknameLabel().getForeground());
-        getDescriptionLabel().setFont(renderItem.getDescriptionLabel().getFont());
-        getDescriptionLabel().setText(renderItem.getDescriptionLabel().getText());
-        getSpecialImageLabel().setIcon(renderItem.getSpecialImageLabel().getIcon());
-        getSideIcon().setIcon(renderItem.getSideIcon().getIcon());
+        getNicknameLabel().setText(row.getDisplayName());
+        getNicknameLabel().setFont(row.getNicknameFont());
+        getNicknameLabel().setForeground(row.getNicknameForeground());
+        setIcon(row.getIcon());
+        setStatus(row.getStatus());
+        getDescriptionLabel().setFont(row.getDescriptionFont());
+        getDescriptionLabel().setForeground(row.getDescriptionForeground());
+        getDescriptionLabel().setText(row.getDescription());
+        getSpecialImageLabel().setIcon(row.getSpecialIcon());
+        getSideIcon().setIcon(row.getAvatar());
         return this;
     }
 }
@@ -0,0 +1,171 @@
+/**
+ * Copyright (C) 2004-2011 Jive Software. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.jivesoftware.spark.filetransfer;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import org.jivesoftware.smack.util.StringUtils;
+import org.jivesoftware.spark.util.log.Log;
+
+/**
+ * Writes the images sent in chats, such as screenshots and pasted images.
+ * <p>
+ * Screenshots of windows and text have few distinct colors and are kept
+ * sharp and small as PNG, while photos and gradients are much smaller as
+ * JPEG. Unless a quality is configured, the format is chosen by sampling the
+ * colors of the image.
+ */
+class ImageEncoder {
+
+    static final String PNG = "png";
+    static final String JPEG = "jpg";
+
+    /**
+     * Quality of the JPEG images when the format is chosen automatically.
+     */
+    private static final float DEFAULT_QUALITY = 0.85f;
+
+    /**
+     * Maximum number of pixels looked at to choose the format.
+     */
+    private static final int SAMPLE_SIZE = 64 * 1024;
+
+    /**
+     * Images with more distinct colors among the sampled pixels are written
+     * as JPEG.
+     */
+    private static final int MAX_PNG_COLORS = 2048;
+
+    private ImageEncoder() {
+    }
+
+    /**
+     * Copies a region of an image, so that the source image can be released
+     * before the region is written.
+     *
+     * @param image the image.
+     * @param region the region to copy, in image coordinates.
+     * @return the region, or null if it does not overlap the image.
+     */
+    static BufferedImage crop(BufferedImage image, Rectangle region) {
+        final Rectangle bounds = region.intersection(new Rectangle(image.getWidth(), image.getHeight()));
+        if (bounds.isEmpty()) {
+            return null;
+        }
+
+        final int type = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        final BufferedImage copy = new BufferedImage(bounds.width, bounds.height, type);
+        final Graphics2D g = copy.createGraphics();
+        g.drawImage(image, -bounds.x, -bounds.y, null);
+        g.dispose();
+        return copy;
+    }
+
+    /**
+     * Chooses the format an image is best written in.
+     *
+     * @param image the image.
+     * @return {@link #PNG} or {@link #JPEG}.
+     */
+    static String chooseFormat(BufferedImage image) {
+        if (image.getColorModel().hasAlpha()) {
+            return PNG;
+        }
+
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final int step = Math.max(1, (int) Math.sqrt((double) width * height / SAMPLE_SIZE));
+        final Set<Integer> colors = new HashSet<>();
+        for (int y = 0; y < height; y += step) {
+            for (int x = 0; x < width; x += step) {
+                colors.add(image.getRGB(x, y) & 0xFFFFFF);
+                if (colors.size() > MAX_PNG_COLORS) {
+                    return JPEG;
+                }
+            }
+        }
+        return PNG;
+    }
+
+    /**
+     * Writes an image to a new file of a directory.
+     *
+     * @param image the image.
+     * @param directory the directory to write the file to.
+     * @param quality the JPEG quality in percent, or 0 to choose the format by
+     * the content of the image.
+     * @return the file written.
+     * @throws IOException if the image could not be written.
+     */
+    static File encode(BufferedImage image, File directory, int quality) throws IOException {
+        final long start = System.currentTimeMillis();
+        final String format = quality > 0 ? JPEG : chooseFormat(image);
+        final File file = new File(directory, "image_" + StringUtils.randomString(4) + "." + format);
+
+        if (format.equals(JPEG)) {
+            writeJPEG(image, file, quality > 0 ? Math.min(quality, 100) / 100f : DEFAULT_QUALITY);
+        } else if (!ImageIO.write(image, PNG, file)) {
+            throw new IOException("No PNG writer available");
+        }
+
+        Log.debug("Wrote " + image.getWidth() + "x" + image.getHeight() + " image as " + format
+                + ": " + file.length() + " bytes in " + (System.currentTimeMillis() - start) + " ms");
+        return file;
+    }
+
+    private static void writeJPEG(BufferedImage image, File file, float quality) throws IOException {
+        final Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+        if (!writers.hasNext()) {
+            throw new IOException("No JPEG writer available");
+        }
+
+        // JPEG has no transparency, flatten the image on white.
+        if (image.getColorModel().hasAlpha()) {
+            final BufferedImage opaque = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+            final Graphics2D g = opaque.createGraphics();
+            g.drawImage(image, 0, 0, Color.WHITE, null);
+            g.dispose();
+            image = opaque;
+        }
+
+        final ImageWriter writer = writers.next();
+        final ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(quality);
+        file.delete();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(file)) {
+            if (out == null) {
+                throw new IOException("Unable to create " + file);
+            }
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+}
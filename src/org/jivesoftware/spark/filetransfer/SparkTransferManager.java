@@ -46,13 +46,13 @@ import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Deque;
 import java.util.List;
-import java.util.Map;
-import javax.imageio.ImageIO;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.swing.JMenu;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
@@ -72,6 +72,7 @@ import org.jivesoftware.smack.packet.Message;
 import org.jivesoftware.smack.packet.Packet;
 import org.jivesoftware.smack.packet.Presence;
 import org.jivesoftware.smack.util.StringUtils;
+import org.jivesoftware.smackx.filetransfer.FileTransfer;
 import org.jivesoftware.smackx.filetransfer.FileTransferManager;
 import org.jivesoftware.smackx.filetransfer.FileTransferRequest;
 import org.jivesoftware.smackx.filetransfer.OutgoingFileTransfer;
@@ -93,12 +94,14 @@ import org.jivesoftware.spark.ui.TranscriptWindow;
 import org.jivesoftware.spark.ui.rooms.ChatRoomImpl;
 import org.jivesoftware.spark.util.ResourceUtils;
 import org.jivesoftware.spark.util.SwingWorker;
+import org.jivesoftware.spark.util.TaskEngine;
 import org.jivesoftware.spark.util.log.Log;
 import org.jivesoftware.sparkimpl.plugin.filetransfer.transfer.Downloads;
 import org.jivesoftware.sparkimpl.plugin.filetransfer.transfer.ui.ReceiveFileTransfer;
 import org.jivesoftware.sparkimpl.plugin.filetransfer.transfer.ui.SendFileTransfer;
 import org.jivesoftware.sparkimpl.plugin.filetransfer.transfer.ui.TransferUtils;
 import org.jivesoftware.sparkimpl.plugin.manager.Enterprise;
+import org.jivesoftware.sparkimpl.settings.local.SettingsManager;
 
 /**
  * Responsible for the handling of File Transfer within Spark. You would use the
@@ -115,11 +118,31 @@ public class SparkTransferManager {
     private static SparkTransferManager singleton;
     private static final Object LOCK = new Object();
 
+    /**
+     * Number of queued files sent at the same time when a contact comes
+     * online.
+     */
+    private static final int MAX_PARALLEL_SENDS = 3;
+
+    /**
+     * Number of times a queued file is tried before it is dropped.
+     */
+    private static final int MAX_SEND_ATTEMPTS = 3;
+
+    /**
+     * Time given to the window manager to repaint the area of the hidden
+     * windows before a screenshot is taken, in milliseconds.
+     */
+    private static final int CAPTURE_DELAY = 250;
+
     private FileTransferManager transferManager;
-    private Map<String, ArrayList<File>> waitMap = new HashMap<>();
+    private TransferJournal journal;
+    private final Semaphore sendSlots = new Semaphore(MAX_PARALLEL_SENDS);
+    private final Deque<QueuedSend> waitingSends = new ArrayDeque<>();
     private BufferedImage bufferedImage;
     private ImageSelectionPanel selectionPanel;
     private Robot robot;
+    private final TransferMonitor transferMonitor = new TransferMonitor();
 
     /**
      * Returns the singleton instance of <CODE>SparkTransferManager</CODE>,
@@ -164,6 +187,14 @@ public class SparkTransferManager {
             public void reconnectionSuccessful() {
                 // Re-create transfer manager.
                 transferManager = new FileTransferManager(SparkManager.getConnection());
+
+                // Sends broken by the disconnect are queued again, together
+                // with the ones still waiting for a slot.
+                synchronized (waitingSends) {
+                    waitingSends.clear();
+                }
+                journal.requeueInterrupted(MAX_SEND_ATTEMPTS);
+                flushOnlineQueues();
             }
 
             @Override
@@ -224,7 +255,10 @@ public class SparkTransferManager {
             defaultDirectory = new File(System.getProperty("user.home"));
         }
 
+        journal = new TransferJournal(SparkManager.getUserDirectory());
+        journal.requeueInterrupted(MAX_SEND_ATTEMPTS);
         addPresenceListener();
+        flushOnlineQueues();
 
 //        // Add View Downloads to Command Panel
 //        final JPanel commandPanel = SparkManager.getWorkspace().getCommandPanel();
@@ -369,10 +403,12 @@ public class SparkTransferManager {
             @Override
             public Object construct() {
                 try {
-                    Thread.sleep(1000);
+                    // Let the hidden windows be repainted over before capturing.
+                    robot.waitForIdle();
+                    robot.delay(CAPTURE_DELAY);
                     Rectangle area = new Rectangle(Toolkit.getDefaultToolkit().getScreenSize());
                     return robot.createScreenCapture(area);
-                } catch (HeadlessException | InterruptedException e) {
+                } catch (HeadlessException | IllegalArgumentException e) {
                     Log.error(e);
 
                     if (mainWindowVisible) {
@@ -403,18 +439,14 @@ public class SparkTransferManager {
                 selectionPanel.addMouseListener(new MouseAdapter() {
                     @Override
                     public void mouseReleased(MouseEvent e) {
-                        Rectangle clip = selectionPanel.getClip();
-                        BufferedImage newImage = null;
-                        try {
-                            newImage = bufferedImage.getSubimage((int) clip.getX(), (int) clip.getY(), (int) clip.getWidth(), (int) clip.getHeight());
-                        } catch (Exception e1) {
-                            // Nothing to do
-                        }
+                        // Copy the selection only, so the full capture can be
+                        // released before the image is encoded.
+                        BufferedImage newImage = ImageEncoder.crop(bufferedImage, selectionPanel.getClip());
+                        bufferedImage = null;
+                        selectionPanel.clear();
 
                         if (newImage != null) {
                             sendImage(newImage, room);
-                            bufferedImage = null;
-                            selectionPanel.clear();
                         }
 
                         frame.dispose();
@@ -436,6 +468,8 @@ public class SparkTransferManager {
                     @Override
                     public void keyReleased(KeyEvent e) {
                         if (e.getKeyChar() == KeyEvent.VK_ESCAPE) {
+                            bufferedImage = null;
+                            selectionPanel.clear();
                             frame.dispose();
                             frame.setCursor(new Cursor(Cursor.DEFAULT_CURSOR));
                             if (mainWindowVisible) {
@@ -472,29 +506,82 @@ public class SparkTransferManager {
         SparkManager.getConnection().addPacketListener((Packet packet) -> {
             Presence presence = (Presence) packet;
             if (presence.isAvailable()) {
-                String bareJID = StringUtils.parseBareAddress(presence.getFrom());
-                
-                // Iterate through map.
-                ArrayList<File> list = waitMap.get(bareJID);
-                if (list != null) {
-                    // Iterate through list and send.
-                    Iterator<File> iter = list.iterator();
-                    ChatRoom room = null;
-                    while (iter.hasNext()) {
-                        File file = iter.next();
-                        room = sendFile(file, bareJID);
-                    }
-                    
-                    if (room != null) {
-                        Message message = new Message();
-                        message.setBody(Res.getString("message.sent.offline.files"));
-                        room.sendMessage(message);
+                flushQueue(StringUtils.parseBareAddress(presence.getFrom()), true);
+            }
+        }, new PacketTypeFilter(Presence.class));
+    }
+
+    private void flushOnlineQueues() {
+        journal.getQueuedJIDs().stream().filter(PresenceManager::isOnline).forEach((jid) -> flushQueue(jid, true));
+    }
+
+    /**
+     * Sends the files queued for a contact. At most
+     * {@link #MAX_PARALLEL_SENDS} files are sent at the same time; the others
+     * wait until a send ends.
+     *
+     * @param bareJID the contact.
+     * @param announce true to tell the contact that the files queued while
+     * it was offline are being sent.
+     */
+    private void flushQueue(final String bareJID, boolean announce) {
+        final List<TransferJournal.Entry> entries = journal.takeQueued(bareJID);
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        final AtomicBoolean announced = new AtomicBoolean(!announce);
+        synchronized (waitingSends) {
+            for (TransferJournal.Entry entry : entries) {
+                waitingSends.add(new QueuedSend(entry, announced));
+            }
+        }
+        startQueuedSends();
+    }
+
+    /**
+     * Starts waiting sends as long as a send slot is free. Never waits for a
+     * slot: the sends left waiting are started when a slot is released.
+     */
+    private void startQueuedSends() {
+        while (sendSlots.tryAcquire()) {
+            final QueuedSend send;
+            synchronized (waitingSends) {
+                send = waitingSends.poll();
+            }
+            if (send == null) {
+                sendSlots.release();
+                // A send may have been queued before the slot was released.
+                synchronized (waitingSends) {
+                    if (waitingSends.isEmpty()) {
+                        return;
                     }
                 }
-                
-                waitMap.remove(bareJID);
+                continue;
             }
-        }, new PacketTypeFilter(Presence.class));
+
+            final TransferJournal.Entry entry = send.entry;
+            if (!journal.verify(entry)) {
+                Log.warning("Not sending " + entry.getFile() + ", it was changed or removed.");
+                journal.remove(entry);
+                sendSlots.release();
+                continue;
+            }
+            SwingUtilities.invokeLater(() -> {
+                final ChatRoom chatRoom = sendFile(entry, PresenceManager.getFullyQualifiedJID(entry.getJID()),
+                        this::releaseSendSlot);
+                if (chatRoom != null && send.announced.compareAndSet(false, true)) {
+                    Message message = new Message();
+                    message.setBody(Res.getString("message.sent.offline.files"));
+                    chatRoom.sendMessage(message);
+                }
+            });
+        }
+    }
+
+    private void releaseSendSlot() {
+        sendSlots.release();
+        startQueuedSends();
     }
 
     /**
@@ -530,13 +617,7 @@ public class SparkTransferManager {
         String fullJID = PresenceManager.getFullyQualifiedJID(jid);
 
         if (!PresenceManager.isOnline(jid)) {
-            ArrayList<File> list = waitMap.get(jid);
-            if (list == null) {
-                list = new ArrayList<>();
-            }
-
-            list.add(file);
-            waitMap.put(jid, list);
+            journal.add(bareJID, file, TransferJournal.State.QUEUED);
 
             ChatRoom chatRoom;
             ContactItem contactItem = contactList.getContactItemByJID(jid);
@@ -550,8 +631,25 @@ public class SparkTransferManager {
             return null;
         }
 
+        return sendFile(journal.add(bareJID, file, TransferJournal.State.SENDING), fullJID, null);
+    }
+
+    /**
+     * Sends a file recorded in the journal to an online user.
+     *
+     * @param entry the journal entry of the file.
+     * @param fullJID the jid of the user to send the file to.
+     * @param onDone called once the transfer has ended, or null.
+     * @return the ChatRoom of the user.
+     */
+    private ChatRoom sendFile(final TransferJournal.Entry entry, String fullJID, final Runnable onDone) {
+        final ContactList contactList = SparkManager.getWorkspace().getContactList();
+        final File file = entry.getFile();
+        final String bareJID = entry.getJID();
+
         // Create the outgoing file transfer
         final OutgoingFileTransfer transfer = transferManager.createOutgoingFileTransfer(fullJID);
+        journalTransfer(transfer, entry, onDone);
 
         ContactItem contactItem = contactList.getContactItemByJID(bareJID);
 
@@ -569,6 +667,9 @@ public class SparkTransferManager {
             transfer.sendFile(file, "Sending file");
         } catch (XMPPException e) {
             Log.error(e);
+            // Ends the transfer, so it is tried again.
+            entry.setFailed();
+            transfer.cancel();
         }
 
         // Add listener to cancel transfer is sending file to user who just went offline.
@@ -605,6 +706,46 @@ public class SparkTransferManager {
         return chatRoom;
     }
 
+    /**
+     * Removes the entry of a transfer from the journal when the transfer
+     * ends, or queues it again if the transfer failed.
+     */
+    private void journalTransfer(final OutgoingFileTransfer transfer, final TransferJournal.Entry entry, final Runnable onDone) {
+        transferMonitor.watch(transfer, new TransferProgressListener() {
+            @Override
+            public void progressUpdated(TransferProgress progress) {
+                if (!progress.isDone()) {
+                    return;
+                }
+
+                transferMonitor.unwatch(transfer, this);
+                final FileTransfer.Status status = progress.getStatus();
+                TaskEngine.getInstance().submit(() -> {
+                    // A failed send is tried again right away, a send
+                    // cancelled because the contact went offline once the
+                    // contact is back.
+                    final boolean online = PresenceManager.isOnline(entry.getJID());
+                    boolean retry = false;
+                    if (status == FileTransfer.Status.error || entry.isFailed()
+                            || (status == FileTransfer.Status.cancelled && !online)) {
+                        if (journal.requeue(entry, MAX_SEND_ATTEMPTS)) {
+                            Log.warning("Sending " + entry.getFile() + " failed, it will be sent again.");
+                            retry = online;
+                        }
+                    } else {
+                        journal.remove(entry);
+                    }
+                    if (onDone != null) {
+                        onDone.run();
+                    }
+                    if (retry) {
+                        flushQueue(entry.getJID(), false);
+                    }
+                });
+            }
+        });
+    }
+
     /**
      * Send an image to a user.
      *
@@ -612,36 +753,31 @@ public class SparkTransferManager {
      * @param room the ChatRoom of the user you wish to send the image to.
      */
     public void sendImage(final BufferedImage image, final ChatRoom room) {
-        File tmpDirectory = new File(Spark.getSparkUserHome(), "/tempImages");
+        final File tmpDirectory = new File(Spark.getSparkUserHome(), "/tempImages");
         tmpDirectory.mkdirs();
 
-        String imageName = "image_" + StringUtils.randomString(2) + ".png";
-        final File imageFile = new File(tmpDirectory, imageName);
-
-        // Write image to system.
+        final int quality = SettingsManager.getLocalPreferences().getScreenshotQuality();
         room.setCursor(new Cursor(Cursor.WAIT_CURSOR));
 
-        SwingWorker writeImageThread = new SwingWorker() {
-            @Override
-            public Object construct() {
-                try {
-                    // Write out file in separate thread.
-                    ImageIO.write(image, "png", imageFile);
-                } catch (IOException e) {
-                    Log.error(e);
-                }
-                return true;
+        // Encode the image in the background, then send it.
+        TaskEngine.getInstance().submit(() -> {
+            File imageFile = null;
+            try {
+                imageFile = ImageEncoder.encode(image, tmpDirectory, quality);
+            } catch (IOException e) {
+                Log.error("Unable to write image.", e);
             }
 
-            @Override
-            public void finished() {
-                ChatRoomImpl roomImpl = (ChatRoomImpl) room;
-                sendFile(imageFile, roomImpl.getParticipantJID());
-                SparkManager.getChatManager().getChatContainer().activateChatRoom(room);
+            final File sendFile = imageFile;
+            SwingUtilities.invokeLater(() -> {
+                if (sendFile != null) {
+                    ChatRoomImpl roomImpl = (ChatRoomImpl) room;
+                    sendFile(sendFile, roomImpl.getParticipantJID());
+                    SparkManager.getChatManager().getChatContainer().activateChatRoom(room);
+                }
                 room.setCursor(new Cursor(Cursor.DEFAULT_CURSOR));
-            }
-        };
-        writeImageThread.start();
+            });
+        }, TaskEngine.TaskType.CPU);
     }
 
     /**
@@ -686,6 +822,15 @@ public class SparkTransferManager {
         listeners.remove(listener);
     }
 
+    /**
+     * Returns the monitor tracking the progress of all active transfers.
+     *
+     * @return the TransferMonitor.
+     */
+    public TransferMonitor getTransferMonitor() {
+        return transferMonitor;
+    }
+
     private boolean fireTransferListeners(FileTransferRequest request) {
         if (new ArrayList<>(listeners).stream().map((listener) -> listener.handleTransfer(request)).anyMatch((accepted) -> (accepted))) {
             return true;
@@ -751,4 +896,22 @@ public class SparkTransferManager {
     public FileDialog getFileChooser(Frame parent, String title) {
         return new FileDialog(parent, title, FileDialog.LOAD);
     }
+
+    /**
+     * A queued file waiting for a send slot.
+     */
+    private static class QueuedSend {
+
+        private final TransferJournal.Entry entry;
+
+        /**
+         * Shared by the files of one flush, so the contact is told once.
+         */
+        private final AtomicBoolean announced;
+
+        QueuedSend(TransferJournal.Entry entry, AtomicBoolean announced) {
+            this.entry = entry;
+            this.announced = announced;
+        }
+    }
 }
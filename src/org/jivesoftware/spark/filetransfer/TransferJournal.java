@@ -0,0 +1,290 @@
+/**
+ * Copyright (C) 2004-2011 Jive Software. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.jivesoftware.spark.filetransfer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import org.jivesoftware.spark.util.AtomicFile;
+import org.jivesoftware.spark.util.log.Log;
+
+/**
+ * Durable record of the files being sent and the files queued for contacts
+ * that are offline, so neither is lost when Spark exits or the connection
+ * drops.
+ * <p>
+ * The size and modification time of each file are recorded, so a file that
+ * changed before it could be sent is not sent in its new state.
+ * <p>
+ * The journal is a text file with one
+ * <code>jid TAB state TAB attempts TAB size TAB modified TAB path</code>
+ * line per file. It is written in the background shortly after changes.
+ */
+class TransferJournal {
+
+    static final String FILE_NAME = "transfers.journal";
+
+    private static final long SAVE_DELAY = 2000;
+
+    enum State {
+        /**
+         * Waiting for the contact to come online.
+         */
+        QUEUED,
+        /**
+         * Being sent. Entries still in this state at startup or after a
+         * reconnect were interrupted.
+         */
+        SENDING
+    }
+
+    private final AtomicFile file;
+    private final List<Entry> entries = new ArrayList<>();
+
+    /**
+     * Loads the journal of a user directory.
+     *
+     * @param directory the user directory.
+     */
+    TransferJournal(File directory) {
+        file = new AtomicFile(new File(directory, FILE_NAME), SAVE_DELAY, this::save);
+        load();
+    }
+
+    /**
+     * Records a file to send.
+     *
+     * @param jid the bare jid of the recipient.
+     * @param sendFile the file.
+     * @param state the state of the entry.
+     * @return the entry.
+     */
+    synchronized Entry add(String jid, File sendFile, State state) {
+        final Entry entry = new Entry(jid, sendFile, sendFile.length(), sendFile.lastModified());
+        entry.state = state;
+        entry.attempts = state == State.SENDING ? 1 : 0;
+        if (jid.indexOf('\t') < 0 && jid.indexOf('\n') < 0 && sendFile.getPath().indexOf('\n') < 0) {
+            entries.add(entry);
+            file.scheduleSave();
+        }
+        return entry;
+    }
+
+    /**
+     * Takes the entries queued for a contact and marks them as being sent.
+     *
+     * @param jid the bare jid of the contact.
+     * @return the entries, in the order they were queued.
+     */
+    synchronized List<Entry> takeQueued(String jid) {
+        final List<Entry> queued = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (entry.state == State.QUEUED && entry.jid.equals(jid)) {
+                entry.state = State.SENDING;
+                entry.attempts++;
+                entry.failed = false;
+                queued.add(entry);
+            }
+        }
+        if (!queued.isEmpty()) {
+            file.scheduleSave();
+        }
+        return queued;
+    }
+
+    /**
+     * Returns the contacts that have files queued.
+     *
+     * @return the bare jids.
+     */
+    synchronized Set<String> getQueuedJIDs() {
+        final Set<String> jids = new LinkedHashSet<>();
+        entries.stream().filter((entry) -> entry.state == State.QUEUED).forEach((entry) -> {
+            jids.add(entry.jid);
+        });
+        return jids;
+    }
+
+    /**
+     * Queues again the sends that were interrupted, dropping those that were
+     * already tried too often.
+     *
+     * @param maxAttempts the number of attempts after which a send is
+     * dropped.
+     */
+    synchronized void requeueInterrupted(int maxAttempts) {
+        boolean changed = entries.removeIf((entry) -> entry.state == State.SENDING && entry.attempts >= maxAttempts);
+        for (Entry entry : entries) {
+            if (entry.state == State.SENDING) {
+                entry.state = State.QUEUED;
+                changed = true;
+            }
+        }
+        if (changed) {
+            file.scheduleSave();
+        }
+    }
+
+    /**
+     * Queues again a send that failed, or drops it if it was already tried
+     * too often.
+     *
+     * @param entry the entry.
+     * @param maxAttempts the number of attempts after which a send is
+     * dropped.
+     * @return true if the entry was queued again.
+     */
+    synchronized boolean requeue(Entry entry, int maxAttempts) {
+        if (entry.attempts >= maxAttempts) {
+            remove(entry);
+            return false;
+        }
+        entry.state = State.QUEUED;
+        file.scheduleSave();
+        return true;
+    }
+
+    /**
+     * Returns true if the file of an entry is unchanged since it was
+     * recorded, comparing the size and the modification time.
+     *
+     * @param entry the entry.
+     * @return true if the file can be sent as recorded.
+     */
+    boolean verify(Entry entry) {
+        return entry.file.isFile() && entry.file.length() == entry.size
+                && entry.file.lastModified() == entry.modified;
+    }
+
+    /**
+     * Removes an entry, once its file was sent or the send was given up.
+     *
+     * @param entry the entry.
+     */
+    synchronized void remove(Entry entry) {
+        if (entries.remove(entry)) {
+            file.scheduleSave();
+        }
+    }
+
+    private void load() {
+        if (!file.getFile().exists()) {
+            return;
+        }
+
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file.getFile()), "UTF-8"))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                final String[] fields = line.split("\t", 6);
+                if (fields.length != 6) {
+                    continue;
+                }
+                try {
+                    final Entry entry = new Entry(fields[0], new File(fields[5]),
+                            Long.parseLong(fields[3]), Long.parseLong(fields[4]));
+                    entry.state = State.valueOf(fields[1]);
+                    entry.attempts = Integer.parseInt(fields[2]);
+                    entries.add(entry);
+                } catch (IllegalArgumentException e) {
+                    // Skip the broken line.
+                }
+            }
+        } catch (IOException e) {
+            Log.warning("Unable to read the transfer journal.", e);
+        }
+    }
+
+    private synchronized void save() {
+        if (entries.isEmpty()) {
+            file.getFile().delete();
+            return;
+        }
+
+        try {
+            file.writeText((out) -> {
+                for (Entry entry : entries) {
+                    out.write(entry.jid + '\t' + entry.state + '\t' + entry.attempts + '\t' + entry.size
+                            + '\t' + entry.modified + '\t' + entry.file.getPath());
+                    out.write('\n');
+                }
+            });
+        } catch (IOException e) {
+            Log.warning("Unable to write the transfer journal.", e);
+        }
+    }
+
+    /**
+     * A file to send.
+     */
+    static class Entry {
+
+        private final String jid;
+        private final File file;
+        private final long size;
+        private final long modified;
+        private State state;
+        private int attempts;
+        private volatile boolean failed;
+
+        Entry(String jid, File file, long size, long modified) {
+            this.jid = jid;
+            this.file = file;
+            this.size = size;
+            this.modified = modified;
+        }
+
+        /**
+         * Returns the bare jid of the recipient.
+         *
+         * @return the jid.
+         */
+        String getJID() {
+            return jid;
+        }
+
+        /**
+         * Returns the file to send.
+         *
+         * @return the file.
+         */
+        File getFile() {
+            return file;
+        }
+
+        /**
+         * Marks the current attempt as failed, such as when the transfer
+         * could not be started and had to be cancelled.
+         */
+        void setFailed() {
+            failed = true;
+        }
+
+        /**
+         * Returns true if the current attempt failed.
+         *
+         * @return true if the attempt failed.
+         */
+        boolean isFailed() {
+            return failed;
+        }
+    }
+}
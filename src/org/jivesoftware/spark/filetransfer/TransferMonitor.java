@@ -0,0 +1,261 @@
+/**
+ * Copyright (C) 2004-2011 Jive Software. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.jivesoftware.spark.filetransfer;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimerTask;
+import javax.swing.SwingUtilities;
+import org.jivesoftware.smackx.filetransfer.FileTransfer;
+import org.jivesoftware.spark.util.TaskEngine;
+import org.jivesoftware.spark.util.log.Log;
+
+/**
+ * Watches the progress of all active file transfers with a single scheduled
+ * task. Each frame, the amount transferred by every transfer is sampled, its
+ * throughput is smoothed, and the changes are handed to the listeners in one
+ * event on the event dispatch thread. The task only runs while transfers are
+ * watched.
+ */
+public class TransferMonitor {
+
+    /**
+     * Time between two frames, in milliseconds.
+     */
+    private static final long FRAME_INTERVAL = 100;
+
+    /**
+     * Weight of the latest sample in the smoothed throughput. With 10 frames
+     * a second, the throughput follows changes within about a second.
+     */
+    private static final double SMOOTHING = 0.2;
+
+    private final Map<FileTransfer, Watch> watches = new LinkedHashMap<>();
+    private final Map<FileTransfer, Update> pending = new LinkedHashMap<>();
+    private TimerTask task;
+    private boolean dispatchScheduled;
+
+    private long totalBytes;
+    private long completedTransfers;
+    private double bandwidth;
+    private double peakBandwidth;
+
+    /**
+     * Starts watching a transfer. The listener is called on the event
+     * dispatch thread, at most once per frame, until the transfer is done.
+     *
+     * @param transfer the transfer.
+     * @param listener the listener to notify.
+     */
+    public synchronized void watch(FileTransfer transfer, TransferProgressListener listener) {
+        watches.computeIfAbsent(transfer, (t) -> new Watch()).listeners.add(listener);
+        if (task == null) {
+            task = new TimerTask() {
+                @Override
+                public void run() {
+                    update();
+                }
+            };
+            TaskEngine.getInstance().schedule(task, FRAME_INTERVAL, FRAME_INTERVAL);
+        }
+    }
+
+    /**
+     * Stops notifying a listener of a transfer. The transfer is no longer
+     * watched once it has no listeners left.
+     *
+     * @param transfer the transfer.
+     * @param listener the listener to remove.
+     */
+    public synchronized void unwatch(FileTransfer transfer, TransferProgressListener listener) {
+        final Watch watch = watches.get(transfer);
+        if (watch == null || !watch.listeners.remove(listener)) {
+            return;
+        }
+        if (watch.listeners.isEmpty()) {
+            watches.remove(transfer);
+            pending.remove(transfer);
+            totalBytes += watch.bytes;
+            stopIfIdle();
+        }
+    }
+
+    /**
+     * Returns the number of transfers being watched.
+     *
+     * @return the number of active transfers.
+     */
+    public synchronized int getActiveTransferCount() {
+        return watches.size();
+    }
+
+    /**
+     * Returns the number of transfers that have ended since startup.
+     *
+     * @return the number of transfers done.
+     */
+    public synchronized long getCompletedTransferCount() {
+        return completedTransfers;
+    }
+
+    /**
+     * Returns the number of bytes sent and received since startup, including
+     * those of the active transfers.
+     *
+     * @return the number of bytes transferred.
+     */
+    public synchronized long getTotalBytesTransferred() {
+        long bytes = totalBytes;
+        for (Watch watch : watches.values()) {
+            bytes += watch.bytes;
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the combined smoothed throughput of the active transfers.
+     *
+     * @return the bandwidth in bytes per second.
+     */
+    public synchronized double getBandwidth() {
+        return bandwidth;
+    }
+
+    /**
+     * Returns the highest combined throughput seen since startup.
+     *
+     * @return the bandwidth in bytes per second.
+     */
+    public synchronized double getPeakBandwidth() {
+        return peakBandwidth;
+    }
+
+    private synchronized void update() {
+        final long now = System.currentTimeMillis();
+        double total = 0;
+        boolean changed = false;
+
+        for (Map.Entry<FileTransfer, Watch> entry : new ArrayList<>(watches.entrySet())) {
+            final FileTransfer transfer = entry.getKey();
+            final Watch watch = entry.getValue();
+            final FileTransfer.Status status = transfer.getStatus();
+            final long bytes = Math.max(0, transfer.getAmountWritten());
+
+            if (bytes > 0 && watch.startTime == 0) {
+                watch.startTime = now;
+            }
+            if (watch.time > 0 && now > watch.time) {
+                final double rate = (bytes - watch.bytes) * 1000.0 / (now - watch.time);
+                watch.bytesPerSecond = watch.bytesPerSecond == 0 ? rate
+                        : SMOOTHING * rate + (1 - SMOOTHING) * watch.bytesPerSecond;
+            }
+
+            final boolean done = status == FileTransfer.Status.complete
+                    || status == FileTransfer.Status.error
+                    || status == FileTransfer.Status.cancelled
+                    || status == FileTransfer.Status.refused;
+            final boolean moved = bytes != watch.bytes || status != watch.status;
+            watch.time = now;
+            watch.bytes = bytes;
+            watch.status = status;
+
+            if (done) {
+                watches.remove(transfer);
+                totalBytes += bytes;
+                completedTransfers++;
+            } else {
+                total += watch.bytesPerSecond;
+            }
+            if (moved || done) {
+                // Replaces the state of the previous frame if it was not
+                // dispatched yet.
+                pending.put(transfer, new Update(watch, new TransferProgress(transfer, status,
+                        bytes, watch.bytesPerSecond, watch.startTime, now, done)));
+                changed = true;
+            }
+        }
+
+        bandwidth = total;
+        peakBandwidth = Math.max(peakBandwidth, total);
+
+        if (changed && !dispatchScheduled) {
+            dispatchScheduled = true;
+            SwingUtilities.invokeLater(this::dispatch);
+        }
+        stopIfIdle();
+    }
+
+    private void dispatch() {
+        final List<Update> updates;
+        synchronized (this) {
+            dispatchScheduled = false;
+            updates = new ArrayList<>(pending.values());
+            pending.clear();
+        }
+
+        for (Update update : updates) {
+            for (TransferProgressListener listener : update.getListeners()) {
+                try {
+                    listener.progressUpdated(update.progress);
+                } catch (Exception e) {
+                    Log.error("Error notifying transfer progress listener.", e);
+                }
+            }
+        }
+    }
+
+    private void stopIfIdle() {
+        if (watches.isEmpty() && task != null) {
+            TaskEngine.getInstance().cancelScheduledTask(task);
+            task = null;
+        }
+    }
+
+    /**
+     * What was seen of a watched transfer at the last frame.
+     */
+    private static class Watch {
+
+        private final List<TransferProgressListener> listeners = new ArrayList<>();
+        private FileTransfer.Status status;
+        private long bytes;
+        private long time;
+        private long startTime;
+        private double bytesPerSecond;
+    }
+
+    /**
+     * A state waiting to be handed to a listener.
+     */
+    private class Update {
+
+        private final Watch watch;
+        private final TransferProgress progress;
+
+        Update(Watch watch, TransferProgress progress) {
+            this.watch = watch;
+            this.progress = progress;
+        }
+
+        List<TransferProgressListener> getListeners() {
+            synchronized (TransferMonitor.this) {
+                return new ArrayList<>(watch.listeners);
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) 2004-2011 Jive Software. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.jivesoftware.spark.filetransfer;
+
+import org.jivesoftware.smackx.filetransfer.FileTransfer;
+import org.jivesoftware.sparkimpl.plugin.filetransfer.transfer.ui.TransferUtils;
+
+/**
+ * The state of a file transfer at one point in time, as computed by the
+ * {@link TransferMonitor}.
+ */
+public class TransferProgress {
+
+    private final FileTransfer transfer;
+    private final FileTransfer.Status status;
+    private final long bytesTransferred;
+    private final long fileSize;
+    private final double bytesPerSecond;
+    private final long startTime;
+    private final long time;
+    private final boolean done;
+
+    TransferProgress(FileTransfer transfer, FileTransfer.Status status, long bytesTransferred,
+            double bytesPerSecond, long startTime, long time, boolean done) {
+        this.transfer = transfer;
+        this.status = status;
+        this.bytesTransferred = bytesTransferred;
+        this.fileSize = transfer.getFileSize();
+        this.bytesPerSecond = bytesPerSecond;
+        this.startTime = startTime;
+        this.time = time;
+        this.done = done;
+    }
+
+    /**
+     * Returns the transfer.
+     *
+     * @return the transfer.
+     */
+    public FileTransfer getTransfer() {
+        return transfer;
+    }
+
+    /**
+     * Returns the status of the transfer.
+     *
+     * @return the status.
+     */
+    public FileTransfer.Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Returns the number of bytes sent or received.
+     *
+     * @return the number of bytes transferred.
+     */
+    public long getBytesTransferred() {
+        return bytesTransferred;
+    }
+
+    /**
+     * Returns the size of the file.
+     *
+     * @return the size of the file in bytes.
+     */
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    /**
+     * Returns the part of the file that has been transferred.
+     *
+     * @return the percentage, between 0 and 100.
+     */
+    public int getPercent() {
+        if (fileSize <= 0) {
+            return 0;
+        }
+        return (int) Math.min(100, bytesTransferred * 100 / fileSize);
+    }
+
+    /**
+     * Returns the throughput, smoothed over the last seconds.
+     *
+     * @return the throughput in bytes per second.
+     */
+    public double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Returns the throughput for display.
+     *
+     * @return the throughput, like <b>xx,x kB/s</b>.
+     */
+    public String getSpeed() {
+        return TransferUtils.calculateSpeed(Math.round(bytesPerSecond), 1000);
+    }
+
+    /**
+     * Returns the estimated time left, based on the smoothed throughput.
+     *
+     * @return the time left as (HH:MM:SS).
+     */
+    public String getEstimate() {
+        if (bytesPerSecond <= 0) {
+            return TransferUtils.calculateEstimate(bytesTransferred, fileSize, startTime > 0 ? startTime : time, time);
+        }
+        final long left = Math.max(0, fileSize - bytesTransferred);
+        return TransferUtils.convertSecondstoHHMMSS((int) Math.round(left / bytesPerSecond));
+    }
+
+    /**
+     * Returns the time since the first byte was transferred.
+     *
+     * @return the time in milliseconds, 0 if no byte was transferred yet.
+     */
+    public long getElapsedTime() {
+        return startTime > 0 ? time - startTime : 0;
+    }
+
+    /**
+     * Returns true if the transfer has ended, successfully or not. No further
+     * updates follow.
+     *
+     * @return true if the transfer is done.
+     */
+    public boolean isDone() {
+        return done;
+    }
+}
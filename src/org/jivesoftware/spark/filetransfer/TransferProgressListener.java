@@ -0,0 +1,34 @@
+/**
+ * Copyright (C) 2004-2011 Jive Software. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.jivesoftware.spark.filetransfer;
+
+/**
+ * Implementation of the <code>TransferProgressListener</code> interface is
+ * notified of the progress of a file transfer watched by the
+ * {@link TransferMonitor}.
+ */
+public interface TransferProgressListener {
+
+    /**
+     * Called on the event dispatch thread when a transfer has made progress
+     * or changed its status. The last call for a transfer is made once it is
+     * done.
+     *
+     * @param progress the state of the transfer.
+     */
+    void progressUpdated(TransferProgress progress);
+
+}
@@ -0,0 +1,36 @@
+/**
+ * Copyright (C) 2004-2011 Jive Software. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.jivesoftware.spark.plugin;
+
+/**
+ * A <code>Plugin</code> whose initialization can run outside of the event
+ * dispatch thread. The <code>PluginManager</code> invokes
+ * {@link #initialize()} on a background thread, concurrently with the other
+ * plugins that do not depend on each other, and then {@link #initializeUI()}
+ * on the event dispatch thread.
+ * <p/>
+ * Plugins that only implement <code>Plugin</code> are initialized on the event
+ * dispatch thread.
+ */
+public interface BackgroundPlugin extends Plugin {
+
+    /**
+     * Invoked on the event dispatch thread once {@link #initialize()} returned.
+     * All work that creates or changes Swing components belongs here.
+     */
+    public void initializeUI();
+
+}
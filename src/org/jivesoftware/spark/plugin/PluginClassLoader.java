@@ -19,14 +19,10 @@ package org.jivesoftware.spark.plugin;
 
 import java.io.File;
 import java.io.FilenameFilter;
-import java.io.IOException;
-import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
-import java.util.jar.JarFile;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.util.List;
 import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.packet.PacketExtension;
 import org.jivesoftware.smack.provider.IQProvider;
@@ -34,8 +30,6 @@ import org.jivesoftware.smack.provider.PacketExtensionProvider;
 import org.jivesoftware.smack.provider.ProviderManager;
 import org.jivesoftware.spark.util.URLFileSystem;
 import org.jivesoftware.spark.util.log.Log;
-import org.xmlpull.mxp1.MXParser;
-import org.xmlpull.v1.XmlPullParser;
 
 /**
  * A simple classloader to extend the classpath to include all jars in a lib
@@ -97,97 +91,28 @@ public class PluginClassLoader extends URLClassLoader {
     }
 
     private void checkForSmackProviders(URL jarURL) throws Throwable {
-        ZipFile zipFile = new JarFile(URLFileSystem.url2File(jarURL));
-
-        ZipEntry entry = zipFile.getEntry("META-INF/smack.providers");
-        if (entry != null) {
-            InputStream zin = zipFile.getInputStream(entry);
-            loadSmackProvider(zin);
-        }
-
-    }
-
-    private void loadSmackProvider(InputStream providerStream) throws Exception {
-
-        // Get an array of class loaders to try loading the providers files from.
-        try {
-            XmlPullParser parser = new MXParser();
-            parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
-            parser.setInput(providerStream, "UTF-8");
-            int eventType = parser.getEventType();
-            do {
-                if (eventType == XmlPullParser.START_TAG) {
-                    switch (parser.getName()) {
-                        case "iqProvider":
-                            {
-                                parser.next();
-                                parser.next();
-                                String elementName = parser.nextText();
-                                parser.next();
-                                parser.next();
-                                String namespace = parser.nextText();
-                                parser.next();
-                                parser.next();
-                                String className = parser.nextText();
-                                // Only add the provider for the namespace if one isn't
-                                // already registered.
-                                // Attempt to load the provider class and then create
-                                // a new instance if it's an IQProvider. Otherwise, if it's
-                                // an IQ class, add the class object itself, then we'll use
-                                // reflection later to create instances of the class.
-                                try {
-                                    // Add the provider to the map.
-                                    Class<?> provider = this.loadClass(className);
-                                    if (IQProvider.class.isAssignableFrom(provider)) {
-                                        ProviderManager.getInstance().addIQProvider(elementName, namespace, provider.newInstance());
-                                    } else if (IQ.class.isAssignableFrom(provider)) {
-                                        ProviderManager.getInstance().addIQProvider(elementName, namespace, provider.newInstance());
-                                    }
-                                } catch (ClassNotFoundException cnfe) {
-                                    cnfe.printStackTrace();
-                                }       break;
-                            }
-                        case "extensionProvider":
-                            {
-                                parser.next();
-                                parser.next();
-                                String elementName = parser.nextText();
-                                parser.next();
-                                parser.next();
-                                String namespace = parser.nextText();
-                                parser.next();
-                                parser.next();
-                                String className = parser.nextText();
-                                // Only add the provider for the namespace if one isn't
-                                // already registered.
-                                // Attempt to load the provider class and then create
-                                // a new instance if it's a Provider. Otherwise, if it's
-                                // a PacketExtension, add the class object itself and
-                                // then we'll use reflection later to create instances
-                                // of the class.
-                                try {
-                                    // Add the provider to the map.
-                                    Class<?> provider = this.loadClass(className);
-                                    if (PacketExtensionProvider.class.isAssignableFrom(
-                                            provider)) {
-                                        ProviderManager.getInstance().addExtensionProvider(elementName, namespace, provider.newInstance());
-                                    } else if (PacketExtension.class.isAssignableFrom(
-                                            provider)) {
-                                        ProviderManager.getInstance().addExtensionProvider(elementName, namespace, provider.newInstance());
-                                    }
-                                } catch (ClassNotFoundException cnfe) {
-                                    cnfe.printStackTrace();
-                                }       break;
-                            }
+        final List<PluginIndex.Provider> providers = PluginIndex.getInstance().getProviders(URLFileSystem.url2File(jarURL));
+        for (PluginIndex.Provider provider : providers) {
+            // Attempt to load the provider class and then create a new
+            // instance if it's a provider. Otherwise, if it's an IQ or a
+            // PacketExtension, add the class object itself.
+            try {
+                final Class<?> providerClass = this.loadClass(provider.getClassName());
+                if (provider.isIQProvider()) {
+                    if (IQProvider.class.isAssignableFrom(providerClass)) {
+                        ProviderManager.getInstance().addIQProvider(provider.getElementName(), provider.getNamespace(), providerClass.newInstance());
+                    } else if (IQ.class.isAssignableFrom(providerClass)) {
+                        ProviderManager.getInstance().addIQProvider(provider.getElementName(), provider.getNamespace(), providerClass.newInstance());
+                    }
+                } else {
+                    if (PacketExtensionProvider.class.isAssignableFrom(providerClass)) {
+                        ProviderManager.getInstance().addExtensionProvider(provider.getElementName(), provider.getNamespace(), providerClass.newInstance());
+                    } else if (PacketExtension.class.isAssignableFrom(providerClass)) {
+                        ProviderManager.getInstance().addExtensionProvider(provider.getElementName(), provider.getNamespace(), providerClass.newInstance());
                     }
                 }
-                eventType = parser.next();
-            } while (eventType != XmlPullParser.END_DOCUMENT);
-        } finally {
-            try {
-                providerStream.close();
-            } catch (IOException e) {
-                // Nothing to do
+            } catch (ClassNotFoundException cnfe) {
+                cnfe.printStackTrace();
             }
         }
     }
@@ -0,0 +1,522 @@
+/**
+ * Copyright (C) 2004-2011 Jive Software. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.jivesoftware.spark.plugin;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.dom4j.Document;
+import org.dom4j.DocumentException;
+import org.dom4j.Element;
+import org.dom4j.Node;
+import org.dom4j.io.SAXReader;
+import org.jivesoftware.Spark;
+import org.jivesoftware.spark.util.AtomicFile;
+import org.jivesoftware.spark.util.log.Log;
+import org.xmlpull.mxp1.MXParser;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Remembers what was read from the plugins at the last startup: the
+ * descriptors parsed from their <code>plugin.xml</code> files and the Smack
+ * providers declared by their libraries. Each file is identified by its path,
+ * size and modification time, so an unchanged plugin is loaded without
+ * opening an archive or parsing XML.
+ * <p>
+ * The index also counts how much time reading the files took when they were
+ * first parsed, which is the time saved by every later cache hit.
+ */
+public class PluginIndex {
+
+    static final String FILE_NAME = "plugins.index";
+
+    private static final int VERSION = 1;
+
+    private static final long SAVE_DELAY = 2000;
+
+    private static PluginIndex singleton;
+    private static final Object LOCK = new Object();
+
+    private final AtomicFile file;
+    private final Map<String, Entry<Descriptor>> descriptors = new HashMap<>();
+    private final Map<String, Entry<List<Provider>>> providers = new HashMap<>();
+
+    private int hits;
+    private int misses;
+    private long timeSaved;
+    private long timeSpent;
+
+    /**
+     * Returns the singleton instance of <CODE>PluginIndex</CODE>, creating it
+     * if necessary.
+     *
+     * @return the singleton instance of <Code>PluginIndex</CODE>
+     */
+    public static PluginIndex getInstance() {
+        synchronized (LOCK) {
+            if (singleton == null) {
+                singleton = new PluginIndex(new File(Spark.getSparkUserHome(), FILE_NAME));
+            }
+            return singleton;
+        }
+    }
+
+    PluginIndex(File file) {
+        this.file = new AtomicFile(file, SAVE_DELAY, this::save);
+        load();
+    }
+
+    /**
+     * Returns the descriptor of a plugin, parsing its <code>plugin.xml</code>
+     * if it changed since it was last read.
+     *
+     * @param pluginXML the plugin.xml file.
+     * @return the descriptor, or null if the file could not be parsed.
+     */
+    public synchronized Descriptor getDescriptor(File pluginXML) {
+        final Entry<Descriptor> cached = descriptors.get(pluginXML.getAbsolutePath());
+        if (cached != null && cached.matches(pluginXML)) {
+            hit(cached);
+            return cached.value;
+        }
+
+        final long start = System.nanoTime();
+        final Descriptor descriptor;
+        try {
+            descriptor = Descriptor.parse(new SAXReader().read(pluginXML));
+        } catch (DocumentException e) {
+            Log.error(e);
+            return null;
+        }
+        descriptors.put(pluginXML.getAbsolutePath(), miss(pluginXML, descriptor, start));
+        return descriptor;
+    }
+
+    /**
+     * Returns the Smack providers declared by the
+     * <code>META-INF/smack.providers</code> file of a library, reading it if
+     * the library changed since it was last read.
+     *
+     * @param jar the library.
+     * @return the providers, empty if the library declares none.
+     * @throws IOException if the library could not be read.
+     */
+    public synchronized List<Provider> getProviders(File jar) throws IOException {
+        final Entry<List<Provider>> cached = providers.get(jar.getAbsolutePath());
+        if (cached != null && cached.matches(jar)) {
+            hit(cached);
+            return cached.value;
+        }
+
+        final long start = System.nanoTime();
+        final List<Provider> found = new ArrayList<>();
+        try (ZipFile zipFile = new JarFile(jar)) {
+            final ZipEntry entry = zipFile.getEntry("META-INF/smack.providers");
+            if (entry != null) {
+                try (InputStream in = zipFile.getInputStream(entry)) {
+                    found.addAll(Provider.parse(in));
+                } catch (XmlPullParserException e) {
+                    throw new IOException("Unable to parse the providers of " + jar, e);
+                }
+            }
+        }
+        final List<Provider> value = Collections.unmodifiableList(found);
+        providers.put(jar.getAbsolutePath(), miss(jar, value, start));
+        return value;
+    }
+
+    /**
+     * Returns the number of files that did not have to be read again.
+     *
+     * @return the number of cache hits.
+     */
+    public synchronized int getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of files that were read.
+     *
+     * @return the number of cache misses.
+     */
+    public synchronized int getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Returns the time it took to read the files that were found in the
+     * index when they were last read.
+     *
+     * @return the time saved in milliseconds.
+     */
+    public synchronized long getTimeSaved() {
+        return timeSaved / 1000000;
+    }
+
+    /**
+     * Returns the time spent reading the files that were not found in the
+     * index.
+     *
+     * @return the time spent in milliseconds.
+     */
+    public synchronized long getTimeSpent() {
+        return timeSpent / 1000000;
+    }
+
+    private void hit(Entry<?> entry) {
+        hits++;
+        timeSaved += entry.readTime;
+    }
+
+    private <T> Entry<T> miss(File source, T value, long start) {
+        final long readTime = System.nanoTime() - start;
+        misses++;
+        timeSpent += readTime;
+        file.scheduleSave();
+        return new Entry<>(source.length(), source.lastModified(), readTime, value);
+    }
+
+    private void load() {
+        try {
+            file.readData(VERSION, (in) -> {
+                for (int count = in.readInt(); count > 0; count--) {
+                    final String path = in.readUTF();
+                    final long length = in.readLong();
+                    final long modified = in.readLong();
+                    final long readTime = in.readLong();
+                    descriptors.put(path, new Entry<>(length, modified, readTime, Descriptor.read(in)));
+                }
+                for (int count = in.readInt(); count > 0; count--) {
+                    final String path = in.readUTF();
+                    final long length = in.readLong();
+                    final long modified = in.readLong();
+                    final long readTime = in.readLong();
+                    final List<Provider> list = new ArrayList<>();
+                    for (int i = in.readInt(); i > 0; i--) {
+                        list.add(new Provider(in.readBoolean(), in.readUTF(), in.readUTF(), in.readUTF()));
+                    }
+                    providers.put(path, new Entry<>(length, modified, readTime, Collections.unmodifiableList(list)));
+                }
+            });
+        } catch (IOException e) {
+            Log.warning("Unable to read the plugin index.", e);
+            descriptors.clear();
+            providers.clear();
+        }
+    }
+
+    private synchronized void save() {
+        try {
+            file.writeData(VERSION, (out) -> {
+                out.writeInt(descriptors.size());
+                for (Map.Entry<String, Entry<Descriptor>> descriptor : descriptors.entrySet()) {
+                    descriptor.getValue().write(out, descriptor.getKey());
+                    descriptor.getValue().value.write(out);
+                }
+                out.writeInt(providers.size());
+                for (Map.Entry<String, Entry<List<Provider>>> library : providers.entrySet()) {
+                    library.getValue().write(out, library.getKey());
+                    out.writeInt(library.getValue().value.size());
+                    for (Provider provider : library.getValue().value) {
+                        out.writeBoolean(provider.iq);
+                        out.writeUTF(provider.elementName);
+                        out.writeUTF(provider.namespace);
+                        out.writeUTF(provider.className);
+                    }
+                }
+            });
+        } catch (IOException e) {
+            Log.warning("Unable to write the plugin index.", e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * An indexed file and what was read from it.
+     */
+    private static class Entry<T> {
+
+        private final long length;
+        private final long modified;
+        private final long readTime;
+        private final T value;
+
+        Entry(long length, long modified, long readTime, T value) {
+            this.length = length;
+            this.modified = modified;
+            this.readTime = readTime;
+            this.value = value;
+        }
+
+        boolean matches(File source) {
+            return source.length() == length && source.lastModified() == modified;
+        }
+
+        void write(DataOutputStream out, String path) throws IOException {
+            out.writeUTF(path);
+            out.writeLong(length);
+            out.writeLong(modified);
+            out.writeLong(readTime);
+        }
+    }
+
+    /**
+     * What a <code>plugin.xml</code> file declares. Elements missing from the
+     * file are null.
+     */
+    public static class Descriptor {
+
+        private String name;
+        private String pluginClass;
+        private String minSparkVersion;
+        private String javaVersion;
+        private String os;
+        private String version;
+        private String author;
+        private String email;
+        private String description;
+        private String homePage;
+        private final List<PluginDependency> dependencies = new ArrayList<>();
+
+        public String getName() {
+            return name;
+        }
+
+        public String getPluginClass() {
+            return pluginClass;
+        }
+
+        public String getMinSparkVersion() {
+            return minSparkVersion;
+        }
+
+        public String getJavaVersion() {
+            return javaVersion;
+        }
+
+        /**
+         * Returns the operating systems the plugin runs on.
+         *
+         * @return a comma separated list, or null for all systems.
+         */
+        public String getOS() {
+            return os;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+
+        public String getAuthor() {
+            return author;
+        }
+
+        public String getEmail() {
+            return email;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public String getHomePage() {
+            return homePage;
+        }
+
+        public List<PluginDependency> getDependencies() {
+            return dependencies;
+        }
+
+        static Descriptor parse(Document document) {
+            final Descriptor descriptor = new Descriptor();
+            final Node plugin = document.selectSingleNode("/plugin");
+            if (plugin == null) {
+                return descriptor;
+            }
+
+            descriptor.name = getText(plugin, "name");
+            descriptor.pluginClass = getText(plugin, "class");
+            descriptor.minSparkVersion = getText(plugin, "minSparkVersion");
+            descriptor.javaVersion = getText(plugin, "java");
+            descriptor.os = getText(plugin, "os");
+            descriptor.version = getText(plugin, "version");
+            descriptor.author = getText(plugin, "author");
+            descriptor.email = getText(plugin, "email");
+            descriptor.description = getText(plugin, "description");
+            descriptor.homePage = getText(plugin, "homePage");
+
+            for (Node depend : plugin.selectNodes("depends/plugin")) {
+                final String dependencyName = getText(depend, "name");
+                final String dependencyVersion = getText(depend, "version");
+                if (dependencyName == null || dependencyVersion == null) {
+                    Log.warning("Ignoring incomplete dependency of plugin " + descriptor.name);
+                    continue;
+                }
+                final PluginDependency dependency = new PluginDependency();
+                dependency.setName(dependencyName);
+                dependency.setVersion(dependencyVersion);
+                descriptor.dependencies.add(dependency);
+            }
+            return descriptor;
+        }
+
+        private static String getText(Node parent, String path) {
+            final Node node = parent.selectSingleNode(path);
+            return node instanceof Element ? node.getText() : null;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            writeString(out, name);
+            writeString(out, pluginClass);
+            writeString(out, minSparkVersion);
+            writeString(out, javaVersion);
+            writeString(out, os);
+            writeString(out, version);
+            writeString(out, author);
+            writeString(out, email);
+            writeString(out, description);
+            writeString(out, homePage);
+            out.writeInt(dependencies.size());
+            for (PluginDependency dependency : dependencies) {
+                out.writeUTF(dependency.getName());
+                out.writeUTF(dependency.getVersion());
+            }
+        }
+
+        static Descriptor read(DataInputStream in) throws IOException {
+            final Descriptor descriptor = new Descriptor();
+            descriptor.name = readString(in);
+            descriptor.pluginClass = readString(in);
+            descriptor.minSparkVersion = readString(in);
+            descriptor.javaVersion = readString(in);
+            descriptor.os = readString(in);
+            descriptor.version = readString(in);
+            descriptor.author = readString(in);
+            descriptor.email = readString(in);
+            descriptor.description = readString(in);
+            descriptor.homePage = readString(in);
+            for (int count = in.readInt(); count > 0; count--) {
+                final PluginDependency dependency = new PluginDependency();
+                dependency.setName(in.readUTF());
+                dependency.setVersion(in.readUTF());
+                descriptor.dependencies.add(dependency);
+            }
+            return descriptor;
+        }
+    }
+
+    /**
+     * A Smack provider declared by a library.
+     */
+    public static class Provider {
+
+        private final boolean iq;
+        private final String elementName;
+        private final String namespace;
+        private final String className;
+
+        Provider(boolean iq, String elementName, String namespace, String className) {
+            this.iq = iq;
+            this.elementName = elementName;
+            this.namespace = namespace;
+            this.className = className;
+        }
+
+        /**
+         * Returns true for an IQ provider, false for an extension provider.
+         *
+         * @return true if the provider parses IQs.
+         */
+        public boolean isIQProvider() {
+            return iq;
+        }
+
+        public String getElementName() {
+            return elementName;
+        }
+
+        public String getNamespace() {
+            return namespace;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        static List<Provider> parse(InputStream providerStream) throws IOException, XmlPullParserException {
+            final List<Provider> list = new ArrayList<>();
+            final XmlPullParser parser = new MXParser();
+            parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+            parser.setInput(providerStream, "UTF-8");
+            int eventType = parser.getEventType();
+            do {
+                if (eventType == XmlPullParser.START_TAG
+                        && (parser.getName().equals("iqProvider") || parser.getName().equals("extensionProvider"))) {
+                    final String tag = parser.getName();
+                    String elementName = null;
+                    String namespace = null;
+                    String className = null;
+                    while ((eventType = parser.next()) != XmlPullParser.END_DOCUMENT) {
+                        if (eventType == XmlPullParser.START_TAG) {
+                            switch (parser.getName()) {
+                                case "elementName":
+                                    elementName = parser.nextText().trim();
+                                    break;
+                                case "namespace":
+                                    namespace = parser.nextText().trim();
+                                    break;
+                                case "className":
+                                    className = parser.nextText().trim();
+                                    break;
+                            }
+                        } else if (eventType == XmlPullParser.END_TAG && parser.getName().equals(tag)) {
+                            break;
+                        }
+                    }
+                    if (elementName != null && namespace != null && className != null) {
+                        list.add(new Provider(tag.equals("iqProvider"), elementName, namespace, className));
+                    }
+                    if (eventType == XmlPullParser.END_DOCUMENT) {
+                        break;
+                    }
+                }
+                eventType = parser.next();
+            } while (eventType != XmlPullParser.END_DOCUMENT);
+            return list;
+        }
+    }
+}
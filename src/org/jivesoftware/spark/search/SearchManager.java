@@ -20,6 +20,7 @@ package org.jivesoftware.spark.search;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import org.jivesoftware.spark.util.StartupTrace;
 import org.jivesoftware.spark.util.SwingWorker;
 import org.jivesoftware.sparkimpl.search.users.UserSearchService;
 
@@ -66,7 +67,12 @@ public class SearchManager {
 
             @Override
             public Object construct() {
-                searchWizard = new UserSearchService();
+                final StartupTrace.Span span = StartupTrace.getInstance().begin("search.disco");
+                try {
+                    searchWizard = new UserSearchService();
+                } finally {
+                    span.end();
+                }
                 return searchWizard;
             }
 
@@ -41,10 +41,12 @@ import javax.swing.UIManager;
 import javax.swing.text.AttributeSet;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.Document;
+import javax.swing.text.EditorKit;
 import javax.swing.text.Element;
 import javax.swing.text.SimpleAttributeSet;
 import javax.swing.text.StyleConstants;
 import javax.swing.text.StyledDocument;
+import javax.swing.text.StyledEditorKit;
 import org.jivesoftware.resource.Res;
 import org.jivesoftware.spark.SparkManager;
 import org.jivesoftware.spark.plugin.ContextMenuListener;
@@ -52,6 +54,7 @@ import org.jivesoftware.spark.util.BrowserLauncher;
 import org.jivesoftware.spark.util.ModelUtil;
 import org.jivesoftware.spark.util.log.Log;
 import org.jivesoftware.sparkimpl.plugin.emoticons.EmoticonManager;
+import org.jivesoftware.sparkimpl.plugin.emoticons.EmoticonMatcher;
 import org.jivesoftware.sparkimpl.settings.local.LocalPreferences;
 import org.jivesoftware.sparkimpl.settings.local.SettingsManager;
 
@@ -105,6 +108,8 @@ public class ChatArea extends JTextPane implements MouseListener, MouseMotionLis
 
     protected Boolean emoticonsAvailable = true;
 
+    private int batchDepth;
+
     /**
      * ChatArea Constructor.
      */
@@ -174,6 +179,18 @@ public class ChatArea extends JTextPane implements MouseListener, MouseMotionLis
 
     }
 
+    @Override
+    protected EditorKit createDefaultEditorKit() {
+        return new StyledEditorKit() {
+            private static final long serialVersionUID = -4624406383553934434L;
+
+            @Override
+            public Document createDefaultDocument() {
+                return new ChatDocument();
+            }
+        };
+    }
+
     /**
      * Set the current text of the ChatArea.
      *
@@ -264,18 +281,30 @@ public class ChatArea extends JTextPane implements MouseListener, MouseMotionLis
         boolean italic = false;
         boolean underlined = false;
 
-        final StringTokenizer tokenizer = new StringTokenizer(text, " \n \t", true);
-        while (tokenizer.hasMoreTokens()) {
-            String textFound = tokenizer.nextToken();
-            if ((textFound.startsWith("http://") || textFound.startsWith("ftp://")
-                    || textFound.startsWith("https://") || textFound.startsWith("www."))
-                    && textFound.indexOf('.') > 1) {
-                insertLink(textFound);
-            } else if (textFound.startsWith("\\\\") || (textFound.indexOf("://") > 0 && textFound.indexOf('.') < 1)) {
-                insertAddress(textFound);
-            } else if (!insertImage(textFound)) {
-                insertText(textFound);
+        final EmoticonMatcher matcher = areEmoticonsShown() ? emoticonManager.getEmoticonMatcher() : null;
+        beginBatch();
+        try {
+            // Plain text between the spans is inserted in one piece.
+            int plainStart = 0;
+            for (MessageTokenizer.Span span : MessageTokenizer.tokenize(text, matcher)) {
+                if (span.start > plainStart) {
+                    insertText(text.substring(plainStart, span.start));
+                }
+                final String textFound = text.substring(span.start, span.end);
+                if (span.type == MessageTokenizer.Type.LINK) {
+                    insertLink(textFound);
+                } else if (span.type == MessageTokenizer.Type.ADDRESS) {
+                    insertAddress(textFound);
+                } else if (!insertImage(textFound)) {
+                    insertText(textFound);
+                }
+                plainStart = span.end;
+            }
+            if (plainStart < text.length()) {
+                insertText(text.substring(plainStart));
             }
+        } finally {
+            endBatch();
         }
 
         // By default, always have decorations off.
@@ -292,10 +321,8 @@ public class ChatArea extends JTextPane implements MouseListener, MouseMotionLis
      * insertion.
      */
     public void insertText(String text) throws BadLocationException {
-        final Document doc = getDocument();
         styles.removeAttribute("link");
-        doc.insertString(doc.getLength(), text, styles);
-        setCaretPosition(doc.getLength());
+        append(text, styles);
     }
 
     /**
@@ -307,10 +334,8 @@ public class ChatArea extends JTextPane implements MouseListener, MouseMotionLis
      * insertion.
      */
     public void insertText(String text, Color color) throws BadLocationException {
-        final Document doc = getDocument();
         StyleConstants.setForeground(styles, color);
-        doc.insertString(doc.getLength(), text, styles);
-        setCaretPosition(doc.getLength());
+        append(text, styles);
     }
 
     /**
@@ -321,17 +346,15 @@ public class ChatArea extends JTextPane implements MouseListener, MouseMotionLis
      * insertion.
      */
     public void insertLink(String link) throws BadLocationException {
-        final Document doc = getDocument();
         styles.addAttribute("link", link);
 
         StyleConstants.setForeground(styles, (Color) UIManager.get("Link.foreground"));
         StyleConstants.setUnderline(styles, true);
-        doc.insertString(doc.getLength(), link, styles);
+        append(link, styles);
         StyleConstants.setUnderline(styles, false);
         StyleConstants.setForeground(styles, (Color) UIManager.get("TextPane.foreground"));
         styles.removeAttribute("link");
         setCharacterAttributes(styles, false);
-        setCaretPosition(doc.getLength());
 
     }
 
@@ -344,17 +367,15 @@ public class ChatArea extends JTextPane implements MouseListener, MouseMotionLis
      * insertion.
      */
     public void insertAddress(String address) throws BadLocationException {
-        final Document doc = getDocument();
         styles.addAttribute("link", address);
 
         StyleConstants.setForeground(styles, (Color) UIManager.get("Address.foreground"));
         StyleConstants.setUnderline(styles, true);
-        doc.insertString(doc.getLength(), address, styles);
+        append(address, styles);
         StyleConstants.setUnderline(styles, false);
         StyleConstants.setForeground(styles, (Color) UIManager.get("TextPane.foreground"));
         styles.removeAttribute("link");
         setCharacterAttributes(styles, false);
-        setCaretPosition(doc.getLength());
 
     }
 
@@ -366,7 +387,7 @@ public class ChatArea extends JTextPane implements MouseListener, MouseMotionLis
      */
     public boolean insertImage(String imageKey) {
 
-        if (!forceEmoticons && !SettingsManager.getLocalPreferences().areEmoticonsEnabled() || !emoticonsAvailable) {
+        if (!areEmoticonsShown()) {
             return false;
         }
         final Document doc = getDocument();
@@ -375,6 +396,13 @@ public class ChatArea extends JTextPane implements MouseListener, MouseMotionLis
             return false;
         }
 
+        if (isBatching()) {
+            final SimpleAttributeSet attributes = new SimpleAttributeSet();
+            StyleConstants.setIcon(attributes, emotion);
+            ((ChatDocument) doc).addBatchString(" ", attributes);
+            return true;
+        }
+
         select(doc.getLength(), doc.getLength());
         insertIcon(emotion);
         setCaretPosition(doc.getLength());
@@ -382,6 +410,80 @@ public class ChatArea extends JTextPane implements MouseListener, MouseMotionLis
         return true;
     }
 
+    /**
+     * Starts collecting the inserted text, to insert it with one edit when
+     * {@link #endBatch()} is called. Batches may be nested, the text is
+     * inserted when the outermost batch ends.
+     */
+    protected void beginBatch() {
+        batchDepth++;
+    }
+
+    /**
+     * Ends a batch started with {@link #beginBatch()}.
+     *
+     * @return the offset the text was inserted at, or -1 if nothing was
+     * inserted.
+     */
+    protected int endBatch() {
+        if (batchDepth == 0 || --batchDepth > 0) {
+            return -1;
+        }
+
+        final Document doc = getDocument();
+        if (!(doc instanceof ChatDocument) || !((ChatDocument) doc).hasBatch()) {
+            return -1;
+        }
+
+        final int offset = getBatchOffset();
+        try {
+            final int length = ((ChatDocument) doc).insertBatch(offset);
+            if (offset + length == doc.getLength()) {
+                setCaretPosition(doc.getLength());
+            }
+        } catch (BadLocationException e) {
+            ((ChatDocument) doc).clearBatch();
+            Log.error(e);
+            return -1;
+        }
+        return offset;
+    }
+
+    /**
+     * Returns the offset a batch is inserted at, the end of the document by
+     * default.
+     *
+     * @return the offset to insert the batch at.
+     */
+    protected int getBatchOffset() {
+        return getDocument().getLength();
+    }
+
+    private boolean areEmoticonsShown() {
+        return (forceEmoticons || SettingsManager.getLocalPreferences().areEmoticonsEnabled()) && emoticonsAvailable;
+    }
+
+    private boolean isBatching() {
+        return batchDepth > 0 && getDocument() instanceof ChatDocument;
+    }
+
+    /**
+     * Appends text to the document, or to the pending batch.
+     *
+     * @param text the text to append.
+     * @param attributes the attributes of the text.
+     * @throws BadLocationException if the text could not be inserted.
+     */
+    protected void append(String text, AttributeSet attributes) throws BadLocationException {
+        final Document doc = getDocument();
+        if (isBatching()) {
+            ((ChatDocument) doc).addBatchString(text, attributes);
+        } else {
+            doc.insertString(doc.getLength(), text, attributes);
+            setCaretPosition(doc.getLength());
+        }
+    }
+
     /**
      * Inserts horizontal line
      */
@@ -39,7 +39,6 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.TimerTask;
-import java.util.regex.Pattern;
 import javax.swing.AbstractAction;
 import javax.swing.Action;
 import javax.swing.BorderFactory;
@@ -72,6 +71,7 @@ import org.jivesoftware.spark.component.tabbedPane.SparkTabbedPaneListener;
 import org.jivesoftware.spark.ui.conferences.GroupChatRoomListener;
 import org.jivesoftware.spark.ui.rooms.ChatRoomImpl;
 import org.jivesoftware.spark.ui.rooms.GroupChatRoom;
+import org.jivesoftware.spark.ui.rooms.MessageHighlighter;
 import org.jivesoftware.spark.util.SwingTimerTask;
 import org.jivesoftware.spark.util.SwingWorker;
 import org.jivesoftware.spark.util.TaskEngine;
@@ -707,7 +707,6 @@ public class ChatContainer extends SparkTabbedPane implements MessageListener, C
     @Override
     public void messageReceived(ChatRoom room, Message message) {
         room.increaseUnreadMessageCount();
-        SparkManager.getWorkspace().getTranscriptPlugin().persistChatRoom(room);
         fireNotifyOnMessage(room, false, null, null);
         ChatManager.getInstance().fireMessageReceived(message);
     }
@@ -1104,10 +1103,11 @@ public class ChatContainer extends SparkTabbedPane implements MessageListener, C
                 // allowed to check for new messages containing name
                 String myNickName = chatRoom.getNickname();
                 String myUserName = SparkManager.getSessionManager().getUsername();
-                Pattern usernameMatch = Pattern.compile(myUserName, Pattern.CASE_INSENSITIVE);
-                Pattern nicknameMatch = Pattern.compile(myNickName, Pattern.CASE_INSENSITIVE);
+                MessageHighlighter highlighter = chatRoom instanceof GroupChatRoom
+                        ? ((GroupChatRoom) chatRoom).getMessageHighlighter() : new MessageHighlighter();
+                highlighter.setTerms(myNickName, myUserName, localPref.getMucHighlightKeywords());
 
-                if (usernameMatch.matcher(lastChatMessage.getBody()).find() || nicknameMatch.matcher(lastChatMessage.getBody()).find()) {
+                if (highlighter.matches(lastChatMessage.getBody())) {
                     // match, send new message
                     boolean customMsgS = true;
                     String customMsgTextS = Res.getString("group.chat.name.match") + " " + finalRoomName + " by " + fromNickName + " (" + lastChatMessage.getBody() + ")";
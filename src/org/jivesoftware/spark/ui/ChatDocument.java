@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2004-2011 Jive Software. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.jivesoftware.spark.ui;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument;
+
+/**
+ * The document of a <code>ChatArea</code>. Besides the usual edits, runs of
+ * styled text can be collected and inserted with a single edit, so that the
+ * views are updated and listeners are notified once per message instead of
+ * once per word.
+ */
+public class ChatDocument extends DefaultStyledDocument {
+
+    private static final long serialVersionUID = 3921488307582105946L;
+
+    private final List<StringBuilder> batchText = new ArrayList<>();
+    private final List<AttributeSet> batchAttributes = new ArrayList<>();
+
+    /**
+     * Adds text to the pending batch.
+     *
+     * @param text the text to add.
+     * @param attributes the attributes of the text.
+     */
+    public void addBatchString(String text, AttributeSet attributes) {
+        if (text.isEmpty()) {
+            return;
+        }
+
+        // Runs with the same attributes become a single element.
+        final int last = batchText.size() - 1;
+        if (last >= 0 && attributes != null && batchAttributes.get(last) != null
+                && batchAttributes.get(last).isEqual(attributes)) {
+            batchText.get(last).append(text);
+            return;
+        }
+        batchText.add(new StringBuilder(text));
+        batchAttributes.add(attributes != null ? attributes.copyAttributes() : null);
+    }
+
+    /**
+     * Returns true if text has been added since the last batch was inserted.
+     *
+     * @return true if there is a pending batch.
+     */
+    public boolean hasBatch() {
+        return !batchText.isEmpty();
+    }
+
+    /**
+     * Inserts the pending batch with one edit. The offset has to be the start
+     * of a paragraph or the end of the document.
+     *
+     * @param offset the offset to insert the text at.
+     * @return the length of the inserted text.
+     * @throws BadLocationException if the offset is not valid.
+     */
+    public int insertBatch(int offset) throws BadLocationException {
+        if (batchText.isEmpty()) {
+            return 0;
+        }
+
+        // Build the same element structure as inserting the runs one by one.
+        final AttributeSet paragraphAttributes = getParagraphElement(offset).getAttributes();
+        final boolean afterNewline = offset > 0 && getText(offset - 1, 1).charAt(0) == '\n';
+        final List<ElementSpec> specs = new ArrayList<>();
+        ElementSpec lastStart = null;
+        if (afterNewline) {
+            specs.add(new ElementSpec(null, ElementSpec.EndTagType));
+            lastStart = new ElementSpec(paragraphAttributes, ElementSpec.StartTagType);
+            specs.add(lastStart);
+        }
+
+        int length = 0;
+        for (int i = 0; i < batchText.size(); i++) {
+            final char[] text = batchText.get(i).toString().toCharArray();
+            final AttributeSet attributes = batchAttributes.get(i);
+            int start = 0;
+            for (int j = 0; j < text.length; j++) {
+                if (text[j] == '\n') {
+                    specs.add(new ElementSpec(attributes, ElementSpec.ContentType, text, start, j + 1 - start));
+                    specs.add(new ElementSpec(null, ElementSpec.EndTagType));
+                    lastStart = new ElementSpec(paragraphAttributes, ElementSpec.StartTagType);
+                    specs.add(lastStart);
+                    start = j + 1;
+                }
+            }
+            if (start < text.length) {
+                specs.add(new ElementSpec(attributes, ElementSpec.ContentType, text, start, text.length - start));
+            }
+            length += text.length;
+        }
+        if (lastStart != null) {
+            lastStart.setDirection(afterNewline ? ElementSpec.JoinNextDirection : ElementSpec.JoinFractureDirection);
+        }
+
+        batchText.clear();
+        batchAttributes.clear();
+        insert(offset, specs.toArray(new ElementSpec[specs.size()]));
+        return length;
+    }
+
+    /**
+     * Drops the pending batch.
+     */
+    public void clearBatch() {
+        batchText.clear();
+        batchAttributes.clear();
+    }
+}
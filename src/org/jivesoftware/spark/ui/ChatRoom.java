@@ -74,9 +74,12 @@ import org.jivesoftware.spark.component.RolloverButton;
 import org.jivesoftware.spark.plugin.ContextMenuListener;
 import org.jivesoftware.spark.ui.rooms.GroupChatRoom;
 import org.jivesoftware.spark.util.GraphicUtils;
+import org.jivesoftware.spark.util.PacketIDCache;
 import org.jivesoftware.spark.util.SwingWorker;
 import org.jivesoftware.spark.util.UIComponentRegistry;
 import org.jivesoftware.spark.util.log.Log;
+import org.jivesoftware.sparkimpl.plugin.transcripts.ChatTranscriptPlugin;
+import org.jivesoftware.sparkimpl.plugin.transcripts.HistoryMessage;
 import org.jivesoftware.sparkimpl.settings.local.LocalPreferences;
 import org.jivesoftware.sparkimpl.settings.local.SettingsManager;
 
@@ -87,6 +90,16 @@ import org.jivesoftware.sparkimpl.settings.local.SettingsManager;
 public abstract class ChatRoom extends BackgroundPanel implements ActionListener, PacketListener, DocumentListener, ConnectionListener, FocusListener, ContextMenuListener, ChatFrameToFrontListener {
 
     private static final long serialVersionUID = 7981019929515888299L;
+
+    /**
+     * The number of messages kept in memory by {@link #getTranscripts()}. Once
+     * the transcript grows beyond it, the oldest messages are dropped until
+     * {@link #TRANSCRIPT_TRIM_SIZE} are left. Messages are only dropped once
+     * they were written to the transcript store, so with chat history
+     * disabled all messages are kept.
+     */
+    public static final int MAX_TRANSCRIPT_SIZE = 1000;
+    private static final int TRANSCRIPT_TRIM_SIZE = 800;
     private final JPanel chatPanel;
     private final JSplitPane splitPane;
     private JSplitPane verticalSplit;
@@ -112,9 +125,10 @@ public abstract class ChatRoom extends BackgroundPanel implements ActionListener
 
     private ChatRoomTransferHandler transferHandler;
 
-    private final List<String> packetIDList;
     private final List<MessageListener> messageListeners;
     private final List<Message> transcript;
+    private int persistedMessages;
+    private int trimmedMessages;
     private final List<FileDropListener> fileDropListeners;
 
     private final MouseAdapter transcriptWindowMouseListener;
@@ -131,7 +145,6 @@ public abstract class ChatRoom extends BackgroundPanel implements ActionListener
         chatPanel = new JPanel(new GridBagLayout());
         transcriptWindow = UIComponentRegistry.createTranscriptWindow();
         splitPane = new JSplitPane();
-        packetIDList = new ArrayList<>();
         notificationLabel = new JLabel();
         toolbar = new ChatToolBar();
         bottomPanel = new JPanel();
@@ -532,8 +545,6 @@ public abstract class ChatRoom extends BackgroundPanel implements ActionListener
         addToTranscript(message, true);
 
         fireMessageReceived(message);
-
-        SparkManager.getWorkspace().getTranscriptPlugin().persistChatRoom(this);
     }
 
     /**
@@ -552,7 +563,7 @@ public abstract class ChatRoom extends BackgroundPanel implements ActionListener
 
         newMessage.setProperty("date", new Date());
 
-        transcript.add(newMessage);
+        addTranscriptMessage(newMessage);
 
         // Add current date if this is the current agent
         if (updateDate && transcriptWindow.getLastUpdated() != null) {
@@ -578,7 +589,28 @@ public abstract class ChatRoom extends BackgroundPanel implements ActionListener
         newMessage.setFrom(from);
         newMessage.setBody(body);
         newMessage.setProperty("date", date);
-        transcript.add(newMessage);
+        addTranscriptMessage(newMessage);
+    }
+
+    /**
+     * Adds a message to the transcript window of messages kept in memory, and
+     * queues it to be written to the transcript store.
+     */
+    private void addTranscriptMessage(Message message) {
+        transcript.add(message);
+
+        final ChatTranscriptPlugin transcriptPlugin = SparkManager.getWorkspace().getTranscriptPlugin();
+        if (transcriptPlugin != null && transcriptPlugin.persistMessage(this, message)) {
+            persistedMessages++;
+        }
+
+        // Only drop messages that can be read back from the store.
+        if (transcript.size() > MAX_TRANSCRIPT_SIZE && persistedMessages == transcript.size()) {
+            final int trimmed = transcript.size() - TRANSCRIPT_TRIM_SIZE;
+            transcript.subList(0, trimmed).clear();
+            trimmedMessages += trimmed;
+            persistedMessages -= trimmed;
+        }
     }
 
     /**
@@ -671,8 +703,6 @@ public abstract class ChatRoom extends BackgroundPanel implements ActionListener
             sendMessage();
             getChatInputEditor().setText("");
             getChatInputEditor().setCaretPosition(0);
-
-            SparkManager.getWorkspace().getTranscriptPlugin().persistChatRoom(this);
         } else if (keyStroke.equals(KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, KeyEvent.SHIFT_DOWN_MASK))) {
             final Document document = getChatInputEditor().getDocument();
             try {
@@ -727,11 +757,11 @@ public abstract class ChatRoom extends BackgroundPanel implements ActionListener
     }
 
     /**
-     * Returns a map of the current Chat Transcript which is a list of all
-     * ChatResponses and their order. You should retrieve this map to get any
-     * current chat transcript state.
+     * Returns the current Chat Transcript, the list of the last
+     * {@link #MAX_TRANSCRIPT_SIZE} messages at most, in their order. Older
+     * messages are found in the transcript store.
      *
-     * @return - the map of current chat responses.
+     * @return - the list of current chat messages.
      */
     public List<Message> getTranscripts() {
         return transcript;
@@ -824,7 +854,7 @@ public abstract class ChatRoom extends BackgroundPanel implements ActionListener
 
         transferHandler = null;
 
-        packetIDList.clear();
+        PacketIDCache.getInstance().clear(getRoomname());
         messageListeners.clear();
         fileDropListeners.clear();
         getChatInputEditor().close();
@@ -893,23 +923,23 @@ public abstract class ChatRoom extends BackgroundPanel implements ActionListener
     }
 
     /**
-     * Adds a packetID to the packedIDList. The packetIDLlist keeps track of all
-     * messages coming into the chatroom.
+     * Adds a packetID to the {@link PacketIDCache}, which keeps track of the
+     * messages recently sent in the chatroom.
      *
      * @param packetID the packetID to add.
      */
     public void addPacketID(String packetID) {
-        packetIDList.add(packetID);
+        PacketIDCache.getInstance().add(getRoomname(), packetID);
     }
 
     /**
-     * Checks if the packetID has already been used.
+     * Checks if the packetID has recently been used.
      *
      * @param packetID the packetID to check for.
      * @return true if the packetID already exists.
      */
     public boolean packetIDExists(String packetID) {
-        return packetIDList.contains(packetID);
+        return PacketIDCache.getInstance().contains(getRoomname(), packetID);
     }
 
     /**
@@ -944,7 +974,42 @@ public abstract class ChatRoom extends BackgroundPanel implements ActionListener
      * Override to save transcript in preferred room style.
      */
     public void saveTranscript() {
-        getTranscriptWindow().saveTranscript(getTabTitle() + ".html", getTranscripts(), null);
+        final ChatTranscriptPlugin transcriptPlugin = SparkManager.getWorkspace().getTranscriptPlugin();
+        if (trimmedMessages == 0 || transcriptPlugin == null) {
+            getTranscriptWindow().saveTranscript(getTabTitle() + ".html", getTranscripts(), null);
+            return;
+        }
+
+        // The oldest messages were dropped from memory, read them back from
+        // the transcript store.
+        final List<Message> recent = new ArrayList<>(transcript);
+        final int skip = persistedMessages;
+        final int trimmed = trimmedMessages;
+        final SwingWorker worker = new SwingWorker() {
+            @Override
+            public Object construct() {
+                return transcriptPlugin.getPersistedMessages(ChatRoom.this, skip, trimmed);
+            }
+
+            @Override
+            public void finished() {
+                @SuppressWarnings("unchecked")
+                final List<HistoryMessage> older = (List<HistoryMessage>) get();
+                final List<Message> messages = new ArrayList<>(older.size() + recent.size());
+                for (HistoryMessage history : older) {
+                    final Message message = new Message();
+                    message.setType(getChatType());
+                    message.setTo(history.getTo());
+                    message.setFrom(history.getFrom());
+                    message.setBody(history.getBody());
+                    message.setProperty("date", history.getDate());
+                    messages.add(message);
+                }
+                messages.addAll(recent);
+                getTranscriptWindow().saveTranscript(getTabTitle() + ".html", messages, null);
+            }
+        };
+        worker.start();
     }
 
     /**
@@ -31,12 +31,16 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionAdapter;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.swing.DefaultListModel;
 import javax.swing.JList;
 import javax.swing.JPanel;
@@ -68,6 +72,11 @@ public class ContactGroup extends CollapsiblePane implements MouseListener {
     private List<ContactGroupListener> listeners = new ArrayList<>();
     private List<ContactItem> offlineContacts = new ArrayList<>();
 
+    // Bare JID lookups of contactItems and offlineContacts.
+    private final Map<String, ContactItem> contactItemsByJID = new ConcurrentHashMap<>();
+    private final Map<String, ContactItem> offlineContactsByJID = new ConcurrentHashMap<>();
+    private ContactItemIndex contactItemIndex;
+
     private String groupName;
     private final DefaultListModel model;
     private JList contactItemList;
@@ -80,6 +89,16 @@ public class ContactGroup extends CollapsiblePane implements MouseListener {
 
     private final ListMotionListener motionListener = new ListMotionListener();
 
+    // Keeps the lists sorted when a contact is renamed.
+    private final PropertyChangeListener displayNameListener = (PropertyChangeEvent evt) -> {
+        final ContactItem item = (ContactItem) evt.getSource();
+        if (EventQueue.isDispatchThread()) {
+            contactItemRenamed(item);
+        } else {
+            EventQueue.invokeLater(() -> contactItemRenamed(item));
+        }
+    };
+
     private boolean canShowPopup;
 
     private boolean mouseDragged = false;
@@ -105,7 +124,7 @@ public class ContactGroup extends CollapsiblePane implements MouseListener {
         setTitle(getGroupTitle(groupName));
 
         // Use JPanel Renderer
-        contactItemList.setCellRenderer(new JContactItemRenderer());
+        contactItemList.setCellRenderer(JContactItemRenderer.getSharedInstance());
 
         this.groupName = groupName;
 
@@ -172,8 +191,8 @@ public class ContactGroup extends CollapsiblePane implements MouseListener {
             }
         });
 
-        noContacts.getNicknameLabel().setFont(new Font("Dialog", Font.PLAIN, 11));
-        noContacts.getNicknameLabel().setForeground(Color.GRAY);
+        noContacts.setNicknameFont(new Font("Dialog", Font.PLAIN, 11));
+        noContacts.setNicknameForeground(Color.GRAY);
         model.addElement(noContacts);
 
         // Add Popup Window
@@ -206,7 +225,9 @@ public class ContactGroup extends CollapsiblePane implements MouseListener {
                 offlineItem.setStatusText(status);
             }
             // Add to offline contacts.
-            offlineContacts.add(offlineItem);
+            offlineContacts.add(getInsertionIndex(offlineContacts, offlineItem), offlineItem);
+            indexContactItem(offlineItem, offlineContactsByJID);
+            offlineItem.addPropertyChangeListener(ContactItem.DISPLAY_NAME_PROPERTY, displayNameListener);
 
             insertOfflineContactItem(offlineItem);
         } else {
@@ -227,7 +248,9 @@ public class ContactGroup extends CollapsiblePane implements MouseListener {
                         offlineItem.setStatusText(status);
                     }
                     // Add to offline contacts.
-                    offlineContacts.add(offlineItem);
+                    offlineContacts.add(getInsertionIndex(offlineContacts, offlineItem), offlineItem);
+                    indexContactItem(offlineItem, offlineContactsByJID);
+                    offlineItem.addPropertyChangeListener(ContactItem.DISPLAY_NAME_PROPERTY, displayNameListener);
                     
                     insertOfflineContactItem(offlineItem);
                 });
@@ -248,8 +271,10 @@ public class ContactGroup extends CollapsiblePane implements MouseListener {
         }
 
         if (!preferences.isOfflineGroupVisible()) {
-            Collections.sort(offlineContacts, itemComparator);
-            int index = offlineContacts.indexOf(offlineItem);
+            int index = Collections.binarySearch(offlineContacts, offlineItem, itemComparator);
+            if (index < 0 || offlineContacts.get(index) != offlineItem) {
+                index = offlineContacts.indexOf(offlineItem);
+            }
 
             int totalListSize = contactItems.size();
             int newPos = totalListSize + index;
@@ -273,7 +298,10 @@ public class ContactGroup extends CollapsiblePane implements MouseListener {
      * @param item the offline contact item to remove.
      */
     public void removeOfflineContactItem(ContactItem item) {
-        offlineContacts.remove(item);
+        if (offlineContacts.remove(item)) {
+            unindexContactItem(item, offlineContacts, offlineContactsByJID);
+            item.removePropertyChangeListener(ContactItem.DISPLAY_NAME_PROPERTY, displayNameListener);
+        }
         //removeContactItem(item);
     }
 
@@ -284,10 +312,10 @@ public class ContactGroup extends CollapsiblePane implements MouseListener {
      * @param jid the offline contact item to remove.
      */
     public void removeOfflineContactItem(String jid) {
-        final List<ContactItem> items = new ArrayList<>(offlineContacts);
-        items.stream().filter((item) -> (item.getJID().equals(jid))).forEach((item) -> {
+        ContactItem item;
+        while ((item = getOfflineContactItemByJID(jid)) != null) {
             removeOfflineContactItem(item);
-        });
+        }
     }
 
     /**
@@ -327,13 +355,11 @@ public class ContactGroup extends CollapsiblePane implements MouseListener {
         }
 
         item.setGroupName(getGroupName());
-        contactItems.add(item);
-
-        List<ContactItem> tempItems = getContactItems();
-
-        Collections.sort(tempItems, itemComparator);
-
-        int index = tempItems.indexOf(item);
+        // contactItems is kept sorted, it is the head of the list model.
+        int index = getInsertionIndex(contactItems, item);
+        contactItems.add(index, item);
+        indexContactItem(item, contactItemsByJID);
+        item.addPropertyChangeListener(ContactItem.DISPLAY_NAME_PROPERTY, displayNameListener);
 
         Object[] objs = contactItemList.getSelectedValues();
 
@@ -353,8 +379,8 @@ public class ContactGroup extends CollapsiblePane implements MouseListener {
     }
 
     protected void setOfflineGroupNameFont(ContactItem item) {
-        item.getNicknameLabel().setFont(new Font("Dialog", Font.PLAIN, 11));
-        item.getNicknameLabel().setForeground(Color.GRAY);
+        item.setNicknameFont(new Font("Dialog", Font.PLAIN, 11));
+        item.setNicknameForeground(Color.GRAY);
     }
 
     /**
@@ -437,7 +463,10 @@ public class ContactGroup extends CollapsiblePane implements MouseListener {
      * @param item the ContactItem to remove.
      */
     public void removeContactItem(ContactItem item) {
-        contactItems.remove(item);
+        if (contactItems.remove(item)) {
+            unindexContactItem(item, contactItems, contactItemsByJID);
+            item.removePropertyChangeListener(ContactItem.DISPLAY_NAME_PROPERTY, displayNameListener);
+        }
         if (contactItems.isEmpty()) {
             removeContactGroup(this);
         }
@@ -507,12 +536,7 @@ public class ContactGroup extends CollapsiblePane implements MouseListener {
      * @return the ContactItem.
      */
     public ContactItem getContactItemByJID(String bareJID) {
-        for (ContactItem item : new ArrayList<>(contactItems)) {
-            if (item != null && item.getJID().equals(bareJID)) {
-                return item;
-            }
-        }
-        return null;
+        return bareJID != null ? contactItemsByJID.get(bareJID) : null;
     }
 
     /**
@@ -523,12 +547,7 @@ public class ContactGroup extends CollapsiblePane implements MouseListener {
      * @return the ContactItem.
      */
     public ContactItem getOfflineContactItemByJID(String bareJID) {
-        for (ContactItem item : new ArrayList<>(offlineContacts)) {
-            if (item.getJID().equals(bareJID)) {
-                return item;
-            }
-        }
-        return null;
+        return bareJID != null ? offlineContactsByJID.get(bareJID) : null;
     }
 
     /**
@@ -561,6 +580,54 @@ public class ContactGroup extends CollapsiblePane implements MouseListener {
         return list;
     }
 
+    /**
+     * Moves a renamed item to its new position in the sorted lists and the
+     * list model.
+     *
+     * @param item the renamed ContactItem.
+     */
+    private void contactItemRenamed(ContactItem item) {
+        final Object[] selected = contactItemList.getSelectedValues();
+
+        int index = contactItems.indexOf(item);
+        if (index >= 0) {
+            contactItems.remove(index);
+            model.removeElement(item);
+            index = getInsertionIndex(contactItems, item);
+            contactItems.add(index, item);
+            model.insertElementAt(item, index);
+        }
+
+        index = offlineContacts.indexOf(item);
+        if (index >= 0) {
+            offlineContacts.remove(index);
+            offlineContacts.add(getInsertionIndex(offlineContacts, item), item);
+            if (model.removeElement(item)) {
+                insertOfflineContactItem(item);
+            }
+        }
+
+        final int[] indices = new int[selected.length];
+        for (int i = 0; i < selected.length; i++) {
+            indices[i] = model.indexOf(selected[i]);
+        }
+        if (indices.length > 0) {
+            contactItemList.setSelectedIndices(indices);
+        }
+    }
+
+    /**
+     * Returns the index an item has to be inserted at to keep a list sorted.
+     *
+     * @param items the sorted list.
+     * @param item the item to insert.
+     * @return the insertion index.
+     */
+    private int getInsertionIndex(List<ContactItem> items, ContactItem item) {
+        final int index = Collections.binarySearch(items, item, itemComparator);
+        return index < 0 ? -index - 1 : index;
+    }
+
     /**
      * Returns the name of the ContactGroup.
      *
@@ -570,6 +637,59 @@ public class ContactGroup extends CollapsiblePane implements MouseListener {
         return groupName;
     }
 
+    /**
+     * Sets the index of the ContactList this group belongs to. All items of
+     * the group are moved from the previous index to the new one.
+     *
+     * @param index the index, or null if the group has been removed.
+     */
+    void setContactItemIndex(ContactItemIndex index) {
+        if (index == contactItemIndex) {
+            return;
+        }
+
+        final List<ContactItem> items = new ArrayList<>(contactItems);
+        items.addAll(offlineContacts);
+        if (contactItemIndex != null) {
+            items.forEach(item -> contactItemIndex.remove(this, item));
+        }
+        contactItemIndex = index;
+        if (contactItemIndex != null) {
+            items.forEach(item -> contactItemIndex.add(this, item));
+        }
+    }
+
+    private void indexContactItem(ContactItem item, Map<String, ContactItem> byJID) {
+        if (item.getJID() == null) {
+            return;
+        }
+        byJID.putIfAbsent(item.getJID(), item);
+        if (contactItemIndex != null) {
+            contactItemIndex.add(this, item);
+        }
+    }
+
+    private void unindexContactItem(ContactItem item, List<ContactItem> items, Map<String, ContactItem> byJID) {
+        final String jid = item.getJID();
+        if (jid == null) {
+            return;
+        }
+
+        if (byJID.remove(jid, item)) {
+            // Another item of the same user may still be in the list.
+            for (ContactItem other : items) {
+                if (jid.equals(other.getJID())) {
+                    byJID.put(jid, other);
+                    break;
+                }
+            }
+        }
+
+        if (contactItemIndex != null && !contactItems.contains(item) && !offlineContacts.contains(item)) {
+            contactItemIndex.remove(this, item);
+        }
+    }
+
     @Override
     public void mouseClicked(MouseEvent e) {
 
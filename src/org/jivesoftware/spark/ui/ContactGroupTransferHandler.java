@@ -204,7 +204,7 @@ public class ContactGroupTransferHandler extends TransferHandler {
         ContactItem newContact = UIComponentRegistry.createContactItem(Res.getString("group.empty"), null, null);
         newContact.setPresence(item.getPresence());
         newContact.setIcon(item.getIcon());
-        newContact.getNicknameLabel().setFont(item.getNicknameLabel().getFont());
+        newContact.setNicknameFont(item.getNicknameFont());
 
         if (!PresenceManager.isOnline(item.getJID())) {
             contactGroup.addOfflineContactItem(item.getAlias(), item.getNickname(), item.getJID(), null);
@@ -42,9 +42,7 @@ import org.jivesoftware.smack.util.StringUtils;
 import org.jivesoftware.spark.ChatManager;
 import org.jivesoftware.spark.PresenceManager;
 import org.jivesoftware.spark.SparkManager;
-import org.jivesoftware.spark.util.GraphicUtils;
 import org.jivesoftware.spark.util.ModelUtil;
-import org.jivesoftware.spark.util.log.Log;
 import org.jivesoftware.sparkimpl.plugin.layout.LayoutSettings;
 import org.jivesoftware.sparkimpl.plugin.layout.LayoutSettingsManager;
 import org.jivesoftware.sparkimpl.settings.local.LocalPreferences;
@@ -55,6 +53,12 @@ import org.jivesoftware.sparkimpl.settings.local.SettingsManager;
  */
 public class ContactItem extends JPanel {
 
+    /**
+     * The bound property fired when the name returned by
+     * {@link #getDisplayName()} changes.
+     */
+    public static final String DISPLAY_NAME_PROPERTY = "displayName";
+
     private static final long serialVersionUID = 1514044406550293152L;
     private JLabel imageLabel;
     private JLabel displayNameLabel;
@@ -84,8 +88,31 @@ public class ContactItem extends JPanel {
 
     private boolean avatarsShowing;
 
+    // What the item shows. Copied to the labels once they have been created.
+    private String displayText = "";
+    private String descriptionText = "";
+    private Icon specialIcon;
+    private Icon avatarIcon;
+    private Font nicknameFont;
+    private Color nicknameForeground;
+    private Font descriptionFont;
+    private Color descriptionForeground;
+
+    private boolean uiInitialized;
+    private ContactRow contactRow;
+
+    /**
+     * Creates a new instance of a contact. The labels of the contact are
+     * created when first needed, so that contacts that are only rendered by
+     * a list stay lightweight.
+     *
+     * @param alias the alias of the contact
+     * @param nickname the nickname of the contact.
+     * @param fullyQualifiedJID the fully-qualified jid of the contact (ex.
+     * derek@jivesoftware.com)
+     */
     public ContactItem(String alias, String nickname, String fullyQualifiedJID) {
-        this(alias, nickname, fullyQualifiedJID, true);
+        this(alias, nickname, fullyQualifiedJID, false);
     }
 
     /**
@@ -95,10 +122,10 @@ public class ContactItem extends JPanel {
      * @param nickname the nickname of the contact.
      * @param fullyQualifiedJID the fully-qualified jid of the contact (ex.
      * derek@jivesoftware.com)
+     * @param initUi true to create the labels of the contact right away,
+     * otherwise they are created when first needed.
      */
     public ContactItem(String alias, String nickname, String fullyQualifiedJID, boolean initUi) {
-        setLayout(new GridBagLayout());
-
         // Set Default Font
         final LocalPreferences pref = SettingsManager.getLocalPreferences();
         fontSize = pref.getContactListFontSize();
@@ -114,37 +141,92 @@ public class ContactItem extends JPanel {
         this.nickname = nickname;
         this.fullyQualifiedJID = fullyQualifiedJID;
 
+        nicknameFont = UIManager.getFont("Label.font");
+        nicknameForeground = UIManager.getColor("Label.foreground");
+        descriptionFont = new Font("Dialog", Font.PLAIN, fontSize);
+        descriptionForeground = (Color) UIManager.get("ContactItemDescription.foreground");
+
+        this.setOpaque(true);
+
+        setDisplayName();
+
         if (initUi) {
-            displayNameLabel = new JLabel();
-            descriptionLabel = new JLabel();
-            imageLabel = new JLabel();
-            specialImageLabel = new JLabel();
-            sideIcon = new JLabel();
-            if (avatarsShowing) {
-                sideIcon.setMinimumSize(new Dimension(iconSize, iconSize));
-                sideIcon.setMaximumSize(new Dimension(iconSize, iconSize));
-                sideIcon.setPreferredSize(new Dimension(iconSize, iconSize));
-            }
+            initUi();
+        }
+    }
 
-            displayNameLabel.setHorizontalTextPosition(JLabel.LEFT);
-            displayNameLabel.setHorizontalAlignment(JLabel.LEFT);
-            //displayNameLabel.setText(nickname);
+    /**
+     * Creates and lays out the labels of this item.
+     */
+    private void initUi() {
+        if (uiInitialized) {
+            return;
+        }
+        uiInitialized = true;
 
-            descriptionLabel.setFont(new Font("Dialog", Font.PLAIN, fontSize));
-            descriptionLabel.setForeground((Color) UIManager.get("ContactItemDescription.foreground"));
-            descriptionLabel.setHorizontalTextPosition(JLabel.LEFT);
-            descriptionLabel.setHorizontalAlignment(JLabel.LEFT);
+        setLayout(new GridBagLayout());
 
-            this.setOpaque(true);
+        displayNameLabel = new JLabel(displayText);
+        descriptionLabel = new JLabel(descriptionText);
+        imageLabel = new JLabel(icon);
+        specialImageLabel = new JLabel(specialIcon);
+        sideIcon = new JLabel(avatarIcon);
+        if (avatarsShowing) {
+            sideIcon.setMinimumSize(new Dimension(iconSize, iconSize));
+            sideIcon.setMaximumSize(new Dimension(iconSize, iconSize));
+            sideIcon.setPreferredSize(new Dimension(iconSize, iconSize));
+        }
 
-            add(imageLabel, new GridBagConstraints(0, 0, 1, 2, 0.0, 0.0, GridBagConstraints.NORTH, GridBagConstraints.HORIZONTAL, new Insets(0, 15, 0, 0), 0, 0));
-            add(displayNameLabel, new GridBagConstraints(1, 0, 1, 1, 0.0, 0.0, GridBagConstraints.WEST, GridBagConstraints.HORIZONTAL, new Insets(0, 5, 0, 0), 0, 0));
-            add(descriptionLabel, new GridBagConstraints(2, 0, 1, 1, 1.0, 0.0, GridBagConstraints.WEST, GridBagConstraints.HORIZONTAL, new Insets(0, 5, 2, 0), 0, 0));
-            add(specialImageLabel, new GridBagConstraints(3, 0, 1, 2, 0.0, 0.0, GridBagConstraints.WEST, GridBagConstraints.HORIZONTAL, new Insets(0, 5, 0, 0), 0, 0));
-            add(sideIcon, new GridBagConstraints(4, 0, 1, 2, 0.0, 0.0, GridBagConstraints.WEST, GridBagConstraints.HORIZONTAL, new Insets(0, 5, 0, 0), 0, 0));
+        displayNameLabel.setHorizontalTextPosition(JLabel.LEFT);
+        displayNameLabel.setHorizontalAlignment(JLabel.LEFT);
+        displayNameLabel.setFont(nicknameFont);
+        displayNameLabel.setForeground(nicknameForeground);
 
-            setDisplayName();
+        descriptionLabel.setFont(descriptionFont);
+        descriptionLabel.setForeground(descriptionForeground);
+        descriptionLabel.setHorizontalTextPosition(JLabel.LEFT);
+        descriptionLabel.setHorizontalAlignment(JLabel.LEFT);
+
+        add(imageLabel, new GridBagConstraints(0, 0, 1, 2, 0.0, 0.0, GridBagConstraints.NORTH, GridBagConstraints.HORIZONTAL, new Insets(0, 15, 0, 0), 0, 0));
+        add(displayNameLabel, new GridBagConstraints(1, 0, 1, 1, 0.0, 0.0, GridBagConstraints.WEST, GridBagConstraints.HORIZONTAL, new Insets(0, 5, 0, 0), 0, 0));
+        add(descriptionLabel, new GridBagConstraints(2, 0, 1, 1, 1.0, 0.0, GridBagConstraints.WEST, GridBagConstraints.HORIZONTAL, new Insets(0, 5, 2, 0), 0, 0));
+        add(specialImageLabel, new GridBagConstraints(3, 0, 1, 2, 0.0, 0.0, GridBagConstraints.WEST, GridBagConstraints.HORIZONTAL, new Insets(0, 5, 0, 0), 0, 0));
+        add(sideIcon, new GridBagConstraints(4, 0, 1, 2, 0.0, 0.0, GridBagConstraints.WEST, GridBagConstraints.HORIZONTAL, new Insets(0, 5, 0, 0), 0, 0));
+    }
+
+    @Override
+    public void addNotify() {
+        initUi();
+        super.addNotify();
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        initUi();
+        return super.getPreferredSize();
+    }
+
+    /**
+     * Returns an immutable snapshot of what this item shows, used to render
+     * the item in a list.
+     *
+     * @return the ContactRow of this item.
+     */
+    public ContactRow getContactRow() {
+        if (uiInitialized) {
+            // The labels may have been changed directly.
+            return new ContactRow(fullyQualifiedJID, displayNameLabel.getText(), status, descriptionLabel.getText(), hash,
+                    imageLabel.getIcon(), specialImageLabel.getIcon(), sideIcon.getIcon(),
+                    displayNameLabel.getFont(), displayNameLabel.getForeground(), descriptionLabel.getFont(), descriptionLabel.getForeground());
         }
+
+        ContactRow row = contactRow;
+        if (row == null) {
+            row = new ContactRow(fullyQualifiedJID, displayText, status, descriptionText, hash, icon, specialIcon, avatarIcon,
+                    nicknameFont, nicknameForeground, descriptionFont, descriptionForeground);
+            contactRow = row;
+        }
+        return row;
     }
 
     /**
@@ -188,10 +270,12 @@ public class ContactItem extends JPanel {
      * @param nickname the contact nickname.
      */
     public void setNickname(String nickname) {
+        final String oldDisplayName = getDisplayName();
         this.nickname = nickname;
         if (alias == null) {
             setDisplayName();
         }
+        firePropertyChange(DISPLAY_NAME_PROPERTY, oldDisplayName, getDisplayName());
     }
 
     /**
@@ -210,8 +294,10 @@ public class ContactItem extends JPanel {
      * @param alias the contact alias.
      */
     public void setAlias(String alias) {
+        final String oldDisplayName = getDisplayName();
         this.alias = alias;
         setDisplayName();
+        firePropertyChange(DISPLAY_NAME_PROPERTY, oldDisplayName, getDisplayName());
     }
 
     /**
@@ -228,9 +314,14 @@ public class ContactItem extends JPanel {
         int windowWidth = settings.getMainWindowWidth();
 
         if (nickLength > windowWidth) {
-            displayNameLabel.setText(StringUtils.unescapeNode(displayName).substring(0, windowWidth) + "...");
+            displayText = StringUtils.unescapeNode(displayName).substring(0, windowWidth) + "...";
         } else {
-            displayNameLabel.setText(StringUtils.unescapeNode(displayName));
+            displayText = StringUtils.unescapeNode(displayName);
+        }
+        contactRow = null;
+
+        if (uiInitialized) {
+            displayNameLabel.setText(displayText);
         }
     }
 
@@ -260,7 +351,10 @@ public class ContactItem extends JPanel {
      */
     public void setIcon(Icon icon) {
         this.icon = icon;
-        imageLabel.setIcon(icon);
+        contactRow = null;
+        if (uiInitialized) {
+            imageLabel.setIcon(icon);
+        }
     }
 
     /**
@@ -279,6 +373,7 @@ public class ContactItem extends JPanel {
      */
     public void setStatus(String status) {
         this.status = status;
+        contactRow = null;
     }
 
     /**
@@ -315,6 +410,7 @@ public class ContactItem extends JPanel {
      * @return the nickname label.
      */
     public JLabel getNicknameLabel() {
+        initUi();
         return displayNameLabel;
     }
 
@@ -324,9 +420,54 @@ public class ContactItem extends JPanel {
      * @return the description label.
      */
     public JLabel getDescriptionLabel() {
+        initUi();
         return descriptionLabel;
     }
 
+    /**
+     * Returns the font of the users nickname.
+     *
+     * @return the nickname font.
+     */
+    public Font getNicknameFont() {
+        return uiInitialized ? displayNameLabel.getFont() : nicknameFont;
+    }
+
+    /**
+     * Sets the font of the users nickname.
+     *
+     * @param font the nickname font.
+     */
+    public void setNicknameFont(Font font) {
+        nicknameFont = font;
+        contactRow = null;
+        if (uiInitialized) {
+            displayNameLabel.setFont(font);
+        }
+    }
+
+    /**
+     * Returns the color of the users nickname.
+     *
+     * @return the nickname color.
+     */
+    public Color getNicknameForeground() {
+        return uiInitialized ? displayNameLabel.getForeground() : nicknameForeground;
+    }
+
+    /**
+     * Sets the color of the users nickname.
+     *
+     * @param color the nickname color.
+     */
+    public void setNicknameForeground(Color color) {
+        nicknameForeground = color;
+        contactRow = null;
+        if (uiInitialized) {
+            displayNameLabel.setForeground(color);
+        }
+    }
+
     /**
      * Returns the current presence of the contact.
      *
@@ -353,6 +494,7 @@ public class ContactItem extends JPanel {
             String hash = o.getValue("photo");
             if (hash != null) {
                 this.hash = hash;
+                contactRow = null;
 
                 if (!hashExists(hash)) {
                     updateAvatar();
@@ -371,10 +513,7 @@ public class ContactItem extends JPanel {
      * @return true if the hash exists, otherwise false.
      */
     private boolean hashExists(String hash) {
-        contactsDir.mkdirs();
-
-        final File imageFile = new File(contactsDir, hash);
-        return imageFile.exists();
+        return SparkManager.getVCardManager().getAvatarCache().exists(hash);
     }
 
     /**
@@ -384,13 +523,8 @@ public class ContactItem extends JPanel {
      * @throws MalformedURLException thrown if the address is invalid.
      */
     public URL getAvatarURL() throws MalformedURLException {
-        contactsDir.mkdirs();
-
-        if (ModelUtil.hasLength(hash)) {
-            final File imageFile = new File(contactsDir, hash);
-            if (imageFile.exists()) {
-                return imageFile.toURI().toURL();
-            }
+        if (hashExists(hash)) {
+            return new File(contactsDir, hash).toURI().toURL();
         }
 
         return SparkManager.getVCardManager().getAvatarURLIfAvailable(getJID());
@@ -405,7 +539,7 @@ public class ContactItem extends JPanel {
 
     @Override
     public String toString() {
-        return displayNameLabel.getText();
+        return uiInitialized ? displayNameLabel.getText() : displayText;
     }
 
     /**
@@ -447,21 +581,21 @@ public class ContactItem extends JPanel {
         } else if (presence.isAvailable()) {
             isAvailable = true;
         } else if (!presence.isAvailable()) {
-            getNicknameLabel().setFont(new Font("Dialog", Font.PLAIN, fontSize));
-            getNicknameLabel().setForeground((Color) UIManager.get("ContactItemOffline.color"));
+            setNicknameFont(new Font("Dialog", Font.PLAIN, fontSize));
+            setNicknameForeground((Color) UIManager.get("ContactItemOffline.color"));
 
             RosterEntry entry = SparkManager.getConnection().getRoster().getEntry(getJID());
             if (entry != null && (entry.getType() == RosterPacket.ItemType.none || entry.getType() == RosterPacket.ItemType.from)
                     && RosterPacket.ItemStatus.SUBSCRIPTION_PENDING == entry.getStatus()) {
                 // Do not move out of group.
                 setIcon(SparkRes.getImageIcon(SparkRes.SMALL_QUESTION));
-                getNicknameLabel().setFont(new Font("Dialog", Font.PLAIN, fontSize));
+                setNicknameFont(new Font("Dialog", Font.PLAIN, fontSize));
                 setStatusText(Res.getString("status.pending"));
             } else {
                 //We should keep the offline bullet (not available) instead of putting icon null.
                 setIcon(SparkRes.getImageIcon(SparkRes.CLEAR_BALL_ICON));
                 setFont(new Font("Dialog", Font.PLAIN, fontSize));
-                getNicknameLabel().setFont(new Font("Dialog", Font.PLAIN, fontSize));
+                setNicknameFont(new Font("Dialog", Font.PLAIN, fontSize));
                 setAvailable(false);
                 if (ModelUtil.hasLength(status)) {
                     setStatusText(status);
@@ -470,7 +604,7 @@ public class ContactItem extends JPanel {
                 }
             }
 
-            sideIcon.setIcon(null);
+            setSideIcon(null);
             setAvailable(false);
             return;
         }
@@ -491,18 +625,18 @@ public class ContactItem extends JPanel {
         }
 
         // Always change nickname label to black.
-        getNicknameLabel().setForeground((Color) UIManager.get("ContactItemNickname.foreground"));
+        setNicknameForeground((Color) UIManager.get("ContactItemNickname.foreground"));
 
         if (isAvailable) {
-            getNicknameLabel().setFont(new Font("Dialog", Font.PLAIN, fontSize));
+            setNicknameFont(new Font("Dialog", Font.PLAIN, fontSize));
             if (Res.getString("status.online").equals(status) || Res.getString("available").equalsIgnoreCase(status)) {
                 setStatusText("");
             } else {
                 setStatusText(status);
             }
         } else if (presence.isAvailable()) {
-            getNicknameLabel().setFont(new Font("Dialog", Font.ITALIC, fontSize));
-            getNicknameLabel().setForeground(Color.gray);
+            setNicknameFont(new Font("Dialog", Font.ITALIC, fontSize));
+            setNicknameForeground(Color.gray);
             if (status != null) {
                 setStatusText(status);
             }
@@ -520,9 +654,14 @@ public class ContactItem extends JPanel {
         setStatus(status);
 
         if (ModelUtil.hasLength(status)) {
-            getDescriptionLabel().setText(" - " + status);
+            descriptionText = " - " + status;
         } else {
-            getDescriptionLabel().setText("");
+            descriptionText = "";
+        }
+        contactRow = null;
+
+        if (uiInitialized) {
+            descriptionLabel.setText(descriptionText);
         }
     }
 
@@ -534,7 +673,11 @@ public class ContactItem extends JPanel {
      * @param icon the icon to use.
      */
     public void setSideIcon(Icon icon) {
-        sideIcon.setIcon(icon);
+        avatarIcon = icon;
+        contactRow = null;
+        if (uiInitialized) {
+            sideIcon.setIcon(icon);
+        }
     }
 
     /**
@@ -544,7 +687,20 @@ public class ContactItem extends JPanel {
      * @param icon the icon to use.
      */
     public void setSpecialIcon(Icon icon) {
-        specialImageLabel.setIcon(icon);
+        specialIcon = icon;
+        contactRow = null;
+        if (uiInitialized) {
+            specialImageLabel.setIcon(icon);
+        }
+    }
+
+    /**
+     * Returns the icon showing extra information about this contact.
+     *
+     * @return the special icon, or null if there is none.
+     */
+    public Icon getSpecialIcon() {
+        return uiInitialized ? specialImageLabel.getIcon() : specialIcon;
     }
 
     /**
@@ -552,8 +708,8 @@ public class ContactItem extends JPanel {
      */
     public void showUserComingOnline() {
         // Change Font
-        getNicknameLabel().setFont(new Font("Dialog", Font.BOLD, fontSize));
-        getNicknameLabel().setForeground(new Color(255, 128, 0));
+        setNicknameFont(new Font("Dialog", Font.BOLD, fontSize));
+        setNicknameForeground(new Color(255, 128, 0));
     }
 
     /**
@@ -561,31 +717,36 @@ public class ContactItem extends JPanel {
      */
     public void showUserGoingOfflineOnline() {
         // Change Font
-        getNicknameLabel().setFont(new Font("Dialog", Font.BOLD, fontSize));
-        getNicknameLabel().setForeground(Color.red);
+        setNicknameFont(new Font("Dialog", Font.BOLD, fontSize));
+        setNicknameForeground(Color.red);
     }
 
     /**
      * Update avatar icon.
      */
     public void updateAvatarInSideIcon() {
-        try {
-            final URL url = getAvatarURL();
-            if (url != null) {
-                if (!avatarsShowing) {
-                    setSideIcon(null);
-                } else {
-                    ImageIcon icon = new ImageIcon(url);
-                    icon = GraphicUtils.scale(icon, iconSize, iconSize);
-                    setSideIcon(icon);
-                }
+        String avatarHash = hash;
+        if (!hashExists(avatarHash)) {
+            // The presence carries no stored avatar, use the one of the vCard.
+            avatarHash = SparkManager.getVCardManager().getAvatarHashIfAvailable(getJID());
+            if (!hashExists(avatarHash)) {
+                return;
+            }
+        }
+
+        if (!avatarsShowing) {
+            setSideIcon(null);
+        } else {
+            // Decoded and scaled once for all contacts sharing the avatar.
+            final ImageIcon icon = SparkManager.getVCardManager().getAvatarCache().getAvatar(avatarHash, iconSize);
+            if (icon != null) {
+                setSideIcon(icon);
             }
-        } catch (MalformedURLException e) {
-            Log.error(e);
         }
     }
 
     protected JLabel getDisplayNameLabel() {
+        initUi();
         return displayNameLabel;
     }
 
@@ -594,22 +755,27 @@ public class ContactItem extends JPanel {
     }
 
     protected void setDisplayNameLabel(JLabel displayNameLabel) {
+        initUi();
         this.displayNameLabel = displayNameLabel;
     }
 
     protected void setDescriptionLabel(JLabel descriptionLabel) {
+        initUi();
         this.descriptionLabel = descriptionLabel;
     }
 
     public JLabel getSpecialImageLabel() {
+        initUi();
         return specialImageLabel;
     }
 
     protected void setSpecialImageLabel(JLabel specialImageLabel) {
+        initUi();
         this.specialImageLabel = specialImageLabel;
     }
 
     public JLabel getSideIcon() {
+        initUi();
         return sideIcon;
     }
 }
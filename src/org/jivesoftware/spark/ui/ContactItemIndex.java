@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2004-2011 Jive Software. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.jivesoftware.spark.ui;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.jivesoftware.smack.util.StringUtils;
+
+/**
+ * Maps bare JIDs to every <code>ContactItem</code> of the ContactList showing
+ * that JID, together with the <code>ContactGroup</code> holding the item.
+ * The index is kept up to date by the groups themselves whenever an item is
+ * added or removed, so lookups never have to walk the groups.
+ */
+final class ContactItemIndex {
+
+    private final Map<String, Map<ContactItem, ContactGroup>> items = new ConcurrentHashMap<>();
+
+    /**
+     * Registers an item of a group.
+     *
+     * @param group the group holding the item.
+     * @param item the ContactItem.
+     */
+    void add(ContactGroup group, ContactItem item) {
+        final String key = getKey(item.getJID());
+        if (key != null) {
+            items.computeIfAbsent(key, k -> new ConcurrentHashMap<>()).put(item, group);
+        }
+    }
+
+    /**
+     * Unregisters an item of a group.
+     *
+     * @param group the group that held the item.
+     * @param item the ContactItem.
+     */
+    void remove(ContactGroup group, ContactItem item) {
+        final String key = getKey(item.getJID());
+        if (key != null) {
+            items.computeIfPresent(key, (k, groups) -> {
+                groups.remove(item, group);
+                return groups.isEmpty() ? null : groups;
+            });
+        }
+    }
+
+    /**
+     * Returns the items showing a JID and the groups holding them.
+     *
+     * @param jid the JID of the user, the resource is ignored.
+     * @return a snapshot of the items, empty if there is none.
+     */
+    Map<ContactItem, ContactGroup> get(String jid) {
+        final String key = getKey(jid);
+        final Map<ContactItem, ContactGroup> groups = key != null ? items.get(key) : null;
+        if (groups == null) {
+            return Collections.emptyMap();
+        }
+        return new LinkedHashMap<>(groups);
+    }
+
+    private static String getKey(String jid) {
+        if (jid == null) {
+            return null;
+        }
+        return StringUtils.parseBareAddress(jid).toLowerCase();
+    }
+}
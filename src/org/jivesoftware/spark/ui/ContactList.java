@@ -36,7 +36,6 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -45,7 +44,6 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.StringTokenizer;
-import java.util.TimerTask;
 import javax.swing.AbstractAction;
 import javax.swing.Action;
 import javax.swing.BorderFactory;
@@ -97,7 +95,7 @@ import org.jivesoftware.spark.plugin.ContextMenuListener;
 import org.jivesoftware.spark.plugin.Plugin;
 import org.jivesoftware.spark.util.ModelUtil;
 import org.jivesoftware.spark.util.ResourceUtils;
-import org.jivesoftware.spark.util.SwingTimerTask;
+import org.jivesoftware.spark.util.StartupTrace;
 import org.jivesoftware.spark.util.SwingWorker;
 import org.jivesoftware.spark.util.TaskEngine;
 import org.jivesoftware.spark.util.UIComponentRegistry;
@@ -113,6 +111,7 @@ public class ContactList extends JPanel implements ActionListener,
     private final JPanel mainPanel = new JPanel();
     private final JScrollPane contactListScrollPane;
     private final List<ContactGroup> groupList = new ArrayList<>();
+    private final ContactItemIndex contactItemIndex = new ContactItemIndex();
     private final RolloverButton addingGroupButton;
 
     private ContactItem activeItem;
@@ -135,7 +134,9 @@ public class ContactList extends JPanel implements ActionListener,
 
     private final List<ContextMenuListener> contextListeners = new ArrayList<>();
 
-    private final List<Presence> initialPresences = new ArrayList<>();
+    private final PresenceQueue presenceQueue = new PresenceQueue(this::applyQueuedPresence, this::runBatch);
+    // Groups to repaint once the current presence batch has been applied.
+    private Set<ContactGroup> updatedGroups;
     private final List<FileDropListener> dndListeners = new ArrayList<>();
     private final List<ContactListListener> contactListListeners = new ArrayList<>();
     private final Properties props;
@@ -379,19 +380,77 @@ public class ContactList extends JPanel implements ActionListener,
      * @param bareJID the bare jid of the user.
      */
     private void updateContactItemsPresence(Presence presence, RosterEntry entry, String bareJID) {
-        for (ContactGroup group : groupList) {
-            ContactItem item = group.getContactItemByJID(bareJID);
-            if (item != null) {
-                if (group == offlineGroup) {
-                    changeOfflineToOnline(bareJID, entry, presence);
-                    continue;
-                }
-                item.setPresence(presence);
-                group.fireContactGroupUpdated();
+        for (Map.Entry<ContactItem, ContactGroup> itemEntry : getGroupedContactItems(bareJID).entrySet()) {
+            final ContactItem item = itemEntry.getKey();
+            final ContactGroup group = itemEntry.getValue();
+            if (group == offlineGroup) {
+                changeOfflineToOnline(bareJID, entry, presence);
+                continue;
             }
+            item.setPresence(presence);
+            fireGroupUpdated(group);
+        }
+    }
+
+    /**
+     * Applies a presence taken from the presence queue.
+     *
+     * @param presence the users presence.
+     */
+    private void applyQueuedPresence(Presence presence) {
+        try {
+            updateUserPresence(presence);
+        } catch (Exception e) {
+            Log.error(e);
+        }
+    }
+
+    /**
+     * Runs a batch of presence updates. Groups changed by the batch are
+     * repainted once it has finished.
+     *
+     * @param batch the updates to run.
+     */
+    private void runBatch(Runnable batch) {
+        if (updatedGroups != null) {
+            batch.run();
+            return;
+        }
+
+        updatedGroups = new HashSet<>();
+        try {
+            batch.run();
+        } finally {
+            final Set<ContactGroup> groups = updatedGroups;
+            updatedGroups = null;
+            groups.stream().forEach((group) -> {
+                group.fireContactGroupUpdated();
+            });
         }
     }
 
+    /**
+     * Repaints a group, or remembers it if a presence batch is being applied.
+     *
+     * @param group the group that changed.
+     */
+    private void fireGroupUpdated(ContactGroup group) {
+        if (updatedGroups != null && EventQueue.isDispatchThread()) {
+            updatedGroups.add(group);
+        } else {
+            group.fireContactGroupUpdated();
+        }
+    }
+
+    /**
+     * Returns the queue the presences of the roster are applied through.
+     *
+     * @return the PresenceQueue.
+     */
+    public PresenceQueue getPresenceQueue() {
+        return presenceQueue;
+    }
+
     /**
      * Moves every <code>ContactItem</code> associated with the given bareJID to
      * offline.
@@ -400,48 +459,42 @@ public class ContactList extends JPanel implements ActionListener,
      * @param bareJID the bareJID of the user.
      */
     private void moveToOfflineGroup(final Presence presence, final String bareJID) {
-        for (ContactGroup grpItem : new ArrayList<>(groupList)) {
-            final ContactGroup group = grpItem;
-            final ContactItem item = group.getContactItemByJID(bareJID);
-            if (item != null) {
-                int numberOfMillisecondsInTheFuture = 3000;
-                Date timeToRun = new Date(System.currentTimeMillis() + numberOfMillisecondsInTheFuture);
-
-                // Only run through if the users presence was online before.
-                if (item.getPresence().isAvailable()) {
-                    item.showUserGoingOfflineOnline();
-                    item.setIcon(SparkRes.getImageIcon(SparkRes.CLEAR_BALL_ICON));
-                    group.fireContactGroupUpdated();
-
-                    TaskEngine.getInstance().schedule(new SwingTimerTask() {
-                        @Override
-                        public void doRun() {
-                            // Check to see if the user is offline, if so, move them to the offline group.
-                            Presence userPresence = PresenceManager.getPresence(bareJID);
-                            if (userPresence.isAvailable()) {
-                                return;
-                            }
+        for (Map.Entry<ContactItem, ContactGroup> itemEntry : getGroupedContactItems(bareJID).entrySet()) {
+            final ContactItem item = itemEntry.getKey();
+            final ContactGroup group = itemEntry.getValue();
+            int numberOfMillisecondsInTheFuture = 3000;
+
+            // Only run through if the users presence was online before.
+            if (item.getPresence().isAvailable()) {
+                item.showUserGoingOfflineOnline();
+                item.setIcon(SparkRes.getImageIcon(SparkRes.CLEAR_BALL_ICON));
+                fireGroupUpdated(group);
+
+                presenceQueue.schedule(() -> {
+                    // Check to see if the user is offline, if so, move them to the offline group.
+                    Presence userPresence = PresenceManager.getPresence(bareJID);
+                    if (userPresence.isAvailable()) {
+                        return;
+                    }
 
-                            item.setPresence(presence);
+                    item.setPresence(presence);
 
-                            // Check for ContactItemHandler.
-                            group.removeContactItem(item);
-                            checkGroup(group);
+                    // Check for ContactItemHandler.
+                    group.removeContactItem(item);
+                    checkGroup(group);
 
-                            if (offlineGroup.getContactItemByJID(item.getJID()) == null) {
-                                moveToOffline(item);
-                                offlineGroup.fireContactGroupUpdated();
-                            }
-                        }
-                    }, timeToRun);
-                }
-            } else {
-                final ContactItem offlineItem = offlineGroup.getContactItemByJID(bareJID);
-                if (offlineItem != null) {
-                    offlineItem.setPresence(presence);
-                }
+                    if (offlineGroup.getContactItemByJID(item.getJID()) == null) {
+                        moveToOffline(item);
+                        fireGroupUpdated(offlineGroup);
+                    }
+                }, numberOfMillisecondsInTheFuture);
             }
         }
+
+        final ContactItem offlineItem = offlineGroup.getContactItemByJID(bareJID);
+        if (offlineItem != null) {
+            offlineItem.setPresence(presence);
+        }
     }
 
     /**
@@ -488,24 +541,19 @@ public class ContactList extends JPanel implements ActionListener,
                         changeContactItem.setPresence(presence);
                         changeContactItem.updateAvatarInSideIcon();
                         changeContactItem.showUserComingOnline();
-                        changeContactItem.setSpecialIcon(offlineItem.getSpecialImageLabel().getIcon());
+                        changeContactItem.setSpecialIcon(offlineItem.getSpecialIcon());
                         //contactItem.updatePresenceIcon(contactItem.getPresence());
                         toggleGroupVisibility(contactGroup.getGroupName(), true);
                         //contactGroup.fireContactGroupUpdated();
 
                         int numberOfMillisecondsInTheFuture = 5000;
-                        Date timeToRun = new Date(System.currentTimeMillis()
-                                + numberOfMillisecondsInTheFuture);
 
                         final ContactItem staticItem = changeContactItem;
                         final ContactGroup staticGroup = contactGroup;
-                        TaskEngine.getInstance().schedule(new SwingTimerTask() {
-                            @Override
-                            public void doRun() {
-                                staticItem.updatePresenceIcon(staticItem.getPresence());
-                                staticGroup.fireContactGroupUpdated();
-                            }
-                        }, timeToRun);
+                        presenceQueue.schedule(() -> {
+                            staticItem.updatePresenceIcon(staticItem.getPresence());
+                            fireGroupUpdated(staticGroup);
+                        }, numberOfMillisecondsInTheFuture);
 
                     } else {
 
@@ -520,7 +568,7 @@ public class ContactList extends JPanel implements ActionListener,
                             changeContact.setAvailable(true);
                             changeContact.updateAvatarInSideIcon();
                             changeContact.showUserComingOnline();
-                            changeContact.setSpecialIcon(offlineItem.getSpecialImageLabel().getIcon());
+                            changeContact.setSpecialIcon(offlineItem.getSpecialIcon());
                             changeContact.updatePresenceIcon(changeContact.getPresence());
                             toggleGroupVisibility(staticContactGroup.getGroupName(), true);
                             staticContactGroup.fireContactGroupUpdated();
@@ -543,7 +591,7 @@ public class ContactList extends JPanel implements ActionListener,
                     contactItem.setPresence(presence);
                     contactItem.setAvailable(true);
                     unfiledGrp.setVisible(true);
-                    unfiledGrp.fireContactGroupUpdated();
+                    fireGroupUpdated(unfiledGrp);
 
                 } else {
                     final Presence staticItemPrecense = presence;
@@ -851,13 +899,8 @@ public class ContactList extends JPanel implements ActionListener,
      * @return the "first" contact item found.
      */
     public ContactItem getContactItemByJID(String jid) {
-        for (ContactGroup group : getContactGroups()) {
-            ContactItem item = group.getContactItemByJID(StringUtils.parseBareAddress(jid));
-            if (item != null) {
-                return item;
-            }
-        }
-        return null;
+        final Map.Entry<ContactItem, ContactGroup> itemEntry = getFirstContactItem(jid);
+        return itemEntry != null ? itemEntry.getKey() : null;
     }
 
     /**
@@ -867,14 +910,10 @@ public class ContactList extends JPanel implements ActionListener,
      * @return a Collection of <code>ContactItem</code> items.
      */
     public Collection<ContactItem> getContactItemsByJID(String jid) {
-        final List<ContactItem> list = new ArrayList<>();
-        getContactGroups().stream().map((group) -> group.getContactItemByJID(StringUtils.parseBareAddress(jid))).filter((item) -> (item != null)).forEach((item) -> {
-            list.add(item);
-        });
-        getContactGroups().stream().forEach((group) -> {
-            group.getOfflineContacts().stream().filter((offlineItem) -> (offlineItem != null && offlineItem.getJID().equalsIgnoreCase(StringUtils.parseBareAddress(jid)))).filter((offlineItem) -> (!list.contains(offlineItem))).forEach((offlineItem) -> {
-                list.add(offlineItem);
-            });
+        // Items shown in the groups first, followed by the offline contacts.
+        final List<ContactItem> list = new ArrayList<>(getGroupedContactItems(jid).keySet());
+        contactItemIndex.get(jid).keySet().stream().filter((offlineItem) -> (!list.contains(offlineItem))).forEach((offlineItem) -> {
+            list.add(offlineItem);
         });
 
         return list;
@@ -887,12 +926,9 @@ public class ContactList extends JPanel implements ActionListener,
      * @param icon the icon to use.
      */
     public void setIconFor(String jid, Icon icon) {
-        getContactGroups().stream().forEach((group) -> {
-            ContactItem item = group.getContactItemByJID(StringUtils.parseBareAddress(jid));
-            if (item != null) {
-                item.setIcon(icon);
-                group.fireContactGroupUpdated();
-            }
+        getGroupedContactItems(jid).forEach((item, group) -> {
+            item.setIcon(icon);
+            group.fireContactGroupUpdated();
         });
     }
 
@@ -902,15 +938,42 @@ public class ContactList extends JPanel implements ActionListener,
      * @param jid the users jid.
      */
     public void useDefaults(String jid) {
-        getContactGroups().stream().forEach((group) -> {
-            ContactItem item = group.getContactItemByJID(StringUtils.parseBareAddress(jid));
-            if (item != null) {
-                item.updatePresenceIcon(item.getPresence());
-                group.fireContactGroupUpdated();
-            }
+        getGroupedContactItems(jid).forEach((item, group) -> {
+            item.updatePresenceIcon(item.getPresence());
+            group.fireContactGroupUpdated();
         });
     }
 
+    /**
+     * Returns the items shown in the contact groups for a JID, together with
+     * the group of each item. Offline contacts that are only remembered by a
+     * group are left out.
+     *
+     * @param jid the users JID.
+     * @return the items and their groups.
+     */
+    private Map<ContactItem, ContactGroup> getGroupedContactItems(String jid) {
+        final Map<ContactItem, ContactGroup> items = contactItemIndex.get(jid);
+        items.entrySet().removeIf((itemEntry) -> (itemEntry.getValue().getContactItemByJID(itemEntry.getKey().getJID()) != itemEntry.getKey()));
+        return items;
+    }
+
+    /**
+     * Returns the item of a JID found in the first group of the ContactList.
+     *
+     * @param jid the users JID.
+     * @return the item and its group, or null if the JID is not shown.
+     */
+    private Map.Entry<ContactItem, ContactGroup> getFirstContactItem(String jid) {
+        Map.Entry<ContactItem, ContactGroup> first = null;
+        for (Map.Entry<ContactItem, ContactGroup> itemEntry : getGroupedContactItems(jid).entrySet()) {
+            if (first == null || GROUP_COMPARATOR.compare(itemEntry.getValue(), first.getValue()) < 0) {
+                first = itemEntry;
+            }
+        }
+        return first;
+    }
+
     /**
      * Retrieve the ContactItem by their displayed name (either alias, nickname
      * or username).
@@ -945,6 +1008,7 @@ public class ContactList extends JPanel implements ActionListener,
         }
 
         group.addContactGroupListener(this);
+        group.setContactItemIndex(contactItemIndex);
 
         fireContactGroupAdded(group);
 
@@ -1013,6 +1077,7 @@ public class ContactList extends JPanel implements ActionListener,
             lastGroup = newContactGroup;
 
             newContactGroup.addContactGroupListener(this);
+            newContactGroup.setContactItemIndex(contactItemIndex);
 
             if (sharedGroups != null) {
                 boolean isSharedGroup = sharedGroups.contains(newContactGroup.getGroupName());
@@ -1072,6 +1137,7 @@ public class ContactList extends JPanel implements ActionListener,
      */
     private void removeContactGroup(ContactGroup contactGroup) {
         contactGroup.removeContactGroupListener(this);
+        contactGroup.setContactItemIndex(null);
         groupList.remove(contactGroup);
         mainPanel.remove(contactGroup);
 
@@ -1667,10 +1733,13 @@ public class ContactList extends JPanel implements ActionListener,
         SparkManager.getMainWindow().getTopToolBar().setVisible(false);
 
         final Runnable sharedGroupLoader = () -> {
+            final StartupTrace.Span span = StartupTrace.getInstance().begin("roster.sharedgroups");
             try {
                 sharedGroups = SharedGroupManager.getSharedGroups(SparkManager.getConnection());
             } catch (XMPPException e) {
                 Log.error("Unable to contact shared group info.", e);
+            } finally {
+                span.end();
             }
             SwingUtilities.invokeLater(this::loadContactList);
         };
@@ -1679,17 +1748,23 @@ public class ContactList extends JPanel implements ActionListener,
     }
 
     private void loadContactList() {
+        final StartupTrace trace = StartupTrace.getInstance();
+        final StartupTrace.Span span = trace.begin("roster.build");
+        try {
+            // Build the initial contact list.
+            buildContactList();
 
-        // Build the initial contact list.
-        buildContactList();
-
-        boolean show = localPreferences.isEmptyGroupsShown();
+            boolean show = localPreferences.isEmptyGroupsShown();
 
-        // Hide all groups initially
-        showEmptyGroups(show);
+            // Hide all groups initially
+            showEmptyGroups(show);
 
-        // Hide all Offline Users
-        showOfflineUsers(localPreferences.isOfflineUsersShown());
+            // Hide all Offline Users
+            showOfflineUsers(localPreferences.isOfflineUsersShown());
+        } finally {
+            span.end();
+        }
+        trace.mark("roster.usable");
 
         // Add a subscription listener.
         addSubscriptionListener();
@@ -1754,29 +1829,7 @@ public class ContactList extends JPanel implements ActionListener,
                     removeContactItem(jid);
                 });
             } else {
-                try {
-                    initialPresences.add(presence);
-                } catch (Exception e) {
-                    Log.error(e);
-                }
-                int numberOfMillisecondsInTheFuture = 1000;
-                TaskEngine.getInstance().schedule(new TimerTask() {
-                    @Override
-                    public void run() {
-                        SwingUtilities.invokeLater(() -> {
-                            new ArrayList<>(initialPresences).stream().map((userToUpdate) -> {
-                                initialPresences.remove(userToUpdate);
-                                return userToUpdate;
-                            }).forEach((userToUpdate) -> {
-                                try {
-                                    updateUserPresence(userToUpdate);
-                                } catch (Exception e) {
-                                    Log.error(e);
-                                }
-                            });
-                        });
-                    }
-                }, numberOfMillisecondsInTheFuture);
+                presenceQueue.add(presence);
             }
         };
 
@@ -1990,13 +2043,9 @@ public class ContactList extends JPanel implements ActionListener,
      * @param jid, the Users JID
      */
     public void setSelectedUser(String jid) {
-        for (ContactGroup group : getContactGroups()) {
-            if (group.getContactItemByJID(jid) != null) {
-
-                ContactItem item = group.getContactItemByJID(jid);
-                group.getList().setSelectedValue(item, false);
-                return;
-            }
+        final Map.Entry<ContactItem, ContactGroup> itemEntry = getFirstContactItem(jid);
+        if (itemEntry != null) {
+            itemEntry.getValue().getList().setSelectedValue(itemEntry.getKey(), false);
         }
     }
 
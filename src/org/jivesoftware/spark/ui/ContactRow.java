@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) 2004-2011 Jive Software. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.jivesoftware.spark.ui;
+
+import java.awt.Color;
+import java.awt.Font;
+import javax.swing.Icon;
+
+/**
+ * Immutable snapshot of what a <code>ContactItem</code> shows in the contact
+ * list. Rows are rendered by a shared renderer, so a contact does not need
+ * any Swing components of its own to be displayed.
+ */
+public final class ContactRow {
+
+    private final String jid;
+    private final String displayName;
+    private final String status;
+    private final String description;
+    private final String avatarHash;
+    private final Icon icon;
+    private final Icon specialIcon;
+    private final Icon avatar;
+    private final Font nicknameFont;
+    private final Color nicknameForeground;
+    private final Font descriptionFont;
+    private final Color descriptionForeground;
+
+    public ContactRow(String jid, String displayName, String status, String description, String avatarHash,
+            Icon icon, Icon specialIcon, Icon avatar,
+            Font nicknameFont, Color nicknameForeground, Font descriptionFont, Color descriptionForeground) {
+        this.jid = jid;
+        this.displayName = displayName;
+        this.status = status;
+        this.description = description;
+        this.avatarHash = avatarHash;
+        this.icon = icon;
+        this.specialIcon = specialIcon;
+        this.avatar = avatar;
+        this.nicknameFont = nicknameFont;
+        this.nicknameForeground = nicknameForeground;
+        this.descriptionFont = descriptionFont;
+        this.descriptionForeground = descriptionForeground;
+    }
+
+    public String getJID() {
+        return jid;
+    }
+
+    /**
+     * Returns the name as shown in the list, possibly shortened.
+     *
+     * @return the display name.
+     */
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    /**
+     * Returns the text shown next to the display name.
+     *
+     * @return the description.
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    public String getAvatarHash() {
+        return avatarHash;
+    }
+
+    /**
+     * Returns the presence icon.
+     *
+     * @return the presence icon.
+     */
+    public Icon getIcon() {
+        return icon;
+    }
+
+    public Icon getSpecialIcon() {
+        return specialIcon;
+    }
+
+    /**
+     * Returns the avatar shown at the side of the row.
+     *
+     * @return the avatar, or null if none is shown.
+     */
+    public Icon getAvatar() {
+        return avatar;
+    }
+
+    public Font getNicknameFont() {
+        return nicknameFont;
+    }
+
+    public Color getNicknameForeground() {
+        return nicknameForeground;
+    }
+
+    public Font getDescriptionFont() {
+        return descriptionFont;
+    }
+
+    public Color getDescriptionForeground() {
+        return descriptionForeground;
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright (C) 2004-2011 Jive Software. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.jivesoftware.spark.ui;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.jivesoftware.sparkimpl.plugin.emoticons.EmoticonMatcher;
+
+/**
+ * Finds the links, network addresses and emoticons of a message in one pass.
+ * Words are separated by spaces, tabs and new lines. A word is a link if it
+ * starts like an URL, an address if it is a UNC path or an URL without a
+ * host name, and an emoticon if it is an equivalent of the active pack.
+ */
+final class MessageTokenizer {
+
+    private static final String[] LINK_PREFIXES = {"http://", "ftp://", "https://", "www."};
+
+    enum Type {
+        LINK, ADDRESS, EMOTICON
+    }
+
+    /**
+     * A word of a message that is not shown as plain text.
+     */
+    static final class Span {
+
+        final Type type;
+        final int start;
+        final int end;
+
+        Span(Type type, int start, int end) {
+            this.type = type;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private MessageTokenizer() {
+    }
+
+    /**
+     * Returns the words of a message that are not plain text, in order.
+     *
+     * @param text the message.
+     * @param matcher the emoticons to look for, or null to ignore emoticons.
+     * @return the spans of the links, addresses and emoticons.
+     */
+    static List<Span> tokenize(String text, EmoticonMatcher matcher) {
+        final List<Span> spans = new ArrayList<>();
+        final int length = text.length();
+        int start = 0;
+        while (start < length) {
+            if (isSeparator(text.charAt(start))) {
+                start++;
+                continue;
+            }
+            int end = start + 1;
+            while (end < length && !isSeparator(text.charAt(end))) {
+                end++;
+            }
+
+            final Type type = getType(text, start, end, matcher);
+            if (type != null) {
+                spans.add(new Span(type, start, end));
+            }
+            start = end;
+        }
+        return spans;
+    }
+
+    private static Type getType(String text, int start, int end, EmoticonMatcher matcher) {
+        final int dot = indexOf(text, ".", start, end);
+        for (String prefix : LINK_PREFIXES) {
+            if (end - start >= prefix.length() && text.startsWith(prefix, start)) {
+                if (dot - start > 1) {
+                    return Type.LINK;
+                }
+                break;
+            }
+        }
+
+        if (text.startsWith("\\\\", start) && end - start >= 2) {
+            return Type.ADDRESS;
+        }
+        if (indexOf(text, "://", start, end) > start && (dot < 0 || dot == start)) {
+            return Type.ADDRESS;
+        }
+
+        if (matcher != null && matcher.match(text, start, end) != null) {
+            return Type.EMOTICON;
+        }
+        return null;
+    }
+
+    private static int indexOf(String text, String s, int start, int end) {
+        // Unlike String.indexOf, does not search past the end of the word.
+        for (int i = start; i + s.length() <= end; i++) {
+            if (text.startsWith(s, i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == ' ' || c == '\n' || c == '\t';
+    }
+}
@@ -0,0 +1,208 @@
+/**
+ * Copyright (C) 2004-2011 Jive Software. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.jivesoftware.spark.ui;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.util.StringUtils;
+import org.jivesoftware.spark.util.SwingTimerTask;
+import org.jivesoftware.spark.util.TaskEngine;
+import org.jivesoftware.spark.util.log.Log;
+
+/**
+ * Collects the presences of the roster and applies them on the Swing event
+ * thread once per frame. Presences of the same bare JID received within one
+ * frame are collapsed into the last one. Delayed roster work, like moving a
+ * contact to the offline group, is run in the same batches.
+ */
+public class PresenceQueue {
+
+    /**
+     * Time in milliseconds presences are collected before they are applied.
+     */
+    public static final long FRAME_DELAY = 100;
+
+    private final Consumer<Presence> handler;
+    private final Consumer<Runnable> batchRunner;
+
+    private final Object lock = new Object();
+    private Map<Object, Presence> pending = new LinkedHashMap<>();
+    private final PriorityQueue<DelayedAction> delayedActions = new PriorityQueue<>();
+    private long sequence;
+    private long nextTick;
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong applied = new AtomicLong();
+
+    /**
+     * Creates a new PresenceQueue.
+     *
+     * @param handler applies a single presence, called on the event thread.
+     * @param batchRunner runs the work of one frame, so that the ui can be
+     * updated once for the whole batch.
+     */
+    public PresenceQueue(Consumer<Presence> handler, Consumer<Runnable> batchRunner) {
+        this.handler = handler;
+        this.batchRunner = batchRunner;
+    }
+
+    /**
+     * Queues a presence. May be called from any thread.
+     *
+     * @param presence the presence to apply.
+     */
+    public void add(Presence presence) {
+        received.incrementAndGet();
+
+        final String from = presence.getFrom();
+        final Object key = from != null ? StringUtils.parseBareAddress(from) : new Object();
+        synchronized (lock) {
+            if (pending.put(key, presence) != null) {
+                coalesced.incrementAndGet();
+            }
+            scheduleTick(System.currentTimeMillis() + FRAME_DELAY);
+        }
+    }
+
+    /**
+     * Runs an action on the event thread with the first frame after the
+     * delay has passed. May be called from any thread.
+     *
+     * @param action the action to run.
+     * @param delay the delay in milliseconds.
+     */
+    public void schedule(Runnable action, long delay) {
+        final long time = System.currentTimeMillis() + delay;
+        synchronized (lock) {
+            delayedActions.add(new DelayedAction(time, sequence++, action));
+            scheduleTick(time);
+        }
+    }
+
+    /**
+     * Returns the number of presences received.
+     *
+     * @return the number of presences received.
+     */
+    public long getReceivedCount() {
+        return received.get();
+    }
+
+    /**
+     * Returns the number of presences that were dropped because a newer
+     * presence of the same user arrived within the same frame.
+     *
+     * @return the number of coalesced presences.
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * Returns the number of presences applied to the contact list.
+     *
+     * @return the number of applied presences.
+     */
+    public long getAppliedCount() {
+        return applied.get();
+    }
+
+    private void scheduleTick(long time) {
+        if (nextTick != 0 && nextTick <= time) {
+            return;
+        }
+        nextTick = time;
+        TaskEngine.getInstance().schedule(new SwingTimerTask() {
+            @Override
+            public void doRun() {
+                tick();
+            }
+        }, Math.max(0, time - System.currentTimeMillis()));
+    }
+
+    private void tick() {
+        final Map<Object, Presence> presences;
+        final List<Runnable> actions = new ArrayList<>();
+        synchronized (lock) {
+            presences = pending;
+            pending = new LinkedHashMap<>();
+
+            final long now = System.currentTimeMillis();
+            while (!delayedActions.isEmpty() && delayedActions.peek().time <= now) {
+                actions.add(delayedActions.poll().action);
+            }
+
+            nextTick = 0;
+            if (!delayedActions.isEmpty()) {
+                scheduleTick(delayedActions.peek().time);
+            }
+        }
+
+        if (presences.isEmpty() && actions.isEmpty()) {
+            return;
+        }
+
+        batchRunner.accept(() -> {
+            presences.values().stream().forEach((presence) -> {
+                try {
+                    handler.accept(presence);
+                } catch (Exception e) {
+                    Log.error(e);
+                }
+                applied.incrementAndGet();
+            });
+            actions.stream().forEach((action) -> {
+                try {
+                    action.run();
+                } catch (Exception e) {
+                    Log.error(e);
+                }
+            });
+        });
+
+        if (!presences.isEmpty()) {
+            Log.debug("Presences received: " + received.get() + ", coalesced: " + coalesced.get() + ", applied: " + applied.get());
+        }
+    }
+
+    private static class DelayedAction implements Comparable<DelayedAction> {
+
+        private final long time;
+        private final long sequence;
+        private final Runnable action;
+
+        DelayedAction(long time, long sequence, Runnable action) {
+            this.time = time;
+            this.sequence = sequence;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(DelayedAction other) {
+            if (time != other.time) {
+                return time < other.time ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}
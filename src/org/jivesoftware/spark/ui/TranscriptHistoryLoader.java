@@ -0,0 +1,50 @@
+/**
+ * Copyright (C) 2004-2011 Jive Software. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.jivesoftware.spark.ui;
+
+/**
+ * Loads the messages older than the ones shown in a
+ * <code>TranscriptWindow</code>, either because the window was opened with
+ * only the last messages or because old messages were removed to keep the
+ * window within its scrollback limit.
+ *
+ * @see TranscriptWindow#setHistoryLoader(TranscriptHistoryLoader)
+ */
+public interface TranscriptHistoryLoader {
+
+    /**
+     * Returns true if there are messages older than the ones shown.
+     *
+     * @return true if older messages can be loaded.
+     */
+    boolean hasOlderMessages();
+
+    /**
+     * Is called when the oldest messages were removed from the window.
+     *
+     * @param count the number of messages removed.
+     */
+    void messagesRemoved(int count);
+
+    /**
+     * Inserts older messages using
+     * {@link TranscriptWindow#insertHistoryMessage(String, String, java.util.Date)}.
+     * The window places them before the messages shown.
+     *
+     * @param window the TranscriptWindow.
+     */
+    void loadOlderMessages(TranscriptWindow window);
+}
@@ -21,17 +21,20 @@ import java.awt.Color;
 import java.awt.Component;
 import java.awt.Font;
 import java.awt.HeadlessException;
+import java.awt.Rectangle;
 import java.awt.Toolkit;
 import java.awt.datatransfer.StringSelection;
 import java.awt.event.ActionEvent;
 import java.awt.event.MouseEvent;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 import javax.swing.AbstractAction;
@@ -41,9 +44,11 @@ import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
 import javax.swing.JPopupMenu;
 import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.Document;
+import javax.swing.text.Position;
 import javax.swing.text.SimpleAttributeSet;
 import javax.swing.text.Style;
 import javax.swing.text.StyleConstants;
@@ -60,7 +65,9 @@ import org.jivesoftware.spark.SparkManager;
 import org.jivesoftware.spark.plugin.ContextMenuListener;
 import org.jivesoftware.spark.ui.history.HistoryWindow;
 import org.jivesoftware.spark.util.ModelUtil;
+import org.jivesoftware.spark.util.TaskEngine;
 import org.jivesoftware.spark.util.log.Log;
+import org.jivesoftware.sparkimpl.plugin.transcripts.ChatTranscripts;
 import org.jivesoftware.sparkimpl.settings.local.LocalPreferences;
 import org.jivesoftware.sparkimpl.settings.local.SettingsManager;
 
@@ -84,6 +91,44 @@ public class TranscriptWindow extends ChatArea implements ContextMenuListener {
 
     private Date lastPost;
 
+    /**
+     * The link of the line offering to load older messages.
+     */
+    private static final String OLDER_MESSAGES_LINK = "spark:older-messages";
+
+    /**
+     * The messages and notifications shown, oldest first.
+     */
+    private final Deque<Entry> entries = new ArrayDeque<>();
+
+    private int scrollbackLimit;
+
+    private TranscriptHistoryLoader historyLoader;
+
+    /**
+     * The length of the line offering to load older messages, 0 if it is not
+     * shown.
+     */
+    private int olderMessagesLength;
+
+    /**
+     * Where loaded older messages are inserted, -1 unless they are being
+     * loaded.
+     */
+    private int prependOffset = -1;
+
+    private final List<Entry> prependedEntries = new ArrayList<>();
+
+    private final LinkInterceptor olderMessagesInterceptor = (MouseEvent e, String link) -> {
+        if (!OLDER_MESSAGES_LINK.equals(link)) {
+            return false;
+        }
+        if (e.getButton() == MouseEvent.BUTTON1) {
+            loadOlderMessages();
+        }
+        return true;
+    };
+
     /**
      * Creates a default instance of <code>TranscriptWindow</code>.
      */
@@ -94,6 +139,8 @@ public class TranscriptWindow extends ChatArea implements ContextMenuListener {
         final LocalPreferences pref = SettingsManager.getLocalPreferences();
         int fontSize = pref.getChatRoomFontSize();
         defaultFont = new Font("Dialog", Font.PLAIN, fontSize);
+        scrollbackLimit = pref.getChatScrollbackLimit();
+        addLinkInterceptor(olderMessagesInterceptor);
 
         addMouseListener(this);
         addMouseMotionListener(this);
@@ -169,6 +216,7 @@ public class TranscriptWindow extends ChatArea implements ContextMenuListener {
 
         String body = message.getBody();
 
+        beginBatch();
         try {
             DelayInformation inf = (DelayInformation) message.getExtension("x", "jabber:x:delay");
             Date sentDate;
@@ -186,11 +234,10 @@ public class TranscriptWindow extends ChatArea implements ContextMenuListener {
             StyleConstants.setBold(styles, false);
             StyleConstants.setForeground(styles, foreground);
             StyleConstants.setBackground(styles, background);
-            final Document doc = getDocument();
             styles.removeAttribute("link");
 
             StyleConstants.setFontSize(styles, defaultFont.getSize());
-            doc.insertString(doc.getLength(), date + nickname + ": ", styles);
+            append(date + nickname + ": ", styles);
 
             // Reset Styles for message
             StyleConstants.setBold(styles, false);
@@ -200,6 +247,8 @@ public class TranscriptWindow extends ChatArea implements ContextMenuListener {
             insertText("\n");
         } catch (BadLocationException e) {
             Log.error("Error message.", e);
+        } finally {
+            endEntry(true);
         }
     }
 
@@ -212,16 +261,16 @@ public class TranscriptWindow extends ChatArea implements ContextMenuListener {
      * @param foreground the foreground color for the message.
      */
     public void insertPrefixAndMessage(String prefix, String message, Color foreground) {
+        beginBatch();
         try {
             // Agent color is always blue
             StyleConstants.setBold(styles, false);
             StyleConstants.setForeground(styles, foreground);
-            final Document doc = getDocument();
             styles.removeAttribute("link");
 
             StyleConstants.setFontSize(styles, defaultFont.getSize());
             if (prefix != null) {
-                doc.insertString(doc.getLength(), prefix + ": ", styles);
+                append(prefix + ": ", styles);
             }
 
             // Reset Styles for message
@@ -232,6 +281,8 @@ public class TranscriptWindow extends ChatArea implements ContextMenuListener {
             insertText("\n");
         } catch (BadLocationException e) {
             Log.error("Error message.", e);
+        } finally {
+            endEntry(false);
         }
     }
 
@@ -248,15 +299,14 @@ public class TranscriptWindow extends ChatArea implements ContextMenuListener {
      * @param foregroundColor the foreground color to use.
      */
     public synchronized void insertNotificationMessage(String message, Color foregroundColor) {
+        beginBatch();
         try {
             // Agent color is always blue
             StyleConstants.setBold(styles, false);
             StyleConstants.setForeground(styles, foregroundColor);
-            final Document doc = getDocument();
             styles.removeAttribute("link");
 
             StyleConstants.setFontSize(styles, defaultFont.getSize());
-            doc.insertString(doc.getLength(), "", styles);
 
             // Reset Styles for message
             StyleConstants.setBackground(styles, new Color(0, 0, 0, 0));
@@ -269,6 +319,8 @@ public class TranscriptWindow extends ChatArea implements ContextMenuListener {
             StyleConstants.setForeground(styles, Color.black);
         } catch (BadLocationException ex) {
             Log.error("Error message.", ex);
+        } finally {
+            endEntry(false);
         }
     }
 
@@ -283,15 +335,14 @@ public class TranscriptWindow extends ChatArea implements ContextMenuListener {
      * @param foreground the foreground color.
      */
     public synchronized void insertCustomText(String text, boolean bold, boolean underline, Color foreground) {
+        beginBatch();
         try {
             // Agent color is always blue
             StyleConstants.setBold(styles, true);
             StyleConstants.setForeground(styles, foreground);
-            final Document doc = getDocument();
             styles.removeAttribute("link");
 
             StyleConstants.setFontSize(styles, defaultFont.getSize());
-            doc.insertString(doc.getLength(), "", styles);
 
             // Reset Styles for message
             StyleConstants.setBold(styles, bold);
@@ -303,6 +354,8 @@ public class TranscriptWindow extends ChatArea implements ContextMenuListener {
             StyleConstants.setForeground(styles, Color.black);
         } catch (BadLocationException ex) {
             Log.error("Error message.", ex);
+        } finally {
+            endEntry(false);
         }
     }
 
@@ -350,6 +403,7 @@ public class TranscriptWindow extends ChatArea implements ContextMenuListener {
      * @param date the Date object created when the message was delivered.
      */
     public void insertHistoryMessage(String userid, String message, Date date) {
+        beginBatch();
         try {
             String value;
 
@@ -370,11 +424,10 @@ public class TranscriptWindow extends ChatArea implements ContextMenuListener {
             // Agent color is always blue
             StyleConstants.setBold(styles, false);
             StyleConstants.setForeground(styles, Color.BLACK);
-            final Document doc = getDocument();
             styles.removeAttribute("link");
 
             StyleConstants.setFontSize(styles, defaultFont.getSize());
-            doc.insertString(doc.getLength(), value, styles);
+            append(value, styles);
 
             // Reset Styles for message
             StyleConstants.setBold(styles, false);
@@ -384,6 +437,8 @@ public class TranscriptWindow extends ChatArea implements ContextMenuListener {
             insertText("\n");
         } catch (BadLocationException ex) {
             Log.error("Error message.", ex);
+        } finally {
+            endEntry(true);
         }
     }
 
@@ -480,7 +535,178 @@ public class TranscriptWindow extends ChatArea implements ContextMenuListener {
         removeMouseMotionListener(this);
 
         removeContextMenuListener(this);
+        removeLinkInterceptor(olderMessagesInterceptor);
         getActionMap().remove("copy");
+        historyLoader = null;
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        entries.clear();
+        olderMessagesLength = 0;
+    }
+
+    /**
+     * Returns the maximum number of messages and notifications shown.
+     *
+     * @return the scrollback limit, 0 if unlimited.
+     */
+    public int getScrollbackLimit() {
+        return scrollbackLimit;
+    }
+
+    /**
+     * Sets the maximum number of messages and notifications shown. Once the
+     * limit is exceeded by a tenth, the oldest are removed until the limit is
+     * met again. Windows without a history loader are not trimmed, as the
+     * removed messages could not be shown again.
+     *
+     * @param scrollbackLimit the scrollback limit, 0 for unlimited.
+     */
+    public void setScrollbackLimit(int scrollbackLimit) {
+        this.scrollbackLimit = scrollbackLimit;
+    }
+
+    /**
+     * Sets the loader of the messages older than the ones shown. As long as
+     * the loader has older messages, the window starts with a link loading
+     * them.
+     *
+     * @param historyLoader the loader, or null to remove it.
+     */
+    public void setHistoryLoader(TranscriptHistoryLoader historyLoader) {
+        this.historyLoader = historyLoader;
+        updateOlderMessagesLink();
+    }
+
+    @Override
+    protected int getBatchOffset() {
+        return prependOffset >= 0 ? prependOffset : super.getBatchOffset();
+    }
+
+    /**
+     * Ends the batch holding one message or notification, and removes the
+     * oldest ones if the scrollback limit is exceeded.
+     *
+     * @param message true for messages that are part of the transcript.
+     */
+    private void endEntry(boolean message) {
+        final Document doc = getDocument();
+        final int length = doc.getLength();
+        final int offset = endBatch();
+        if (offset < 0) {
+            return;
+        }
+
+        try {
+            final Entry entry = new Entry(doc.createPosition(offset), message);
+            if (prependOffset >= 0) {
+                prependedEntries.add(entry);
+                prependOffset += doc.getLength() - length;
+            } else {
+                entries.addLast(entry);
+                trimScrollback();
+            }
+        } catch (BadLocationException e) {
+            Log.error(e);
+        }
+    }
+
+    private void trimScrollback() throws BadLocationException {
+        if (scrollbackLimit <= 0 || historyLoader == null || entries.size() <= scrollbackLimit + Math.max(1, scrollbackLimit / 10)) {
+            return;
+        }
+
+        // Remove the oldest in bulk, together with any components between them.
+        int messages = 0;
+        while (entries.size() > scrollbackLimit) {
+            if (entries.removeFirst().message) {
+                messages++;
+            }
+        }
+        final int end = entries.getFirst().start.getOffset();
+        getDocument().remove(olderMessagesLength, end - olderMessagesLength);
+
+        if (messages > 0) {
+            historyLoader.messagesRemoved(messages);
+        }
+        updateOlderMessagesLink();
+    }
+
+    private void updateOlderMessagesLink() {
+        final boolean show = historyLoader != null && historyLoader.hasOlderMessages();
+        if (show == (olderMessagesLength > 0)) {
+            return;
+        }
+
+        final Document doc = getDocument();
+        try {
+            if (show) {
+                final SimpleAttributeSet attributes = new SimpleAttributeSet();
+                attributes.addAttribute("link", OLDER_MESSAGES_LINK);
+                StyleConstants.setForeground(attributes, (Color) UIManager.get("Link.foreground"));
+                StyleConstants.setUnderline(attributes, true);
+                StyleConstants.setFontSize(attributes, defaultFont.getSize());
+                final String text = Res.getString("message.show.older.messages") + "\n";
+                doc.insertString(0, text, attributes);
+                olderMessagesLength = text.length();
+
+                // Positions at offset 0 do not move on inserts.
+                final Entry first = entries.peekFirst();
+                if (first != null && first.start.getOffset() == 0) {
+                    entries.removeFirst();
+                    entries.addFirst(new Entry(doc.createPosition(olderMessagesLength), first.message));
+                }
+            } else {
+                doc.remove(0, olderMessagesLength);
+                olderMessagesLength = 0;
+            }
+        } catch (BadLocationException e) {
+            Log.error(e);
+        }
+    }
+
+    private void loadOlderMessages() {
+        if (historyLoader == null || olderMessagesLength == 0) {
+            return;
+        }
+
+        // Older messages start with their own date line.
+        final Date newerPost = lastPost;
+        lastPost = null;
+        prependOffset = olderMessagesLength;
+        try {
+            historyLoader.loadOlderMessages(this);
+        } catch (Exception e) {
+            Log.error("Unable to load older messages.", e);
+        } finally {
+            prependOffset = -1;
+            lastPost = newerPost;
+            for (int i = prependedEntries.size() - 1; i >= 0; i--) {
+                entries.addFirst(prependedEntries.get(i));
+            }
+            prependedEntries.clear();
+        }
+
+        updateOlderMessagesLink();
+        SwingUtilities.invokeLater(() -> {
+            scrollRectToVisible(new Rectangle(0, 0, 1, 1));
+        });
+    }
+
+    /**
+     * A message or notification shown in the window.
+     */
+    private static class Entry {
+
+        private final Position start;
+        private final boolean message;
+
+        Entry(Position start, boolean message) {
+            this.start = start;
+            this.message = message;
+        }
     }
 
     @Override
@@ -532,12 +758,8 @@ public class TranscriptWindow extends ChatArea implements ContextMenuListener {
                         JOptionPane.QUESTION_MESSAGE);
                 if (ok == JOptionPane.YES_OPTION) {
                     if (user != null) {
-                        // This actions must be move into Transcript Plugin!
-                        File transcriptDir = new File(SparkManager.getUserDirectory(), "transcripts");
-                        File transcriptFile = new File(transcriptDir, user + ".xml");
-                        transcriptFile.delete();
-                        transcriptFile = new File(transcriptDir, user + "_current.xml");
-                        transcriptFile.delete();
+                        final String jid = user;
+                        TaskEngine.getInstance().submit(() -> ChatTranscripts.deleteTranscript(jid), TaskEngine.TaskType.IO);
                         clear();
                     }
                 }
@@ -566,10 +788,10 @@ public class TranscriptWindow extends ChatArea implements ContextMenuListener {
                 ChatRoom room;
                 try {
                     room = manager.getChatContainer().getActiveChatRoom();
-                    HistoryWindow hw = new HistoryWindow(SparkManager.getUserDirectory(), room.getRoomname());
+                    HistoryWindow hw = new HistoryWindow(ChatTranscripts.getTranscriptStore(), room.getRoomname());
                     hw.showWindow();
 
-                } catch (FileNotFoundException | ChatRoomNotFoundException e1) {
+                } catch (ChatRoomNotFoundException e1) {
                     e1.printStackTrace();
                 }
             }
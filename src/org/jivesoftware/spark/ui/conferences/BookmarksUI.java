@@ -33,7 +33,6 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
-import java.util.TimerTask;
 import javax.swing.AbstractAction;
 import javax.swing.Action;
 import javax.swing.BorderFactory;
@@ -45,6 +44,7 @@ import javax.swing.JPanel;
 import javax.swing.JPopupMenu;
 import javax.swing.JScrollPane;
 import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
 import javax.swing.tree.DefaultTreeModel;
 import javax.swing.tree.TreePath;
 import org.jivesoftware.resource.Res;
@@ -57,7 +57,6 @@ import org.jivesoftware.smackx.bookmark.BookmarkedConference;
 import org.jivesoftware.smackx.muc.MultiUserChat;
 import org.jivesoftware.smackx.packet.DiscoverInfo;
 import org.jivesoftware.smackx.packet.DiscoverInfo.Identity;
-import org.jivesoftware.smackx.packet.DiscoverItems;
 import org.jivesoftware.spark.SparkManager;
 import org.jivesoftware.spark.component.JiveTreeCellRenderer;
 import org.jivesoftware.spark.component.JiveTreeNode;
@@ -184,22 +183,19 @@ public class BookmarksUI extends JPanel {
             Log.error(e);
         }
 
-        final TimerTask bookmarkTask = new TimerTask() {
-            @Override
-            public void run() {
-                Collection<BookmarkedConference> bc = null;
-                while (bc == null) {
-                    try {
-                        bc = manager.getBookmarkedConferences();
-                    } catch (XMPPException error) {
-                        Log.error(error);
-                    }
-                }
-                setBookmarks(bc);
-            }
-        };
+        if (manager == null) {
+            return;
+        }
 
-        TaskEngine.getInstance().schedule(bookmarkTask, 5000);
+        // The bookmarks are usually cached by the manager at this point.
+        TaskEngine.getInstance().submit(() -> {
+            try {
+                final Collection<BookmarkedConference> bc = manager.getBookmarkedConferences();
+                SwingUtilities.invokeLater(() -> setBookmarks(bc));
+            } catch (XMPPException error) {
+                Log.error("Unable to load bookmarks.", error);
+            }
+        });
     }
 
     private void checkPopup(MouseEvent mouseEvent) {
@@ -528,25 +524,7 @@ public class BookmarksUI extends JPanel {
     }
 
     private Collection<String> getConferenceServices(String server) throws Exception {
-        List<String> answer = new ArrayList<>();
-        ServiceDiscoveryManager discoManager = ServiceDiscoveryManager.getInstanceFor(SparkManager.getConnection());
-        DiscoverItems items = discoManager.discoverItems(server);
-        for (Iterator<DiscoverItems.Item> it = items.getItems(); it.hasNext();) {
-            DiscoverItems.Item item = it.next();
-            if (item.getEntityID().startsWith("conference") || item.getEntityID().startsWith("private")) {
-                answer.add(item.getEntityID());
-            } else {
-                try {
-                    DiscoverInfo info = discoManager.discoverInfo(item.getEntityID());
-                    if (info.containsFeature("http://jabber.org/protocol/muc")) {
-                        answer.add(item.getEntityID());
-                    }
-                } catch (XMPPException e) {
-                    Log.error("Problem when loading conference service.", e);
-                }
-            }
-        }
-        return answer;
+        return ConferenceDiscovery.getConferenceServices(server);
     }
 
     private boolean hasService(String service) {
@@ -0,0 +1,206 @@
+/**
+ * Copyright (C) 2004-2011 Jive Software. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.jivesoftware.spark.ui.conferences;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.jivesoftware.smack.XMPPException;
+import org.jivesoftware.smackx.ServiceDiscoveryManager;
+import org.jivesoftware.smackx.packet.DiscoverInfo;
+import org.jivesoftware.smackx.packet.DiscoverItems;
+import org.jivesoftware.spark.SparkManager;
+import org.jivesoftware.spark.util.TaskEngine;
+import org.jivesoftware.spark.util.log.Log;
+
+/**
+ * Runs service discovery requests for many items at once, such as the
+ * disco#info of every room of a conference service. At most
+ * {@link #MAX_IN_FLIGHT} requests are in flight at any time, and a new request
+ * is sent as soon as one is answered, so the results arrive at the rate the
+ * server answers them without flooding it.
+ * <p>
+ * Smack requests block until they are answered, so each request runs on the
+ * network pool of the {@link TaskEngine}. {@link #getConferenceServices(String)}
+ * waits for its requests, and runs them on the default pool instead, which
+ * grows as needed: waiting on a network thread for network tasks could
+ * otherwise starve the network pool.
+ */
+public class ConferenceDiscovery {
+
+    /**
+     * The maximum number of requests in flight.
+     */
+    public static final int MAX_IN_FLIGHT = 8;
+
+    private volatile boolean cancelled;
+
+    /**
+     * A request for one item.
+     *
+     * @param <T> the type of the items.
+     */
+    public interface Request<T> {
+
+        /**
+         * Sends the request for an item and handles the answer.
+         *
+         * @param item the item.
+         * @throws Exception if the request failed.
+         */
+        void discover(T item) throws Exception;
+    }
+
+    /**
+     * Sends a request for each item and returns immediately. Requests that
+     * fail are logged and skipped.
+     *
+     * @param items the items, none of them null.
+     * @param request the request.
+     * @param done called once all requests were answered, or once the
+     * requests in flight were answered after a {@link #cancel()}. May be null.
+     * @param <T> the type of the items.
+     */
+    public <T> void discover(Collection<T> items, Request<T> request, Runnable done) {
+        discover(items, request, done, TaskEngine.TaskType.NETWORK);
+    }
+
+    private <T> void discover(Collection<T> items, Request<T> request, Runnable done, TaskEngine.TaskType type) {
+        final Run<T> run = new Run<>(new ArrayList<>(items).iterator(), request, done, type);
+        for (int i = 0; i < MAX_IN_FLIGHT; i++) {
+            run.next();
+        }
+    }
+
+    /**
+     * Stops sending requests. Requests already in flight still complete.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Returns true if {@link #cancel()} was called.
+     *
+     * @return true if the discovery was cancelled.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Returns the conference services of a server: the items of the server
+     * that support multi-user chat. The items are asked for their features
+     * concurrently, and the answers are cached in the {@link DiscoCache}.
+     *
+     * @param server the server.
+     * @return the conference services.
+     * @throws XMPPException if the items of the server could not be listed.
+     * @throws InterruptedException if the thread was interrupted while
+     * waiting for the answers.
+     */
+    public static Collection<String> getConferenceServices(String server) throws XMPPException, InterruptedException {
+        final ServiceDiscoveryManager discoManager = ServiceDiscoveryManager.getInstanceFor(SparkManager.getConnection());
+        final DiscoCache cache = DiscoCache.getInstance();
+        final DiscoverItems items = discoManager.discoverItems(server);
+
+        final List<String> answer = Collections.synchronizedList(new ArrayList<>());
+        final List<String> unknown = new ArrayList<>();
+        for (Iterator<DiscoverItems.Item> it = items.getItems(); it.hasNext();) {
+            final String entityID = it.next().getEntityID();
+            final Boolean conference = cache.isConferenceService(entityID);
+            if (entityID.startsWith("conference") || entityID.startsWith("private") || Boolean.TRUE.equals(conference)) {
+                answer.add(entityID);
+            } else if (conference == null) {
+                unknown.add(entityID);
+            }
+        }
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        new ConferenceDiscovery().discover(unknown, (String entityID) -> {
+            final DiscoverInfo info = discoManager.discoverInfo(entityID);
+            final boolean conference = info.containsFeature("http://jabber.org/protocol/muc");
+            cache.putConferenceService(entityID, conference);
+            if (conference) {
+                answer.add(entityID);
+            }
+        }, latch::countDown, TaskEngine.TaskType.DEFAULT);
+        latch.await();
+        return answer;
+    }
+
+    /**
+     * The requests for a collection of items.
+     */
+    private final class Run<T> {
+
+        private final Iterator<T> items;
+        private final Request<T> request;
+        private final Runnable done;
+        private final TaskEngine.TaskType type;
+        private int running;
+        private boolean finished;
+
+        Run(Iterator<T> items, Request<T> request, Runnable done, TaskEngine.TaskType type) {
+            this.items = items;
+            this.request = request;
+            this.done = done;
+            this.type = type;
+        }
+
+        /**
+         * Sends the request for the next item, or calls back once there are no
+         * items left and no request is in flight.
+         */
+        void next() {
+            final T item;
+            synchronized (this) {
+                if (cancelled || !items.hasNext()) {
+                    if (running > 0 || finished) {
+                        return;
+                    }
+                    finished = true;
+                    item = null;
+                } else {
+                    item = items.next();
+                    running++;
+                }
+            }
+
+            if (item != null) {
+                TaskEngine.getInstance().submit(() -> discover(item), type);
+            } else if (done != null) {
+                done.run();
+            }
+        }
+
+        private void discover(T item) {
+            try {
+                request.discover(item);
+            } catch (Exception e) {
+                if (Log.debugging) Log.debug("Service discovery of " + item + " failed: " + e);
+            } finally {
+                synchronized (this) {
+                    running--;
+                }
+                next();
+            }
+        }
+    }
+}
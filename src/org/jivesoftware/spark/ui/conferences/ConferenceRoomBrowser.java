@@ -31,12 +31,21 @@ import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.TimerTask;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.swing.AbstractAction;
 import javax.swing.Action;
 import javax.swing.ImageIcon;
@@ -52,6 +61,7 @@ import javax.swing.JTable;
 import javax.swing.JTextField;
 import javax.swing.ListSelectionModel;
 import javax.swing.RowFilter;
+import javax.swing.SwingUtilities;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
 import javax.swing.table.DefaultTableCellRenderer;
@@ -127,7 +137,12 @@ public class ConferenceRoomBrowser extends JPanel implements ActionListener,
     private int twoButtonWidth;
     private int oneButtonWidth;
 
-    private boolean partialDiscovery = false;
+    private final Map<String, Integer> rows = new HashMap<>();
+    private final Queue<DiscoCache.Room> discoveredRooms = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private ConferenceDiscovery discovery;
+    private ImageIcon lockedIcon;
+    private ImageIcon bookmarkedLockedIcon;
 
     private JPopupMenu popup;
 
@@ -321,88 +336,119 @@ public class ConferenceRoomBrowser extends JPanel implements ActionListener,
         stopLoading.start();
     }
 
-    private void clearTable() {
-        SwingWorker clearTable = new SwingWorker() {
-
-            @Override
-            public Object construct() {
-                return null;
-            }
-
-            @Override
-            public void finished() {
-                roomsTable.clearTable();
-            }
-        };
-        clearTable.start();
+    private void refreshRoomList(final String serviceName) {
+        loadRooms(true);
     }
 
-    private void refreshRoomList(final String serviceName) {
+    /**
+     * Lists the rooms of the service. The rooms found in the disco cache are
+     * shown at once, then the rooms are listed again and the information of
+     * each room is requested, except for rooms whose cached information is
+     * still fresh. Rows are updated as the answers arrive.
+     *
+     * @param refresh true to request the information of all rooms.
+     */
+    private void loadRooms(final boolean refresh) {
+        if (discovery != null) {
+            discovery.cancel();
+        }
+        final ConferenceDiscovery current = new ConferenceDiscovery();
+        discovery = current;
+
         startLoadingImg();
-        clearTable();
+        final DiscoCache cache = DiscoCache.getInstance();
+        showRooms(refresh ? Collections.<DiscoCache.Room>emptyList() : cache.getRooms(serviceName));
 
-        TimerTask refreshTask = new TimerTask() {
-            Collection<HostedRoom> rooms;
+        TaskEngine.getInstance().submit(() -> {
+            final List<DiscoCache.Room> rooms;
+            try {
+                rooms = cache.putRooms(serviceName, getRoomList(serviceName));
+            } catch (Exception e) {
+                Log.error("Unable to retrieve list of rooms.", e);
+                stopLoadingImg();
+                return;
+            }
+            if (current.isCancelled()) {
+                return;
+            }
+            SwingUtilities.invokeLater(() -> {
+                if (!current.isCancelled()) {
+                    showRooms(rooms);
+                }
+            });
 
-            @Override
-            public void run() {
-                try {
-                    rooms = getRoomList(serviceName);
-                    try {
-                        rooms.stream().map((aResult) -> getRoomsAndInfo(aResult)).forEach((room) -> {
-                            addRoomToTable(room.getRoomJID(), room.getRoomName(),
-                                    room.getNumberOfOccupants());
-                        });
-                        stopLoadingImg();
-                    } catch (Exception e) {
-                        Log.error("Unable to retrieve room list and info.", e);
-                    }
-                } catch (Exception e1) {
-                    System.err.println(e1);
+            final List<DiscoCache.Room> stale = new ArrayList<>();
+            for (DiscoCache.Room room : rooms) {
+                if (refresh || !room.isFresh()) {
+                    stale.add(room);
                 }
             }
-        };
-        TaskEngine.getInstance().submit(refreshTask);
+            current.discover(stale, (DiscoCache.Room room) -> {
+                final RoomInfo roomInfo;
+                try {
+                    roomInfo = MultiUserChat.getRoomInfo(SparkManager.getConnection(), room.getJid());
+                } catch (XMPPException e) {
+                    // The room keeps the information it was listed with.
+                    return;
+                }
+                roomDiscovered(cache.putRoomInfo(room, roomInfo));
+            }, () -> {
+                if (!current.isCancelled()) {
+                    stopLoadingImg();
+                }
+            });
+        });
     }
 
-    private RoomObject getRoomsAndInfo(final HostedRoom room) {
-        boolean stillSearchForOccupants = true;
-        RoomObject result = null;
-        try {
-            try {
-                String roomName = room.getName();
-                String roomJID = room.getJid();
-                int numberOfOccupants = -1;
-                if (stillSearchForOccupants) {
-                    RoomInfo roomInfo = null;
-                    try {
-                        roomInfo = MultiUserChat.getRoomInfo(
-                                SparkManager.getConnection(), roomJID);
-                    } catch (XMPPException e) {
-                        // Nothing to do
-                    }
+    /**
+     * Queues a room whose information arrived. The queued rooms are updated
+     * in the table in one go on the event dispatch thread.
+     */
+    private void roomDiscovered(DiscoCache.Room room) {
+        discoveredRooms.add(room);
+        if (drainScheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::updateDiscoveredRooms);
+        }
+    }
 
-                    if (roomInfo != null) {
-                        numberOfOccupants = roomInfo.getOccupantsCount();
-                        if (numberOfOccupants == -1) {
-                            stillSearchForOccupants = false;
-                        }
-                    } else {
-                        stillSearchForOccupants = false;
-                    }
-                }
+    private void updateDiscoveredRooms() {
+        drainScheduled.set(false);
+        final Set<String> bookmarks = getBookmarkedRooms();
+        DiscoCache.Room room;
+        while ((room = discoveredRooms.poll()) != null) {
+            final Integer row = rows.get(room.getJid());
+            if (row != null) {
+                roomsTable.getTableModel().setValueAt(createIconLabel(room, bookmarks), row, 0);
+                roomsTable.getTableModel().setValueAt(getOccupantsText(room), row, 3);
+            }
+        }
+    }
 
-                result = new RoomObject();
-                result.setRoomJID(roomJID);
-                result.setRoomName(roomName);
-                result.setNumberOfOccupants(numberOfOccupants);
-            } catch (Exception e) {
-                Log.error("Error setting up GroupChatTable", e);
+    /**
+     * Shows the rooms in the table. The rows are only replaced if the rooms
+     * are not the ones already shown.
+     */
+    private void showRooms(List<DiscoCache.Room> rooms) {
+        final Set<String> bookmarks = getBookmarkedRooms();
+        boolean shown = rows.size() == rooms.size();
+        for (int i = 0; shown && i < rooms.size(); i++) {
+            shown = rows.containsKey(rooms.get(i).getJid());
+        }
+
+        if (shown) {
+            for (DiscoCache.Room room : rooms) {
+                final int row = rows.get(room.getJid());
+                roomsTable.getTableModel().setValueAt(createIconLabel(room, bookmarks), row, 0);
+                roomsTable.getTableModel().setValueAt(getOccupantsText(room), row, 3);
             }
-        } catch (Exception e) {
-            System.err.println(e);
+            return;
+        }
+
+        roomsTable.getTableModel().setRowCount(0);
+        rows.clear();
+        for (DiscoCache.Room room : rooms) {
+            addRoomToTable(room, bookmarks);
         }
-        return result;
     }
 
     private void bookmarkRoom(String serviceName) {
@@ -512,65 +558,6 @@ public class ConferenceRoomBrowser extends JPanel implements ActionListener,
      * Displays the ConferenceRoomBrowser.
      */
     public void invoke() {
-        startLoadingImg();
-        TimerTask invokeThread = new TimerTask() {
-            Collection<HostedRoom> rooms;
-
-            @Override
-            public void run() {
-                try {
-                    rooms = getRoomList(serviceName);
-
-                    if (rooms == null) {
-                        JOptionPane.showMessageDialog(conferences,
-                                Res.getString("message.conference.info.error"),
-                                Res.getString("title.error"),
-                                JOptionPane.ERROR_MESSAGE);
-                        if (dlg != null) {
-                            dlg.dispose();
-                        }
-                    } else {
-                        try {
-                            rooms.stream().forEach((room) -> {
-                                String roomName = room.getName();
-                                String roomJID = room.getJid();
-
-                                int numberOfOccupants = -1;
-
-                                // Need to handle the case where the room info does not
-                                // contain the number of occupants. If that is the case,
-                                // we should not continue to request this info from the
-                                // service.
-                                if (!partialDiscovery) {
-                                    RoomInfo roomInfo = null;
-                                    try {
-                                        roomInfo = MultiUserChat.getRoomInfo(
-                                                SparkManager.getConnection(), roomJID);
-                                    } catch (XMPPException e) {
-                                        // Nothing to do
-                                    }
-
-                                    if (roomInfo != null) {
-                                        numberOfOccupants = roomInfo
-                                                .getOccupantsCount();
-                                    }
-                                    if (roomInfo == null || numberOfOccupants == -1) {
-                                        partialDiscovery = true;
-                                    }
-                                }
-                                addRoomToTable(roomJID, roomName, numberOfOccupants);
-                            });
-                        } catch (Exception e) {
-                            Log.error("Error setting up GroupChatTable", e);
-                        }
-                    }
-                } catch (Exception e) {
-                    Log.error("Unable to retrieve list of rooms.", e);
-                }
-                stopLoadingImg();
-            }
-        };
-
         final JOptionPane pane;
 
         TitlePanel titlePanel;
@@ -632,6 +619,15 @@ public class ConferenceRoomBrowser extends JPanel implements ActionListener,
 
         pane.addPropertyChangeListener(changeListener);
 
+        dlg.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                if (discovery != null) {
+                    discovery.cancel();
+                }
+            }
+        });
+
         dlg.addKeyListener(new KeyAdapter() {
             @Override
             public void keyPressed(KeyEvent e) {
@@ -649,7 +645,7 @@ public class ConferenceRoomBrowser extends JPanel implements ActionListener,
         dlg.setVisible(true);
         dlg.toFront();
         dlg.requestFocus();
-        TaskEngine.getInstance().submit(invokeThread);
+        loadRooms(false);
     }
 
     private final class RoomList extends Table {
@@ -839,7 +835,9 @@ public class ConferenceRoomBrowser extends JPanel implements ActionListener,
 
                 // new DataFormDialog(groupChat, form);
                 groupChat.sendConfigurationForm(form);
-                addRoomToTable(groupChat.getRoom(), StringUtils.parseName(groupChat.getRoom()), 1);
+                addRoomToTable(new DiscoCache.Room(groupChat.getRoom(),
+                        StringUtils.parseName(groupChat.getRoom()), 1, false, System.currentTimeMillis()),
+                        getBookmarkedRooms());
             } catch (XMPPException e1) {
                 Log.error("Error creating new room.", e1);
                 JOptionPane
@@ -854,65 +852,58 @@ public class ConferenceRoomBrowser extends JPanel implements ActionListener,
     /**
      * Adds a room to the room table.
      *
-     * @param jid the jid of the conference room.
-     * @param roomName the name of the conference room.
-     * @param numberOfOccupants the number of occupants in the conference room.
-     * If -1 is specified, the the occupant count will show as n/a.
+     * @param room the conference room.
+     * @param bookmarks the jids of the bookmarked rooms.
      */
-    private void addRoomToTable(final String jid, final String roomName,
-            final int numberOfOccupants) {
-        SwingWorker addRoomThread = new SwingWorker() {
-
-            @Override
-            public Object construct() {
-                JLabel iconLabel = new JLabel();
-                iconLabel.setAlignmentX(JLabel.RIGHT_ALIGNMENT);
-                boolean isbookmark = false;
-                boolean ispassword = false;
-
-                ImageIcon bookmarkicon = SparkRes.getImageIcon(SparkRes.BOOKMARK_ICON);
-                ImageIcon passwordicon = SparkRes.getImageIcon(SparkRes.LOCK_16x16);
-
-                if (isBookmarked(jid)) {
-                    isbookmark = true;
-                    iconLabel.setIcon(SparkRes.getImageIcon(SparkRes.BOOKMARK_ICON));
-                }
-                if (isPasswordProtected(jid)) {
-                    ispassword = true;
-                }
-
-                if (isbookmark && ispassword) {
-                    Image img = ImageCombiner.combine(bookmarkicon, passwordicon);
-                    iconLabel.setIcon(new ImageIcon(img));
-                } else if (isbookmark) {
-                    iconLabel.setIcon(bookmarkicon);
-                } else if (ispassword) {
-                    Image img = ImageCombiner.returnTransparentImage(
-                            passwordicon.getIconWidth(), passwordicon.getIconHeight());
-
-                    Image combined = ImageCombiner.combine(new ImageIcon(img),
-                            passwordicon);
+    private void addRoomToTable(DiscoCache.Room room, Set<String> bookmarks) {
+        rows.put(room.getJid(), roomsTable.getTableModel().getRowCount());
+        roomsTable.getTableModel().addRow(new Object[]{createIconLabel(room, bookmarks), room.getName(),
+            StringUtils.parseName(room.getJid()), getOccupantsText(room)});
+    }
 
-                    iconLabel.setIcon(new ImageIcon(combined));
-                }
+    private JLabel createIconLabel(DiscoCache.Room room, Set<String> bookmarks) {
+        JLabel iconLabel = new JLabel();
+        iconLabel.setAlignmentX(JLabel.RIGHT_ALIGNMENT);
+        boolean isbookmark = bookmarks.contains(room.getJid());
 
-                String occupants = Integer.toString(numberOfOccupants);
-                if (numberOfOccupants == -1) {
-                    occupants = "n/a";
-                }
+        ImageIcon bookmarkicon = SparkRes.getImageIcon(SparkRes.BOOKMARK_ICON);
+        ImageIcon passwordicon = SparkRes.getImageIcon(SparkRes.LOCK_16x16);
 
-                final Object[] insertRoom = new Object[]{iconLabel, roomName,
-                    StringUtils.parseName(jid), occupants};
-                return insertRoom;
+        if (isbookmark && room.isLocked()) {
+            if (bookmarkedLockedIcon == null) {
+                bookmarkedLockedIcon = new ImageIcon(ImageCombiner.combine(bookmarkicon, passwordicon));
             }
-
-            @Override
-            public void finished() {
-                Object[] insertRoom = (Object[]) get();
-                roomsTable.getTableModel().addRow(insertRoom);
+            iconLabel.setIcon(bookmarkedLockedIcon);
+        } else if (isbookmark) {
+            iconLabel.setIcon(bookmarkicon);
+        } else if (room.isLocked()) {
+            if (lockedIcon == null) {
+                Image img = ImageCombiner.returnTransparentImage(
+                        passwordicon.getIconWidth(), passwordicon.getIconHeight());
+                lockedIcon = new ImageIcon(ImageCombiner.combine(new ImageIcon(img), passwordicon));
             }
-        };
-        addRoomThread.start();
+            iconLabel.setIcon(lockedIcon);
+        }
+        return iconLabel;
+    }
+
+    /**
+     * Returns the number of occupants to show for a room: empty while its
+     * information is requested, n/a if the service does not tell.
+     */
+    private static String getOccupantsText(DiscoCache.Room room) {
+        if (!room.isDiscovered()) {
+            return "";
+        }
+        return room.getOccupants() == -1 ? "n/a" : Integer.toString(room.getOccupants());
+    }
+
+    private Set<String> getBookmarkedRooms() {
+        final Set<String> jids = new HashSet<>();
+        for (BookmarkedConference bookmark : conferences.getBookmarks()) {
+            jids.add(bookmark.getJid());
+        }
+        return jids;
     }
 
     /**
@@ -930,30 +921,6 @@ public class ConferenceRoomBrowser extends JPanel implements ActionListener,
 
     }
 
-    /**
-     * Returns true if the room is password protected or Members only
-     *
-     * @param roomjid
-     * @return
-     */
-    private boolean isPasswordProtected(String roomjid) {
-        boolean result = false;
-        try {
-
-            RoomInfo rif = MultiUserChat.getRoomInfo(
-                    SparkManager.getConnection(), roomjid);
-
-            result = rif.isMembersOnly() || rif.isPasswordProtected();
-
-        } catch (XMPPException e) {
-
-        } catch (NumberFormatException nfe) {
-
-        }
-
-        return result;
-    }
-
     /**
      * Toggles the bookmark room button depending on it's state.
      *
@@ -994,38 +961,6 @@ public class ConferenceRoomBrowser extends JPanel implements ActionListener,
         }
     }
 
-    private class RoomObject {
-
-        private String roomName;
-        private String roomJID;
-
-        int numberOfOccupants;
-
-        public String getRoomName() {
-            return roomName;
-        }
-
-        public void setRoomName(String roomName) {
-            this.roomName = roomName;
-        }
-
-        public String getRoomJID() {
-            return roomJID;
-        }
-
-        public void setRoomJID(String roomJID) {
-            this.roomJID = roomJID;
-        }
-
-        public int getNumberOfOccupants() {
-            return numberOfOccupants;
-        }
-
-        public void setNumberOfOccupants(int numberOfOccupants) {
-            this.numberOfOccupants = numberOfOccupants;
-        }
-    }
-
     @Override
     public void componentHidden(ComponentEvent e) {
 
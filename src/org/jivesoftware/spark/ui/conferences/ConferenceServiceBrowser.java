@@ -25,9 +25,7 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
 import java.util.List;
 import javax.swing.BorderFactory;
 import javax.swing.DefaultListModel;
@@ -41,11 +39,6 @@ import javax.swing.JTextField;
 import javax.swing.ListSelectionModel;
 import org.jivesoftware.resource.Res;
 import org.jivesoftware.resource.SparkRes;
-import org.jivesoftware.smack.XMPPException;
-import org.jivesoftware.smackx.ServiceDiscoveryManager;
-import org.jivesoftware.smackx.packet.DiscoverInfo;
-import org.jivesoftware.smackx.packet.DiscoverItems;
-import org.jivesoftware.smackx.packet.DiscoverItems.Item;
 import org.jivesoftware.spark.SparkManager;
 import org.jivesoftware.spark.component.RolloverButton;
 import org.jivesoftware.spark.component.TitlePanel;
@@ -143,24 +136,6 @@ public class ConferenceServiceBrowser {
     }
 
     public Collection<String> getConferenceServices(String server) throws Exception {
-        List<String> answer = new ArrayList<>();
-        ServiceDiscoveryManager discoManager = ServiceDiscoveryManager.getInstanceFor(SparkManager.getConnection());
-        DiscoverItems items = discoManager.discoverItems(server);
-        for (Iterator<Item> it = items.getItems(); it.hasNext();) {
-            Item item = it.next();
-            if (item.getEntityID().startsWith("conference") || item.getEntityID().startsWith("private")) {
-                answer.add(item.getEntityID());
-            } else {
-                try {
-                    DiscoverInfo info = discoManager.discoverInfo(item.getEntityID());
-                    if (info.containsFeature("http://jabber.org/protocol/muc")) {
-                        answer.add(item.getEntityID());
-                    }
-                } catch (XMPPException e) {
-                    // Nothing to do
-                }
-            }
-        }
-        return answer;
+        return ConferenceDiscovery.getConferenceServices(server);
     }
 }
@@ -62,6 +62,7 @@ import org.jivesoftware.spark.ui.PresenceListener;
 import org.jivesoftware.spark.ui.rooms.ChatRoomImpl;
 import org.jivesoftware.spark.ui.rooms.GroupChatRoom;
 import org.jivesoftware.spark.util.ModelUtil;
+import org.jivesoftware.spark.util.StartupTrace;
 import org.jivesoftware.spark.util.SwingWorker;
 import org.jivesoftware.spark.util.TaskEngine;
 import org.jivesoftware.spark.util.UIComponentRegistry;
@@ -79,6 +80,15 @@ public class ConferenceServices implements InvitationListener {
 
     private static final BookmarksUI bookmarksUI = new BookmarksUI(); //This variable shouldn't be null.
 
+    /**
+     * Time before the bookmarks are requested again after a failure, doubled
+     * after every failure up to {@link #MAX_BOOKMARK_RETRY_DELAY}, in
+     * milliseconds.
+     */
+    private static final long BOOKMARK_RETRY_DELAY = 500;
+
+    private static final long MAX_BOOKMARK_RETRY_DELAY = 60 * 1000;
+
     private static final LocalPreferences _localPreferences = SettingsManager.getLocalPreferences();
 
     public ConferenceServices() {
@@ -137,30 +147,41 @@ public class ConferenceServices implements InvitationListener {
     }
 
     /**
-     * Load all bookmarked data.
+     * Load all bookmarked data. The bookmarks are retrieved in the background
+     * right away, and the bookmarks UI is added once they arrived. Failed
+     * requests are retried with a growing delay until they succeed.
      */
     public void loadConferenceBookmarks() {
-        final TimerTask bookmarkLoader = new TimerTask() {
+        TaskEngine.getInstance().submit(() -> {
+            final StartupTrace.Span span = StartupTrace.getInstance().begin("bookmarks.load");
+            loadConferenceBookmarks(span, 1, BOOKMARK_RETRY_DELAY);
+        });
+    }
 
-            @Override
-            public void run() {
-                Collection<BookmarkedConference> bc = null;
-
-                while (bc == null) {
-                    try {
-                        BookmarkManager manager = BookmarkManager
-                                .getBookmarkManager(SparkManager.getConnection());
-                        bc = manager.getBookmarkedConferences();
-                    } catch (XMPPException error) {
-                        Log.error(error);
-                    }
+    private void loadConferenceBookmarks(StartupTrace.Span span, int attempt, long retryDelay) {
+        try {
+            BookmarkManager.getBookmarkManager(SparkManager.getConnection()).getBookmarkedConferences();
+        } catch (XMPPException error) {
+            Log.error("Unable to load bookmarks, attempt " + attempt + ", retrying in " + retryDelay + " ms", error);
+            TaskEngine.getInstance().schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    loadConferenceBookmarks(span, attempt + 1, Math.min(2 * retryDelay, MAX_BOOKMARK_RETRY_DELAY));
                 }
+            }, retryDelay, TaskEngine.TaskType.NETWORK);
+            return;
+        }
+        span.end();
+
+        SwingUtilities.invokeLater(() -> {
+            final StartupTrace.Span ui = StartupTrace.getInstance().begin("bookmarks.ui");
+            try {
                 bookmarksUI.loadUI();
                 addBookmarksUI();
+            } finally {
+                ui.end();
             }
-
-        };
-        TaskEngine.getInstance().schedule(bookmarkLoader, 500);
+        });
     }
 
     protected void addBookmarksUI() {
@@ -0,0 +1,365 @@
+/**
+ * Copyright (C) 2004-2011 Jive Software. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.jivesoftware.spark.ui.conferences;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import org.jivesoftware.smackx.muc.HostedRoom;
+import org.jivesoftware.smackx.muc.RoomInfo;
+import org.jivesoftware.spark.SparkManager;
+import org.jivesoftware.spark.util.AtomicFile;
+import org.jivesoftware.spark.util.log.Log;
+
+/**
+ * Remembers what service discovery returned for the conference services of
+ * the account: the rooms listed by each service, the information of each room
+ * and which items of a server are conference services. The cache is kept on
+ * disk, so the room browser can show the rooms of a service as soon as it
+ * opens and refresh them in the background.
+ * <p>
+ * Entries younger than {@link #TTL} are considered fresh and need not be
+ * requested again. Entries older than a week are dropped when the cache is
+ * read.
+ */
+public class DiscoCache {
+
+    static final String FILE_NAME = "disco.cache";
+
+    /**
+     * Time an entry is fresh, in milliseconds.
+     */
+    public static final long TTL = 5 * 60 * 1000;
+
+    private static final long EXPIRY = 7 * 24 * 60 * 60 * 1000L;
+
+    private static final int VERSION = 1;
+
+    private static final long SAVE_DELAY = 2000;
+
+    private static DiscoCache singleton;
+    private static final Object LOCK = new Object();
+
+    private final AtomicFile file;
+    private final Map<String, Listing> listings = new HashMap<>();
+    private final Map<String, Room> rooms = new HashMap<>();
+    private final Map<String, Service> services = new HashMap<>();
+
+    /**
+     * Returns the singleton instance of <CODE>DiscoCache</CODE>, creating it
+     * if necessary.
+     *
+     * @return the singleton instance of <Code>DiscoCache</CODE>
+     */
+    public static DiscoCache getInstance() {
+        synchronized (LOCK) {
+            if (singleton == null) {
+                singleton = new DiscoCache(new File(SparkManager.getUserDirectory(), FILE_NAME));
+            }
+            return singleton;
+        }
+    }
+
+    DiscoCache(File file) {
+        this.file = new AtomicFile(file, SAVE_DELAY, this::save);
+        load();
+    }
+
+    /**
+     * Returns the rooms last listed by a conference service, with the
+     * information known about them.
+     *
+     * @param service the conference service.
+     * @return the rooms, empty if the service was never listed.
+     */
+    public synchronized List<Room> getRooms(String service) {
+        final Listing listing = listings.get(service);
+        if (listing == null) {
+            return Collections.emptyList();
+        }
+        final List<Room> result = new ArrayList<>(listing.jids.size());
+        for (String jid : listing.jids) {
+            final Room room = rooms.get(jid);
+            if (room != null) {
+                result.add(room);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Replaces the rooms listed by a conference service. The information of
+     * the rooms that are still listed is kept.
+     *
+     * @param service the conference service.
+     * @param hostedRooms the rooms listed by the service.
+     * @return the rooms, with the information known about them.
+     */
+    public synchronized List<Room> putRooms(String service, Collection<HostedRoom> hostedRooms) {
+        final Map<String, Room> known = new HashMap<>();
+        final Listing previous = listings.get(service);
+        if (previous != null) {
+            for (String jid : previous.jids) {
+                known.put(jid, rooms.remove(jid));
+            }
+        }
+
+        final List<Room> result = new ArrayList<>(hostedRooms.size());
+        final List<String> jids = new ArrayList<>(hostedRooms.size());
+        for (HostedRoom hostedRoom : hostedRooms) {
+            Room room = known.get(hostedRoom.getJid());
+            if (room == null || !Objects.equals(room.name, hostedRoom.getName())) {
+                room = new Room(hostedRoom.getJid(), hostedRoom.getName(), room);
+            }
+            rooms.put(room.jid, room);
+            jids.add(room.jid);
+            result.add(room);
+        }
+        listings.put(service, new Listing(System.currentTimeMillis(), jids));
+        file.scheduleSave();
+        return result;
+    }
+
+    /**
+     * Stores the information of a room. Only call it once the information was
+     * retrieved: a room whose lookup failed keeps its previous information.
+     *
+     * @param room the room.
+     * @param info the information of the room.
+     * @return the room with its information.
+     */
+    public synchronized Room putRoomInfo(Room room, RoomInfo info) {
+        final Room updated = new Room(room, info);
+        if (rooms.containsKey(room.jid)) {
+            rooms.put(room.jid, updated);
+            file.scheduleSave();
+        }
+        return updated;
+    }
+
+    /**
+     * Returns whether an item of a server is a conference service.
+     *
+     * @param jid the item.
+     * @return the cached answer, or null if there is no fresh answer.
+     */
+    public synchronized Boolean isConferenceService(String jid) {
+        final Service service = services.get(jid);
+        return service == null || !isFresh(service.discovered) ? null : service.conference;
+    }
+
+    /**
+     * Stores whether an item of a server is a conference service.
+     *
+     * @param jid the item.
+     * @param conference true if the item is a conference service.
+     */
+    public synchronized void putConferenceService(String jid, boolean conference) {
+        services.put(jid, new Service(System.currentTimeMillis(), conference));
+        file.scheduleSave();
+    }
+
+    private static boolean isFresh(long discovered) {
+        return System.currentTimeMillis() - discovered < TTL;
+    }
+
+    private void load() {
+        final long expired = System.currentTimeMillis() - EXPIRY;
+        try {
+            file.readData(VERSION, (in) -> {
+                for (int count = in.readInt(); count > 0; count--) {
+                    final String service = in.readUTF();
+                    final long listed = in.readLong();
+                    final List<String> jids = new ArrayList<>();
+                    for (int i = in.readInt(); i > 0; i--) {
+                        final Room room = new Room(in.readUTF(), readString(in), in.readInt(), in.readBoolean(),
+                                in.readLong());
+                        rooms.put(room.jid, room);
+                        jids.add(room.jid);
+                    }
+                    if (listed > expired) {
+                        listings.put(service, new Listing(listed, jids));
+                    } else {
+                        rooms.keySet().removeAll(jids);
+                    }
+                }
+                for (int count = in.readInt(); count > 0; count--) {
+                    final String jid = in.readUTF();
+                    final Service service = new Service(in.readLong(), in.readBoolean());
+                    if (service.discovered > expired) {
+                        services.put(jid, service);
+                    }
+                }
+            });
+        } catch (IOException e) {
+            Log.warning("Unable to read the disco cache.", e);
+            listings.clear();
+            rooms.clear();
+            services.clear();
+        }
+    }
+
+    private synchronized void save() {
+        try {
+            file.writeData(VERSION, (out) -> {
+                out.writeInt(listings.size());
+                for (Map.Entry<String, Listing> listing : listings.entrySet()) {
+                    out.writeUTF(listing.getKey());
+                    out.writeLong(listing.getValue().listed);
+                    final List<Room> listed = getRooms(listing.getKey());
+                    out.writeInt(listed.size());
+                    for (Room room : listed) {
+                        out.writeUTF(room.jid);
+                        writeString(out, room.name);
+                        out.writeInt(room.occupants);
+                        out.writeBoolean(room.locked);
+                        out.writeLong(room.discovered);
+                    }
+                }
+                out.writeInt(services.size());
+                for (Map.Entry<String, Service> service : services.entrySet()) {
+                    out.writeUTF(service.getKey());
+                    out.writeLong(service.getValue().discovered);
+                    out.writeBoolean(service.getValue().conference);
+                }
+            });
+        } catch (IOException e) {
+            Log.warning("Unable to write the disco cache.", e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * A room listed by a conference service.
+     */
+    public static class Room {
+
+        private final String jid;
+        private final String name;
+        private final int occupants;
+        private final boolean locked;
+        private final long discovered;
+
+        Room(String jid, String name, int occupants, boolean locked, long discovered) {
+            this.jid = jid;
+            this.name = name;
+            this.occupants = occupants;
+            this.locked = locked;
+            this.discovered = discovered;
+        }
+
+        Room(String jid, String name, Room previous) {
+            this(jid, name, previous == null ? -1 : previous.occupants, previous != null && previous.locked,
+                    previous == null ? 0 : previous.discovered);
+        }
+
+        Room(Room room, RoomInfo info) {
+            this(room.jid, room.name, info.getOccupantsCount(), info.isMembersOnly() || info.isPasswordProtected(),
+                    System.currentTimeMillis());
+        }
+
+        public String getJid() {
+            return jid;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the number of occupants of the room.
+         *
+         * @return the number of occupants, or -1 if the service does not tell.
+         */
+        public int getOccupants() {
+            return occupants;
+        }
+
+        /**
+         * Returns true if the room is members only or password protected.
+         *
+         * @return true if the room is locked.
+         */
+        public boolean isLocked() {
+            return locked;
+        }
+
+        /**
+         * Returns true if the information of the room was ever retrieved.
+         *
+         * @return true if the information is known.
+         */
+        public boolean isDiscovered() {
+            return discovered > 0;
+        }
+
+        /**
+         * Returns true if the information of the room was retrieved less than
+         * {@link DiscoCache#TTL} ago.
+         *
+         * @return true if the information need not be requested again.
+         */
+        public boolean isFresh() {
+            return DiscoCache.isFresh(discovered);
+        }
+    }
+
+    /**
+     * The rooms listed by a service.
+     */
+    private static class Listing {
+
+        private final long listed;
+        private final List<String> jids;
+
+        Listing(long listed, List<String> jids) {
+            this.listed = listed;
+            this.jids = jids;
+        }
+    }
+
+    /**
+     * Whether an item of a server is a conference service.
+     */
+    private static class Service {
+
+        private final long discovered;
+        private final boolean conference;
+
+        Service(long discovered, boolean conference) {
+            this.discovered = discovered;
+            this.conference = conference;
+        }
+    }
+}
@@ -27,17 +27,16 @@ import java.awt.Point;
 import java.awt.event.ActionEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.swing.AbstractAction;
 import javax.swing.AbstractButton;
 import javax.swing.Action;
-import javax.swing.DefaultListModel;
 import javax.swing.Icon;
 import javax.swing.ImageIcon;
 import javax.swing.JComponent;
@@ -99,7 +98,7 @@ public class GroupChatParticipantList extends JPanel {
 
     private UserManager userManager = SparkManager.getUserManager();
 
-    private DefaultListModel model = new DefaultListModel();
+    private final ParticipantListModel model = new ParticipantListModel();
 
     private final JXList participantsList;
 
@@ -111,9 +110,13 @@ public class GroupChatParticipantList extends JPanel {
 
     private DiscoverInfo roomInformation;
 
-    private List<JLabel> users = new ArrayList<>();
+    /**
+     * Presences received and not yet shown, so that a flood of presences is
+     * shown in a few batches instead of one event each.
+     */
+    private final Queue<Presence> pendingPresences = new ConcurrentLinkedQueue<>();
 
-    private HashMap<String, String> usersandRoles = new HashMap<>();
+    private final AtomicBoolean presencesScheduled = new AtomicBoolean();
 
     /**
      * Creates a new RoomInfo instance using the specified ChatRoom. The
@@ -127,7 +130,16 @@ public class GroupChatParticipantList extends JPanel {
         agentInfoPanel = new ImageTitlePanel(Res
                 .getString("message.participants.in.room"));
         participantsList = new JXList(model);
-        participantsList.setCellRenderer(new ParticipantRenderer());
+        final ParticipantRenderer renderer = new ParticipantRenderer();
+        participantsList.setCellRenderer(renderer);
+
+        // All rows have the same height, so the list does not have to measure
+        // every occupant of large rooms.
+        final ParticipantListModel.Participant prototype = new ParticipantListModel.Participant("Prototype",
+                SparkRes.getImageIcon(SparkRes.GREEN_BALL), null, null);
+        participantsList.setFixedCellHeight(renderer.getListCellRendererComponent(participantsList,
+                prototype, 0, false, false).getPreferredSize().height);
+        model.setSortByRank(_localPreferences.isShowingRoleIcons());
 
         // Set the room to track
         this.setOpaque(false);
@@ -187,34 +199,10 @@ public class GroupChatParticipantList extends JPanel {
         });
 
         listener = (final Packet packet) -> {
-            SwingUtilities.invokeLater(() -> {
-                Presence p = (Presence) packet;
-                if (p.getError() != null) {
-                    if (p.getError()
-                            .getCondition()
-                            .equals(XMPPError.Condition.conflict
-                                    .toString())) {
-                        return;
-                    }
-                }
-                final String userid = p.getFrom();
-                
-                String displayName = StringUtils.parseResource(userid);
-                userMap.put(displayName, userid);
-                
-                if (p.getType() == Presence.Type.available) {
-                    String jid = PresenceManager.getJidFromMUCPresence(p);
-                    //if current user is participant and not owner, then do not display the settings button
-                    //we have to do it here otherwise ownership information retrieval won't be available
-                    if (jid != null && jid.equals(SparkManager.getSessionManager().getBareAddress())) {
-                        groupChatRoom.notifySettingsAccessRight();
-                    }
-                    addParticipant(userid, p, jid);
-                    agentInfoPanel.setVisible(true);
-                } else {
-                    removeUser(displayName);
-                }
-            });
+            pendingPresences.add((Presence) packet);
+            if (presencesScheduled.compareAndSet(false, true)) {
+                SwingUtilities.invokeLater(this::processPresences);
+            }
         };
 
         chat.addParticipantListener(listener);
@@ -229,6 +217,55 @@ public class GroupChatParticipantList extends JPanel {
         }
     }
 
+    /**
+     * Shows the presences received since the last call as one batch.
+     */
+    private void processPresences() {
+        presencesScheduled.set(false);
+        model.setSortByRank(_localPreferences.isShowingRoleIcons());
+        model.beginUpdate();
+        try {
+            Presence p;
+            while ((p = pendingPresences.poll()) != null) {
+                try {
+                    processPresence(p);
+                } catch (Exception e) {
+                    Log.error(e);
+                }
+            }
+        } finally {
+            model.endUpdate();
+        }
+    }
+
+    private void processPresence(Presence p) {
+        if (p.getError() != null) {
+            if (p.getError()
+                    .getCondition()
+                    .equals(XMPPError.Condition.conflict
+                            .toString())) {
+                return;
+            }
+        }
+        final String userid = p.getFrom();
+
+        String displayName = StringUtils.parseResource(userid);
+        userMap.put(displayName, userid);
+
+        if (p.getType() == Presence.Type.available) {
+            String jid = PresenceManager.getJidFromMUCPresence(p);
+            //if current user is participant and not owner, then do not display the settings button
+            //we have to do it here otherwise ownership information retrieval won't be available
+            if (jid != null && jid.equals(SparkManager.getSessionManager().getBareAddress())) {
+                groupChatRoom.notifySettingsAccessRight();
+            }
+            addParticipant(userid, p, jid);
+            agentInfoPanel.setVisible(true);
+        } else {
+            removeUser(displayName);
+        }
+    }
+
     public void chatRoomOpened(ChatRoom room) {
         if (room != groupChatRoom) {
             return;
@@ -342,10 +379,9 @@ public class GroupChatParticipantList extends JPanel {
 
         String nickname = StringUtils.parseResource(participantJID);
 
-        String affiliation = parseRoleFromPacket(presence)[0];
-        String userRole = parseRoleFromPacket(presence)[1];
-
-        usersandRoles.put(participantJID, affiliation + "," + userRole);
+        String[] affiliationAndRole = parseRoleFromPacket(presence);
+        String affiliation = affiliationAndRole[0];
+        String userRole = affiliationAndRole[1];
 
         Icon icon = null;
         if (_localPreferences.isShowingRoleIcons()) {
@@ -358,16 +394,8 @@ public class GroupChatParticipantList extends JPanel {
             }
         }
 
-        if (!exists(nickname)) {
-            addUser(icon, nickname);
-        } else {
-            int index = getIndex(nickname);
-            if (index != -1) {
-                final JLabel userLabel = new JLabel(nickname, icon,
-                        JLabel.HORIZONTAL);
-                model.setElementAt(userLabel, index);
-            }
-        }
+        // Adds the occupant, or moves it if its role changed.
+        model.put(nickname, icon, affiliation, userRole);
     }
 
     /**
@@ -465,19 +493,13 @@ public class GroupChatParticipantList extends JPanel {
     }
 
     protected boolean exists(String nickname) {
-        for (int i = 0; i < model.getSize(); i++) {
-            final JLabel userLabel = (JLabel) model.getElementAt(i);
-            if (userLabel.getText().equals(nickname)) {
-                return true;
-            }
-        }
-        return false;
+        return model.contains(nickname);
     }
 
     protected String getSelectedUser() {
-        JLabel label = (JLabel) participantsList.getSelectedValue();
-        if (label != null) {
-            return label.getText();
+        ParticipantListModel.Participant participant = (ParticipantListModel.Participant) participantsList.getSelectedValue();
+        if (participant != null) {
+            return participant.getNickname();
         }
 
         return null;
@@ -688,8 +710,7 @@ public class GroupChatParticipantList extends JPanel {
 
         if (index != -1) {
             participantsList.setSelectedIndex(index);
-            final JLabel userLabel = (JLabel) model.getElementAt(index);
-            final String selectedUser = userLabel.getText();
+            final String selectedUser = model.getElementAt(index).getNickname();
             final String groupJID = userMap.get(selectedUser);
             String groupJIDNickname = StringUtils.parseResource(groupJID);
 
@@ -735,11 +756,7 @@ public class GroupChatParticipantList extends JPanel {
 
                     @Override
                     public void actionPerformed(ActionEvent actionEvent) {
-                        int index = getIndex(selectedUser);
-
-                        if (index != -1) {
-                            model.removeElementAt(index);
-                        }
+                        model.remove(selectedUser);
                     }
                 };
 
@@ -844,8 +861,7 @@ public class GroupChatParticipantList extends JPanel {
                         icon = SparkRes.getImageIcon(SparkRes.BRICKWALL_IMAGE);
                     }
 
-                    JLabel label = new JLabel(user, icon, JLabel.HORIZONTAL);
-                    model.setElementAt(label, index);
+                    model.setIcon(user, icon);
                 }
             };
 
@@ -889,8 +905,6 @@ public class GroupChatParticipantList extends JPanel {
                     } else {
                         grantVoice(selectedUser);
                     }
-                    Collections.sort(users, labelComp);
-
                 }
             };
 
@@ -936,7 +950,6 @@ public class GroupChatParticipantList extends JPanel {
                     } else {
                         revokeMember(selectedUser);
                     }
-                    Collections.sort(users, labelComp);
                 }
             };
             memberAction.putValue(Action.SMALL_ICON,
@@ -959,8 +972,6 @@ public class GroupChatParticipantList extends JPanel {
                     } else {
                         revokeModerator(selectedUser);
                     }
-                    Collections.sort(users, labelComp);
-
                 }
             };
 
@@ -987,8 +998,6 @@ public class GroupChatParticipantList extends JPanel {
                     } else {
                         revokeAdmin(selectedUser);
                     }
-                    Collections.sort(users, labelComp);
-
                 }
             };
             adminAction.putValue(Action.SMALL_ICON,
@@ -1013,8 +1022,6 @@ public class GroupChatParticipantList extends JPanel {
                     } else {
                         revokeOwner(selectedUser);
                     }
-                    Collections.sort(users, labelComp);
-
                 }
             };
             ownerAction.putValue(Action.SMALL_ICON,
@@ -1099,13 +1106,7 @@ public class GroupChatParticipantList extends JPanel {
     }
 
     public int getIndex(String name) {
-        for (int i = 0; i < model.getSize(); i++) {
-            JLabel label = (JLabel) model.getElementAt(i);
-            if (label.getText().equals(name)) {
-                return i;
-            }
-        }
-        return -1;
+        return model.indexOf(name);
     }
 
     /**
@@ -1114,25 +1115,7 @@ public class GroupChatParticipantList extends JPanel {
      * @param displayName the users displayed name to remove.
      */
     public synchronized void removeUser(String displayName) {
-        try {
-            for (int i = 0; i < users.size(); i++) {
-                JLabel label = users.get(i);
-                if (label.getText().equals(displayName)) {
-                    users.remove(label);
-                    model.removeElement(label);
-                }
-            }
-
-            for (int i = 0; i < model.size(); i++) {
-                JLabel label = (JLabel) model.getElementAt(i);
-                if (label.getText().equals(displayName)) {
-                    users.remove(label);
-                    model.removeElement(label);
-                }
-            }
-        } catch (Exception e) {
-            Log.error(e);
-        }
+        model.remove(displayName);
     }
 
     /**
@@ -1142,138 +1125,7 @@ public class GroupChatParticipantList extends JPanel {
      * @param nickname the users nickname.
      */
     public synchronized void addUser(Icon userIcon, String nickname) {
-        try {
-            final JLabel user = new JLabel(nickname, userIcon,
-                    JLabel.HORIZONTAL);
-            users.add(user);
-
-            // Sort users alpha.
-            Collections.sort(users, labelComp);
-
-            // Add to the correct position in the model.
-            final int index = users.indexOf(user);
-            model.insertElementAt(user, index);
-        } catch (Exception e) {
-            Log.error(e);
-        }
-    }
-
-    /**
-     * Sorts ContactItems.
-     */
-    final Comparator<JLabel> labelComp = new Comparator<JLabel>() {
-
-        @Override
-        public int compare(JLabel item1, JLabel item2) {
-            if (_localPreferences.isShowingRoleIcons()) {
-                return compareWithRole(item1, item2);
-            } else {
-                return compareWithoutRole(item1.getText(), item2.getText());
-            }
-
-        }
-
-        private int compareWithoutRole(String s1, String s2) {
-            return (s1.toLowerCase().compareTo(s2.toLowerCase()));
-        }
-
-        /**
-         * Comparaes 2 items by their Role and Affiliation<br>
-         * affiliation > role<br>
-         * owner > admin > moderator > member > participant > visitor
-         *
-         * @param item1
-         * @param item2
-         * @return -1, 0 or 1
-         */
-        private int compareWithRole(JLabel item1, JLabel item2) {
-
-            int user1 = 100;
-            int user2 = 100;
-            try {
-                // append Room-JID to UserLabel
-                String jid1 = chat.getRoom() + "/" + item1.getText();
-                String jid2 = chat.getRoom() + "/" + item2.getText();
-
-                user1 = getCompareValue(jid1);
-                user2 = getCompareValue(jid2);
-
-            } catch (Exception e) {
-                // Sometimes theres no Occupant with that jid, dunno why
-            }
-
-            int result = 0;
-            if (user1 == user2) {
-                result = compareWithoutRole(item1.getText(), item2.getText());
-
-            } else {
-                // a=owner,b=admin, m=moderator, n=member , p=participant, v=visitor
-                // a < b < m < n < p < v
-                if (user1 < user2) {
-                    result = -1;
-                }
-                if (user1 > user2) {
-                    result = 1;
-                }
-            }
-            return result;
-        }
-    };
-
-    /**
-     * check if we have an affiliation to this room<br>
-     * and map it to an integer<br>
-     * 0=owner,1=admin.....5=visitor<br>
-     */
-    private int getCompareValue(String jid) {
-        int result = 100;
-
-        String affi = usersandRoles.get(jid).split(",")[0];
-        String role = usersandRoles.get(jid).split(",")[1];
-
-        if (affi == null) {
-            affi = "z";
-        }
-        if (role == null) {
-            role = "z";
-        }
-
-        switch (affi.charAt(0)) {
-            case 'o':
-                result = 0;
-                break; // owner
-            case 'a':
-                result = 1;
-                break; // admin
-            // Moderator is in between with 2
-            case 'm':
-                result = 3;
-                break; // member
-            default:
-                result = 100;
-        }
-
-        if (affi.equalsIgnoreCase("none")) {
-
-            switch (role.charAt(0)) {
-                case 'm':
-                    result = 2;
-                    break; // moderator
-                // Member is in between with 3
-                case 'p':
-                    result = 4;
-                    break; // participant
-                case 'v':
-                    result = 5;
-                    break; // visitor
-                default:
-                    result = 100;
-            }
-        }
-        if (affi.equalsIgnoreCase("member") && role.charAt(0) == 'm') {
-            result = 2;
-        }
-        return result;
+        model.put(nickname, userIcon, null, null);
     }
 
     /**
@@ -1304,9 +1156,9 @@ public class GroupChatParticipantList extends JPanel {
                 setForeground(list.getForeground());
             }
 
-            JLabel label = (JLabel) value;
-            setText(label.getText());
-            setIcon(label.getIcon());
+            ParticipantListModel.Participant participant = (ParticipantListModel.Participant) value;
+            setText(participant.getNickname());
+            setIcon(participant.getIcon());
             return this;
         }
     }
@@ -1327,7 +1179,7 @@ public class GroupChatParticipantList extends JPanel {
         return userMap;
     }
 
-    protected DefaultListModel getModel() {
+    protected ParticipantListModel getModel() {
         return model;
     }
 
@@ -1352,16 +1204,4 @@ public class GroupChatParticipantList extends JPanel {
     protected DiscoverInfo getRoomInformation() {
         return roomInformation;
     }
-
-    protected List<JLabel> getUsers() {
-        return users;
-    }
-
-    protected HashMap<String, String> getUsersandRoles() {
-        return usersandRoles;
-    }
-
-    protected Comparator<JLabel> getLabelComp() {
-        return labelComp;
-    }
 }
@@ -0,0 +1,402 @@
+/**
+ * Copyright (C) 2004-2011 Jive Software. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.jivesoftware.spark.ui.conferences;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.swing.AbstractListModel;
+import javax.swing.Icon;
+
+/**
+ * The sorted list of the occupants of a group chat room, keyed by nickname.
+ * Occupants are sorted by nickname, or by their affiliation and role first.
+ * The rank of each occupant is computed once when it is added, so sorting
+ * does not look anything up.
+ * <p>
+ * Occupants are found by nickname in constant time and their position in the
+ * list by binary search, so adding, moving and removing an occupant takes
+ * O(log n) comparisons and a single array copy. Changes made between
+ * {@link #beginUpdate()} and {@link #endUpdate()} are reported to the list as
+ * one batch of events, which keeps the join flood of large rooms cheap.
+ * <p>
+ * Like all Swing models, this model must only be used on the event dispatch
+ * thread.
+ */
+public class ParticipantListModel extends AbstractListModel<ParticipantListModel.Participant> {
+
+    private static final long serialVersionUID = -2380544137212465178L;
+
+    /**
+     * The rank of occupants whose affiliation and role are unknown, such as
+     * invited users.
+     */
+    public static final int UNKNOWN_RANK = 100;
+
+    private final List<Participant> participants = new ArrayList<>();
+    private final Map<String, Participant> nicknames = new HashMap<>();
+    private Comparator<Participant> comparator = BY_NICKNAME;
+    private boolean sortByRank;
+
+    private int updateDepth;
+    private int updateSize;
+    private boolean updated;
+
+    private static final Comparator<Participant> BY_NICKNAME = (p1, p2) -> {
+        final int result = p1.sortKey.compareTo(p2.sortKey);
+        return result != 0 ? result : p1.nickname.compareTo(p2.nickname);
+    };
+
+    private static final Comparator<Participant> BY_RANK = (p1, p2) -> {
+        final int result = Integer.compare(p1.rank, p2.rank);
+        return result != 0 ? result : BY_NICKNAME.compare(p1, p2);
+    };
+
+    /**
+     * Maps an affiliation and role to a rank, lower ranks are listed first:
+     * owner, admin, moderator, member, participant, visitor.
+     *
+     * @param affiliation the affiliation, or null if unknown.
+     * @param role the role, or null if unknown.
+     * @return the rank.
+     */
+    public static int getRank(String affiliation, String role) {
+        if (affiliation == null || role == null || affiliation.isEmpty() || role.isEmpty()) {
+            return UNKNOWN_RANK;
+        }
+
+        int result;
+        switch (affiliation.charAt(0)) {
+            case 'o':
+                result = 0;
+                break; // owner
+            case 'a':
+                result = 1;
+                break; // admin
+            // Moderator is in between with 2
+            case 'm':
+                result = 3;
+                break; // member
+            default:
+                result = UNKNOWN_RANK;
+        }
+
+        if (affiliation.equalsIgnoreCase("none")) {
+            switch (role.charAt(0)) {
+                case 'm':
+                    result = 2;
+                    break; // moderator
+                // Member is in between with 3
+                case 'p':
+                    result = 4;
+                    break; // participant
+                case 'v':
+                    result = 5;
+                    break; // visitor
+                default:
+                    result = UNKNOWN_RANK;
+            }
+        }
+        if (affiliation.equalsIgnoreCase("member") && role.charAt(0) == 'm') {
+            result = 2;
+        }
+        return result;
+    }
+
+    /**
+     * Sets whether occupants are sorted by their affiliation and role before
+     * their nickname.
+     *
+     * @param sortByRank true to sort by rank first.
+     */
+    public void setSortByRank(boolean sortByRank) {
+        if (this.sortByRank == sortByRank) {
+            return;
+        }
+        this.sortByRank = sortByRank;
+        comparator = sortByRank ? BY_RANK : BY_NICKNAME;
+        participants.sort(comparator);
+        changed(0, participants.size() - 1);
+    }
+
+    /**
+     * Adds an occupant, or replaces the occupant with the same nickname and
+     * moves it to its new position.
+     *
+     * @param nickname the nickname.
+     * @param icon the icon shown with the nickname.
+     * @param affiliation the affiliation, or null if unknown.
+     * @param role the role, or null if unknown.
+     * @return the position of the occupant.
+     */
+    public int put(String nickname, Icon icon, String affiliation, String role) {
+        final Participant participant = new Participant(nickname, icon, affiliation, role);
+        final Participant previous = nicknames.put(nickname, participant);
+        if (previous != null) {
+            final int index = find(previous);
+            if (comparator.compare(previous, participant) == 0) {
+                participants.set(index, participant);
+                changed(index, index);
+                return index;
+            }
+            participants.remove(index);
+            removed(index, index);
+        }
+
+        final int index = -find(participant) - 1;
+        participants.add(index, participant);
+        added(index, index);
+        return index;
+    }
+
+    /**
+     * Changes the icon of an occupant without changing its position.
+     *
+     * @param nickname the nickname.
+     * @param icon the new icon.
+     * @return true if there is an occupant with this nickname.
+     */
+    public boolean setIcon(String nickname, Icon icon) {
+        final Participant previous = nicknames.get(nickname);
+        if (previous == null) {
+            return false;
+        }
+        final Participant participant = new Participant(previous, icon);
+        final int index = find(previous);
+        nicknames.put(nickname, participant);
+        participants.set(index, participant);
+        changed(index, index);
+        return true;
+    }
+
+    /**
+     * Removes an occupant.
+     *
+     * @param nickname the nickname.
+     * @return true if there was an occupant with this nickname.
+     */
+    public boolean remove(String nickname) {
+        final Participant participant = nicknames.remove(nickname);
+        if (participant == null) {
+            return false;
+        }
+        final int index = find(participant);
+        participants.remove(index);
+        removed(index, index);
+        return true;
+    }
+
+    /**
+     * Removes all occupants.
+     */
+    public void clear() {
+        final int size = participants.size();
+        if (size > 0) {
+            participants.clear();
+            nicknames.clear();
+            removed(0, size - 1);
+        }
+    }
+
+    /**
+     * Returns the occupant with a nickname.
+     *
+     * @param nickname the nickname.
+     * @return the occupant, or null if there is none.
+     */
+    public Participant get(String nickname) {
+        return nicknames.get(nickname);
+    }
+
+    /**
+     * Returns true if there is an occupant with a nickname.
+     *
+     * @param nickname the nickname.
+     * @return true if the occupant is listed.
+     */
+    public boolean contains(String nickname) {
+        return nicknames.containsKey(nickname);
+    }
+
+    /**
+     * Returns the position of an occupant.
+     *
+     * @param nickname the nickname.
+     * @return the position, or -1 if there is no occupant with this nickname.
+     */
+    public int indexOf(String nickname) {
+        final Participant participant = nicknames.get(nickname);
+        return participant == null ? -1 : find(participant);
+    }
+
+    /**
+     * Returns the occupants in the order they are listed.
+     *
+     * @return an unmodifiable view of the occupants.
+     */
+    public List<Participant> getParticipants() {
+        return Collections.unmodifiableList(participants);
+    }
+
+    /**
+     * Starts a batch of changes. The list is not notified of the changes
+     * until the matching {@link #endUpdate()}.
+     */
+    public void beginUpdate() {
+        if (updateDepth++ == 0) {
+            updateSize = participants.size();
+            updated = false;
+        }
+    }
+
+    /**
+     * Ends a batch of changes and notifies the list of all of them at once.
+     */
+    public void endUpdate() {
+        if (updateDepth == 0 || --updateDepth > 0 || !updated) {
+            return;
+        }
+
+        final int size = participants.size();
+        if (size > updateSize) {
+            fireIntervalAdded(this, updateSize, size - 1);
+        } else if (size < updateSize) {
+            fireIntervalRemoved(this, size, updateSize - 1);
+        }
+        if (Math.min(size, updateSize) > 0) {
+            fireContentsChanged(this, 0, Math.min(size, updateSize) - 1);
+        }
+    }
+
+    @Override
+    public int getSize() {
+        return participants.size();
+    }
+
+    @Override
+    public Participant getElementAt(int index) {
+        return participants.get(index);
+    }
+
+    /**
+     * Returns the position of a listed occupant, or (-(insertion point) - 1)
+     * if it is not listed.
+     */
+    private int find(Participant participant) {
+        return Collections.binarySearch(participants, participant, comparator);
+    }
+
+    private void added(int index0, int index1) {
+        if (updateDepth > 0) {
+            updated = true;
+        } else {
+            fireIntervalAdded(this, index0, index1);
+        }
+    }
+
+    private void removed(int index0, int index1) {
+        if (updateDepth > 0) {
+            updated = true;
+        } else {
+            fireIntervalRemoved(this, index0, index1);
+        }
+    }
+
+    private void changed(int index0, int index1) {
+        if (index1 < index0) {
+            return;
+        }
+        if (updateDepth > 0) {
+            updated = true;
+        } else {
+            fireContentsChanged(this, index0, index1);
+        }
+    }
+
+    /**
+     * An occupant of the room, as listed.
+     */
+    public static class Participant {
+
+        private final String nickname;
+        private final String sortKey;
+        private final Icon icon;
+        private final String affiliation;
+        private final String role;
+        private final int rank;
+
+        Participant(String nickname, Icon icon, String affiliation, String role) {
+            this.nickname = nickname;
+            this.sortKey = nickname.toLowerCase();
+            this.icon = icon;
+            this.affiliation = affiliation;
+            this.role = role;
+            this.rank = ParticipantListModel.getRank(affiliation, role);
+        }
+
+        Participant(Participant participant, Icon icon) {
+            this.nickname = participant.nickname;
+            this.sortKey = participant.sortKey;
+            this.icon = icon;
+            this.affiliation = participant.affiliation;
+            this.role = participant.role;
+            this.rank = participant.rank;
+        }
+
+        public String getNickname() {
+            return nickname;
+        }
+
+        public Icon getIcon() {
+            return icon;
+        }
+
+        /**
+         * Returns the affiliation of the occupant.
+         *
+         * @return the affiliation, or null if unknown.
+         */
+        public String getAffiliation() {
+            return affiliation;
+        }
+
+        /**
+         * Returns the role of the occupant.
+         *
+         * @return the role, or null if unknown.
+         */
+        public String getRole() {
+            return role;
+        }
+
+        /**
+         * Returns the rank of the occupant's affiliation and role.
+         *
+         * @return the rank, see {@link ParticipantListModel#getRank(String, String)}.
+         */
+        public int getRank() {
+            return rank;
+        }
+
+        @Override
+        public String toString() {
+            return nickname;
+        }
+    }
+}
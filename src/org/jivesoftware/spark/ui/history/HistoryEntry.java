@@ -16,6 +16,8 @@ public class HistoryEntry {
     private List<HistoryEntry> entries;
     private List<HistoryMessage> messages;
     private Date date;
+    private MessageLoader messageLoader;
+    private int messageCount;
 
     public HistoryEntry() {
     }
@@ -62,7 +64,22 @@ public class HistoryEntry {
         this.entries = entries;
     }
 
+    /**
+     * Lets the messages of this entry be loaded on demand instead of holding
+     * them.
+     *
+     * @param messageLoader the loader called by {@link #getMessages()}
+     * @param messageCount the number of messages the loader will return
+     */
+    public void setMessageLoader(MessageLoader messageLoader, int messageCount) {
+        this.messageLoader = messageLoader;
+        this.messageCount = messageCount;
+    }
+
     public List<HistoryMessage> getMessages() {
+        if (null == messages && messageLoader != null) {
+            return messageLoader.loadMessages(this);
+        }
         if (null == messages) {
             messages = new ArrayList<>();
         }
@@ -80,6 +97,9 @@ public class HistoryEntry {
      * @return true if there are any messages in it
      */
     public boolean isEmpty() {
+        if (messages == null && messageLoader != null) {
+            return messageCount < 1;
+        }
         return messages == null || messages.size() < 1;
     }
 
@@ -109,4 +129,12 @@ public class HistoryEntry {
         return "HistoryEntry [ name=" + name + ", entries=" + entries;
     }
 
+    /**
+     * Loads the messages of an entry on demand.
+     */
+    public interface MessageLoader {
+
+        List<HistoryMessage> loadMessages(HistoryEntry entry);
+    }
+
 }
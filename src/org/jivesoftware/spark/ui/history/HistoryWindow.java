@@ -11,9 +11,6 @@ import java.awt.Insets;
 import java.awt.Point;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.text.MessageFormat;
 import java.util.List;
@@ -32,6 +29,7 @@ import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.DefaultTreeModel;
 import javax.swing.tree.TreeModel;
 import javax.swing.tree.TreePath;
+import org.jivesoftware.sparkimpl.plugin.transcripts.TranscriptStore;
 
 /**
  * @author Vyacheslav Durin (nixspirit@gmail.com)
@@ -52,8 +50,6 @@ public class HistoryWindow extends JFrame {
     private static final Point LOCATION = new Point(400, 150);
     private static final MessageFormat TITLE_FORMAT = new MessageFormat("{0}");
     private static final MessageFormat LABEL_FORMAT = new MessageFormat("{0}");
-    private static final MessageFormat HISTORY_FILE_FORMAT = new MessageFormat(
-            "transcripts/{0}.xml");
     private static final Font LABEL_FONT = new Font("Droid Sans", Font.BOLD, 16);
     private static final Font SIZE_TEXT_FONT = new Font("Droid Sans",
             Font.PLAIN, 14);
@@ -61,7 +57,6 @@ public class HistoryWindow extends JFrame {
     private static final Dimension SIZE_FIND_FIELD = new Dimension(100, 25);
 
     private String roomName;
-    private InputStream historyStream;
     private JButton btnClose;
     private JTextPane historyContentText;
     private JScrollPane historyContentTextScrollPane;
@@ -70,27 +65,28 @@ public class HistoryWindow extends JFrame {
     private JTree historyTree;
     private JScrollPane historyTreeView;
     private String sizeText;
-    private XMLHistoryFile historyFile;
+    private AbstractHistoryFile historyFile;
     private HistoryTreeNode historyTreeTopNode;
     private TreeModel historyOriginalModel;
 
     public HistoryWindow(InputStream is, String roomName) {
+        this(new XMLHistoryFile(is), roomName);
+    }
+
+    public HistoryWindow(TranscriptStore store, String roomName) {
+        this(new TranscriptHistoryFile(store, roomName), roomName);
+    }
+
+    private HistoryWindow(AbstractHistoryFile historyFile, String roomName) {
         setPreferredSize(SIZE);
         setLocation(LOCATION);
         setResizable(true);
         setTitle(TITLE_FORMAT.format(new String[]{roomName}));
         this.roomName = roomName;
-        this.historyStream = is;
+        this.historyFile = historyFile;
         initComponents();
     }
 
-    public HistoryWindow(File file, String roomName)
-            throws FileNotFoundException {
-        this(new FileInputStream(new File(file,
-                HISTORY_FILE_FORMAT.format(new String[]{roomName}))),
-                roomName);
-    }
-
     public void showWindow() {
         pack();
         setVisible(true);
@@ -102,7 +98,6 @@ public class HistoryWindow extends JFrame {
     }
 
     private void initComponents() {
-        historyFile = new XMLHistoryFile(historyStream);
         sizeText = historyFile.getFormatSize();
 
         btnClose = createJButton(BTN_CLOSE);
@@ -244,7 +239,7 @@ public class HistoryWindow extends JFrame {
         return label;
     }
 
-    private static HistoryTreeNode buildHistoryTree(XMLHistoryFile file,
+    private static HistoryTreeNode buildHistoryTree(AbstractHistoryFile file,
             String roomName) {
         HistoryTreeNode top = new HistoryTreeNode(roomName);
 
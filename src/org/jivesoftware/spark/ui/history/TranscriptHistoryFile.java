@@ -0,0 +1,175 @@
+package org.jivesoftware.spark.ui.history;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.jivesoftware.sparkimpl.plugin.transcripts.TranscriptStore;
+
+/**
+ * Reads the history of a JID from a {@link TranscriptStore}. Like
+ * {@link XMLHistoryFile}, a first pass only builds the month/day skeleton and
+ * remembers which messages belong to each day. The messages of a day are read
+ * again when the day is opened, and only the last few opened days are kept in
+ * memory.
+ */
+public class TranscriptHistoryFile extends AbstractHistoryFile implements HistoryEntry.MessageLoader {
+
+    private static final int BATCH = 500;
+    private static final int LOADED_DAYS = 4;
+
+    private final TranscriptStore store;
+    private final String jid;
+    private final Map<HistoryEntry, MessageRanges> dayRanges = new HashMap<>();
+    private final Map<HistoryEntry, List<HistoryMessage>> loadedDays = new LinkedHashMap<HistoryEntry, List<HistoryMessage>>(16, 0.75f, true) {
+        private static final long serialVersionUID = 4460432290125633327L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<HistoryEntry, List<HistoryMessage>> eldest) {
+            return size() > LOADED_DAYS;
+        }
+    };
+
+    /**
+     * @param store the store holding the transcript
+     * @param jid the jid of the user
+     */
+    public TranscriptHistoryFile(TranscriptStore store, String jid) {
+
+        if (store == null || jid == null) {
+            throw new IllegalArgumentException("Store and jid cannot be null");
+        }
+
+        this.store = store;
+        this.jid = jid;
+    }
+
+    @Override
+    protected long getSize() {
+        return store.getTranscriptSize(jid) / SIZE_MULTIPLICATOR;
+    }
+
+    @Override
+    protected List<HistoryEntry> createEntries() {
+        final int count = store.getMessageCount(jid);
+        if (count == 0) {
+            return Collections.emptyList();
+        }
+
+        Map<Date, HistoryEntry> months = new HashMap<>();
+        Map<Date, HistoryEntry> days = new HashMap<>();
+        HistoryEntry previousDay = null;
+        long dayStart = 0;
+        long dayEnd = 0;
+
+        for (int from = 0; from < count; from += BATCH) {
+            int number = from;
+            for (org.jivesoftware.sparkimpl.plugin.transcripts.HistoryMessage stored
+                    : store.getMessages(jid, from, BATCH).getMessages()) {
+                long time = stored.getDate().getTime();
+                if (previousDay != null && time >= dayStart && time < dayEnd) {
+                    // same day as the message before, no need to normalize
+                    dayRanges.get(previousDay).add(number++, true);
+                    continue;
+                }
+
+                HistoryMessage message = new HistoryMessage();
+                message.setDate(stored.getDate());
+                Date normalizedMonth = message.getNormalizedMonth();
+                Date normalizedDate = message.getNormalizedDate();
+
+                // create month
+                if (!months.containsKey(normalizedMonth)) {
+                    HistoryEntry monthEntry = new HistoryEntry();
+                    monthEntry.setDate(normalizedMonth);
+                    monthEntry.setName(MONTH_NAME_FORMAT.format(normalizedMonth));
+                    months.put(normalizedMonth, monthEntry);
+                }
+
+                // create a day and put it in a month
+                if (!days.containsKey(normalizedDate)) {
+                    HistoryEntry dayEntry = new HistoryEntry();
+                    dayEntry.setDate(normalizedDate);
+                    dayEntry.setName(DAY_NAME_FORMAT.format(normalizedDate));
+                    days.put(normalizedDate, dayEntry);
+                    dayRanges.put(dayEntry, new MessageRanges());
+                    months.get(normalizedMonth).getEntries().add(dayEntry);
+                }
+
+                // remember which messages belong to a day
+                HistoryEntry day = days.get(normalizedDate);
+                dayRanges.get(day).add(number++, day == previousDay);
+                previousDay = day;
+                Calendar nextDay = Calendar.getInstance();
+                nextDay.setTime(normalizedDate);
+                nextDay.add(Calendar.DATE, 1);
+                dayStart = normalizedDate.getTime();
+                dayEnd = nextDay.getTimeInMillis();
+            }
+        }
+
+        dayRanges.entrySet().stream().forEach((day) -> {
+            day.getKey().setMessageLoader(this, day.getValue().messages);
+        });
+
+        // sort by months
+        return toList(months);
+    }
+
+    @Override
+    public synchronized List<HistoryMessage> loadMessages(HistoryEntry day) {
+        List<HistoryMessage> messages = loadedDays.get(day);
+        if (messages != null) {
+            return messages;
+        }
+
+        messages = new ArrayList<>();
+        MessageRanges ranges = dayRanges.get(day);
+        if (ranges != null) {
+            for (int i = 0; i < ranges.size; i += 2) {
+                int from = ranges.numbers[i];
+                int count = ranges.numbers[i + 1] - from;
+                for (org.jivesoftware.sparkimpl.plugin.transcripts.HistoryMessage stored
+                        : store.getMessages(jid, from, count).getMessages()) {
+                    HistoryMessage message = new HistoryMessage();
+                    message.setTo(stored.getTo());
+                    message.setFrom(stored.getFrom());
+                    message.setBody(stored.getBody());
+                    message.setDate(stored.getDate());
+                    messages.add(message);
+                }
+            }
+        }
+        loadedDays.put(day, messages);
+        return messages;
+    }
+
+    /**
+     * The message numbers of a day. Messages following each other are joined
+     * into one range.
+     */
+    private static class MessageRanges {
+
+        private int[] numbers = new int[2];
+        private int size;
+        private int messages;
+
+        void add(int number, boolean follows) {
+            messages++;
+            if (follows && size > 0) {
+                numbers[size - 1] = number + 1;
+            } else {
+                if (size == numbers.length) {
+                    numbers = Arrays.copyOf(numbers, size * 2);
+                }
+                numbers[size++] = number;
+                numbers[size++] = number + 1;
+            }
+        }
+    }
+}
@@ -1,34 +1,82 @@
 package org.jivesoftware.spark.ui.history;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 /**
+ * Reads a history file in two steps. A first pass only pulls the dates of the
+ * messages out of the file and builds the month/day skeleton, remembering
+ * where in the file the messages of each day are. The messages of a day are
+ * parsed when the day is opened, and only the last few opened days are kept
+ * in memory.
+ *
  * @author Vyacheslav Durin (nixspirit@gmail.com)
  *
  * Apr 15, 2013
  * @version 0.1
  */
-public class XMLHistoryFile extends AbstractHistoryFile {
+public class XMLHistoryFile extends AbstractHistoryFile implements HistoryEntry.MessageLoader {
 
     private static final String MESSAGE_TAG = "message";
-    private InputStream roomFileStream;
-    private Document historyXML;
+    private static final String DATE_TAG = "date";
+    private static final int MAX_TAG_LENGTH = 32;
+    private static final int LOADED_DAYS = 4;
+    private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+
+    private final File historyFile;
+    private final Map<HistoryEntry, FileRanges> dayRanges = new HashMap<>();
+    private final Map<String, Integer> zoneOffsets = new HashMap<>();
+    private final Map<HistoryEntry, List<HistoryMessage>> loadedDays = new LinkedHashMap<HistoryEntry, List<HistoryMessage>>(16, 0.75f, true) {
+        private static final long serialVersionUID = -3017851937361224655L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<HistoryEntry, List<HistoryMessage>> eldest) {
+            return size() > LOADED_DAYS;
+        }
+    };
 
     /**
-     * @param roomFileStream
+     * @param historyFile the history file
+     */
+    public XMLHistoryFile(File historyFile) {
+
+        if (historyFile == null) {
+            throw new IllegalArgumentException("History File cannot be null");
+        }
+
+        this.historyFile = historyFile;
+    }
+
+    /**
+     * The stream is copied to a temporary file, so that the messages of a day
+     * can be read again when the day is opened.
+     *
+     * @param fileStream the history stream
      */
     public XMLHistoryFile(InputStream fileStream) {
 
@@ -36,82 +84,285 @@ public class XMLHistoryFile extends AbstractHistoryFile {
             throw new IllegalArgumentException("History Stream cannot be null");
         }
 
-        roomFileStream = fileStream;
+        historyFile = spool(fileStream);
     }
 
     @Override
     protected long getSize() {
-        try {
-            return roomFileStream.available() / SIZE_MULTIPLICATOR;
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return 0;
+        return historyFile.length() / SIZE_MULTIPLICATOR;
     }
 
     @Override
     protected List<HistoryEntry> createEntries() {
-        historyXML = read();
-        if (historyXML == null) {
+        if (!historyFile.exists()) {
             return Collections.emptyList();
         }
 
-        Element document = historyXML.getDocumentElement();
         Map<Date, HistoryEntry> months = new HashMap<>();
         Map<Date, HistoryEntry> days = new HashMap<>();
+        HistoryEntry[] previousDay = new HistoryEntry[1];
+        long[] previousBounds = new long[2];
 
-        NodeList nl = document.getElementsByTagName(MESSAGE_TAG);
-        for (int i = 0; i < nl.getLength(); i++) {
-            Element messageElement = (Element) nl.item(i);
-            HistoryMessage message = new HistoryMessage(messageElement);
+        try {
+            scan((message, start, end) -> {
+                long time = message.getDate().getTime();
+                if (previousDay[0] != null && time >= previousBounds[0] && time < previousBounds[1]) {
+                    // same day as the message before, no need to normalize
+                    dayRanges.get(previousDay[0]).add(start, end, true);
+                    return;
+                }
 
-            Date normalizedMonth = message.getNormalizedMonth();
-            Date normalizedDate = message.getNormalizedDate();
+                Date normalizedMonth = message.getNormalizedMonth();
+                Date normalizedDate = message.getNormalizedDate();
 
-            // create month
-            if (!months.containsKey(normalizedMonth)) {
-                HistoryEntry monthEntry = new HistoryEntry();
-                monthEntry.setDate(normalizedMonth);
-                monthEntry.setName(MONTH_NAME_FORMAT.format(normalizedMonth));
-                months.put(normalizedMonth, monthEntry);
-            }
+                // create month
+                if (!months.containsKey(normalizedMonth)) {
+                    HistoryEntry monthEntry = new HistoryEntry();
+                    monthEntry.setDate(normalizedMonth);
+                    monthEntry.setName(MONTH_NAME_FORMAT.format(normalizedMonth));
+                    months.put(normalizedMonth, monthEntry);
+                }
 
-            // create a day and put it in a month
-            if (!days.containsKey(normalizedDate)) {
-                HistoryEntry dayEntry = new HistoryEntry();
-                dayEntry.setDate(normalizedDate);
-                dayEntry.setName(DAY_NAME_FORMAT.format(normalizedDate));
-                days.put(normalizedDate, dayEntry);
-                months.get(normalizedMonth).getEntries().add(dayEntry);
-            }
+                // create a day and put it in a month
+                if (!days.containsKey(normalizedDate)) {
+                    HistoryEntry dayEntry = new HistoryEntry();
+                    dayEntry.setDate(normalizedDate);
+                    dayEntry.setName(DAY_NAME_FORMAT.format(normalizedDate));
+                    days.put(normalizedDate, dayEntry);
+                    dayRanges.put(dayEntry, new FileRanges());
+                    months.get(normalizedMonth).getEntries().add(dayEntry);
+                }
+
+                // remember where the messages of a day are
+                HistoryEntry day = days.get(normalizedDate);
+                dayRanges.get(day).add(start, end, day == previousDay[0]);
+                previousDay[0] = day;
 
-            // add messages to a day
-            HistoryEntry entry = days.get(normalizedDate);
-            entry.getMessages().add(message);
+                Calendar nextDay = Calendar.getInstance();
+                nextDay.setTime(normalizedDate);
+                nextDay.add(Calendar.DATE, 1);
+                previousBounds[0] = normalizedDate.getTime();
+                previousBounds[1] = nextDay.getTimeInMillis();
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+            return Collections.emptyList();
         }
 
-        // printTree(months, days);
+        dayRanges.entrySet().stream().forEach((day) -> {
+            day.getKey().setMessageLoader(this, day.getValue().messages);
+        });
+
         // sort by months
         return toList(months);
+    }
+
+    @Override
+    public synchronized List<HistoryMessage> loadMessages(HistoryEntry day) {
+        List<HistoryMessage> messages = loadedDays.get(day);
+        if (messages != null) {
+            return messages;
+        }
+
+        messages = new ArrayList<>();
+        FileRanges ranges = dayRanges.get(day);
+        if (ranges != null) {
+            try (RandomAccessFile file = new RandomAccessFile(historyFile, "r")) {
+                for (int i = 0; i < ranges.size; i += 2) {
+                    byte[] bytes = new byte[(int) (ranges.offsets[i + 1] - ranges.offsets[i])];
+                    file.seek(ranges.offsets[i]);
+                    file.readFully(bytes);
+                    parse(bytes, messages);
+                }
+            } catch (IOException | XMLStreamException e) {
+                e.printStackTrace();
+            }
+        }
+        loadedDays.put(day, messages);
+        return messages;
+    }
+
+    /**
+     * Pulls the messages out of the file without parsing their content. Only
+     * the tags and the text of the date tags are looked at, the bodies are
+     * escaped and cannot contain tags.
+     */
+    private void scan(MessageVisitor visitor) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        byte[] tag = new byte[MAX_TAG_LENGTH];
+        ByteArrayOutputStream dateText = new ByteArrayOutputStream(32);
+
+        long position = 0;
+        long tagStart = 0;
+        int tagLength = 0;
+        boolean inTag = false;
+        boolean tagNameDone = false;
+        boolean inDate = false;
+        long messageStart = -1;
+        String date = "";
 
+        try (InputStream in = new BufferedInputStream(new FileInputStream(historyFile))) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                for (int i = 0; i < read; i++, position++) {
+                    byte b = buffer[i];
+                    if (b == '<') {
+                        inTag = true;
+                        tagNameDone = false;
+                        tagStart = position;
+                        tagLength = 0;
+                    } else if (inTag && b == '>') {
+                        inTag = false;
+                        String name = new String(tag, 0, tagLength, StandardCharsets.UTF_8);
+                        if (MESSAGE_TAG.equals(name)) {
+                            messageStart = tagStart;
+                            date = "";
+                        } else if (DATE_TAG.equals(name)) {
+                            inDate = true;
+                            dateText.reset();
+                        } else if (("/" + DATE_TAG).equals(name)) {
+                            inDate = false;
+                            date = new String(dateText.toByteArray(), StandardCharsets.UTF_8).trim();
+                        } else if (("/" + MESSAGE_TAG).equals(name) && messageStart >= 0) {
+                            HistoryMessage message = new HistoryMessage();
+                            message.setDate(parseDate(date));
+                            visitor.visit(message, messageStart, position + 1);
+                            messageStart = -1;
+                        }
+                    } else if (inTag) {
+                        if (Character.isWhitespace(b) || tagLength == MAX_TAG_LENGTH) {
+                            // attributes are not needed
+                            tagNameDone = true;
+                        } else if (!tagNameDone) {
+                            tag[tagLength++] = b;
+                        }
+                    } else if (inDate) {
+                        dateText.write(b);
+                    }
+                }
+            }
+        }
     }
 
-    private Document read() {
+    /**
+     * Parses the dates of the history format without going through
+     * SimpleDateFormat for every message, which is slow at parsing zone
+     * names. The offset of a zone name is learned from the first date using
+     * it.
+     */
+    private Date parseDate(String text) {
+        int zoneStart = text.lastIndexOf(' ') + 1;
+        Integer offset = zoneOffsets.get(text.substring(zoneStart));
+        if (offset != null && zoneStart > 21) {
+            try {
+                LocalDateTime time = LocalDateTime.of(
+                        Integer.parseInt(text.substring(0, 4)),
+                        Integer.parseInt(text.substring(5, 7)),
+                        Integer.parseInt(text.substring(8, 10)),
+                        Integer.parseInt(text.substring(11, 13)),
+                        Integer.parseInt(text.substring(14, 16)),
+                        Integer.parseInt(text.substring(17, 19)));
+                long millis = time.toEpochSecond(ZoneOffset.UTC) * 1000
+                        + Integer.parseInt(text.substring(20, zoneStart - 1));
+                return new Date(millis - offset);
+            } catch (RuntimeException e) {
+                // not in the usual format
+            }
+        }
+
+        HistoryMessage message = new HistoryMessage();
+        message.setDate(text);
+        Date date = message.getDate();
+        if (zoneStart > 21) {
+            try {
+                LocalDateTime time = LocalDateTime.parse(text.substring(0, 19).replace(' ', 'T'));
+                long local = time.toEpochSecond(ZoneOffset.UTC) * 1000
+                        + Integer.parseInt(text.substring(20, zoneStart - 1));
+                zoneOffsets.put(text.substring(zoneStart), (int) (local - date.getTime()));
+            } catch (RuntimeException e) {
+                // not in the usual format
+            }
+        }
+        return date;
+    }
+
+    private static void parse(byte[] messageBytes, List<HistoryMessage> messages) throws XMLStreamException {
+        InputStream in = new SequenceInputStream(Collections.enumeration(Arrays.asList(
+                new ByteArrayInputStream("<history>".getBytes(StandardCharsets.UTF_8)),
+                new ByteArrayInputStream(messageBytes),
+                new ByteArrayInputStream("</history>".getBytes(StandardCharsets.UTF_8)))));
+
+        XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(in, "UTF-8");
         try {
-            DocumentBuilderFactory dbFactory = DocumentBuilderFactory
-                    .newInstance();
-            DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-            Document doc = dBuilder.parse(roomFileStream);
-            roomFileStream.close();
-            doc.getDocumentElement().normalize();
-            return doc;
-        } catch (ParserConfigurationException e) {
-            e.printStackTrace();
-        } catch (SAXException e) {
-            e.printStackTrace();
+            HistoryMessage message = null;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = reader.getLocalName();
+                    if (MESSAGE_TAG.equals(name)) {
+                        message = new HistoryMessage();
+                    } else if (message != null && "to".equals(name)) {
+                        message.setTo(reader.getElementText());
+                    } else if (message != null && "from".equals(name)) {
+                        message.setFrom(reader.getElementText());
+                    } else if (message != null && "body".equals(name)) {
+                        message.setBody(reader.getElementText());
+                    } else if (message != null && DATE_TAG.equals(name)) {
+                        message.setDate(reader.getElementText());
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT
+                        && MESSAGE_TAG.equals(reader.getLocalName()) && message != null) {
+                    messages.add(message);
+                    message = null;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static File spool(InputStream fileStream) {
+        try {
+            File file = File.createTempFile("history", ".xml");
+            file.deleteOnExit();
+            try {
+                Files.copy(fileStream, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                fileStream.close();
+            }
+            return file;
         } catch (IOException e) {
             e.printStackTrace();
+            return new File("");
+        }
+    }
+
+    private interface MessageVisitor {
+
+        void visit(HistoryMessage message, long start, long end);
+    }
+
+    /**
+     * The byte ranges holding the messages of a day. Messages following each
+     * other are joined into one range.
+     */
+    private static class FileRanges {
+
+        private long[] offsets = new long[2];
+        private int size;
+        private int messages;
+
+        void add(long start, long end, boolean follows) {
+            messages++;
+            if (follows && size > 0) {
+                offsets[size - 1] = end;
+            } else {
+                if (size == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, size * 2);
+                }
+                offsets[size++] = start;
+                offsets[size++] = end;
+            }
         }
-        return null;
     }
 }
@@ -62,6 +62,7 @@ import org.jivesoftware.spark.ui.ChatStatePanel;
 import org.jivesoftware.spark.ui.ContactItem;
 import org.jivesoftware.spark.ui.ContactList;
 import org.jivesoftware.spark.ui.RosterDialog;
+import org.jivesoftware.spark.ui.TranscriptWindow;
 import org.jivesoftware.spark.ui.VCardPanel;
 import org.jivesoftware.spark.util.ModelUtil;
 import org.jivesoftware.spark.util.TaskEngine;
@@ -716,40 +717,51 @@ public class ChatRoomImpl extends ChatRoom {
             return;
         }
 
+        final int messageCount = ChatTranscripts.getTranscriptStore().getMessageCount(getParticipantJID());
         final ChatTranscript chatTranscript = ChatTranscripts.getCurrentChatTranscript(getParticipantJID());
-        final String personalNickname = SparkManager.getUserManager().getNickname();
 
         chatTranscript.getMessages().stream().forEach((message) -> {
-            String nickname = SparkManager.getUserManager().getUserNicknameFromJID(message.getFrom());
-            String messageBody = message.getBody();
-            if (nickname.equals(message.getFrom())) {
-                String otherJID = StringUtils.parseBareAddress(message.getFrom());
-                String myJID = SparkManager.getSessionManager().getBareAddress();
-
-                if (otherJID.equals(myJID)) {
-                    nickname = personalNickname;
-                } else {
-                    try {
-                        nickname = message.getFrom().substring(message.getFrom().indexOf('/') + 1);
-                    } catch (Exception e) {
-                        nickname = StringUtils.parseName(nickname);
-                    }
-                }
-            }
-
-            if (ModelUtil.hasLength(messageBody) && messageBody.startsWith("/me ")) {
-                messageBody = messageBody.replaceFirst("/me", nickname);
-            }
-
-            final Date messageDate = message.getDate();
-            getTranscriptWindow().insertHistoryMessage(nickname, messageBody, messageDate);
+            insertHistoryMessage(getTranscriptWindow(), message);
         });
         if (0 < chatTranscript.getMessages().size()) { // Check if we have history mesages
             getTranscriptWindow().insertHorizontalLine();
         }
+        getTranscriptWindow().setHistoryLoader(new StoredHistoryLoader(getParticipantJID(), 0,
+                Math.max(0, messageCount - chatTranscript.size())) {
+            @Override
+            protected void insertHistoryMessage(TranscriptWindow window, HistoryMessage message) {
+                ChatRoomImpl.this.insertHistoryMessage(window, message);
+            }
+        });
         chatTranscript.release();
     }
 
+    private void insertHistoryMessage(TranscriptWindow window, HistoryMessage message) {
+        String nickname = SparkManager.getUserManager().getUserNicknameFromJID(message.getFrom());
+        String messageBody = message.getBody();
+        if (nickname.equals(message.getFrom())) {
+            String otherJID = StringUtils.parseBareAddress(message.getFrom());
+            String myJID = SparkManager.getSessionManager().getBareAddress();
+
+            if (otherJID.equals(myJID)) {
+                nickname = SparkManager.getUserManager().getNickname();
+            } else {
+                try {
+                    nickname = message.getFrom().substring(message.getFrom().indexOf('/') + 1);
+                } catch (Exception e) {
+                    nickname = StringUtils.parseName(nickname);
+                }
+            }
+        }
+
+        if (ModelUtil.hasLength(messageBody) && messageBody.startsWith("/me ")) {
+            messageBody = messageBody.replaceFirst("/me", nickname);
+        }
+
+        final Date messageDate = message.getDate();
+        window.insertHistoryMessage(nickname, messageBody, messageDate);
+    }
+
     private boolean isOnline() {
         Presence presence = roster.getPresence(getParticipantJID());
         return presence.isAvailable();
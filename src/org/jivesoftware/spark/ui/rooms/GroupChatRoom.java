@@ -29,8 +29,9 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.regex.Pattern;
+import java.util.Set;
 import javax.swing.AbstractAction;
 import javax.swing.Action;
 import javax.swing.Icon;
@@ -72,6 +73,7 @@ import org.jivesoftware.spark.ui.ChatFrame;
 import org.jivesoftware.spark.ui.ChatRoom;
 import org.jivesoftware.spark.ui.ChatRoomNotFoundException;
 import org.jivesoftware.spark.ui.GroupChatRoomTransferHandler;
+import org.jivesoftware.spark.ui.TranscriptWindow;
 import org.jivesoftware.spark.ui.conferences.AnswerFormDialog;
 import org.jivesoftware.spark.ui.conferences.ConferenceUtils;
 import org.jivesoftware.spark.ui.conferences.DataFormDialog;
@@ -79,6 +81,8 @@ import org.jivesoftware.spark.ui.conferences.GroupChatParticipantList;
 import org.jivesoftware.spark.util.ModelUtil;
 import org.jivesoftware.spark.util.UIComponentRegistry;
 import org.jivesoftware.spark.util.log.Log;
+import org.jivesoftware.sparkimpl.plugin.transcripts.ChatTranscripts;
+import org.jivesoftware.sparkimpl.plugin.transcripts.HistoryMessage;
 import org.jivesoftware.sparkimpl.settings.local.LocalPreferences;
 import org.jivesoftware.sparkimpl.settings.local.SettingsManager;
 
@@ -88,6 +92,9 @@ import org.jivesoftware.sparkimpl.settings.local.SettingsManager;
 public class GroupChatRoom extends ChatRoom {
 
     private static final long serialVersionUID = 4469579438292227006L;
+    private static final Color OWN_MESSAGE_BACKGROUND = new Color(244, 248, 255);
+    private static final Color HIGHLIGHT_BACKGROUND = new Color(255, 255, 153);
+    private static final Color NO_BACKGROUND = new Color(0, 0, 0, 0);
 
     private MultiUserChat chat;
 
@@ -99,7 +106,7 @@ public class GroupChatRoom extends ChatRoom {
     private boolean isActive = true;
     private SubjectPanel subjectPanel;
 
-    private List<String> currentUserList = new ArrayList<>();
+    private final Set<String> currentUserList = new LinkedHashSet<>();
 
     private String conferenceService;
     private List<String> blockedUsers = new ArrayList<>();
@@ -118,6 +125,7 @@ public class GroupChatRoom extends ChatRoom {
             .isShowJoinLeaveMessagesEnabled();
     private boolean isMucHighlightingNameEnabled = pref.isMucHighNameEnabled();
     private boolean isMucHighlightingTextEnabled = pref.isMucHighTextEnabled();
+    private final MessageHighlighter highlighter = new MessageHighlighter();
     private RolloverButton settings;
 
     /**
@@ -306,6 +314,31 @@ public class GroupChatRoom extends ChatRoom {
         getTranscriptWindow().setTransferHandler(transferHandler);
 
         addRoomConfigureButtons(this);
+
+        // Messages removed past the scrollback limit can be loaded back from
+        // the transcript, but not the ones of earlier sessions.
+        if (SettingsManager.getLocalPreferences().isChatHistoryEnabled()) {
+            final int stored = ChatTranscripts.getTranscriptStore().getMessageCount(roomname);
+            getTranscriptWindow().setHistoryLoader(new StoredHistoryLoader(roomname, stored, stored) {
+                @Override
+                protected void insertHistoryMessage(TranscriptWindow window, HistoryMessage message) {
+                    window.insertHistoryMessage(getHistoryNickname(message.getFrom()), message.getBody(),
+                            message.getDate());
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the nickname to show for a message of the transcript. Messages
+     * sent by the current user are stored without a sender.
+     */
+    private String getHistoryNickname(String from) {
+        if (from == null) {
+            return getNickname();
+        }
+        final String nickname = StringUtils.parseResource(from);
+        return ModelUtil.hasLength(nickname) ? nickname : StringUtils.parseName(from);
     }
 
     /**
@@ -353,25 +386,44 @@ public class GroupChatRoom extends ChatRoom {
      * @return Color of message background.
      */
     private Color getMessageBackground(String nickname, String body) {
-        // define some vcard information
         String myNickName = chat.getNickname();
-        String myUserName = SparkManager.getSessionManager().getUsername();
-        Pattern usernameMatch = Pattern.compile(myUserName,
-                Pattern.CASE_INSENSITIVE);
-        Pattern nicknameMatch = Pattern.compile(myNickName == null ? "" : myNickName,
-                Pattern.CASE_INSENSITIVE);
 
         // Should we even highlight this packet?
         if (isMucHighlightingNameEnabled
-                && myNickName.equalsIgnoreCase(nickname)) {
-            return new Color(244, 248, 255);
-        } else if (isMucHighlightingTextEnabled
-                && (usernameMatch.matcher(body).find() || nicknameMatch
-                .matcher(body).find())) {
-            return new Color(255, 255, 153);
-        } else {
-            return new Color(0, 0, 0, 0);
+                && myNickName != null && myNickName.equalsIgnoreCase(nickname)) {
+            return OWN_MESSAGE_BACKGROUND;
         }
+        if (isMucHighlightingTextEnabled) {
+            highlighter.setTerms(myNickName,
+                    SparkManager.getSessionManager().getUsername(),
+                    pref.getMucHighlightKeywords());
+            if (highlighter.matches(body)) {
+                return HIGHLIGHT_BACKGROUND;
+            }
+        }
+        return NO_BACKGROUND;
+    }
+
+    /**
+     * Inserts a message into the transcript window and records how long
+     * rendering it took.
+     */
+    private void insertTranscriptMessage(String nickname, Message message) {
+        final long start = System.nanoTime();
+        getTranscriptWindow().insertMessage(nickname, message,
+                getColor(nickname),
+                getMessageBackground(nickname, message.getBody()));
+        highlighter.recordRender(System.nanoTime() - start);
+    }
+
+    /**
+     * Returns the highlighter of this room, which also tracks how long the
+     * room takes to render a message.
+     *
+     * @return the highlighter.
+     */
+    public MessageHighlighter getMessageHighlighter() {
+        return highlighter;
     }
 
     /**
@@ -404,9 +456,7 @@ public class GroupChatRoom extends ChatRoom {
         }
 
         try {
-            getTranscriptWindow().insertMessage(getNickname(), message,
-                    getColor(getNickname()),
-                    getMessageBackground(getNickname(), message.getBody()));
+            insertTranscriptMessage(getNickname(), message);
             getChatInputEditor().selectAll();
 
             getTranscriptWindow().validate();
@@ -448,9 +498,7 @@ public class GroupChatRoom extends ChatRoom {
         }
 
         try {
-            getTranscriptWindow().insertMessage(getNickname(), message,
-                    getColor(getNickname()),
-                    getMessageBackground(getNickname(), message.getBody()));
+            insertTranscriptMessage(getNickname(), message);
             getChatInputEditor().selectAll();
 
             getTranscriptWindow().validate();
@@ -699,9 +747,7 @@ public class GroupChatRoom extends ChatRoom {
                         return;
                     }
 
-                    getTranscriptWindow().insertMessage(from, message,
-                            getColor(from),
-                            getMessageBackground(from, message.getBody()));
+                    insertTranscriptMessage(from, message);
                 }
 
                 if (typingTimer != null) {
@@ -797,18 +843,16 @@ public class GroupChatRoom extends ChatRoom {
 
         if (presence.getType() == Presence.Type.unavailable
                 && !"303".equals(code)) {
-            if (currentUserList.contains(from)) {
+            if (currentUserList.remove(from)) {
                 if (showPresenceMessages) {
                     getTranscriptWindow().insertNotificationMessage(
                             Res.getString("message.user.left.room", nickname),
                             ChatManager.NOTIFICATION_COLOR);
                     scrollToBottom();
                 }
-                currentUserList.remove(from);
             }
         } else {
-            if (!currentUserList.contains(from)) {
-                currentUserList.add(from);
+            if (currentUserList.add(from)) {
                 getChatInputEditor().setEnabled(true);
                 if (showPresenceMessages) {
                     getTranscriptWindow()
@@ -0,0 +1,152 @@
+/**
+ * Copyright (C) 2004-2011 Jive Software. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.jivesoftware.spark.ui.rooms;
+
+import java.util.LinkedHashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the terms that highlight a group chat message: the user's nickname in
+ * the room, the user's username and any keywords the user configured.
+ * <p>
+ * The terms are compiled into a single case insensitive pattern, so a message
+ * is scanned once whatever the number of terms. The pattern is only compiled
+ * again when the terms change, such as after a nickname change. Terms are
+ * matched literally, a nickname like <code>a.b</code> does not match
+ * <code>axb</code>.
+ * <p>
+ * The highlighter also keeps track of how long the room takes to render its
+ * messages.
+ */
+public class MessageHighlighter {
+
+    private String nickname;
+    private String username;
+    private String keywords;
+    private Pattern pattern;
+
+    private long renderedMessages;
+    private long renderTime;
+    private long maxRenderTime;
+
+    /**
+     * Sets the terms to highlight. Does nothing if the terms did not change
+     * since the last call.
+     *
+     * @param nickname the nickname of the user in the room, or null.
+     * @param username the username of the user, or null.
+     * @param keywords the comma separated keywords, or null.
+     */
+    public synchronized void setTerms(String nickname, String username, String keywords) {
+        if (pattern != null && Objects.equals(this.nickname, nickname) && Objects.equals(this.username, username)
+                && Objects.equals(this.keywords, keywords)) {
+            return;
+        }
+        this.nickname = nickname;
+        this.username = username;
+        this.keywords = keywords;
+        pattern = compile(nickname, username, keywords);
+    }
+
+    /**
+     * Returns true if a message body contains any of the terms.
+     *
+     * @param body the message body.
+     * @return true if the message should be highlighted.
+     */
+    public boolean matches(String body) {
+        final Pattern current;
+        synchronized (this) {
+            current = pattern;
+        }
+        return current != null && body != null && current.matcher(body).find();
+    }
+
+    /**
+     * Records the time taken to render a message.
+     *
+     * @param nanos the render time in nanoseconds.
+     */
+    public synchronized void recordRender(long nanos) {
+        renderedMessages++;
+        renderTime += nanos;
+        maxRenderTime = Math.max(maxRenderTime, nanos);
+    }
+
+    /**
+     * Returns the number of messages rendered.
+     *
+     * @return the number of messages.
+     */
+    public synchronized long getRenderedMessages() {
+        return renderedMessages;
+    }
+
+    /**
+     * Returns the average time taken to render a message.
+     *
+     * @return the average render time in milliseconds.
+     */
+    public synchronized double getAverageRenderTime() {
+        return renderedMessages == 0 ? 0 : renderTime / 1000000.0 / renderedMessages;
+    }
+
+    /**
+     * Returns the longest time taken to render a message.
+     *
+     * @return the longest render time in milliseconds.
+     */
+    public synchronized double getMaxRenderTime() {
+        return maxRenderTime / 1000000.0;
+    }
+
+    private static Pattern compile(String nickname, String username, String keywords) {
+        final Set<String> terms = new LinkedHashSet<>();
+        addTerm(terms, nickname);
+        addTerm(terms, username);
+        if (keywords != null) {
+            for (String keyword : keywords.split(",")) {
+                addTerm(terms, keyword);
+            }
+        }
+        if (terms.isEmpty()) {
+            return null;
+        }
+
+        final StringBuilder regex = new StringBuilder();
+        for (String term : terms) {
+            if (regex.length() > 0) {
+                regex.append('|');
+            }
+            regex.append(Pattern.quote(term));
+        }
+        return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+    }
+
+    private static void addTerm(Set<String> terms, String term) {
+        if (term != null && !term.trim().isEmpty()) {
+            terms.add(term.trim());
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d messages rendered, average %.2f ms, max %.2f ms", renderedMessages,
+                getAverageRenderTime(), getMaxRenderTime());
+    }
+}
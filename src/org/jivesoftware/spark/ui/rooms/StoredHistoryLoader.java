@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2004-2011 Jive Software. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.jivesoftware.spark.ui.rooms;
+
+import org.jivesoftware.spark.ui.TranscriptHistoryLoader;
+import org.jivesoftware.spark.ui.TranscriptWindow;
+import org.jivesoftware.sparkimpl.plugin.transcripts.ChatTranscript;
+import org.jivesoftware.sparkimpl.plugin.transcripts.ChatTranscripts;
+import org.jivesoftware.sparkimpl.plugin.transcripts.HistoryMessage;
+
+/**
+ * Loads older messages of a conversation from the transcript store, a page at
+ * a time.
+ */
+abstract class StoredHistoryLoader implements TranscriptHistoryLoader {
+
+    private static final int PAGE_SIZE = 50;
+
+    private final String jid;
+
+    /**
+     * The number of the first message that may be loaded.
+     */
+    private final int first;
+
+    /**
+     * The number of the oldest message shown in the store.
+     */
+    private int oldest;
+
+    /**
+     * @param jid the jid the conversation is stored under.
+     * @param first the number of the first message that may be loaded.
+     * @param oldest the number of the oldest message shown.
+     */
+    StoredHistoryLoader(String jid, int first, int oldest) {
+        this.jid = jid;
+        this.first = first;
+        this.oldest = oldest;
+    }
+
+    @Override
+    public boolean hasOlderMessages() {
+        return oldest > first;
+    }
+
+    @Override
+    public void messagesRemoved(int count) {
+        oldest += count;
+    }
+
+    @Override
+    public void loadOlderMessages(TranscriptWindow window) {
+        // Messages of this session may not be stored yet.
+        oldest = Math.min(oldest, ChatTranscripts.getTranscriptStore().getMessageCount(jid));
+        final int from = Math.max(first, oldest - PAGE_SIZE);
+        if (from >= oldest) {
+            return;
+        }
+        final ChatTranscript transcript = ChatTranscripts.getTranscriptStore().getMessages(jid, from, oldest - from);
+        transcript.getMessages().stream().forEach((message) -> {
+            insertHistoryMessage(window, message);
+        });
+        transcript.release();
+        oldest = from;
+    }
+
+    /**
+     * Inserts a message loaded from the store.
+     *
+     * @param window the TranscriptWindow.
+     * @param message the message.
+     */
+    protected abstract void insertHistoryMessage(TranscriptWindow window, HistoryMessage message);
+}
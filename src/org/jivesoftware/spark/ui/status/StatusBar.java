@@ -56,6 +56,7 @@ import org.jivesoftware.spark.ui.CommandPanel;
 import org.jivesoftware.spark.util.GraphicUtils;
 import org.jivesoftware.spark.util.ImageCombiner;
 import org.jivesoftware.spark.util.ModelUtil;
+import org.jivesoftware.spark.util.StartupTrace;
 import org.jivesoftware.spark.util.StringUtils;
 import org.jivesoftware.spark.util.SwingTimerTask;
 import org.jivesoftware.spark.util.SwingWorker;
@@ -456,7 +457,13 @@ public class StatusBar extends JPanel implements VCardListener {
 
     public void loadVCard() {
         final Runnable loadVCard = () -> {
-            VCard vcard = SparkManager.getVCardManager().getVCard();
+            final VCard vcard;
+            final StartupTrace.Span span = StartupTrace.getInstance().begin("vcard.load");
+            try {
+                vcard = SparkManager.getVCardManager().getVCard();
+            } finally {
+                span.end();
+            }
             updateVCardInformation(vcard);
         };
 
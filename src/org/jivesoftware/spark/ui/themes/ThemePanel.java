@@ -468,7 +468,7 @@ public class ThemePanel extends JPanel {
         } else {
             emoticonspanel = new EmoticonPanel(10);
         }
-        emoticonManager.getActiveEmoticonSet().stream().map((emoticon) -> new ImageIcon(emoticonManager.getEmoticonURL(emoticon))).map((ico) -> new JLabel(ico)).forEach((label) -> {
+        emoticonManager.getActiveEmoticonSet().stream().map((emoticon) -> emoticonManager.getEmoticonImage(emoticon, 0)).map((ico) -> new JLabel(ico)).forEach((label) -> {
             emoticonspanel.add(label);
         });
 
@@ -0,0 +1,206 @@
+/**
+ * Copyright (C) 2004-2011 Jive Software. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.jivesoftware.spark.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A file that is replaced as a whole each time it is written, such as the
+ * caches and journals kept in the user directory. The new content is written
+ * to a temporary file that is then moved over the file, so readers see either
+ * the old or the new content, never a partly written file.
+ * <p>
+ * Files written often can be saved in the background: every
+ * {@link #scheduleSave()} within the save delay leads to one save on the IO
+ * pool of the {@link TaskEngine}.
+ */
+public final class AtomicFile {
+
+    private final File file;
+    private final long saveDelay;
+    private final Runnable save;
+    private final AtomicBoolean saveScheduled = new AtomicBoolean();
+
+    /**
+     * Writes the content of a file.
+     */
+    public interface DataWriter {
+
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Reads the content of a file.
+     */
+    public interface DataReader {
+
+        void read(DataInputStream in) throws IOException;
+    }
+
+    /**
+     * Writes the content of a text file.
+     */
+    public interface TextWriter {
+
+        void write(Writer out) throws IOException;
+    }
+
+    /**
+     * Creates a file that is only written on demand.
+     *
+     * @param file the file.
+     */
+    public AtomicFile(File file) {
+        this(file, 0, null);
+    }
+
+    /**
+     * Creates a file that is saved in the background.
+     *
+     * @param file the file.
+     * @param saveDelay the time after {@link #scheduleSave()} the file is
+     * saved, in milliseconds.
+     * @param save saves the file, run on the IO pool.
+     */
+    public AtomicFile(File file, long saveDelay, Runnable save) {
+        this.file = file;
+        this.saveDelay = saveDelay;
+        this.save = save;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Saves the file after the save delay, unless a save is already
+     * scheduled.
+     */
+    public void scheduleSave() {
+        if (!saveScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        TaskEngine.getInstance().schedule(new TimerTask() {
+            @Override
+            public void run() {
+                saveScheduled.set(false);
+                save.run();
+            }
+        }, saveDelay, TaskEngine.TaskType.IO);
+    }
+
+    /**
+     * Reads a file written by {@link #writeData(int, DataWriter)}.
+     *
+     * @param version the version of the format.
+     * @param reader reads the content after the version.
+     * @return false if the file does not exist or has another version.
+     * @throws IOException if the file could not be read.
+     */
+    public boolean readData(int version, DataReader reader) throws IOException {
+        if (!file.exists()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != version) {
+                return false;
+            }
+            reader.read(in);
+            return true;
+        }
+    }
+
+    /**
+     * Replaces the file with binary content, preceded by the version of its
+     * format.
+     *
+     * @param version the version of the format.
+     * @param writer writes the content.
+     * @throws IOException if the file could not be written.
+     */
+    public void writeData(int version, DataWriter writer) throws IOException {
+        final File temp = getTempFile();
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(version);
+                writer.write(out);
+            }
+            replace(temp, file);
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /**
+     * Replaces the file with UTF-8 text.
+     *
+     * @param writer writes the text.
+     * @throws IOException if the file could not be written.
+     */
+    public void writeText(TextWriter writer) throws IOException {
+        final File temp = getTempFile();
+        try {
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8))) {
+                writer.write(out);
+            }
+            replace(temp, file);
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /**
+     * Returns the temporary file the content is written to before it replaces
+     * the file.
+     *
+     * @return the temporary file.
+     */
+    public File getTempFile() {
+        return new File(file.getPath() + ".tmp");
+    }
+
+    /**
+     * Moves a file over another one, atomically where the file system allows
+     * it.
+     *
+     * @param source the file to move.
+     * @param target the file to replace.
+     * @throws IOException if the file could not be moved.
+     */
+    public static void replace(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
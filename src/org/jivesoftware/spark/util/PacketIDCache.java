@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2004-2011 Jive Software. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.jivesoftware.spark.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the packet IDs recently sent in the chat rooms. The IDs of all rooms are kept in a single
+ * hash map ordered by the time they were added: an ID is forgotten after
+ * {@link #WINDOW}, or sooner once the cache holds {@link #MAX_SIZE} IDs.
+ * Memory stays bounded however long the rooms stay open, and each lookup
+ * takes constant time.
+ */
+public final class PacketIDCache {
+
+    /**
+     * Time an ID is remembered, in milliseconds.
+     */
+    public static final long WINDOW = 10 * 60 * 1000;
+
+    /**
+     * The maximum number of IDs remembered.
+     */
+    public static final int MAX_SIZE = 10000;
+
+    private static final Object LOCK = new Object();
+    private static PacketIDCache singleton;
+
+    private final long window;
+    private final int maxSize;
+    private final LinkedHashMap<String, Long> ids = new LinkedHashMap<>();
+
+    /**
+     * Returns the singleton instance of <CODE>PacketIDCache</CODE>,
+     * creating it if necessary.
+     *
+     * @return the singleton instance of <code>PacketIDCache</code>.
+     */
+    public static PacketIDCache getInstance() {
+        synchronized (LOCK) {
+            if (singleton == null) {
+                singleton = new PacketIDCache(WINDOW, MAX_SIZE);
+            }
+            return singleton;
+        }
+    }
+
+    PacketIDCache(long window, int maxSize) {
+        this.window = window;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Remembers an ID.
+     *
+     * @param scope the room the ID belongs to.
+     * @param id the ID.
+     * @return true if the ID was not remembered yet.
+     */
+    public synchronized boolean add(String scope, String id) {
+        final long now = System.currentTimeMillis();
+        expire(now);
+        final String key = scope + '\u0000' + id;
+        if (ids.containsKey(key)) {
+            return false;
+        }
+        ids.put(key, now);
+        if (ids.size() > maxSize) {
+            final Iterator<String> eldest = ids.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if an ID is remembered.
+     *
+     * @param scope the room the ID belongs to.
+     * @param id the ID.
+     * @return true if the ID was added within the window.
+     */
+    public synchronized boolean contains(String scope, String id) {
+        expire(System.currentTimeMillis());
+        return ids.containsKey(scope + '\u0000' + id);
+    }
+
+    /**
+     * Forgets the IDs of a room, such as when the room is closed.
+     *
+     * @param scope the room the IDs belong to.
+     */
+    public synchronized void clear(String scope) {
+        final String prefix = scope + '\u0000';
+        ids.keySet().removeIf((key) -> key.startsWith(prefix));
+    }
+
+    /**
+     * Returns the number of IDs remembered.
+     *
+     * @return the number of IDs.
+     */
+    public synchronized int size() {
+        return ids.size();
+    }
+
+    /**
+     * Forgets the IDs older than the window. They are the first ones in
+     * iteration order.
+     */
+    private void expire(long now) {
+        final Iterator<Map.Entry<String, Long>> iterator = ids.entrySet().iterator();
+        while (iterator.hasNext() && now - iterator.next().getValue() >= window) {
+            iterator.remove();
+        }
+    }
+}
@@ -0,0 +1,327 @@
+/**
+ * Copyright (C) 2004-2011 Jive Software. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.jivesoftware.spark.util;
+
+import java.awt.EventQueue;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimerTask;
+import org.jivesoftware.Spark;
+import org.jivesoftware.spark.util.log.Log;
+
+/**
+ * Records how long the stages of the Spark startup take, from the launch of
+ * the process until the plugins are initialized. Each stage is a named span
+ * that remembers the thread it ran on and whether that thread was the event
+ * dispatch thread, so stages that block the UI and stages that overlap can be
+ * told apart.
+ * <p>
+ * Once startup has finished and all spans ended, the spans are written to
+ * <code>startup.json</code> in the log directory, in the trace event format
+ * read by <code>chrome://tracing</code>, and a summary is written to
+ * <code>startup.txt</code>.
+ * <p>
+ * Typical use:
+ * <pre>
+ * final StartupTrace.Span span = StartupTrace.getInstance().begin("roster.build");
+ * try {
+ *     buildContactList();
+ * } finally {
+ *     span.end();
+ * }
+ * </pre>
+ */
+public final class StartupTrace {
+
+    /**
+     * Time after {@link #finish()} the trace is written even if some spans
+     * never ended.
+     */
+    private static final long WRITE_TIMEOUT = 60000;
+
+    private static final Object LOCK = new Object();
+    private static StartupTrace singleton;
+
+    private final long origin = System.nanoTime();
+    private final long launchOffset;
+    private final List<Span> spans = new ArrayList<>();
+    private int open;
+    private boolean finishing;
+    private boolean written;
+    private TimerTask timeout;
+
+    /**
+     * Returns the singleton instance of <CODE>StartupTrace</CODE>,
+     * creating it if necessary.
+     *
+     * @return the singleton instance of <code>StartupTrace</code>.
+     */
+    public static StartupTrace getInstance() {
+        synchronized (LOCK) {
+            if (singleton == null) {
+                singleton = new StartupTrace();
+            }
+            return singleton;
+        }
+    }
+
+    private StartupTrace() {
+        // Spans are shown relative to the launch of the process.
+        long offset;
+        try {
+            offset = Math.max(0, System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime());
+        } catch (SecurityException e) {
+            offset = 0;
+        }
+        launchOffset = offset * 1000;
+    }
+
+    /**
+     * Starts a span on the current thread. Spans begun after the trace was
+     * written are not recorded.
+     *
+     * @param name the name of the stage.
+     * @return the span, to be ended when the stage ends.
+     */
+    public Span begin(String name) {
+        final Span span = new Span(name, false);
+        synchronized (this) {
+            if (!written) {
+                spans.add(span);
+                open++;
+            }
+        }
+        return span;
+    }
+
+    /**
+     * Records a point in time, such as the moment the contact list became
+     * usable.
+     *
+     * @param name the name of the event.
+     */
+    public void mark(String name) {
+        final Span span = new Span(name, true);
+        synchronized (this) {
+            if (!written) {
+                spans.add(span);
+            }
+        }
+    }
+
+    /**
+     * Marks the end of startup. The trace is written as soon as all spans
+     * have ended, or after a timeout for spans that do not end.
+     */
+    public void finish() {
+        mark("startup.finished");
+        synchronized (this) {
+            if (finishing || written) {
+                return;
+            }
+            finishing = true;
+            if (open > 0) {
+                timeout = new TimerTask() {
+                    @Override
+                    public void run() {
+                        write();
+                    }
+                };
+                TaskEngine.getInstance().schedule(timeout, WRITE_TIMEOUT, TaskEngine.TaskType.IO);
+                return;
+            }
+        }
+        TaskEngine.getInstance().submit(this::write, TaskEngine.TaskType.IO);
+    }
+
+    /**
+     * Returns the recorded spans ordered by start time, with the time each
+     * started after launch, its duration, and the thread it ran on.
+     *
+     * @return the summary.
+     */
+    public synchronized String getSummary() {
+        final List<Span> sorted = new ArrayList<>(spans);
+        sorted.sort((a, b) -> Long.compare(a.start, b.start));
+
+        final StringBuilder summary = new StringBuilder();
+        long edt = 0;
+        for (Span span : sorted) {
+            if (span.instant) {
+                summary.append(String.format("%8d ms            %s%n", millis(launchOffset + span.start), span.name));
+                continue;
+            }
+            final String duration = span.end < 0 ? "   (open)" : String.format("%6d ms", millis(span.end - span.start));
+            summary.append(String.format("%8d ms %s  %-40s %s%s%n", millis(launchOffset + span.start), duration,
+                    span.name, span.thread, span.edt ? " (EDT)" : ""));
+        }
+        for (Span span : spans) {
+            if (span.edt && !span.instant && span.end >= 0 && !isNested(span)) {
+                edt += span.end - span.start;
+            }
+        }
+        summary.append(String.format("%d ms on the event dispatch thread.%n", millis(edt)));
+        return summary.toString();
+    }
+
+    private void ended(Span span) {
+        final boolean write;
+        synchronized (this) {
+            if (!spans.contains(span)) {
+                return;
+            }
+            write = --open == 0 && finishing && !written;
+        }
+        if (write) {
+            TaskEngine.getInstance().submit(this::write, TaskEngine.TaskType.IO);
+        }
+    }
+
+    /**
+     * Returns true if a span runs inside another span on the same thread.
+     */
+    private boolean isNested(Span span) {
+        for (Span other : spans) {
+            if (other != span && !other.instant && other.thread.equals(span.thread)
+                    && other.start <= span.start && other.end >= span.end) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void write() {
+        final String summary;
+        final String json;
+        synchronized (this) {
+            if (written) {
+                return;
+            }
+            written = true;
+            if (timeout != null) {
+                TaskEngine.getInstance().cancelScheduledTask(timeout);
+            }
+            summary = getSummary();
+            json = toJSON();
+        }
+
+        final File directory = Spark.getLogDirectory();
+        try {
+            writeFile(new File(directory, "startup.json"), json);
+            writeFile(new File(directory, "startup.txt"), summary);
+        } catch (IOException e) {
+            Log.error("Unable to write the startup trace.", e);
+        }
+        if (Log.debugging) Log.debug("Startup trace:\n" + summary);
+    }
+
+    private String toJSON() {
+        final StringBuilder json = new StringBuilder("{\"traceEvents\":[\n");
+        boolean first = true;
+        for (Span span : spans) {
+            if (!first) {
+                json.append(",\n");
+            }
+            first = false;
+            json.append("{\"name\":\"").append(escape(span.name)).append('"');
+            json.append(",\"cat\":\"startup\",\"pid\":1,\"tid\":").append(span.threadId);
+            json.append(",\"ts\":").append(launchOffset + span.start);
+            if (span.instant) {
+                json.append(",\"ph\":\"i\",\"s\":\"g\"");
+            } else {
+                json.append(",\"ph\":\"X\",\"dur\":").append(span.end < 0 ? 0 : span.end - span.start);
+            }
+            json.append(",\"args\":{\"thread\":\"").append(escape(span.thread)).append("\",\"edt\":")
+                    .append(span.edt).append("}}");
+        }
+        json.append("\n]}\n");
+        return json.toString();
+    }
+
+    private static void writeFile(File file, String content) throws IOException {
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            out.write(content);
+        }
+    }
+
+    private static String escape(String value) {
+        final StringBuilder escaped = new StringBuilder(value.length());
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                escaped.append('\\').append(c);
+            } else if (c < ' ') {
+                escaped.append(String.format("\\u%04x", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * Returns the microseconds since the trace was created.
+     */
+    private long now() {
+        return (System.nanoTime() - origin) / 1000;
+    }
+
+    private static long millis(long micros) {
+        return micros / 1000;
+    }
+
+    /**
+     * A stage of the startup. Ending a span more than once has no effect.
+     */
+    public final class Span {
+
+        private final String name;
+        private final String thread;
+        private final long threadId;
+        private final boolean edt;
+        private final boolean instant;
+        private final long start;
+        private volatile long end = -1;
+
+        private Span(String name, boolean instant) {
+            this.name = name;
+            this.thread = Thread.currentThread().getName();
+            this.threadId = Thread.currentThread().getId();
+            this.edt = EventQueue.isDispatchThread();
+            this.instant = instant;
+            this.start = now();
+        }
+
+        /**
+         * Ends the span.
+         */
+        public void end() {
+            synchronized (StartupTrace.this) {
+                if (end >= 0) {
+                    return;
+                }
+                end = now();
+            }
+            ended(this);
+        }
+    }
+}
@@ -17,7 +17,10 @@
  */
 package org.jivesoftware.spark.util;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
@@ -25,8 +28,17 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import org.jivesoftware.spark.util.log.Log;
 
 /**
@@ -36,6 +48,18 @@ import org.jivesoftware.spark.util.log.Log;
  * scheduled to be run in the future will automatically be run using the thread
  * executor's thread pool. This means that the standard restriction that
  * TimerTasks should run quickly does not apply.
+ * <p/>
+ * Typed tasks run in one bounded pool per {@link TaskType}, so a burst of
+ * slow network calls cannot starve disk writes or computations. Tasks
+ * submitted without a type, as by plugins, run in the
+ * {@link TaskType#DEFAULT} pool, and tasks scheduled without a type,
+ * including all repeated tasks, in the {@link TaskType#TIMER} pool. Both grow
+ * as needed, so a repeated task never waits behind blocking calls. Each pool
+ * keeps {@link Statistics} on its queue and on how long tasks wait and run.
+ * <p/>
+ * When Spark runs on a Java version with virtual threads and the system
+ * property <tt>spark.virtualthreads</tt> is <tt>true</tt>, network tasks run
+ * on virtual threads instead.
  *
  * @author Matt Tucker
  */
@@ -52,32 +76,95 @@ public class TaskEngine {
         return instance;
     }
 
-    private Timer timer;
-    private ExecutorService executor;
-    private Map<TimerTask, TimerTaskWrapper> wrappedTasks = new ConcurrentHashMap<>();
+    /**
+     * The kinds of tasks, each of which runs in its own pool.
+     */
+    public enum TaskType {
+
+        /**
+         * Tasks submitted without a type. The pool grows as needed.
+         */
+        DEFAULT("default", TaskType.UNBOUNDED),
+        /**
+         * Tasks scheduled without a type, including all repeated tasks. The
+         * pool grows as needed.
+         */
+        TIMER("timer", TaskType.UNBOUNDED),
+        /**
+         * Blocking calls to the XMPP server and other network services.
+         */
+        NETWORK("network", 32),
+        /**
+         * Reading and writing local files.
+         */
+        IO("io", 4),
+        /**
+         * Computations, such as encoding images or building indexes.
+         */
+        CPU("cpu", Runtime.getRuntime().availableProcessors()),
+        /**
+         * Preparing data and components to be shown on the event dispatch
+         * thread.
+         */
+        UI_PREP("ui", 2);
+
+        private static final int UNBOUNDED = Integer.MAX_VALUE;
+
+        private final String name;
+        private final int threads;
+
+        TaskType(String name, int threads) {
+            this.name = name;
+            this.threads = threads;
+        }
+    }
+
+    /**
+     * Time idle pool threads are kept alive, in seconds.
+     */
+    private static final long KEEP_ALIVE = 60;
+
+    private ScheduledThreadPoolExecutor scheduler;
+    private final Map<TaskType, Pool> pools = new EnumMap<>(TaskType.class);
+    private Map<TimerTask, ScheduledTask> wrappedTasks = new ConcurrentHashMap<>();
 
     /**
      * Constructs a new task engine.
      */
     private TaskEngine() {
-        timer = new Timer("timer-spark", true);
-        executor = Executors.newCachedThreadPool(new ThreadFactory() {
-
-            final AtomicInteger threadNumber = new AtomicInteger(1);
-
-            @Override
-            public Thread newThread(Runnable runnable) {
-                // Use our own naming scheme for the threads.
-                Thread thread = new Thread(Thread.currentThread().getThreadGroup(), runnable,
-                        "pool-spark" + threadNumber.getAndIncrement(), 0);
-                // Make workers daemon threads.
-                thread.setDaemon(true);
-                if (thread.getPriority() != Thread.NORM_PRIORITY) {
-                    thread.setPriority(Thread.NORM_PRIORITY);
-                }
-                return thread;
+        // The scheduler thread only hands the tasks over to the pools.
+        scheduler = new ScheduledThreadPoolExecutor(1, new SparkThreadFactory("timer-spark"));
+        scheduler.setRemoveOnCancelPolicy(true);
+
+        for (TaskType type : TaskType.values()) {
+            ExecutorService executor = null;
+            if (type == TaskType.NETWORK && Boolean.getBoolean("spark.virtualthreads")) {
+                executor = createVirtualThreadExecutor();
+            }
+            if (executor == null && type.threads == TaskType.UNBOUNDED) {
+                executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, KEEP_ALIVE, TimeUnit.SECONDS,
+                        new SynchronousQueue<>(), new SparkThreadFactory("pool-spark-" + type.name));
+            } else if (executor == null) {
+                final ThreadPoolExecutor pool = new ThreadPoolExecutor(type.threads, type.threads, KEEP_ALIVE,
+                        TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new SparkThreadFactory("pool-spark-" + type.name));
+                pool.allowCoreThreadTimeOut(true);
+                executor = pool;
             }
-        });
+            pools.put(type, new Pool(type, executor));
+        }
+    }
+
+    /**
+     * Returns an executor that runs each task on a new virtual thread, or null
+     * if this Java version has no virtual threads.
+     */
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            Log.warning("Virtual threads are not available, using a thread pool for network tasks.");
+            return null;
+        }
     }
 
     /**
@@ -93,7 +180,28 @@ public class TaskEngine {
      * @throws NullPointerException if task null.
      */
     public Future<?> submit(Runnable task) {
-        return executor.submit(task);
+        return submit(task, TaskType.DEFAULT);
+    }
+
+    /**
+     * Submits a Runnable task for execution in the pool of a type of tasks and
+     * returns a Future representing that task.
+     *
+     * @param task the task to submit.
+     * @param type the type of the task.
+     * @return a Future representing pending completion of the task, and whose
+     * <tt>get()</tt> method will return <tt>null</tt>
+     * upon completion.
+     * @throws java.util.concurrent.RejectedExecutionException if task cannot be
+     * scheduled for execution.
+     * @throws NullPointerException if task null.
+     */
+    public Future<?> submit(Runnable task, TaskType type) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        final Pool pool = getPool(type);
+        return pool.executor.submit(new MeasuredTask(pool, task));
     }
 
     /**
@@ -101,13 +209,30 @@ public class TaskEngine {
      *
      * @param task task to be scheduled.
      * @param delay delay in milliseconds before task is to be executed.
-     * @throws IllegalArgumentException if <tt>delay</tt> is negative, or
-     * <tt>delay + System.currentTimeMillis()</tt> is negative.
-     * @throws IllegalStateException if task was already scheduled or cancelled,
-     * or timer was cancelled.
+     * @throws IllegalArgumentException if <tt>delay</tt> is negative.
+     * @throws java.util.concurrent.RejectedExecutionException if the task
+     * engine was shut down.
      */
     public void schedule(TimerTask task, long delay) {
-        timer.schedule(new TimerTaskWrapper(task), delay);
+        schedule(task, delay, TaskType.TIMER);
+    }
+
+    /**
+     * Schedules the specified task for execution after the specified delay,
+     * in the pool of a type of tasks.
+     *
+     * @param task task to be scheduled.
+     * @param delay delay in milliseconds before task is to be executed.
+     * @param type the type of the task.
+     * @throws IllegalArgumentException if <tt>delay</tt> is negative.
+     * @throws java.util.concurrent.RejectedExecutionException if the task
+     * engine was shut down.
+     */
+    public void schedule(TimerTask task, long delay, TaskType type) {
+        if (delay < 0) {
+            throw new IllegalArgumentException("Negative delay.");
+        }
+        new ScheduledTask(task, getPool(type), false).schedule(delay, 0, false);
     }
 
     /**
@@ -117,11 +242,11 @@ public class TaskEngine {
      * @param task task to be scheduled.
      * @param time time at which task is to be executed.
      * @throws IllegalArgumentException if <tt>time.getTime()</tt> is negative.
-     * @throws IllegalStateException if task was already scheduled or cancelled,
-     * timer was cancelled, or timer thread terminated.
+     * @throws java.util.concurrent.RejectedExecutionException if the task
+     * engine was shut down.
      */
     public void schedule(TimerTask task, Date time) {
-        timer.schedule(new TimerTaskWrapper(task), time);
+        schedule(task, getDelay(time));
     }
 
     /**
@@ -151,14 +276,15 @@ public class TaskEngine {
      * @param delay delay in milliseconds before task is to be executed.
      * @param period time in milliseconds between successive task executions.
      * @throws IllegalArgumentException if <tt>delay</tt> is negative, or
-     * <tt>delay + System.currentTimeMillis()</tt> is negative.
-     * @throws IllegalStateException if task was already scheduled or cancelled,
-     * timer was cancelled, or timer thread terminated.
+     * <tt>period</tt> is not positive.
+     * @throws java.util.concurrent.RejectedExecutionException if the task
+     * engine was shut down.
      */
     public void schedule(TimerTask task, long delay, long period) {
-        TimerTaskWrapper taskWrapper = new TimerTaskWrapper(task);
-        wrappedTasks.put(task, taskWrapper);
-        timer.schedule(taskWrapper, delay, period);
+        if (delay < 0) {
+            throw new IllegalArgumentException("Negative delay.");
+        }
+        new ScheduledTask(task, getPool(TaskType.TIMER), true).schedule(delay, period, false);
     }
 
     /**
@@ -188,13 +314,11 @@ public class TaskEngine {
      * @param firstTime First time at which task is to be executed.
      * @param period time in milliseconds between successive task executions.
      * @throws IllegalArgumentException if <tt>time.getTime()</tt> is negative.
-     * @throws IllegalStateException if task was already scheduled or cancelled,
-     * timer was cancelled, or timer thread terminated.
+     * @throws java.util.concurrent.RejectedExecutionException if the task
+     * engine was shut down.
      */
     public void schedule(TimerTask task, Date firstTime, long period) {
-        TimerTaskWrapper taskWrapper = new TimerTaskWrapper(task);
-        wrappedTasks.put(task, taskWrapper);
-        timer.schedule(taskWrapper, firstTime, period);
+        schedule(task, getDelay(firstTime), period);
     }
 
     /**
@@ -225,15 +349,16 @@ public class TaskEngine {
      * @param delay delay in milliseconds before task is to be executed.
      * @param period time in milliseconds between successive task executions.
      * @throws IllegalArgumentException if <tt>delay</tt> is negative, or
-     * <tt>delay + System.currentTimeMillis()</tt> is negative.
-     * @throws IllegalStateException if task was already scheduled or cancelled,
-     * timer was cancelled, or timer thread terminated.
+     * <tt>period</tt> is not positive.
+     * @throws java.util.concurrent.RejectedExecutionException if the task
+     * engine was shut down.
      */
     public void scheduleAtFixedRate(TimerTask task, long delay, long period) {
-        TimerTaskWrapper taskWrapper = new TimerTaskWrapper(task);
-        wrappedTasks.put(task, taskWrapper);
         try {
-            timer.scheduleAtFixedRate(taskWrapper, delay, period);
+            if (delay < 0) {
+                throw new IllegalArgumentException("Negative delay.");
+            }
+            new ScheduledTask(task, getPool(TaskType.TIMER), true).schedule(delay, period, true);
         } catch (Exception e) {
             Log.error(e);
         }
@@ -267,14 +392,12 @@ public class TaskEngine {
      * @param firstTime First time at which task is to be executed.
      * @param period time in milliseconds between successive task executions.
      * @throws IllegalArgumentException if <tt>time.getTime()</tt> is negative.
-     * @throws IllegalStateException if task was already scheduled or cancelled,
-     * timer was cancelled, or timer thread terminated.
+     * @throws java.util.concurrent.RejectedExecutionException if the task
+     * engine was shut down.
      */
     public void scheduleAtFixedRate(TimerTask task, Date firstTime, long period) {
-        TimerTaskWrapper taskWrapper = new TimerTaskWrapper(task);
-        wrappedTasks.put(task, taskWrapper);
         try {
-            timer.scheduleAtFixedRate(taskWrapper, firstTime, period);
+            scheduleAtFixedRate(task, getDelay(firstTime), period);
         } catch (Exception e) {
             Log.error(e);
         }
@@ -287,42 +410,340 @@ public class TaskEngine {
      * @param task the scheduled task to cancel.
      */
     public void cancelScheduledTask(TimerTask task) {
-        TaskEngine.TimerTaskWrapper taskWrapper = wrappedTasks.remove(task);
+        TaskEngine.ScheduledTask taskWrapper = wrappedTasks.remove(task);
         if (taskWrapper != null) {
             taskWrapper.cancel();
         }
     }
 
+    /**
+     * Returns the statistics of the pool of a type of tasks.
+     *
+     * @param type the type of tasks.
+     * @return the statistics.
+     */
+    public Statistics getStatistics(TaskType type) {
+        return getPool(type).getStatistics();
+    }
+
+    /**
+     * Returns the statistics of all pools.
+     *
+     * @return the statistics, one per type of tasks.
+     */
+    public List<Statistics> getStatistics() {
+        final List<Statistics> statistics = new ArrayList<>();
+        for (TaskType type : TaskType.values()) {
+            statistics.add(getStatistics(type));
+        }
+        return statistics;
+    }
+
     /**
      * Shuts down the task engine service.
      */
     public void shutdown() {
-        if (executor != null) {
-            executor.shutdownNow();
-            executor = null;
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
         }
 
-        if (timer != null) {
-            timer.cancel();
-            timer = null;
+        for (Pool pool : pools.values()) {
+            if (Log.debugging) Log.debug(pool.getStatistics().toString());
+            pool.executor.shutdownNow();
+        }
+    }
+
+    private Pool getPool(TaskType type) {
+        return pools.get(type == null ? TaskType.DEFAULT : type);
+    }
+
+    /**
+     * Returns the delay until a time, or 0 if the time has passed.
+     */
+    private static long getDelay(Date time) {
+        if (time.getTime() < 0) {
+            throw new IllegalArgumentException("Negative time.");
         }
+        return Math.max(0, time.getTime() - System.currentTimeMillis());
     }
 
     /**
      * Wrapper class for a standard TimerTask. It simply executes the TimerTask
-     * using the executor's thread pool.
+     * using the pool of its type. A repeated task is skipped while its
+     * previous execution is still queued or running.
      */
-    private class TimerTaskWrapper extends TimerTask {
+    private class ScheduledTask implements Runnable {
 
         private final TimerTask task;
+        private final Pool pool;
+        private final boolean repeated;
+        private final AtomicBoolean pending = new AtomicBoolean();
+        private volatile ScheduledFuture<?> future;
+        private volatile boolean cancelled;
 
-        public TimerTaskWrapper(TimerTask task) {
+        ScheduledTask(TimerTask task, Pool pool, boolean repeated) {
+            if (task == null) {
+                throw new NullPointerException();
+            }
             this.task = task;
+            this.pool = pool;
+            this.repeated = repeated;
+        }
+
+        void schedule(long delay, long period, boolean fixedRate) {
+            if (scheduler == null) {
+                throw new RejectedExecutionException("The task engine was shut down.");
+            }
+            wrappedTasks.put(task, this);
+            if (!repeated) {
+                future = scheduler.schedule(this, delay, TimeUnit.MILLISECONDS);
+            } else if (fixedRate) {
+                future = scheduler.scheduleAtFixedRate(this, delay, period, TimeUnit.MILLISECONDS);
+            } else {
+                future = scheduler.scheduleWithFixedDelay(this, delay, period, TimeUnit.MILLISECONDS);
+            }
+            if (cancelled) {
+                future.cancel(false);
+            }
+        }
+
+        void cancel() {
+            cancelled = true;
+            final ScheduledFuture<?> scheduled = future;
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
         }
 
         @Override
         public void run() {
-            executor.submit(task);
+            if (!repeated) {
+                wrappedTasks.remove(task, this);
+            }
+            if (cancelled || !pending.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                pool.executor.execute(new MeasuredTask(pool, () -> {
+                    try {
+                        if (!cancelled) {
+                            task.run();
+                        }
+                    } catch (RuntimeException e) {
+                        Log.error(e);
+                    } finally {
+                        pending.set(false);
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                pending.set(false);
+            }
+        }
+    }
+
+    /**
+     * Records how long a task waited in the queue and how long it ran.
+     */
+    private static class MeasuredTask implements Runnable {
+
+        private final Pool pool;
+        private final Runnable task;
+        private final long queued = System.nanoTime();
+
+        MeasuredTask(Pool pool, Runnable task) {
+            this.pool = pool;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            final long start = System.nanoTime();
+            pool.latency.add(start - queued);
+            pool.active.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                pool.active.decrementAndGet();
+                pool.execution.add(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * The executor of a type of tasks and its measurements.
+     */
+    private static class Pool {
+
+        private final TaskType type;
+        private final ExecutorService executor;
+        private final AtomicInteger active = new AtomicInteger();
+        private final Measure latency = new Measure();
+        private final Measure execution = new Measure();
+
+        Pool(TaskType type, ExecutorService executor) {
+            this.type = type;
+            this.executor = executor;
+        }
+
+        Statistics getStatistics() {
+            final int queued = executor instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) executor).getQueue().size() : 0;
+            return new Statistics(type, queued, active.get(), execution.count.get(), latency.average(),
+                    latency.max.get(), execution.average(), execution.max.get());
+        }
+    }
+
+    /**
+     * A count, sum and maximum of durations, in nanoseconds.
+     */
+    private static class Measure {
+
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void add(long nanos) {
+            count.incrementAndGet();
+            total.addAndGet(nanos);
+            max.accumulateAndGet(nanos, Math::max);
+        }
+
+        long average() {
+            final long n = count.get();
+            return n == 0 ? 0 : total.get() / n;
+        }
+    }
+
+    /**
+     * A snapshot of the measurements of the pool of a type of tasks. Times
+     * are in milliseconds.
+     */
+    public static class Statistics {
+
+        private final TaskType type;
+        private final int queueDepth;
+        private final int activeCount;
+        private final long completedCount;
+        private final long averageLatency;
+        private final long maxLatency;
+        private final long averageExecutionTime;
+        private final long maxExecutionTime;
+
+        Statistics(TaskType type, int queueDepth, int activeCount, long completedCount, long averageLatency,
+                long maxLatency, long averageExecutionTime, long maxExecutionTime) {
+            this.type = type;
+            this.queueDepth = queueDepth;
+            this.activeCount = activeCount;
+            this.completedCount = completedCount;
+            this.averageLatency = averageLatency;
+            this.maxLatency = maxLatency;
+            this.averageExecutionTime = averageExecutionTime;
+            this.maxExecutionTime = maxExecutionTime;
+        }
+
+        /**
+         * Returns the type of tasks measured.
+         *
+         * @return the type of tasks.
+         */
+        public TaskType getType() {
+            return type;
+        }
+
+        /**
+         * Returns the number of tasks waiting for a thread.
+         *
+         * @return the number of queued tasks.
+         */
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        /**
+         * Returns the number of tasks running.
+         *
+         * @return the number of running tasks.
+         */
+        public int getActiveCount() {
+            return activeCount;
+        }
+
+        /**
+         * Returns the number of tasks that ran to completion or failed.
+         *
+         * @return the number of finished tasks.
+         */
+        public long getCompletedCount() {
+            return completedCount;
+        }
+
+        /**
+         * Returns the average time tasks waited before they started.
+         *
+         * @return the average latency.
+         */
+        public double getAverageLatency() {
+            return averageLatency / 1000000.0;
+        }
+
+        /**
+         * Returns the longest time a task waited before it started.
+         *
+         * @return the maximum latency.
+         */
+        public double getMaxLatency() {
+            return maxLatency / 1000000.0;
+        }
+
+        /**
+         * Returns the average time tasks ran.
+         *
+         * @return the average execution time.
+         */
+        public double getAverageExecutionTime() {
+            return averageExecutionTime / 1000000.0;
+        }
+
+        /**
+         * Returns the longest time a task ran.
+         *
+         * @return the maximum execution time.
+         */
+        public double getMaxExecutionTime() {
+            return maxExecutionTime / 1000000.0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s tasks: %d queued, %d running, %d done, latency %.1f ms avg %.1f ms max,"
+                    + " execution %.1f ms avg %.1f ms max", type.name, queueDepth, activeCount, completedCount,
+                    getAverageLatency(), getMaxLatency(), getAverageExecutionTime(), getMaxExecutionTime());
+        }
+    }
+
+    /**
+     * Creates daemon threads of normal priority with our own naming scheme.
+     */
+    private static class SparkThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+        private final String prefix;
+
+        SparkThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            // Use our own naming scheme for the threads.
+            Thread thread = new Thread(Thread.currentThread().getThreadGroup(), runnable,
+                    prefix + threadNumber.getAndIncrement(), 0);
+            // Make workers daemon threads.
+            thread.setDaemon(true);
+            if (thread.getPriority() != Thread.NORM_PRIORITY) {
+                thread.setPriority(Thread.NORM_PRIORITY);
+            }
+            return thread;
         }
     }
 }
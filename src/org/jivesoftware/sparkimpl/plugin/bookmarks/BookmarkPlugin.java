@@ -53,6 +53,15 @@ public class BookmarkPlugin implements Plugin {
 
             @Override
             public Object construct() {
+                // Retrieve the bookmarks here, so the menu is built from the
+                // manager's cache instead of waiting on the server.
+                try {
+                    BookmarkManager manager = BookmarkManager.getBookmarkManager(SparkManager.getConnection());
+                    manager.getBookmarkedConferences();
+                    manager.getBookmarkedURLs();
+                } catch (XMPPException e) {
+                    Log.error(e);
+                }
                 return this;
             }
 
@@ -31,6 +31,7 @@ public class Emoticon {
     private String imageName;
     private String emoticonName;
     private final File emoticonDirectory;
+    private final EmoticonPack pack;
     private List<String> equivalants = new ArrayList<>();
 
     /**
@@ -48,6 +49,24 @@ public class Emoticon {
 
         this.equivalants = equivalants;
         this.emoticonDirectory = emoticonDirectory;
+        this.pack = null;
+    }
+
+    /**
+     * Creates an emoticon of a pack.
+     *
+     * @param nameOfImage the name of the image within the pack.
+     * @param emoticonName the name of this emoticon
+     * @param equivalants all string representations of this emoticon.
+     * @param pack the pack containing the image.
+     */
+    Emoticon(String nameOfImage, String emoticonName, List<String> equivalants, EmoticonPack pack) {
+        this.imageName = nameOfImage;
+        this.emoticonName = emoticonName;
+
+        this.equivalants = equivalants;
+        this.emoticonDirectory = pack.isArchive() ? null : pack.getFile();
+        this.pack = pack;
     }
 
     /**
@@ -85,7 +104,16 @@ public class Emoticon {
         return equivalants;
     }
 
+    /**
+     * Returns the directory containing the image.
+     *
+     * @return the directory, or null if the image is read from an archive.
+     */
     public File getEmoticonDirectory() {
         return emoticonDirectory;
     }
+
+    EmoticonPack getPack() {
+        return pack;
+    }
 }
@@ -18,34 +18,22 @@
 package org.jivesoftware.sparkimpl.plugin.emoticons;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Enumeration;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
-import java.util.zip.ZipFile;
 import javax.swing.ImageIcon;
-import org.dom4j.Document;
-import org.dom4j.DocumentException;
-import org.dom4j.Element;
-import org.dom4j.Node;
-import org.dom4j.io.SAXReader;
 import org.jivesoftware.Spark;
+import org.jivesoftware.spark.util.GraphicUtils;
 import org.jivesoftware.spark.util.URLFileSystem;
 import org.jivesoftware.spark.util.log.Log;
 import org.jivesoftware.sparkimpl.settings.local.LocalPreferences;
 import org.jivesoftware.sparkimpl.settings.local.SettingsManager;
-import org.xml.sax.SAXException;
 
 /**
  * Responsible for the handling of all Emoticon packs. Using the
@@ -59,8 +47,26 @@ public class EmoticonManager {
     private static EmoticonManager singleton;
     private static final Object LOCK = new Object();
 
+    private static final int MAX_IMAGES = 256;
+
     private Map<String, Collection<Emoticon>> emoticonMap = new HashMap<>();
-    private Map<String, ImageIcon> imageMap = new HashMap<>();
+
+    /**
+     * The decoded images of the active pack, keyed by image name and size.
+     */
+    private final Map<String, ImageIcon> imageMap = new LinkedHashMap<String, ImageIcon>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ImageIcon> eldest) {
+            return size() > MAX_IMAGES;
+        }
+    };
+
+    private EmoticonPackCatalog catalog;
+
+    private EmoticonMatcher matcher;
+    private String matcherPack;
 
     /**
      * The root emoticon directory.
@@ -100,9 +106,14 @@ public class EmoticonManager {
         // If files in this directory, copy this files into the Spark User Home
         // Directory
         if (files != null) {
-            // Copy over to allow for non-admins to extract.
+            // Copy over to allow for non-admins to add packs.
             copyFiles();
+        } else {
+            catalog = new EmoticonPackCatalog(EMOTICON_DIRECTORY);
+        }
+        catalog.scan();
 
+        if (files != null) {
             final LocalPreferences pref = SettingsManager.getLocalPreferences();
             String emoticonPack = pref.getEmoticonPack();
 
@@ -115,39 +126,33 @@ public class EmoticonManager {
     }
 
     /**
-     * Copy the files directly over to an accepted permissions directory.
+     * Copy the pack archives directly over to an accepted permissions
+     * directory. An archive is only copied if its content differs from the
+     * copy.
      */
     private void copyFiles() {
         // Current Plugin directory
         File newEmoticonDir = new File(Spark.getLogDirectory().getParentFile(),
                 "xtra/emoticons").getAbsoluteFile();
         newEmoticonDir.mkdirs();
+        catalog = new EmoticonPackCatalog(newEmoticonDir);
 
         File[] files = EMOTICON_DIRECTORY.listFiles();
         for (File file : files) {
-            if (file.isFile()) {
+            if (file.isFile() && file.getName().indexOf(".zip") > 0) {
                 try {
                     // Copy over
                     File newFile = new File(newEmoticonDir, file.getName());
 
                     // Check timestamps
-                    long installerFile = file.lastModified();
-                    long copiedFile = newFile.lastModified();
-                    if (installerFile > copiedFile) {
-                        // Check if File is Zip-File
-                        int endIndex = file.getName().indexOf(".zip");
-
-                        if (endIndex > 0) {
-                            String unzipURL = file.getName().substring(0,
-                                    endIndex);
-                            File unzipFile = new File(newEmoticonDir, unzipURL);
-
-                            if (!unzipFile.exists() || !checkIfSameFile(file, newFile)) {
-                                // Copy over and expand :)
-                                URLFileSystem.copy(file.toURI().toURL(),
-                                        newFile);
-                                expandNewPack(newFile, newEmoticonDir);
-                            }
+                    if (!newFile.exists()) {
+                        URLFileSystem.copy(file.toURI().toURL(), newFile);
+                    } else if (file.lastModified() > newFile.lastModified()) {
+                        final String hash = EmoticonPackCatalog.computeHash(file);
+                        if (!hash.equals(catalog.getHash(newFile))) {
+                            URLFileSystem.copy(file.toURI().toURL(), newFile);
+                        } else {
+                            newFile.setLastModified(System.currentTimeMillis());
                         }
                     }
                 } catch (IOException e) {
@@ -158,44 +163,6 @@ public class EmoticonManager {
         EMOTICON_DIRECTORY = newEmoticonDir;
     }
 
-    private boolean checkIfSameFile(File oldZip, File newZip) {
-        boolean result = true;
-
-        ZipFile oldZipFile = null;
-        ZipFile newZipFile = null;
-        try {
-            oldZipFile = new JarFile(oldZip);
-            newZipFile = new JarFile(newZip);
-            if (oldZipFile.size() == newZipFile.size()) {
-                for (Enumeration<?> e = newZipFile.entries(); e.hasMoreElements();) {
-                    JarEntry entry = (JarEntry) e.nextElement();
-                    if (oldZipFile.getEntry(entry.getName()) == null
-                            || entry.hashCode() != oldZipFile.getEntry(entry.getName()).hashCode()) {
-                        result = false;
-                        break;
-                    }
-                }
-            } else {
-                result = false;
-            }
-        } catch (IOException e) {
-            Log.error(e);
-        }
-        closeFile(newZipFile);
-        closeFile(oldZipFile);
-        return result;
-    }
-
-    private void closeFile(ZipFile zipFile) {
-        try {
-            if (zipFile != null) {
-                zipFile.close();
-            }
-        } catch (IOException e) {
-            Log.error(e);
-        }
-    }
-
     /**
      * Returns the active emoticon set within Spark.
      *
@@ -232,9 +199,21 @@ public class EmoticonManager {
      */
     public void setActivePack(String pack) {
         final LocalPreferences pref = SettingsManager.getLocalPreferences();
+        final String oldPack = pref.getEmoticonPack();
         pref.setEmoticonPack(pack);
         SettingsManager.saveSettings();
-        imageMap.clear();
+
+        // Release the images of the previous pack.
+        synchronized (imageMap) {
+            imageMap.clear();
+        }
+        if (oldPack != null && !oldPack.equals(pack)) {
+            final EmoticonPack old = catalog.getPack(oldPack);
+            if (old != null) {
+                old.close();
+            }
+        }
+        resetMatcher();
     }
 
     /**
@@ -244,7 +223,7 @@ public class EmoticonManager {
      * @return the name of the newly installed emoticon set.
      */
     public String installPack(File pack) {
-        if (!containsEmoticonPList(pack)) {
+        if (EmoticonPackCatalog.getRoot(pack) == null) {
             return null;
         }
 
@@ -252,12 +231,13 @@ public class EmoticonManager {
 
         // Copy to the emoticon area
         try {
-            URLFileSystem.copy(pack.toURI().toURL(), new File(
-                    EMOTICON_DIRECTORY, pack.getName()));
+            final File newFile = new File(EMOTICON_DIRECTORY, pack.getName());
+            URLFileSystem.copy(pack.toURI().toURL(), newFile);
 
-            File rootDirectory = unzipPack(pack, EMOTICON_DIRECTORY);
-            name = URLFileSystem.getName(rootDirectory.toURI().toURL());
-            addEmoticonPack(name);
+            name = catalog.add(newFile);
+            if (name != null) {
+                addEmoticonPack(name);
+            }
         } catch (IOException e) {
             Log.error(e);
         }
@@ -271,97 +251,18 @@ public class EmoticonManager {
      * @param packName the name of the pack.
      */
     public void addEmoticonPack(String packName) {
-        File emoticonSet = new File(EMOTICON_DIRECTORY, packName
-                + ".adiumemoticonset");
-        if (!emoticonSet.exists()) {
-            emoticonSet = new File(EMOTICON_DIRECTORY, packName
-                    + ".AdiumEmoticonset");
-        }
-
-        if (!emoticonSet.exists()) {
-            emoticonSet = new File(EMOTICON_DIRECTORY,
-                    "Default.adiumemoticonset");
+        if (catalog.getPack(packName) == null) {
             packName = "Default";
             setActivePack("Default");
         }
 
-        List<Emoticon> emoticons = new ArrayList<>();
-
-        final File plist = new File(emoticonSet, "Emoticons.plist");
-
-        // Create SaxReader and set to non-validating parser.
-        // This will allow for non-http problems to not break spark :)
-        final SAXReader saxParser = new SAXReader();
-        saxParser.setValidation(false);
-        try {
-            saxParser.setFeature("http://xml.org/sax/features/validation",
-                    false);
-            saxParser.setFeature("http://xml.org/sax/features/namespaces",
-                    false);
-            saxParser.setFeature(
-                    "http://apache.org/xml/features/validation/schema", false);
-            saxParser
-                    .setFeature(
-                            "http://apache.org/xml/features/validation/schema-full-checking",
-                            false);
-            saxParser.setFeature(
-                    "http://apache.org/xml/features/validation/dynamic", false);
-            saxParser
-                    .setFeature(
-                            "http://apache.org/xml/features/allow-java-encodings",
-                            true);
-            saxParser
-                    .setFeature(
-                            "http://apache.org/xml/features/continue-after-fatal-error",
-                            true);
-            saxParser
-                    .setFeature(
-                            "http://apache.org/xml/features/nonvalidating/load-dtd-grammar",
-                            false);
-            saxParser
-                    .setFeature(
-                            "http://apache.org/xml/features/nonvalidating/load-external-dtd",
-                            false);
-        } catch (SAXException e) {
-            e.printStackTrace();
-        }
-
-        Document emoticonFile;
-        try {
-            emoticonFile = saxParser.read(plist);
-        } catch (DocumentException e) {
-            Log.error(e);
+        final List<Emoticon> emoticons = catalog.getEmoticons(packName);
+        if (emoticons == null) {
             return;
         }
 
-        Node root = emoticonFile.selectSingleNode("/plist/dict/dict");
-
-        List<?> keyList = root.selectNodes("key");
-        List<?> dictonaryList = root.selectNodes("dict");
-
-        Iterator<?> keys = keyList.iterator();
-        Iterator<?> dicts = dictonaryList.iterator();
-
-        while (keys.hasNext()) {
-            Element keyEntry = (Element) keys.next();
-            String key = keyEntry.getText();
-
-            Element dict = (Element) dicts.next();
-            String name = dict.selectSingleNode("string").getText();
-
-            // Load equivilants
-            final List<String> equivs = new ArrayList<>();
-            final List<?> equivilants = dict.selectNodes("array/string");
-            equivilants.stream().map((equivilant1) -> (Element) equivilant1).map((equivilant) -> equivilant.getText()).forEach((equivilantString) -> {
-                equivs.add(equivilantString);
-            });
-
-            final Emoticon emoticon = new Emoticon(key, name, equivs,
-                    emoticonSet);
-            emoticons.add(emoticon);
-        }
-
         emoticonMap.put(packName, emoticons);
+        resetMatcher();
     }
 
     /**
@@ -372,6 +273,9 @@ public class EmoticonManager {
      */
     public URL getEmoticonURL(Emoticon emoticon) {
         final String imageName = emoticon.getImageName();
+        if (emoticon.getPack() != null) {
+            return emoticon.getPack().getURL(imageName);
+        }
 
         File file = new File(emoticon.getEmoticonDirectory(), imageName);
         try {
@@ -413,18 +317,27 @@ public class EmoticonManager {
      * @return the Emoticon found. If no emoticon is found, null is returned.
      */
     public Emoticon getEmoticon(String key) {
-        final Collection<Emoticon> emoticons = emoticonMap
-                .get(getActiveEmoticonSetName());
+        return getEmoticonMatcher().match(key);
+    }
 
-        for (Emoticon emoticon : emoticons) {
-            for (String string : emoticon.getEquivalants()) {
-                if (key.toLowerCase().equals(string.toLowerCase())) {
-                    return emoticon;
-                }
-            }
+    /**
+     * Returns the matcher of the equivalents of the active emoticon pack. The
+     * matcher is compiled on first use after the active pack changed.
+     *
+     * @return the EmoticonMatcher of the active pack.
+     */
+    public synchronized EmoticonMatcher getEmoticonMatcher() {
+        final String packName = getActiveEmoticonSetName();
+        if (matcher == null || (packName != null ? !packName.equals(matcherPack) : matcherPack != null)) {
+            final Collection<Emoticon> emoticons = packName != null ? emoticonMap.get(packName) : null;
+            matcher = new EmoticonMatcher(emoticons != null ? emoticons : Collections.<Emoticon>emptyList());
+            matcherPack = packName;
         }
+        return matcher;
+    }
 
-        return null;
+    private synchronized void resetMatcher() {
+        matcher = null;
     }
 
     /**
@@ -436,143 +349,60 @@ public class EmoticonManager {
     public ImageIcon getEmoticonImage(String key) {
         final Emoticon emoticon = getEmoticon(key);
         if (emoticon != null) {
-            ImageIcon icon = imageMap.get(key);
-            if (icon == null) {
-                URL url = getEmoticonURL(emoticon);
-                icon = new ImageIcon(url);
-                imageMap.put(key, icon);
-            }
-
-            return imageMap.get(key);
+            return getEmoticonImage(emoticon, 0);
         }
 
         return null;
     }
 
     /**
-     * Returns a list of all available emoticon packs.
+     * Returns the image of an emoticon. Images are read from the pack on
+     * first use and cached until the active pack changes.
      *
-     * @return Collection of Emoticon Pack names.
+     * @param emoticon the emoticon.
+     * @param size the maximum width and height of the image, or 0 for the
+     * size of the image in the pack.
+     * @return the image, or null if it could not be read.
      */
-    public Collection<String> getEmoticonPacks() {
-        final List<String> emoticonList = new ArrayList<>();
-
-        File[] dirs = EMOTICON_DIRECTORY.listFiles();
-
-        // If no emoticons are available
-        if (dirs == null) {
-
-            return null;
+    public ImageIcon getEmoticonImage(Emoticon emoticon, int size) {
+        final EmoticonPack pack = emoticon.getPack();
+        final String key = (pack != null ? pack.getName() : emoticon.getEmoticonDirectory().getPath())
+                + '/' + emoticon.getImageName() + '@' + size;
+        synchronized (imageMap) {
+            final ImageIcon icon = imageMap.get(key);
+            if (icon != null) {
+                return icon;
+            }
         }
 
-        for (File file : dirs) {
-            if (file.isDirectory()
-                    && file.getName().toLowerCase()
-                    .endsWith("adiumemoticonset")) {
-                try {
-                    String name = URLFileSystem.getName(file.toURI().toURL());
-                    name = name.replaceAll("adiumemoticonset", "");
-                    name = name.replaceAll("AdiumEmoticonset", "");
-                    emoticonList.add(name);
-                } catch (MalformedURLException e) {
-                    e.printStackTrace();
-                }
+        ImageIcon icon;
+        if (pack != null) {
+            try {
+                icon = new ImageIcon(pack.read(emoticon.getImageName()));
+            } catch (IOException e) {
+                Log.warning("Unable to read emoticon " + emoticon.getImageName(), e);
+                return null;
             }
+        } else {
+            icon = new ImageIcon(getEmoticonURL(emoticon));
         }
-        return emoticonList;
-    }
-
-    /**
-     * Expands any zipped Emoticon Packs.
-     *
-     * @param file File to unpack.
-     * @param dist Dist file.
-     */
-    private void expandNewPack(File file, File dist) {
-        URL url = null;
-        try {
-            url = file.toURI().toURL();
-        } catch (MalformedURLException e) {
-            Log.error(e);
+        if (size > 0 && (icon.getIconWidth() > size || icon.getIconHeight() > size)) {
+            icon = GraphicUtils.scale(icon, size, size);
         }
-        String name = URLFileSystem.getName(url);
-        File directory = new File(dist, name);
 
-        // Unzip contents into directory
-        unzipPack(file, directory.getParentFile());
-    }
-
-    /**
-     * Checks zip file for the Emoticons.plist file. This is Sparks way of
-     * detecting a valid file.
-     *
-     * @param zip the zip file to check.
-     * @return true if the EmoticonPlist exists in the archive.
-     */
-    private boolean containsEmoticonPList(File zip) {
-        ZipFile zipFile = null;
-        boolean result = false;
-        try {
-            zipFile = new JarFile(zip);
-            for (Enumeration<?> e = zipFile.entries(); e.hasMoreElements();) {
-                JarEntry entry = (JarEntry) e.nextElement();
-                if (entry.getName().contains("Emoticons.plist")) {
-                    result = true;
-                    break;
-                }
-            }
-        } catch (IOException e) {
-            Log.error(e);
+        synchronized (imageMap) {
+            imageMap.put(key, icon);
         }
-        closeFile(zipFile);
-        return result;
+        return icon;
     }
 
     /**
-     * Unzips a theme from a ZIP file into a directory.
+     * Returns a list of all available emoticon packs.
      *
-     * @param zip the ZIP file
-     * @param dir the directory to extract the plugin to.
-     * @return the root directory.
+     * @return Collection of Emoticon Pack names.
      */
-    private File unzipPack(File zip, File dir) {
-        File rootDirectory = null;
-        try {
-            ZipFile zipFile = new JarFile(zip);
-
-            dir.mkdir();
-            for (Enumeration<?> e = zipFile.entries(); e.hasMoreElements();) {
-                JarEntry entry = (JarEntry) e.nextElement();
-                File entryFile = new File(dir, entry.getName());
-                // Ignore any manifest.mf entries.
-                if (entry.getName().toLowerCase().endsWith("manifest.mf")) {
-                    continue;
-                }
-
-                if (entry.isDirectory() && rootDirectory == null) {
-                    rootDirectory = entryFile;
-                }
-
-                if (!entry.isDirectory()) {
-                    entryFile.getParentFile().mkdirs();
-                    FileOutputStream out = new FileOutputStream(entryFile);
-                    InputStream zin = zipFile.getInputStream(entry);
-                    byte[] b = new byte[512];
-                    int len;
-                    while ((len = zin.read(b)) != -1) {
-                        out.write(b, 0, len);
-                    }
-                    out.flush();
-                    out.close();
-                    zin.close();
-                }
-            }
-            zipFile.close();
-        } catch (IOException e) {
-            Log.error("Error unzipping emoticon pack", e);
-        }
-
-        return rootDirectory;
+    public Collection<String> getEmoticonPacks() {
+        return catalog.getPackNames();
     }
 
 }
@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2004-2011 Jive Software. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.jivesoftware.sparkimpl.plugin.emoticons;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Finds the emoticon a piece of text stands for. The text equivalents of an
+ * emoticon pack are compiled into a trie, ignoring case, so a lookup costs
+ * the length of the text instead of a comparison with every equivalent.
+ */
+public class EmoticonMatcher {
+
+    private final Node root = new Node();
+
+    /**
+     * Compiles the equivalents of emoticons. If emoticons share an
+     * equivalent, the first one is matched.
+     *
+     * @param emoticons the emoticons of a pack.
+     */
+    public EmoticonMatcher(Collection<Emoticon> emoticons) {
+        for (Emoticon emoticon : emoticons) {
+            for (String equivalent : emoticon.getEquivalants()) {
+                if (equivalent == null || equivalent.isEmpty()) {
+                    continue;
+                }
+                Node node = root;
+                for (int i = 0; i < equivalent.length(); i++) {
+                    node = node.getOrAddChild(Character.toLowerCase(equivalent.charAt(i)));
+                }
+                if (node.emoticon == null) {
+                    node.emoticon = emoticon;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the emoticon a text stands for.
+     *
+     * @param text the text.
+     * @return the emoticon, or null if the text is no equivalent.
+     */
+    public Emoticon match(CharSequence text) {
+        return match(text, 0, text.length());
+    }
+
+    /**
+     * Returns the emoticon a part of a text stands for.
+     *
+     * @param text the text.
+     * @param start the index of the first character.
+     * @param end the index after the last character.
+     * @return the emoticon, or null if the part is no equivalent.
+     */
+    public Emoticon match(CharSequence text, int start, int end) {
+        Node node = root;
+        for (int i = start; i < end && node != null; i++) {
+            node = node.getChild(Character.toLowerCase(text.charAt(i)));
+        }
+        return node != null ? node.emoticon : null;
+    }
+
+    private static class Node {
+
+        private static final char[] NO_KEYS = new char[0];
+        private static final Node[] NO_CHILDREN = new Node[0];
+
+        // Most nodes have one or two children, so they are searched linearly.
+        private char[] keys = NO_KEYS;
+        private Node[] children = NO_CHILDREN;
+        private Emoticon emoticon;
+
+        Node getChild(char c) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == c) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        Node getOrAddChild(char c) {
+            Node child = getChild(c);
+            if (child == null) {
+                child = new Node();
+                keys = Arrays.copyOf(keys, keys.length + 1);
+                children = Arrays.copyOf(children, children.length + 1);
+                keys[keys.length - 1] = c;
+                children[children.length - 1] = child;
+            }
+            return child;
+        }
+    }
+}
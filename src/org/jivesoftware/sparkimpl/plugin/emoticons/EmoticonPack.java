@@ -0,0 +1,226 @@
+/**
+ * Copyright (C) 2004-2011 Jive Software. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.jivesoftware.sparkimpl.plugin.emoticons;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.dom4j.Document;
+import org.dom4j.DocumentException;
+import org.dom4j.Element;
+import org.dom4j.Node;
+import org.dom4j.io.SAXReader;
+import org.jivesoftware.spark.util.log.Log;
+import org.xml.sax.SAXException;
+
+/**
+ * An Adium style emoticon pack, either a zip archive holding the
+ * <code>*.adiumemoticonset</code> directory or the directory itself. Files
+ * are read straight from the archive, which is opened on first use and kept
+ * open until {@link #close()} is called.
+ */
+class EmoticonPack {
+
+    static final String PLIST = "Emoticons.plist";
+
+    private final String name;
+    private final File file;
+    private final String root;
+    private ZipFile zipFile;
+
+    /**
+     * Creates a pack.
+     *
+     * @param name the name of the pack.
+     * @param file the archive or the directory of the pack.
+     * @param root the path of the pack directory within the archive, ending
+     * with a slash, or null if the pack is a directory.
+     */
+    EmoticonPack(String name, File file, String root) {
+        this.name = name;
+        this.file = file;
+        this.root = root;
+    }
+
+    /**
+     * Returns the name of the pack.
+     *
+     * @return the name of the pack.
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the archive or the directory of the pack.
+     *
+     * @return the file of the pack.
+     */
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the path of the pack directory within the archive.
+     *
+     * @return the path, or null if the pack is a directory.
+     */
+    String getRoot() {
+        return root;
+    }
+
+    /**
+     * Returns true if the pack is read from a zip archive.
+     *
+     * @return true if the pack is an archive.
+     */
+    boolean isArchive() {
+        return root != null;
+    }
+
+    /**
+     * Returns the URL of a file of the pack.
+     *
+     * @param fileName the name of the file.
+     * @return the URL, or null if it could not be built.
+     */
+    URL getURL(String fileName) {
+        try {
+            if (isArchive()) {
+                return new URL("jar:" + file.toURI().toURL() + "!/" + root + fileName);
+            }
+            return new File(file, fileName).toURI().toURL();
+        } catch (MalformedURLException e) {
+            Log.error(e);
+            return null;
+        }
+    }
+
+    /**
+     * Reads a file of the pack.
+     *
+     * @param fileName the name of the file.
+     * @return the content of the file.
+     * @throws IOException if the file could not be read.
+     */
+    byte[] read(String fileName) throws IOException {
+        try (InputStream in = open(fileName)) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                out.write(buffer, 0, length);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Parses the emoticons defined by the pack.
+     *
+     * @return the emoticons.
+     * @throws IOException if the definitions could not be read.
+     */
+    List<Emoticon> readEmoticons() throws IOException {
+        // Create SaxReader and set to non-validating parser.
+        // This will allow for non-http problems to not break spark :)
+        final SAXReader saxParser = new SAXReader();
+        saxParser.setValidation(false);
+        try {
+            saxParser.setFeature("http://xml.org/sax/features/validation", false);
+            saxParser.setFeature("http://xml.org/sax/features/namespaces", false);
+            saxParser.setFeature("http://apache.org/xml/features/validation/schema", false);
+            saxParser.setFeature("http://apache.org/xml/features/validation/schema-full-checking", false);
+            saxParser.setFeature("http://apache.org/xml/features/validation/dynamic", false);
+            saxParser.setFeature("http://apache.org/xml/features/allow-java-encodings", true);
+            saxParser.setFeature("http://apache.org/xml/features/continue-after-fatal-error", true);
+            saxParser.setFeature("http://apache.org/xml/features/nonvalidating/load-dtd-grammar", false);
+            saxParser.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+        } catch (SAXException e) {
+            Log.error(e);
+        }
+
+        final Document emoticonFile;
+        try (InputStream in = open(PLIST)) {
+            emoticonFile = saxParser.read(in);
+        } catch (DocumentException e) {
+            throw new IOException("Unable to parse the emoticons of " + name, e);
+        }
+
+        final List<Emoticon> emoticons = new ArrayList<>();
+        final Node root = emoticonFile.selectSingleNode("/plist/dict/dict");
+        if (root == null) {
+            return emoticons;
+        }
+
+        final Iterator<?> keys = root.selectNodes("key").iterator();
+        final Iterator<?> dicts = root.selectNodes("dict").iterator();
+        while (keys.hasNext() && dicts.hasNext()) {
+            final String key = ((Element) keys.next()).getText();
+            final Element dict = (Element) dicts.next();
+            final String emoticonName = dict.selectSingleNode("string").getText();
+
+            // Load equivilants
+            final List<String> equivs = new ArrayList<>();
+            dict.selectNodes("array/string").stream().forEach((equivilant) -> {
+                equivs.add(((Element) equivilant).getText());
+            });
+
+            emoticons.add(new Emoticon(key, emoticonName, equivs, this));
+        }
+        return emoticons;
+    }
+
+    /**
+     * Closes the archive of the pack. It is opened again when needed.
+     */
+    synchronized void close() {
+        if (zipFile != null) {
+            try {
+                zipFile.close();
+            } catch (IOException e) {
+                Log.error(e);
+            }
+            zipFile = null;
+        }
+    }
+
+    private InputStream open(String fileName) throws IOException {
+        if (!isArchive()) {
+            return new FileInputStream(new File(file, fileName));
+        }
+
+        synchronized (this) {
+            if (zipFile == null) {
+                zipFile = new ZipFile(file);
+            }
+            final ZipEntry entry = zipFile.getEntry(root + fileName);
+            if (entry == null) {
+                throw new IOException(fileName + " not found in " + file);
+            }
+            return zipFile.getInputStream(entry);
+        }
+    }
+}
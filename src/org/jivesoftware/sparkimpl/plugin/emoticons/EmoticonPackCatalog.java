@@ -0,0 +1,404 @@
+/**
+ * Copyright (C) 2004-2011 Jive Software. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.jivesoftware.sparkimpl.plugin.emoticons;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.jivesoftware.spark.util.AtomicFile;
+import org.jivesoftware.spark.util.StringUtils;
+import org.jivesoftware.spark.util.log.Log;
+
+/**
+ * The emoticon packs of a directory. The catalog is built once and kept in a
+ * file, along with the emoticons of every pack that has been loaded. Each
+ * archive is identified by a hash of its entries, so a pack is only parsed
+ * again when its content changes, and an archive whose size and modification
+ * time are unchanged is not even opened.
+ */
+class EmoticonPackCatalog {
+
+    static final String FILE_NAME = "emoticons.catalog";
+
+    private static final int VERSION = 1;
+
+    private final File directory;
+    private final AtomicFile file;
+
+    /**
+     * The archives known from the catalog file or a previous scan, by file
+     * name.
+     */
+    private final Map<String, Entry> archives = new HashMap<>();
+
+    /**
+     * The available packs, by name. Null until the directory is scanned, or
+     * if it can not be listed.
+     */
+    private Map<String, Entry> packs;
+
+    /**
+     * Creates the catalog of a directory and loads the catalog file.
+     *
+     * @param directory the directory containing the packs.
+     */
+    EmoticonPackCatalog(File directory) {
+        this.directory = directory;
+        this.file = new AtomicFile(new File(directory, FILE_NAME));
+        load();
+    }
+
+    /**
+     * Lists the packs of the directory. Archives that have not changed since
+     * they were last cataloged are not opened.
+     */
+    synchronized void scan() {
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            packs = null;
+            return;
+        }
+        Arrays.sort(files);
+
+        boolean changed = false;
+        final Map<String, Entry> found = new LinkedHashMap<>();
+        final Set<String> archiveNames = new HashSet<>();
+        for (File f : files) {
+            if (!f.isFile() || !f.getName().toLowerCase().endsWith(".zip")) {
+                continue;
+            }
+            archiveNames.add(f.getName());
+            final Entry cached = archives.get(f.getName());
+            final Entry entry = getEntry(f);
+            if (entry != cached) {
+                changed = true;
+            }
+            if (entry != null && !found.containsKey(entry.pack.getName())) {
+                found.put(entry.pack.getName(), entry);
+            }
+        }
+
+        // Packs expanded by earlier versions, or copied by hand.
+        for (File f : files) {
+            if (f.isDirectory() && f.getName().toLowerCase().endsWith("adiumemoticonset")
+                    && new File(f, EmoticonPack.PLIST).exists()) {
+                final String name = getPackName(f.getName());
+                if (!found.containsKey(name)) {
+                    found.put(name, new Entry(new EmoticonPack(name, f, null), 0, 0, null));
+                }
+            }
+        }
+
+        changed |= archives.keySet().retainAll(archiveNames);
+        packs = found;
+        if (changed) {
+            save();
+        }
+    }
+
+    /**
+     * Returns the names of the available packs.
+     *
+     * @return the names, or null if the directory could not be listed.
+     */
+    synchronized Collection<String> getPackNames() {
+        return packs != null ? new ArrayList<>(packs.keySet()) : null;
+    }
+
+    /**
+     * Returns an available pack.
+     *
+     * @param name the name of the pack.
+     * @return the pack, or null if there is no such pack.
+     */
+    synchronized EmoticonPack getPack(String name) {
+        final Entry entry = packs != null && name != null ? packs.get(name) : null;
+        return entry != null ? entry.pack : null;
+    }
+
+    /**
+     * Returns the emoticons of a pack, parsing its definitions if they are
+     * not cataloged yet.
+     *
+     * @param name the name of the pack.
+     * @return the emoticons, or null if the pack does not exist or could not
+     * be read.
+     */
+    synchronized List<Emoticon> getEmoticons(String name) {
+        final Entry entry = packs != null && name != null ? packs.get(name) : null;
+        if (entry == null) {
+            return null;
+        }
+        if (entry.emoticons == null) {
+            try {
+                entry.emoticons = entry.pack.readEmoticons();
+            } catch (IOException e) {
+                Log.error(e);
+                return null;
+            } finally {
+                // Images are read later, when they are shown.
+                entry.pack.close();
+            }
+            if (entry.pack.isArchive()) {
+                save();
+            }
+        }
+        return entry.emoticons;
+    }
+
+    /**
+     * Adds an archive that was copied into the directory.
+     *
+     * @param archive the archive.
+     * @return the name of the pack, or null if the archive is no pack.
+     */
+    synchronized String add(File archive) {
+        final Entry entry = getEntry(archive);
+        if (entry == null) {
+            return null;
+        }
+        if (packs == null) {
+            packs = new LinkedHashMap<>();
+        }
+        packs.put(entry.pack.getName(), entry);
+        save();
+        return entry.pack.getName();
+    }
+
+    /**
+     * Returns the content hash of an archive of the directory, using the
+     * cataloged hash if the archive has not changed.
+     *
+     * @param archive the archive.
+     * @return the hash, or null if the archive is no pack.
+     */
+    synchronized String getHash(File archive) {
+        final Entry entry = getEntry(archive);
+        return entry != null ? entry.hash : null;
+    }
+
+    /**
+     * Returns the path of the pack directory within an archive.
+     *
+     * @param archive the archive.
+     * @return the path ending with a slash, or null if the archive holds no
+     * pack.
+     */
+    static String getRoot(File archive) {
+        try (ZipFile zipFile = new ZipFile(archive)) {
+            return getRoot(zipFile);
+        } catch (IOException e) {
+            Log.warning("Unable to read emoticon pack " + archive, e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns a hash of the entries of an archive. It is computed from the
+     * names, sizes and checksums stored in the central directory, so the
+     * entries themselves are not read.
+     *
+     * @param archive the archive.
+     * @return the hash.
+     * @throws IOException if the archive could not be read.
+     */
+    static String computeHash(File archive) throws IOException {
+        try (ZipFile zipFile = new ZipFile(archive)) {
+            return computeHash(zipFile);
+        }
+    }
+
+    private Entry getEntry(File archive) {
+        final Entry cached = archives.get(archive.getName());
+        if (cached != null && cached.length == archive.length() && cached.modified == archive.lastModified()) {
+            return cached;
+        }
+
+        final String root;
+        final String hash;
+        try (ZipFile zipFile = new ZipFile(archive)) {
+            root = getRoot(zipFile);
+            hash = computeHash(zipFile);
+        } catch (IOException e) {
+            Log.warning("Unable to read emoticon pack " + archive, e);
+            archives.remove(archive.getName());
+            return null;
+        }
+        if (root == null) {
+            archives.remove(archive.getName());
+            return null;
+        }
+
+        final Entry entry;
+        if (cached != null && cached.hash.equals(hash) && cached.pack.getRoot().equals(root)) {
+            // Same content, the parsed emoticons are still valid.
+            entry = new Entry(cached.pack, archive.length(), archive.lastModified(), hash);
+            entry.emoticons = cached.emoticons;
+        } else {
+            if (cached != null) {
+                cached.pack.close();
+            }
+            final String name = getPackName(root.substring(0, root.length() - 1));
+            entry = new Entry(new EmoticonPack(name, archive, root), archive.length(), archive.lastModified(), hash);
+        }
+        archives.put(archive.getName(), entry);
+        return entry;
+    }
+
+    private static String getRoot(ZipFile zipFile) {
+        for (Enumeration<? extends ZipEntry> e = zipFile.entries(); e.hasMoreElements();) {
+            final String name = e.nextElement().getName();
+            if (name.endsWith('/' + EmoticonPack.PLIST)) {
+                final String root = name.substring(0, name.length() - EmoticonPack.PLIST.length());
+                if (root.indexOf('/') == root.length() - 1
+                        && root.toLowerCase().endsWith("adiumemoticonset/")) {
+                    return root;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String computeHash(ZipFile zipFile) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        final List<? extends ZipEntry> entries = Collections.list(zipFile.entries());
+        entries.sort((a, b) -> a.getName().compareTo(b.getName()));
+        for (ZipEntry entry : entries) {
+            digest.update(entry.getName().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(Long.toString(entry.getSize()).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(Long.toString(entry.getCrc()).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        return StringUtils.encodeHex(digest.digest());
+    }
+
+    private static String getPackName(String directoryName) {
+        final int dot = directoryName.lastIndexOf('.');
+        String name = dot > 0 ? directoryName.substring(0, dot) : directoryName;
+        name = name.replaceAll("adiumemoticonset", "");
+        name = name.replaceAll("AdiumEmoticonset", "");
+        return name;
+    }
+
+    private void load() {
+        try {
+            file.readData(VERSION, (in) -> {
+                for (int count = in.readInt(); count > 0; count--) {
+                    final String fileName = in.readUTF();
+                    final String name = in.readUTF();
+                    final String root = in.readUTF();
+                    final long length = in.readLong();
+                    final long modified = in.readLong();
+                    final String hash = in.readUTF();
+                    final EmoticonPack pack = new EmoticonPack(name, new File(directory, fileName), root);
+                    final Entry entry = new Entry(pack, length, modified, hash);
+
+                    final int emoticonCount = in.readInt();
+                    if (emoticonCount >= 0) {
+                        entry.emoticons = new ArrayList<>(emoticonCount);
+                        for (int i = 0; i < emoticonCount; i++) {
+                            final String imageName = in.readUTF();
+                            final String emoticonName = in.readUTF();
+                            final List<String> equivalants = new ArrayList<>();
+                            for (int j = in.readInt(); j > 0; j--) {
+                                equivalants.add(in.readUTF());
+                            }
+                            entry.emoticons.add(new Emoticon(imageName, emoticonName, equivalants, pack));
+                        }
+                    }
+                    archives.put(fileName, entry);
+                }
+            });
+        } catch (IOException e) {
+            Log.warning("Unable to read the emoticon catalog.", e);
+            archives.clear();
+        }
+    }
+
+    private void save() {
+        try {
+            file.writeData(VERSION, (out) -> {
+                out.writeInt(archives.size());
+                for (Map.Entry<String, Entry> archive : archives.entrySet()) {
+                    final Entry entry = archive.getValue();
+                    out.writeUTF(archive.getKey());
+                    out.writeUTF(entry.pack.getName());
+                    out.writeUTF(entry.pack.getRoot());
+                    out.writeLong(entry.length);
+                    out.writeLong(entry.modified);
+                    out.writeUTF(entry.hash);
+                    if (entry.emoticons == null) {
+                        out.writeInt(-1);
+                        continue;
+                    }
+                    out.writeInt(entry.emoticons.size());
+                    for (Emoticon emoticon : entry.emoticons) {
+                        out.writeUTF(emoticon.getImageName());
+                        out.writeUTF(emoticon.getEmoticonName());
+                        out.writeInt(emoticon.getEquivalants().size());
+                        for (String equivalant : emoticon.getEquivalants()) {
+                            out.writeUTF(equivalant);
+                        }
+                    }
+                }
+            });
+        } catch (IOException e) {
+            Log.warning("Unable to write the emoticon catalog.", e);
+        }
+    }
+
+    /**
+     * A cataloged pack.
+     */
+    private static class Entry {
+
+        private final EmoticonPack pack;
+        private final long length;
+        private final long modified;
+        private final String hash;
+        private List<Emoticon> emoticons;
+
+        Entry(EmoticonPack pack, long length, long modified, String hash) {
+            this.pack = pack;
+            this.length = length;
+            this.modified = modified;
+            this.hash = hash;
+        }
+    }
+}
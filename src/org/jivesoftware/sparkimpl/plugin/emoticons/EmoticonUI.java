@@ -21,7 +21,6 @@ import java.awt.Color;
 import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.net.URL;
 import java.util.Collection;
 import javax.swing.ImageIcon;
 import javax.swing.JPanel;
@@ -50,8 +49,7 @@ public class EmoticonUI extends JPanel {
             emoticons.stream().map((emoticon) -> emoticon.getEquivalants().get(0)).map((text) -> {
                 String name = manager.getActiveEmoticonSetName();
                 final Emoticon smileEmoticon = manager.getEmoticon(name, text);
-                URL smileURL = manager.getEmoticonURL(smileEmoticon);
-                ImageIcon icon = new ImageIcon(smileURL);
+                ImageIcon icon = manager.getEmoticonImage(smileEmoticon, 0);
                 RolloverButton emotButton = new RolloverButton();
                 emotButton.setIcon(icon);
                 emotButton.addActionListener((ActionEvent e) -> {
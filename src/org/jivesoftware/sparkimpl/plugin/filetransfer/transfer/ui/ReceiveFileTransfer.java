@@ -37,8 +37,6 @@ import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.util.Timer;
-import java.util.TimerTask;
 import javax.swing.AbstractAction;
 import javax.swing.Action;
 import javax.swing.BorderFactory;
@@ -61,6 +59,10 @@ import org.jivesoftware.smackx.filetransfer.FileTransferRequest;
 import org.jivesoftware.smackx.filetransfer.IncomingFileTransfer;
 import org.jivesoftware.spark.SparkManager;
 import org.jivesoftware.spark.component.FileDragLabel;
+import org.jivesoftware.spark.filetransfer.SparkTransferManager;
+import org.jivesoftware.spark.filetransfer.TransferMonitor;
+import org.jivesoftware.spark.filetransfer.TransferProgress;
+import org.jivesoftware.spark.filetransfer.TransferProgressListener;
 import org.jivesoftware.spark.filetransfer.preferences.FileTransferPreference;
 import org.jivesoftware.spark.preference.Preference;
 import org.jivesoftware.spark.ui.ContactItem;
@@ -294,73 +296,34 @@ public class ReceiveFileTransfer extends JPanel {
         progressBar.setMaximum(100); // setting it to percent
         progressBar.setStringPainted(true);
 
-        final Timer timer = new Timer();
-        TimerTask updateProgessBar = new TimerTask() {
+        final TransferMonitor monitor = SparkTransferManager.getInstance().getTransferMonitor();
+        monitor.watch(transfer, new TransferProgressListener() {
             @Override
-            public void run() {
-                if (transfer.getAmountWritten() >= request.getFileSize()
-                        || transfer.getStatus() == FileTransfer.Status.error
-                        || transfer.getStatus() == FileTransfer.Status.refused
-                        || transfer.getStatus() == FileTransfer.Status.cancelled
-                        || transfer.getStatus() == FileTransfer.Status.complete) {
-                    this.cancel();
-                    timer.cancel();
+            public void progressUpdated(TransferProgress progress) {
+                if (progress.getBytesTransferred() >= request.getFileSize() || progress.isDone()) {
+                    monitor.unwatch(transfer, this);
                     _endtime = System.currentTimeMillis();
                     updateonFinished(request, downloadedFile);
-                } else {
-                    // 100 % = Filesize
-                    // x %   = Currentsize	    
-                    long p = (transfer.getAmountWritten() * 100 / transfer.getFileSize());
-                    progressBar.setValue(Math.round(p));
+                    return;
                 }
 
-            }
-        };
+                // 100 % = Filesize
+                // x %   = Currentsize
+                progressBar.setValue(progress.getPercent());
 
-        final Timer timer2 = new Timer();
-        TimerTask updatePrograssBarText = new TimerTask() {
-            long timenow;
-            long timeearlier;
-            long bytesnow;
-            long bytesearlier;
+                bytesRead = progress.getBytesTransferred();
+                ByteFormat format = new ByteFormat();
+                String text = format.format(bytesRead);
 
-            @Override
-            public void run() {
-                if (transfer.getAmountWritten() >= request.getFileSize()
-                        || transfer.getStatus() == FileTransfer.Status.error
-                        || transfer.getStatus() == FileTransfer.Status.refused
-                        || transfer.getStatus() == FileTransfer.Status.cancelled
-                        || transfer.getStatus() == FileTransfer.Status.complete) {
-                    this.cancel();
-                    timer2.cancel();
-                } else {
-
-                    timenow = System.currentTimeMillis();
-                    bytesnow = transfer.getAmountWritten();
-                    bytesRead = transfer.getAmountWritten();
-                    if (bytesRead == -1) {
-                        bytesRead = 0;
-                    }
-                    ByteFormat format = new ByteFormat();
-                    String text = format.format(bytesRead);
-
-                    FileTransfer.Status status = transfer.getStatus();
-                    if (status == FileTransfer.Status.in_progress) {
-                        titleLabel.setText(Res.getString("message.receiving.file", contactItem.getDisplayName()));
-                        String speed = TransferUtils.calculateSpeed(bytesnow - bytesearlier, timenow - timeearlier);
-                        String est = TransferUtils.calculateEstimate(bytesnow, transfer.getFileSize(), _starttime, System.currentTimeMillis());
-                        progressLabel.setText(Res.getString("message.transfer.progressbar.text.received", text, speed, est));
-                    } else if (status == FileTransfer.Status.negotiating_stream) {
-                        titleLabel.setText(Res.getString("message.negotiate.stream"));
-                    }
-                    bytesearlier = bytesnow;
-                    timeearlier = timenow;
+                FileTransfer.Status status = progress.getStatus();
+                if (status == FileTransfer.Status.in_progress) {
+                    titleLabel.setText(Res.getString("message.receiving.file", contactItem.getDisplayName()));
+                    progressLabel.setText(Res.getString("message.transfer.progressbar.text.received", text, progress.getSpeed(), progress.getEstimate()));
+                } else if (status == FileTransfer.Status.negotiating_stream) {
+                    titleLabel.setText(Res.getString("message.negotiate.stream"));
                 }
             }
-        };
-
-        timer.scheduleAtFixedRate(updateProgessBar, 10, 10);
-        timer2.scheduleAtFixedRate(updatePrograssBarText, 10, 500);
+        });
 
     }
 
@@ -30,7 +30,6 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import javax.swing.BorderFactory;
@@ -40,7 +39,6 @@ import javax.swing.JButton;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JProgressBar;
-import javax.swing.SwingUtilities;
 import org.jivesoftware.resource.Res;
 import org.jivesoftware.resource.SparkRes;
 import org.jivesoftware.smack.XMPPException;
@@ -50,11 +48,13 @@ import org.jivesoftware.smackx.filetransfer.FileTransferManager;
 import org.jivesoftware.smackx.filetransfer.OutgoingFileTransfer;
 import org.jivesoftware.spark.SparkManager;
 import org.jivesoftware.spark.component.FileDragLabel;
+import org.jivesoftware.spark.filetransfer.SparkTransferManager;
+import org.jivesoftware.spark.filetransfer.TransferMonitor;
+import org.jivesoftware.spark.filetransfer.TransferProgress;
 import org.jivesoftware.spark.ui.ContactItem;
 import org.jivesoftware.spark.ui.ContactList;
 import org.jivesoftware.spark.util.ByteFormat;
 import org.jivesoftware.spark.util.GraphicUtils;
-import org.jivesoftware.spark.util.SwingWorker;
 import org.jivesoftware.spark.util.log.Log;
 
 public class SendFileTransfer extends JPanel {
@@ -184,47 +184,13 @@ public class SendFileTransfer extends JPanel {
         add(progressBar, new GridBagConstraints(1, 2, 2, 1, 1.0, 0.0, GridBagConstraints.WEST, GridBagConstraints.NONE, new Insets(0, 5, 0, 5), 150, 0));
         add(progressLabel, new GridBagConstraints(1, 3, 2, 1, 1.0, 0.0, GridBagConstraints.WEST, GridBagConstraints.NONE, new Insets(0, 5, 0, 5), 150, 0));
 
-        SwingWorker worker = new SwingWorker() {
-
-            @Override
-            public Object construct() {
-                while (true) {
-                    try {
-                        if (transfer.getBytesSent() > 0 && _starttime == 0) {
-                            _starttime = System.currentTimeMillis();
-                        }
-
-                        long starttime = System.currentTimeMillis();
-                        long startbyte = transfer.getBytesSent();
-                        Thread.sleep(500);
-                        FileTransfer.Status status = transfer.getStatus();
-                        if (status == Status.error
-                                || status == Status.complete || status == Status.cancelled
-                                || status == Status.refused) {
-                            break;
-                        }
-                        long endtime = System.currentTimeMillis();
-                        long endbyte = transfer.getBytesSent();
-
-                        long timediff = endtime - starttime;
-                        long bytediff = endbyte - startbyte;
-
-                        updateBar(transfer, nickname, TransferUtils.calculateSpeed(bytediff, timediff));
-                    } catch (InterruptedException e) {
-                        Log.error("Unable to sleep thread.", e);
-                    }
-
-                }
-                return "";
-            }
-
-            @Override
-            public void finished() {
-                updateBar(transfer, nickname, "??MB/s");
+        final TransferMonitor monitor = SparkTransferManager.getInstance().getTransferMonitor();
+        monitor.watch(transfer, (TransferProgress progress) -> {
+            if (progress.getBytesTransferred() > 0 && _starttime == 0) {
+                _starttime = System.currentTimeMillis();
             }
-        };
-
-        worker.start();
+            updateBar(progress, nickname);
+        });
 
         makeClickable(imageLabel);
         makeClickable(titleLabel);
@@ -260,8 +226,8 @@ public class SendFileTransfer extends JPanel {
         }
     }
 
-    private void updateBar(final OutgoingFileTransfer transfer, String nickname, String kBperSecond) {
-        FileTransfer.Status status = transfer.getStatus();
+    private void updateBar(TransferProgress progress, String nickname) {
+        FileTransfer.Status status = progress.getStatus();
         if (status == Status.negotiating_stream) {
             titleLabel.setText(Res.getString("message.negotiation.file.transfer", nickname));
         } else if (status == Status.error) {
@@ -282,20 +248,12 @@ public class SendFileTransfer extends JPanel {
                 progressLabel.setVisible(true);
             }
 
-            try {
-                SwingUtilities.invokeAndWait(() -> {
-                    long p = (transfer.getBytesSent() * 100 / transfer.getFileSize());
-                    progressBar.setValue(Math.round(p));
-                });
-            } catch (InterruptedException | InvocationTargetException e) {
-                Log.error(e);
-            }
+            progressBar.setValue(progress.getPercent());
 
             ByteFormat format = new ByteFormat();
-            String bytesSent = format.format(transfer.getBytesSent());
-            String est = TransferUtils.calculateEstimate(transfer.getBytesSent(), transfer.getFileSize(), _starttime, System.currentTimeMillis());
+            String bytesSent = format.format(progress.getBytesTransferred());
 
-            progressLabel.setText(Res.getString("message.transfer.progressbar.text.sent", bytesSent, kBperSecond, est));
+            progressLabel.setText(Res.getString("message.transfer.progressbar.text.sent", bytesSent, progress.getSpeed(), progress.getEstimate()));
         } else if (status == Status.complete) {
             progressBar.setVisible(false);
 
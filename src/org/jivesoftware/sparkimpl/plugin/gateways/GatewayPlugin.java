@@ -49,6 +49,7 @@ import org.jivesoftware.spark.ui.ContactItem;
 import org.jivesoftware.spark.ui.ContactItemHandler;
 import org.jivesoftware.spark.ui.ContactList;
 import org.jivesoftware.spark.ui.PresenceListener;
+import org.jivesoftware.spark.util.StartupTrace;
 import org.jivesoftware.spark.util.SwingWorker;
 import org.jivesoftware.spark.util.log.Log;
 import org.jivesoftware.sparkimpl.plugin.gateways.transports.AIMTransport;
@@ -98,7 +99,12 @@ public class GatewayPlugin implements Plugin, ContactItemHandler {
                 try {
                     // Let's try and avoid any timing issues with the gateway presence.
                     Thread.sleep(5000);
-                    populateTransports();
+                    final StartupTrace.Span span = StartupTrace.getInstance().begin("gateways.disco");
+                    try {
+                        populateTransports();
+                    } finally {
+                        span.end();
+                    }
                 } catch (Exception e) {
                     Log.error(e);
                     return false;
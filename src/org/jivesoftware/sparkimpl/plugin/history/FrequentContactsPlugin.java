@@ -30,13 +30,9 @@ import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.io.File;
-import java.io.FilenameFilter;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -58,6 +54,8 @@ import org.jivesoftware.spark.plugin.Plugin;
 import org.jivesoftware.spark.ui.ContactItem;
 import org.jivesoftware.spark.ui.ContactList;
 import org.jivesoftware.spark.util.GraphicUtils;
+import org.jivesoftware.sparkimpl.plugin.transcripts.ChatTranscripts;
+import org.jivesoftware.sparkimpl.plugin.transcripts.TranscriptStore;
 
 /**
  * Adds a simple feature to list your most "Popular" contacts. Popular contacts
@@ -65,8 +63,6 @@ import org.jivesoftware.spark.util.GraphicUtils;
  */
 public class FrequentContactsPlugin implements Plugin {
 
-    private File transcriptDir;
-
     private final DefaultListModel model = new DefaultListModel();
     private JList contacts;
     private Window window;
@@ -75,8 +71,6 @@ public class FrequentContactsPlugin implements Plugin {
 
     @Override
     public void initialize() {
-        transcriptDir = new File(SparkManager.getUserDirectory(), "transcripts");
-
         contacts = new JList(model);
         contacts.setCellRenderer(new InternalRenderer());
 
@@ -171,11 +165,6 @@ public class FrequentContactsPlugin implements Plugin {
      * Displays your favorite contacts.
      */
     private void showPopup() {
-        // Get Transcript Directory
-        if (!transcriptDir.exists()) {
-            return;
-        }
-
         jidMap.clear();
         model.clear();
 
@@ -216,33 +205,15 @@ public class FrequentContactsPlugin implements Plugin {
      * @return the collection of favorite people (jids)
      */
     private Collection<String> getFavoriteContacts() {
-        if (!transcriptDir.exists()) {
-            return Collections.emptyList();
-        }
-
-        final File[] transcriptFiles = transcriptDir.listFiles((File dir, String name) -> !name.contains("_current") && !name.equals("conversations.xml"));
-        final List<File> files = Arrays.asList(transcriptFiles);
-
-        Collections.sort(files, sizeComparator);
-
-        int size = files.size();
-        if (size > 10) {
-            size = 10;
-        }
-
-        final List<String> jidList = new ArrayList<>();
-        for (int i = 0; i < size; i++) {
-            File file = files.get(i);
-            String jid;
-
-            final String fileName = file.getName();
-            final int dot = fileName.lastIndexOf('.');
-            jid = dot > 0 ? fileName.substring(0, dot) : fileName;
-
-            jidList.add(jid);
+        final TranscriptStore store = ChatTranscripts.getTranscriptStore();
+        final Map<String, Integer> counts = new HashMap<>();
+        for (String jid : store.getTranscriptJIDs()) {
+            counts.put(jid, store.getMessageCount(jid));
         }
 
-        return jidList;
+        final List<String> jidList = new ArrayList<>(counts.keySet());
+        Collections.sort(jidList, (String jid1, String jid2) -> Integer.compare(counts.get(jid2), counts.get(jid1)));
+        return jidList.subList(0, Math.min(jidList.size(), 10));
     }
 
     @Override
@@ -294,26 +265,4 @@ public class FrequentContactsPlugin implements Plugin {
         }
     }
 
-    /**
-     * Sorts files by largest to smallest.
-     */
-    final Comparator<File> sizeComparator = (File item1, File item2) -> {
-        long int1 = item1.length();
-        long int2 = item2.length();
-        
-        if (int1 == int2) {
-            return 0;
-        }
-        
-        if (int1 > int2) {
-            return -1;
-        }
-        
-        if (int1 < int2) {
-            return 1;
-        }
-        
-        return 0;
-    };
-
 }
@@ -36,14 +36,14 @@ import org.jivesoftware.smack.packet.Presence;
 import org.jivesoftware.smackx.packet.Time;
 import org.jivesoftware.smackx.packet.Version;
 import org.jivesoftware.spark.SparkManager;
+import org.jivesoftware.spark.plugin.BackgroundPlugin;
 import org.jivesoftware.spark.plugin.ContextMenuListener;
-import org.jivesoftware.spark.plugin.Plugin;
 import org.jivesoftware.spark.ui.ContactItem;
 import org.jivesoftware.spark.ui.ContactList;
 import org.jivesoftware.spark.util.SwingWorker;
 import org.jivesoftware.sparkimpl.settings.JiveInfo;
 
-public class JabberVersion implements Plugin {
+public class JabberVersion implements BackgroundPlugin {
 
     @Override
     public void initialize() {
@@ -80,7 +80,10 @@ public class JabberVersion implements Plugin {
                 SparkManager.getConnection().sendPacket(time);
             }
         }, packetFilter);
+    }
 
+    @Override
+    public void initializeUI() {
         final ContactList contactList = SparkManager.getWorkspace().getContactList();
         contactList.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke("control F11"), "viewClient");
         contactList.addContextMenuListener(new ContextMenuListener() {
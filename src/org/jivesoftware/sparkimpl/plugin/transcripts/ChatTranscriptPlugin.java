@@ -21,11 +21,10 @@ import java.awt.BorderLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseEvent;
-import java.io.File;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import javax.swing.AbstractAction;
 import javax.swing.Action;
@@ -49,6 +48,8 @@ import org.jivesoftware.spark.ui.ChatRoomListener;
 import org.jivesoftware.spark.ui.ContactItem;
 import org.jivesoftware.spark.ui.ContactList;
 import org.jivesoftware.spark.ui.rooms.ChatRoomImpl;
+import org.jivesoftware.spark.util.StartupTrace;
+import org.jivesoftware.spark.util.TaskEngine;
 import org.jivesoftware.spark.util.UIComponentRegistry;
 import org.jivesoftware.sparkimpl.settings.local.LocalPreferences;
 import org.jivesoftware.sparkimpl.settings.local.SettingsManager;
@@ -65,7 +66,7 @@ public class ChatTranscriptPlugin implements ChatRoomListener {
     private final String dateFormat = ((SimpleDateFormat) SimpleDateFormat.getDateInstance(SimpleDateFormat.FULL)).toPattern();
     private final SimpleDateFormat notificationDateFormatter;
     private final SimpleDateFormat messageDateFormatter;
-    private HashMap<String, Message> lastMessage = new HashMap<>();
+    private final TranscriptJournal journal = new TranscriptJournal();
     private JDialog Frame;
     private HistoryTranscript transcript = null;
 
@@ -78,6 +79,20 @@ public class ChatTranscriptPlugin implements ChatRoomListener {
         notificationDateFormatter = new SimpleDateFormat(dateFormat);
         messageDateFormatter = new SimpleDateFormat(timeFormat);
 
+        // Import transcripts written by older versions and bring the search
+        // index up to date in the background.
+        if (SettingsManager.getLocalPreferences().isChatHistoryEnabled()) {
+            TaskEngine.getInstance().submit(() -> {
+                final StartupTrace.Span span = StartupTrace.getInstance().begin("transcripts.index");
+                try {
+                    TranscriptMigrator.migrateAll(ChatTranscripts.getTranscriptStore());
+                    ChatTranscripts.getSearchIndex().synchronize();
+                } finally {
+                    span.end();
+                }
+            }, TaskEngine.TaskType.IO);
+        }
+
         final ContactList contactList = SparkManager.getWorkspace().getContactList();
 
         final Action viewHistoryAction = new AbstractAction() {
@@ -132,6 +147,7 @@ public class ChatTranscriptPlugin implements ChatRoomListener {
             @Override
             public void shutdown() {
                 persistConversations();
+                ChatTranscripts.getSearchIndex().flush();
             }
 
             @Override
@@ -169,10 +185,12 @@ public class ChatTranscriptPlugin implements ChatRoomListener {
         });
     }
 
+    /**
+     * Writes the messages of all conversations to the transcript store and
+     * forces them to disk.
+     */
     public void persistConversations() {
-        SparkManager.getChatManager().getChatContainer().getChatRooms().stream().filter((room) -> (room instanceof ChatRoomImpl)).map((room) -> (ChatRoomImpl) room).filter((roomImpl) -> (roomImpl.isActive())).forEach((roomImpl) -> {
-            persistChatRoom(roomImpl);
-        });
+        journal.flush();
     }
 
     public boolean canShutDown() {
@@ -188,8 +206,7 @@ public class ChatTranscriptPlugin implements ChatRoomListener {
 
         final String jid = room.getRoomname();
 
-        File transcriptFile = ChatTranscripts.getTranscriptFile(jid);
-        if (!transcriptFile.exists()) {
+        if (!ChatTranscripts.hasTranscript(jid)) {
             return;
         }
 
@@ -211,42 +228,76 @@ public class ChatTranscriptPlugin implements ChatRoomListener {
         }
     }
 
+    /**
+     * Writes the messages of a chat room that are still queued to the
+     * transcript store, in the background. Messages are queued as they are
+     * added to the room by {@link #persistMessage(ChatRoom, Message)}.
+     *
+     * @param room the chat room.
+     */
     public void persistChatRoom(final ChatRoom room) {
-        LocalPreferences pref = SettingsManager.getLocalPreferences();
-        if (!pref.isChatHistoryEnabled()) {
-            return;
-        }
+        final String jid = room.getRoomname();
+        TaskEngine.getInstance().submit(() -> journal.commit(jid), TaskEngine.TaskType.IO);
+    }
 
+    /**
+     * Reads back messages of a chat room from the transcript store. Messages
+     * of the room that are still queued are written first. Does disk IO, do
+     * not call on the event dispatch thread.
+     *
+     * @param room the chat room.
+     * @param skip the number of most recent messages to skip.
+     * @param count the number of messages to read before the skipped ones.
+     * @return the messages, oldest first.
+     */
+    public List<HistoryMessage> getPersistedMessages(ChatRoom room, int skip, int count) {
         final String jid = room.getRoomname();
+        journal.commit(jid);
 
-        final List<Message> transcripts = room.getTranscripts();
-        ChatTranscript transcript = new ChatTranscript();
-        int count = 0;
-        int i = 0;
-        if (lastMessage.get(jid) != null) {
-            count = transcripts.indexOf(lastMessage.get(jid)) + 1;
+        final TranscriptStore store = ChatTranscripts.getTranscriptStore();
+        final int end = store.getMessageCount(jid) - skip;
+        if (end <= 0) {
+            return new ArrayList<>();
         }
-        for (Message message : transcripts) {
-            if (i < count) {
-                i++;
-                continue;
-            }
-            lastMessage.put(jid, message);
-            HistoryMessage history = new HistoryMessage();
-            history.setTo(message.getTo());
-            history.setFrom(message.getFrom());
-            history.setBody(message.getBody());
-            Date date = (Date) message.getProperty("date");
-            if (date != null) {
-                history.setDate(date);
-            } else {
-                history.setDate(new Date());
-            }
-            transcript.addHistoryMessage(history);
+        return store.getMessages(jid, Math.max(0, end - count), Math.min(count, end)).getMessages();
+    }
+
+    /**
+     * Queues a message sent or received in a chat room to be appended to the
+     * transcript of the room, if chat history is enabled.
+     *
+     * @param room the chat room.
+     * @param message the message.
+     * @return true if the message was queued, false if chat history is
+     * disabled.
+     */
+    public boolean persistMessage(ChatRoom room, Message message) {
+        LocalPreferences pref = SettingsManager.getLocalPreferences();
+        if (!pref.isChatHistoryEnabled()) {
+            return false;
         }
 
-        ChatTranscripts.appendToTranscript(jid, transcript);
+        HistoryMessage history = new HistoryMessage();
+        history.setTo(message.getTo());
+        history.setFrom(message.getFrom());
+        history.setBody(message.getBody());
+        Date date = (Date) message.getProperty("date");
+        if (date != null) {
+            history.setDate(date);
+        } else {
+            history.setDate(new Date());
+        }
+        journal.append(room.getRoomname(), history);
+        return true;
+    }
 
+    /**
+     * Returns the journal writing messages to the transcript store.
+     *
+     * @return the journal.
+     */
+    public TranscriptJournal getJournal() {
+        return journal;
     }
 
     @Override
@@ -17,45 +17,54 @@
  */
 package org.jivesoftware.sparkimpl.plugin.transcripts;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.io.RandomAccessFile;
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Collection;
-import java.util.Date;
 import org.jivesoftware.spark.SparkManager;
-import org.jivesoftware.spark.UserManager;
-import org.jivesoftware.spark.util.StringUtils;
-import org.jivesoftware.spark.util.log.Log;
-import org.xmlpull.mxp1.MXParser;
-import org.xmlpull.v1.XmlPullParser;
 
 /**
- * A Utility class that manages the Chat Transcripts within Spark.
+ * A Utility class that manages the Chat Transcripts within Spark. The
+ * transcripts are kept by a {@link TranscriptStore}, by default the
+ * {@link SegmentedTranscriptStore}.
  *
  * @author Derek DeMoro
  */
 public final class ChatTranscripts {
 
+    private static volatile TranscriptStore store = new SegmentedTranscriptStore();
+    private static TranscriptSearchIndex searchIndex;
+
+    private ChatTranscripts() {
+
+    }
+
     /**
-     * Default Date Formatter *
+     * Returns the store holding the transcripts.
+     *
+     * @return the TranscriptStore.
      */
-    private static final DateFormat FORMATTER;
-
-    static {
-        FORMATTER = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.S z");
+    public static TranscriptStore getTranscriptStore() {
+        return store;
     }
 
-    private ChatTranscripts() {
+    /**
+     * Replaces the store holding the transcripts.
+     *
+     * @param transcriptStore the new TranscriptStore.
+     */
+    public static synchronized void setTranscriptStore(TranscriptStore transcriptStore) {
+        store = transcriptStore;
+        searchIndex = null;
+    }
 
+    /**
+     * Returns the full-text index over the transcripts.
+     *
+     * @return the TranscriptSearchIndex.
+     */
+    public static synchronized TranscriptSearchIndex getSearchIndex() {
+        if (searchIndex == null) {
+            searchIndex = new TranscriptSearchIndex(new File(SparkManager.getUserDirectory(), "transcripts/search"), store);
+        }
+        return searchIndex;
     }
 
     /**
@@ -66,93 +75,7 @@ public final class ChatTranscripts {
      * @param transcript the ChatTranscript.
      */
     public static void appendToTranscript(String jid, ChatTranscript transcript) {
-        final File transcriptFile = getTranscriptFile(jid);
-
-        // Write Full Transcript, appending the messages.
-        writeToFile(transcriptFile, transcript.getMessages(), true);
-
-        // Write to current history File
-        final File currentHistoryFile = getCurrentHistoryFile(jid);
-        ChatTranscript tempTranscript = getCurrentChatTranscript(jid);
-        transcript.getMessages().stream().forEach((message) -> {
-            tempTranscript.addHistoryMessage(message);
-        });
-        writeToFile(currentHistoryFile, tempTranscript.getNumberOfEntries(20), false);
-    }
-
-    private static void writeToFile(File transcriptFile, Collection<HistoryMessage> messages, boolean append) {
-        final StringBuilder builder = new StringBuilder();
-
-        final String one = " ";
-        final String two = "  ";
-        final String three = "   ";
-
-        // Handle new transcript file.
-        if (!transcriptFile.exists() || !append) {
-            builder.append("<transcript>\n");
-            builder.append(one + "<messages>\n");
-        }
-
-        messages.stream().map((m) -> {
-            builder.append(two + "<message>\n");
-            builder.append(three + "<to>").append(m.getTo()).append("</to>\n");
-            return m;
-        }).map((m) -> {
-            builder.append(three + "<from>").append(m.getFrom()).append("</from>\n");
-            return m;
-        }).map((m) -> {
-            builder.append(three + "<body>").append(StringUtils.escapeForXML(m.getBody())).append("</body>\n");
-            return m;
-        }).map((m) -> FORMATTER.format(m.getDate())).map((dateString) -> {
-            builder.append(three + "<date>").append(dateString).append("</date>\n");
-            return dateString;
-        }).forEach((_item) -> {
-            builder.append(two + "</message>\n");
-        });
-
-        if (!transcriptFile.exists() || !append) {
-            builder.append(one + "</messages>\n");
-            builder.append("</transcript>");
-        }
-
-        if (!transcriptFile.exists() || !append) {
-            // Write out new File
-            try {
-                transcriptFile.getParentFile().mkdirs();
-                BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(transcriptFile), "UTF-8"));
-                out.write(builder.toString());
-                out.close();
-            } catch (IOException e) {
-                Log.error(e);
-            }
-            return;
-        }
-
-        // Append to File
-        try {
-            final RandomAccessFile raf = new RandomAccessFile(transcriptFile, "rw");
-
-            // We want to append near the end of the document as the last
-            // child in the transcript.
-            final String endTag = " </messages>\n</transcript>";
-
-            String line = raf.readLine();
-            if (line.contains("</messages></transcript>")) {
-                // replace the old one with the new one
-                line = line.replace("</messages></transcript>", endTag);
-                raf.write(line.getBytes("UTF-8"));
-            }
-
-            builder.append(endTag);
-
-            raf.seek(transcriptFile.length() - endTag.length());
-
-            // Append to the end
-            raf.write(builder.toString().getBytes("UTF-8"));
-            raf.close();
-        } catch (IOException e) {
-            Log.error(e);
-        }
+        store.append(jid, transcript.getMessages());
     }
 
     /**
@@ -162,7 +85,7 @@ public final class ChatTranscripts {
      * @return the ChatTranscript (last 20 messages max).
      */
     public static ChatTranscript getCurrentChatTranscript(String jid) {
-        return getTranscript(getCurrentHistoryFile(jid));
+        return store.getLastMessages(jid, 20);
     }
 
     /**
@@ -172,95 +95,66 @@ public final class ChatTranscripts {
      * @return the ChatTranscript.
      */
     public static ChatTranscript getChatTranscript(String jid) {
-        return getTranscript(getTranscriptFile(jid));
+        return store.getChatTranscript(jid);
+    }
+
+    /**
+     * Returns true if there is a chat history for the jid.
+     *
+     * @param jid the jid of the user.
+     * @return true if there is a chat history.
+     */
+    public static boolean hasTranscript(String jid) {
+        return store.hasTranscript(jid);
     }
 
     /**
-     * Reads in the transcript file using the Xml Pull Parser.
+     * Deletes the chat history of a JID, including its search index entries.
+     *
+     * @param jid the jid of the user.
+     */
+    public static void deleteTranscript(String jid) {
+        store.delete(jid);
+        getSearchIndex().delete(jid);
+    }
+
+    /**
+     * Deletes the chat history of all JIDs, including the search index.
+     */
+    public static void deleteAllTranscripts() {
+        store.deleteAll();
+        getSearchIndex().deleteAll();
+    }
+
+    /**
+     * Reads in a transcript file in the legacy XML format.
      *
      * @param transcriptFile the transcript file to read.
      * @return the ChatTranscript.
      */
     public static ChatTranscript getTranscript(File transcriptFile) {
-        final ChatTranscript transcript = new ChatTranscript();
-        if (!transcriptFile.exists()) {
-            return transcript;
-        }
-
-        try {
-            final MXParser parser = new MXParser();
-            parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
-            BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(transcriptFile), "UTF-8"));
-            parser.setInput(in);
-            boolean done = false;
-            while (!done) {
-                int eventType = parser.next();
-                if (eventType == XmlPullParser.START_TAG && "message".equals(parser.getName())) {
-                    transcript.addHistoryMessage(getHistoryMessage(parser));
-                } else if (eventType == XmlPullParser.END_TAG && "transcript".equals(parser.getName())) {
-                    done = true;
-                }
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-
-        return transcript;
+        return XMLTranscriptStore.getTranscript(transcriptFile);
     }
 
     /**
-     * Returns the settings file.
+     * Returns the legacy XML transcript file.
      *
-     * @param jid the
-     * @return the settings file.
+     * @param jid the jid of the user.
+     * @return the transcript file.
      */
     public static File getTranscriptFile(String jid) {
-        // Unescape Node
-        jid = UserManager.unescapeJID(jid);
-
-        return new File(SparkManager.getUserDirectory(), "transcripts/" + jid + ".xml");
+        return XMLTranscriptStore.getTranscriptFile(jid);
     }
 
     /**
-     * Returns the current transcript (20 messages) for a particular jid.
+     * Returns the legacy XML current transcript (20 messages) for a
+     * particular jid.
      *
      * @param jid the jid of the user.
      * @return the current transcript file.
      */
     public static File getCurrentHistoryFile(String jid) {
-        // Unescape Node
-        jid = UserManager.unescapeJID(jid);
-
-        return new File(SparkManager.getUserDirectory(), "transcripts/" + jid + "_current.xml");
-    }
-
-    private static HistoryMessage getHistoryMessage(XmlPullParser parser) throws Exception {
-        HistoryMessage message = new HistoryMessage();
-
-        // Check for nickname
-        boolean done = false;
-        while (!done) {
-            int eventType = parser.next();
-            if (eventType == XmlPullParser.START_TAG && "to".equals(parser.getName())) {
-                message.setTo(parser.nextText());
-            } else if (eventType == XmlPullParser.START_TAG && "from".equals(parser.getName())) {
-                message.setFrom(parser.nextText());
-            } else if (eventType == XmlPullParser.START_TAG && "body".equals(parser.getName())) {
-                message.setBody(StringUtils.unescapeFromXML(parser.nextText()));
-            } else if (eventType == XmlPullParser.START_TAG && "date".equals(parser.getName())) {
-                Date d;
-                try {
-                    d = FORMATTER.parse(parser.nextText());
-                } catch (ParseException e) {
-                    d = new Date();
-                }
-                message.setDate(d);
-            } else if (eventType == XmlPullParser.END_TAG && "message".equals(parser.getName())) {
-                done = true;
-            }
-        }
-
-        return message;
+        return XMLTranscriptStore.getCurrentHistoryFile(jid);
     }
 
 }
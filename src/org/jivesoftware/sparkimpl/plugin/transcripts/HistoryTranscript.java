@@ -461,15 +461,16 @@ public class HistoryTranscript extends SwingWorker {
                 searchString = null;
             }
 
-            List<ChatTranscript> tmpList = new ArrayList<>();
-            ChatTranscript tmpTranscript = null;
-
-            for (int i = 0; i < dateFilteredUnfilteredList.size(); i++) {
-                tmpTranscript = new ChatTranscript();
-                tmpTranscript.setList(dateFilteredUnfilteredList.get(i).getMessage(searchString));
-                if (tmpTranscript.size() > 0) {
-                    tmpList.add(tmpTranscript);
-                }
+            List<ChatTranscript> tmpList;
+            if (searchString == null) {
+                tmpList = dateFilteredUnfilteredList;
+            } else {
+                // Look the search string up in the index instead of scanning
+                // every message of the transcript.
+                final TranscriptSearchIndex index = ChatTranscripts.getSearchIndex();
+                final ChatTranscript found = new ChatTranscript();
+                found.setList(index.getMessages(index.search(searchString, StringUtils.parseBareAddress(jid), null, null)));
+                tmpList = getDateSortedTranscript(found);
             }
 
             try {
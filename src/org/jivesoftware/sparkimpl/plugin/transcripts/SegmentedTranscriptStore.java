@@ -0,0 +1,568 @@
+/**
+ * Copyright (C) 2004-2011 Jive Software. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.jivesoftware.sparkimpl.plugin.transcripts;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import org.jivesoftware.spark.SparkManager;
+import org.jivesoftware.spark.UserManager;
+import org.jivesoftware.spark.util.log.Log;
+
+/**
+ * Stores transcripts as length-prefixed binary records in rolling segment
+ * files. Every JID has its own directory below
+ * <code>transcripts/segments</code> holding the segment files and an index
+ * with one fixed size entry (segment, offset, timestamp) per message.
+ * <p>
+ * Appending a message only writes to the end of the current segment and the
+ * index, and is forced to disk by {@link #flush()}. Reading the last messages only reads the tail of the index and
+ * the records it points to. A legacy XML transcript is imported the first
+ * time a JID is accessed, see {@link TranscriptMigrator}.
+ */
+public class SegmentedTranscriptStore implements TranscriptStore {
+
+    /**
+     * Segments are rolled over once they would grow beyond this size.
+     */
+    private static final long SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Index entry: int segment, long offset, long timestamp.
+     */
+    private static final int INDEX_ENTRY_SIZE = 20;
+
+    /**
+     * Record header: int length, int checksum.
+     */
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    /**
+     * Upper bound for a single record, protects against reading garbage.
+     */
+    private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+
+    private static final String INDEX_FILE = "index";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final File baseDirectory;
+    private final Map<String, TranscriptLog> logs = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a store below the transcripts directory of the current user.
+     */
+    public SegmentedTranscriptStore() {
+        this(null);
+    }
+
+    /**
+     * Creates a store below the given directory.
+     *
+     * @param baseDirectory the directory holding one sub directory per JID.
+     */
+    public SegmentedTranscriptStore(File baseDirectory) {
+        this.baseDirectory = baseDirectory;
+    }
+
+    @Override
+    public void append(String jid, Collection<HistoryMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        try {
+            getLog(jid).write(messages);
+        } catch (IOException e) {
+            Log.error("Unable to append to transcript of " + jid, e);
+        }
+    }
+
+    @Override
+    public ChatTranscript getLastMessages(String jid, int count) {
+        final TranscriptLog log = getLog(jid);
+        return toTranscript(log.read(Math.max(0, log.getCount() - count), count));
+    }
+
+    @Override
+    public ChatTranscript getMessages(String jid, int fromIndex, int count) {
+        return toTranscript(getLog(jid).read(fromIndex, count));
+    }
+
+    @Override
+    public ChatTranscript getChatTranscript(String jid) {
+        return toTranscript(getLog(jid).read(0, Integer.MAX_VALUE));
+    }
+
+    @Override
+    public List<HistoryMessage> getMessages(String jid, int[] numbers) {
+        return getLog(jid).read(numbers);
+    }
+
+    @Override
+    public int getMessageCount(String jid) {
+        return getLog(jid).getCount();
+    }
+
+    @Override
+    public boolean hasTranscript(String jid) {
+        return getLog(jid).getCount() > 0;
+    }
+
+    @Override
+    public List<String> getTranscriptJIDs() {
+        final List<String> jids = new ArrayList<>();
+        final File[] directories = getBaseDirectory().listFiles();
+        if (directories != null) {
+            for (File directory : directories) {
+                if (directory.isDirectory()) {
+                    jids.add(directory.getName());
+                }
+            }
+        }
+        return jids;
+    }
+
+    @Override
+    public long getTranscriptSize(String jid) {
+        return getLog(jid).getSize();
+    }
+
+    /**
+     * Deletes the transcript of a JID, including a legacy XML transcript that
+     * would otherwise be imported again.
+     *
+     * @param jid the jid of the user.
+     */
+    @Override
+    public void delete(String jid) {
+        getLog(jid).delete();
+        if (baseDirectory == null) {
+            new XMLTranscriptStore().delete(jid);
+        }
+    }
+
+    @Override
+    public void deleteAll() {
+        final File[] directories = getBaseDirectory().listFiles();
+        if (directories != null) {
+            for (File directory : directories) {
+                if (directory.isDirectory()) {
+                    getLog(directory.getName(), directory).delete();
+                }
+            }
+        }
+        if (baseDirectory == null) {
+            new XMLTranscriptStore().deleteAll();
+        }
+    }
+
+    @Override
+    public void flush() {
+        for (TranscriptLog log : logs.values()) {
+            try {
+                log.sync();
+            } catch (IOException e) {
+                Log.error("Unable to flush transcript " + log.directory, e);
+            }
+        }
+    }
+
+    private TranscriptLog getLog(String jid) {
+        final String name = UserManager.unescapeJID(jid);
+        return getLog(name, new File(getBaseDirectory(), name));
+    }
+
+    private TranscriptLog getLog(String name, File directory) {
+        return logs.computeIfAbsent(directory.getPath(), (path) -> new TranscriptLog(name, directory));
+    }
+
+    private File getBaseDirectory() {
+        return baseDirectory != null ? baseDirectory
+                : new File(SparkManager.getUserDirectory(), "transcripts/segments");
+    }
+
+    private static ChatTranscript toTranscript(List<HistoryMessage> messages) {
+        final ChatTranscript transcript = new ChatTranscript();
+        transcript.setList(messages);
+        return transcript;
+    }
+
+    private static byte[] encode(HistoryMessage message) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(message.getDate() != null ? message.getDate().getTime() : System.currentTimeMillis());
+        writeField(out, message.getTo());
+        writeField(out, message.getFrom());
+        writeField(out, message.getBody());
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static HistoryMessage decode(byte[] record) throws IOException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        final HistoryMessage message = new HistoryMessage();
+        message.setDate(new Date(in.readLong()));
+        message.setTo(readField(in));
+        message.setFrom(readField(in));
+        message.setBody(readField(in));
+        return message;
+    }
+
+    private static void writeField(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readField(DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int checksum(byte[] record) {
+        final CRC32 crc = new CRC32();
+        crc.update(record, 0, record.length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * The segments and index of a single JID.
+     */
+    private static final class TranscriptLog {
+
+        private final String jid;
+        private final File directory;
+        private final File indexFile;
+
+        private boolean opened;
+        private int count;
+        private int segment;
+        private long segmentLength;
+
+        /**
+         * The first segment written since the last sync, -1 if none.
+         */
+        private int unsyncedSegment = -1;
+
+        TranscriptLog(String jid, File directory) {
+            this.jid = jid;
+            this.directory = directory;
+            this.indexFile = new File(directory, INDEX_FILE);
+        }
+
+        synchronized int getCount() {
+            open();
+            return count;
+        }
+
+        private void open() {
+            if (opened) {
+                return;
+            }
+            opened = true;
+
+            if (!directory.exists()) {
+                // First access to this JID, import an existing XML transcript.
+                final List<HistoryMessage> legacy = TranscriptMigrator.readLegacyTranscript(jid);
+                if (!legacy.isEmpty()) {
+                    try {
+                        write(legacy);
+                        Log.debug("Imported " + legacy.size() + " messages of " + jid + " into the transcript store");
+                    } catch (IOException e) {
+                        Log.error("Unable to import transcript of " + jid, e);
+                    }
+                }
+                return;
+            }
+
+            try {
+                long indexLength = indexFile.length();
+                if (indexLength % INDEX_ENTRY_SIZE != 0) {
+                    // Cut off a partially written entry.
+                    indexLength -= indexLength % INDEX_ENTRY_SIZE;
+                    try (RandomAccessFile index = new RandomAccessFile(indexFile, "rw")) {
+                        index.setLength(indexLength);
+                    }
+                }
+                count = (int) (indexLength / INDEX_ENTRY_SIZE);
+                try (RandomAccessFile index = new RandomAccessFile(indexFile, "rw")) {
+                    // Cut off entries pointing past the end of their segment,
+                    // left when the index reached the disk before the records.
+                    while (count > 0) {
+                        index.seek((long) (count - 1) * INDEX_ENTRY_SIZE);
+                        segment = index.readInt();
+                        final long offset = index.readLong();
+                        if (isComplete(getSegmentFile(segment), offset)) {
+                            break;
+                        }
+                        count--;
+                    }
+                    if (count == 0) {
+                        segment = 0;
+                    }
+                    index.setLength((long) count * INDEX_ENTRY_SIZE);
+                }
+                segmentLength = getSegmentFile(segment).length();
+            } catch (IOException e) {
+                Log.error("Unable to open transcript " + directory, e);
+            }
+        }
+
+        synchronized void write(Collection<HistoryMessage> messages) throws IOException {
+            open();
+            directory.mkdirs();
+
+            // The index entries are only written once the records they point
+            // to are written to the segment. Nothing is forced to disk here,
+            // see sync().
+            final ByteArrayOutputStream entries = new ByteArrayOutputStream(messages.size() * INDEX_ENTRY_SIZE);
+            final DataOutputStream indexOut = new DataOutputStream(entries);
+            DataOutputStream segmentOut = null;
+            try {
+                for (HistoryMessage message : messages) {
+                    final byte[] record = encode(message);
+                    if (segmentLength > 0 && segmentLength + RECORD_HEADER_SIZE + record.length > SEGMENT_SIZE) {
+                        if (segmentOut != null) {
+                            segmentOut.close();
+                            segmentOut = null;
+                        }
+                        segment++;
+                        segmentLength = 0;
+                    }
+                    if (segmentOut == null) {
+                        if (unsyncedSegment < 0) {
+                            unsyncedSegment = segment;
+                        }
+                        segmentOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getSegmentFile(segment), true)));
+                    }
+
+                    final long offset = segmentLength;
+                    segmentOut.writeInt(record.length);
+                    segmentOut.writeInt(checksum(record));
+                    segmentOut.write(record);
+                    segmentLength += RECORD_HEADER_SIZE + record.length;
+
+                    indexOut.writeInt(segment);
+                    indexOut.writeLong(offset);
+                    indexOut.writeLong(message.getDate() != null ? message.getDate().getTime() : 0);
+                }
+            } catch (IOException e) {
+                // Records that did not make it are not indexed, continue
+                // behind whatever reached the segment.
+                segmentLength = getSegmentFile(segment).length();
+                throw e;
+            } finally {
+                if (segmentOut != null) {
+                    segmentOut.close();
+                }
+            }
+
+            try (FileOutputStream index = new FileOutputStream(indexFile, true)) {
+                entries.writeTo(index);
+            }
+            count += messages.size();
+        }
+
+        synchronized List<HistoryMessage> read(int fromIndex, int max) {
+            open();
+            final int from = Math.max(0, fromIndex);
+            final int to = (int) Math.min((long) count, (long) from + max);
+            if (from >= to) {
+                return new ArrayList<>();
+            }
+
+            final int[] numbers = new int[to - from];
+            for (int i = 0; i < numbers.length; i++) {
+                numbers[i] = from + i;
+            }
+            return read(numbers);
+        }
+
+        synchronized List<HistoryMessage> read(int[] numbers) {
+            open();
+            final List<HistoryMessage> messages = new ArrayList<>(numbers.length);
+            DataInputStream segmentIn = null;
+            try (DataInputStream indexIn = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+                int currentSegment = -1;
+                long position = 0;
+                long indexPosition = 0;
+                for (int number : numbers) {
+                    if (number < 0 || number >= count) {
+                        continue;
+                    }
+                    final long entryPosition = (long) number * INDEX_ENTRY_SIZE;
+                    if (entryPosition < indexPosition) {
+                        throw new IllegalArgumentException("Message numbers have to be in ascending order");
+                    }
+                    skipFully(indexIn, entryPosition - indexPosition);
+                    final int entrySegment = indexIn.readInt();
+                    final long offset = indexIn.readLong();
+                    indexIn.readLong();
+                    indexPosition = entryPosition + INDEX_ENTRY_SIZE;
+
+                    if (entrySegment != currentSegment || offset < position) {
+                        if (segmentIn != null) {
+                            segmentIn.close();
+                        }
+                        segmentIn = new DataInputStream(new BufferedInputStream(new FileInputStream(getSegmentFile(entrySegment))));
+                        currentSegment = entrySegment;
+                        position = 0;
+                    }
+                    skipFully(segmentIn, offset - position);
+
+                    final int length = segmentIn.readInt();
+                    final int checksum = segmentIn.readInt();
+                    if (length < 0 || length > MAX_RECORD_SIZE) {
+                        throw new IOException("Corrupt record at " + currentSegment + ":" + offset);
+                    }
+                    final byte[] record = new byte[length];
+                    segmentIn.readFully(record);
+                    position = offset + RECORD_HEADER_SIZE + length;
+
+                    if (checksum(record) == checksum) {
+                        messages.add(decode(record));
+                    } else {
+                        Log.warning("Skipping corrupt transcript record of " + jid + " at " + currentSegment + ":" + offset);
+                    }
+                }
+            } catch (IOException e) {
+                Log.error("Unable to read transcript " + directory, e);
+            } finally {
+                if (segmentIn != null) {
+                    try {
+                        segmentIn.close();
+                    } catch (IOException e) {
+                        // Ignore
+                    }
+                }
+            }
+            return messages;
+        }
+
+        /**
+         * Forces the segments written since the last sync to disk, then the
+         * index.
+         */
+        synchronized void sync() throws IOException {
+            if (unsyncedSegment < 0) {
+                return;
+            }
+            for (int number = unsyncedSegment; number <= segment; number++) {
+                sync(getSegmentFile(number));
+            }
+            sync(indexFile);
+            unsyncedSegment = -1;
+        }
+
+        private static void sync(File file) throws IOException {
+            if (!file.exists()) {
+                return;
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.getFD().sync();
+            }
+        }
+
+        synchronized long getSize() {
+            open();
+            long size = 0;
+            final File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    size += file.length();
+                }
+            }
+            return size;
+        }
+
+        /**
+         * Deletes the segments and the index. The log stays usable and starts
+         * over empty.
+         */
+        synchronized void delete() {
+            final File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (!file.delete()) {
+                        Log.warning("Unable to delete " + file);
+                    }
+                }
+            }
+            directory.delete();
+            opened = true;
+            count = 0;
+            segment = 0;
+            segmentLength = 0;
+            unsyncedSegment = -1;
+        }
+
+        /**
+         * Returns true if the record at an offset lies entirely within the
+         * segment.
+         */
+        private static boolean isComplete(File segmentFile, long offset) throws IOException {
+            final long length = segmentFile.length();
+            if (offset + RECORD_HEADER_SIZE > length) {
+                return false;
+            }
+            try (RandomAccessFile in = new RandomAccessFile(segmentFile, "r")) {
+                in.seek(offset);
+                return offset + RECORD_HEADER_SIZE + in.readInt() <= length;
+            }
+        }
+
+        private File getSegmentFile(int number) {
+            return new File(directory, String.format("%08d", number) + SEGMENT_SUFFIX);
+        }
+
+        private static void skipFully(DataInputStream in, long bytes) throws IOException {
+            long remaining = bytes;
+            while (remaining > 0) {
+                final long skipped = in.skip(remaining);
+                if (skipped <= 0) {
+                    throw new EOFException();
+                }
+                remaining -= skipped;
+            }
+        }
+    }
+
+}
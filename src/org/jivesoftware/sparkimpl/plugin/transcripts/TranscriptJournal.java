@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) 2004-2011 Jive Software. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.jivesoftware.sparkimpl.plugin.transcripts;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.jivesoftware.spark.util.TaskEngine;
+import org.jivesoftware.spark.util.log.Log;
+
+/**
+ * Writes chat messages to the transcript store in the background as they are
+ * sent and received, so a crash loses at most the last second of history.
+ * <p>
+ * Messages are queued and committed by the IO pool of the {@link TaskEngine}.
+ * All messages queued while a commit runs are written by the next commit, one
+ * append per conversation, so a burst of messages costs a few writes. Appends
+ * are not forced to disk: the store is synced {@link #SYNC_DELAY} after a
+ * commit, at most once per delay whatever the message rate, and at shutdown.
+ */
+public class TranscriptJournal {
+
+    /**
+     * Time after a commit the store is forced to disk, in milliseconds.
+     */
+    public static final long SYNC_DELAY = 1000;
+
+    private final Object queueLock = new Object();
+    private Map<String, List<HistoryMessage>> pending = new LinkedHashMap<>();
+    private final AtomicBoolean commitScheduled = new AtomicBoolean();
+    private boolean syncScheduled;
+
+    private long commits;
+    private long committedMessages;
+
+    /**
+     * Queues a message to be appended to the transcript of a JID.
+     *
+     * @param jid the jid of the conversation.
+     * @param message the message.
+     */
+    public void append(String jid, HistoryMessage message) {
+        synchronized (queueLock) {
+            pending.computeIfAbsent(jid, (key) -> new ArrayList<>()).add(message);
+        }
+        if (commitScheduled.compareAndSet(false, true)) {
+            TaskEngine.getInstance().submit(this::commit, TaskEngine.TaskType.IO);
+        }
+    }
+
+    /**
+     * Appends the queued messages to the transcript store and indexes them.
+     * The store is forced to disk later.
+     */
+    public synchronized void commit() {
+        commitScheduled.set(false);
+        final Map<String, List<HistoryMessage>> batch;
+        synchronized (queueLock) {
+            batch = pending;
+            pending = new LinkedHashMap<>();
+        }
+        write(batch);
+    }
+
+    /**
+     * Appends the queued messages of one JID to the transcript store and
+     * indexes them. The messages of other JIDs stay queued.
+     *
+     * @param jid the jid of the conversation.
+     */
+    public synchronized void commit(String jid) {
+        final List<HistoryMessage> messages;
+        synchronized (queueLock) {
+            messages = pending.remove(jid);
+        }
+        if (messages != null) {
+            write(Collections.singletonMap(jid, messages));
+        }
+    }
+
+    private void write(Map<String, List<HistoryMessage>> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        int count = 0;
+        final TranscriptStore store = ChatTranscripts.getTranscriptStore();
+        for (Map.Entry<String, List<HistoryMessage>> conversation : batch.entrySet()) {
+            count += conversation.getValue().size();
+            try {
+                final int firstNumber = store.getMessageCount(conversation.getKey());
+                store.append(conversation.getKey(), conversation.getValue());
+                ChatTranscripts.getSearchIndex().index(conversation.getKey(), firstNumber, conversation.getValue());
+            } catch (RuntimeException e) {
+                Log.error("Unable to write the transcript of " + conversation.getKey(), e);
+            }
+        }
+        commits++;
+        committedMessages += count;
+
+        if (!syncScheduled) {
+            syncScheduled = true;
+            TaskEngine.getInstance().schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    sync();
+                }
+            }, SYNC_DELAY, TaskEngine.TaskType.IO);
+        }
+    }
+
+    /**
+     * Commits the queued messages and forces the store to disk.
+     */
+    public synchronized void flush() {
+        commit();
+        sync();
+    }
+
+    /**
+     * Returns the number of commits that wrote messages.
+     *
+     * @return the number of commits.
+     */
+    public synchronized long getCommits() {
+        return commits;
+    }
+
+    /**
+     * Returns the number of messages written.
+     *
+     * @return the number of messages.
+     */
+    public synchronized long getCommittedMessages() {
+        return committedMessages;
+    }
+
+    private synchronized void sync() {
+        syncScheduled = false;
+        ChatTranscripts.getTranscriptStore().flush();
+    }
+}
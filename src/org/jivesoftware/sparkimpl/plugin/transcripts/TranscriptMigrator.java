@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2004-2011 Jive Software. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.jivesoftware.sparkimpl.plugin.transcripts;
+
+import java.io.File;
+import java.util.List;
+import org.jivesoftware.spark.SparkManager;
+
+/**
+ * Imports the XML transcripts written by older versions of Spark into a
+ * {@link TranscriptStore}. The XML files are left in place so that older
+ * versions can still read them.
+ */
+public final class TranscriptMigrator {
+
+    private static final String XML_SUFFIX = ".xml";
+    private static final String CURRENT_SUFFIX = "_current.xml";
+
+    private TranscriptMigrator() {
+
+    }
+
+    /**
+     * Reads the legacy XML transcript of a JID.
+     *
+     * @param jid the jid of the user.
+     * @return all messages of the legacy transcript, empty if there is none.
+     */
+    public static List<HistoryMessage> readLegacyTranscript(String jid) {
+        return XMLTranscriptStore.getTranscript(XMLTranscriptStore.getTranscriptFile(jid)).getMessages();
+    }
+
+    /**
+     * Imports every legacy XML transcript of the current user into the given
+     * store. Transcripts of JIDs the store already knows are skipped, so this
+     * can safely be run more than once.
+     *
+     * @param store the store to import into.
+     */
+    public static void migrateAll(TranscriptStore store) {
+        final File directory = new File(SparkManager.getUserDirectory(), "transcripts");
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            final String name = file.getName();
+            if (!file.isFile() || !name.endsWith(XML_SUFFIX) || name.endsWith(CURRENT_SUFFIX)) {
+                continue;
+            }
+
+            final String jid = name.substring(0, name.length() - XML_SUFFIX.length());
+            if (store.getMessageCount(jid) > 0) {
+                // Either imported before or imported on access by the store itself.
+                continue;
+            }
+
+            final List<HistoryMessage> messages = readLegacyTranscript(jid);
+            if (!messages.isEmpty()) {
+                store.append(jid, messages);
+            }
+        }
+    }
+}
@@ -0,0 +1,932 @@
+/**
+ * Copyright (C) 2004-2011 Jive Software. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.jivesoftware.sparkimpl.plugin.transcripts;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import org.jivesoftware.spark.UserManager;
+import org.jivesoftware.spark.util.AtomicFile;
+import org.jivesoftware.spark.util.log.Log;
+
+/**
+ * An incremental on-disk inverted index over the messages of a
+ * {@link TranscriptStore}. Every term points to the JID, message number and
+ * date of the messages containing it.
+ * <p>
+ * New postings are collected in memory and written out as an immutable
+ * segment file holding the sorted term dictionary at its end. Segments of
+ * similar size are merged in tiers, streaming their sorted terms, so a merge
+ * holds one posting per segment in memory however large the index grows. The number of indexed messages per
+ * JID is recorded with every segment, so messages that were stored while the
+ * index was not running are picked up by {@link #synchronize()}.
+ * <p>
+ * Queries are a list of words that all have to match. Every word matches the
+ * terms starting with it, a trailing <code>*</code> is allowed. Words in
+ * double quotes have to appear as a phrase.
+ */
+public class TranscriptSearchIndex {
+
+    private static final int SEGMENT_MAGIC = 0x53504958;
+    private static final String SEGMENT_SUFFIX = ".idx";
+    private static final String JIDS_FILE = "jids";
+
+    /**
+     * Pending postings are written to a new segment beyond this number.
+     */
+    private static final int FLUSH_THRESHOLD = 50000;
+
+    /**
+     * Number of segments of a tier merged into one segment of the next tier.
+     */
+    private static final int MERGE_FACTOR = 4;
+
+    private static final int MAX_TERM_LENGTH = 64;
+
+    /**
+     * Number of messages read at once from the store while catching up.
+     */
+    private static final int SYNCHRONIZE_BATCH = 500;
+
+    private final File directory;
+    private final TranscriptStore store;
+
+    private final List<String> jids = new ArrayList<>();
+    private final Map<String, Integer> jidIds = new HashMap<>();
+    private final List<Integer> flushedCounts = new ArrayList<>();
+    private final List<Integer> indexedCounts = new ArrayList<>();
+
+    private final List<Segment> segments = new ArrayList<>();
+    private final TreeMap<String, List<Posting>> pending = new TreeMap<>();
+    private int pendingPostings;
+    private int nextSegment;
+    private boolean opened;
+
+    /**
+     * Creates an index.
+     *
+     * @param directory the directory holding the index files.
+     * @param store the store holding the indexed messages.
+     */
+    public TranscriptSearchIndex(File directory, TranscriptStore store) {
+        this.directory = directory;
+        this.store = store;
+    }
+
+    /**
+     * Adds messages that were just appended to the transcript of a JID.
+     * Messages that are already indexed are skipped, messages that are
+     * missing before <code>firstNumber</code> are read from the store.
+     *
+     * @param jid the jid of the user.
+     * @param firstNumber the message number of the first message.
+     * @param messages the messages.
+     */
+    public synchronized void index(String jid, int firstNumber, List<HistoryMessage> messages) {
+        open();
+        final int id = getJidId(jid);
+        final int indexed = indexedCounts.get(id);
+        if (indexed < firstNumber) {
+            indexRange(jid, indexed, firstNumber);
+        }
+
+        int number = firstNumber;
+        for (HistoryMessage message : messages) {
+            if (number >= indexedCounts.get(id)) {
+                addPostings(id, number, message);
+                indexedCounts.set(id, number + 1);
+            }
+            number++;
+        }
+        flushIfNeeded();
+    }
+
+    /**
+     * Indexes every message of the store that is not indexed yet. This is done
+     * in batches, searches can run in between.
+     */
+    public void synchronize() {
+        for (String jid : store.getTranscriptJIDs()) {
+            final int count = store.getMessageCount(jid);
+            while (true) {
+                synchronized (this) {
+                    open();
+                    final int indexed = indexedCounts.get(getJidId(jid));
+                    if (indexed >= count) {
+                        break;
+                    }
+                    indexRange(jid, indexed, Math.min(count, indexed + SYNCHRONIZE_BATCH));
+                    flushIfNeeded();
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the pending postings to disk.
+     */
+    public synchronized void flush() {
+        if (!opened || pending.isEmpty()) {
+            return;
+        }
+        try {
+            segments.add(writeSegment(pending));
+            pending.clear();
+            pendingPostings = 0;
+            flushedCounts.clear();
+            flushedCounts.addAll(indexedCounts);
+            writeJids();
+            mergeSegments();
+        } catch (IOException e) {
+            Log.error("Unable to write the transcript search index", e);
+        }
+    }
+
+    /**
+     * Removes the messages of a JID from the index, on disk as well.
+     *
+     * @param jid the jid of the user.
+     */
+    public synchronized void delete(String jid) {
+        open();
+        final Integer id = jidIds.get(UserManager.unescapeJID(jid));
+        if (id == null) {
+            return;
+        }
+
+        for (Iterator<List<Posting>> it = pending.values().iterator(); it.hasNext();) {
+            final List<Posting> postings = it.next();
+            final int size = postings.size();
+            postings.removeIf((posting) -> posting.jid == id);
+            pendingPostings -= size - postings.size();
+            if (postings.isEmpty()) {
+                it.remove();
+            }
+        }
+        indexedCounts.set(id, 0);
+        flushedCounts.set(id, 0);
+
+        try {
+            for (int i = 0; i < segments.size(); i++) {
+                final Segment segment = segments.get(i);
+                segments.set(i, rewriteSegment(segment, id));
+                segment.file.delete();
+            }
+            writeJids();
+        } catch (IOException e) {
+            Log.error("Unable to remove " + jid + " from the transcript search index", e);
+        }
+    }
+
+    /**
+     * Removes all messages from the index.
+     */
+    public synchronized void deleteAll() {
+        open();
+        clear();
+        pending.clear();
+        pendingPostings = 0;
+        nextSegment = 0;
+    }
+
+    /**
+     * Searches the messages of all JIDs.
+     *
+     * @param query the query.
+     * @param from the earliest date of a message, or null.
+     * @param to the latest date of a message, or null.
+     * @return the hits, grouped by JID and sorted by message number.
+     */
+    public List<Hit> search(String query, Date from, Date to) {
+        return search(query, null, from, to);
+    }
+
+    /**
+     * Searches the messages of a JID.
+     *
+     * @param query the query.
+     * @param jid the jid of the user, or null to search all JIDs.
+     * @param from the earliest date of a message, or null.
+     * @param to the latest date of a message, or null.
+     * @return the hits, grouped by JID and sorted by message number.
+     */
+    public List<Hit> search(String query, String jid, Date from, Date to) {
+        final List<String> words = new ArrayList<>();
+        final List<List<String>> phrases = new ArrayList<>();
+        parseQuery(query, words, phrases);
+
+        final List<Hit> hits = new ArrayList<>();
+        synchronized (this) {
+            open();
+            final int jidFilter;
+            if (jid == null) {
+                jidFilter = -1;
+            } else if (jidIds.containsKey(UserManager.unescapeJID(jid))) {
+                jidFilter = jidIds.get(UserManager.unescapeJID(jid));
+            } else {
+                return hits;
+            }
+            final long fromTime = from != null ? from.getTime() : Long.MIN_VALUE;
+            final long toTime = to != null ? to.getTime() : Long.MAX_VALUE;
+
+            Map<Long, Long> matches = null;
+            for (String word : words) {
+                matches = retain(matches, collect(word, true, jidFilter, fromTime, toTime));
+            }
+            for (List<String> phrase : phrases) {
+                for (String term : phrase) {
+                    matches = retain(matches, collect(term, false, jidFilter, fromTime, toTime));
+                }
+            }
+            if (matches == null) {
+                // Empty query, filter by JID and date only.
+                matches = collect("", true, jidFilter, fromTime, toTime);
+            }
+
+            final List<Long> keys = new ArrayList<>(matches.keySet());
+            Collections.sort(keys);
+            for (Long key : keys) {
+                final int id = (int) (key >>> 32);
+                final int number = (int) (long) key;
+                hits.add(new Hit(jids.get(id), number, new Date(matches.get(key))));
+            }
+        }
+
+        if (phrases.isEmpty()) {
+            return hits;
+        }
+
+        // Verify the phrases against the stored messages.
+        final List<Hit> verified = new ArrayList<>();
+        for (List<Hit> jidHits : groupByJid(hits).values()) {
+            final List<HistoryMessage> messages = loadMessages(jidHits);
+            if (messages.size() != jidHits.size()) {
+                // The store lost messages, the hits cannot be matched up.
+                continue;
+            }
+            for (int i = 0; i < messages.size(); i++) {
+                final String text = " " + join(tokenize(messages.get(i).getBody())) + " ";
+                boolean all = true;
+                for (List<String> phrase : phrases) {
+                    if (!text.contains(" " + join(phrase) + " ")) {
+                        all = false;
+                        break;
+                    }
+                }
+                if (all) {
+                    verified.add(jidHits.get(i));
+                }
+            }
+        }
+        return verified;
+    }
+
+    /**
+     * Reads the messages of the given hits from the store.
+     *
+     * @param hits the hits.
+     * @return the messages, in the order of the hits.
+     */
+    public List<HistoryMessage> getMessages(List<Hit> hits) {
+        final List<HistoryMessage> messages = new ArrayList<>(hits.size());
+        for (List<Hit> jidHits : groupByJid(hits).values()) {
+            messages.addAll(loadMessages(jidHits));
+        }
+        return messages;
+    }
+
+    /**
+     * Splits a text into lower case terms.
+     *
+     * @param text the text.
+     * @return the terms in the order they appear.
+     */
+    static List<String> tokenize(String text) {
+        final List<String> terms = new ArrayList<>();
+        if (text == null) {
+            return terms;
+        }
+        final String lower = text.toLowerCase();
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            final boolean letter = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+            if (letter && start < 0) {
+                start = i;
+            } else if (!letter && start >= 0) {
+                final String term = lower.substring(start, Math.min(i, start + MAX_TERM_LENGTH));
+                terms.add(term);
+                start = -1;
+            }
+        }
+        return terms;
+    }
+
+    private static void parseQuery(String query, List<String> words, List<List<String>> phrases) {
+        if (query == null) {
+            return;
+        }
+        final String[] parts = query.split("\"", -1);
+        for (int i = 0; i < parts.length; i++) {
+            final List<String> terms = tokenize(parts[i]);
+            if (i % 2 == 1 && terms.size() > 1) {
+                phrases.add(terms);
+            } else {
+                words.addAll(terms);
+            }
+        }
+    }
+
+    private static String join(List<String> terms) {
+        final StringBuilder builder = new StringBuilder();
+        for (String term : terms) {
+            if (builder.length() > 0) {
+                builder.append(' ');
+            }
+            builder.append(term);
+        }
+        return builder.toString();
+    }
+
+    private static Map<Long, Long> retain(Map<Long, Long> result, Map<Long, Long> matches) {
+        if (result == null) {
+            return matches;
+        }
+        result.keySet().retainAll(matches.keySet());
+        return result;
+    }
+
+    private static Map<String, List<Hit>> groupByJid(List<Hit> hits) {
+        final Map<String, List<Hit>> byJid = new LinkedHashMap<>();
+        for (Hit hit : hits) {
+            byJid.computeIfAbsent(hit.getJid(), (jid) -> new ArrayList<>()).add(hit);
+        }
+        return byJid;
+    }
+
+    private List<HistoryMessage> loadMessages(List<Hit> jidHits) {
+        final int[] numbers = new int[jidHits.size()];
+        for (int i = 0; i < numbers.length; i++) {
+            numbers[i] = jidHits.get(i).getMessageNumber();
+        }
+        return store.getMessages(jidHits.get(0).getJid(), numbers);
+    }
+
+    private Map<Long, Long> collect(String term, boolean prefix, int jidFilter, long fromTime, long toTime) {
+        final Map<Long, Long> matches = new HashMap<>();
+        final PostingVisitor visitor = (jid, number, time) -> {
+            if ((jidFilter < 0 || jid == jidFilter) && time >= fromTime && time <= toTime) {
+                matches.put(((long) jid << 32) | (number & 0xffffffffL), time);
+            }
+        };
+
+        for (Segment segment : segments) {
+            try {
+                segment.visit(term, prefix, visitor);
+            } catch (IOException e) {
+                Log.error("Unable to read the transcript search index " + segment.file, e);
+            }
+        }
+
+        final Map<String, List<Posting>> terms = prefix
+                ? pending.subMap(term, true, term + Character.MAX_VALUE, true)
+                : pending.subMap(term, true, term, true);
+        for (List<Posting> postings : terms.values()) {
+            for (Posting posting : postings) {
+                visitor.visit(posting.jid, posting.number, posting.time);
+            }
+        }
+        return matches;
+    }
+
+    private void indexRange(String jid, int from, int to) {
+        final int id = getJidId(jid);
+        final ChatTranscript transcript = store.getMessages(jid, from, to - from);
+        int number = from;
+        for (HistoryMessage message : transcript.getMessages()) {
+            addPostings(id, number++, message);
+        }
+        indexedCounts.set(id, Math.max(indexedCounts.get(id), to));
+    }
+
+    private void addPostings(int id, int number, HistoryMessage message) {
+        final long time = message.getDate() != null ? message.getDate().getTime() : 0;
+        for (String term : new LinkedHashSet<>(tokenize(message.getBody()))) {
+            pending.computeIfAbsent(term, (t) -> new ArrayList<>()).add(new Posting(id, number, time));
+            pendingPostings++;
+        }
+    }
+
+    private void flushIfNeeded() {
+        if (pendingPostings >= FLUSH_THRESHOLD) {
+            flush();
+        }
+    }
+
+    private int getJidId(String jid) {
+        jid = UserManager.unescapeJID(jid);
+        Integer id = jidIds.get(jid);
+        if (id == null) {
+            id = jids.size();
+            jids.add(jid);
+            jidIds.put(jid, id);
+            flushedCounts.add(0);
+            indexedCounts.add(0);
+        }
+        return id;
+    }
+
+    private void open() {
+        if (opened) {
+            return;
+        }
+        opened = true;
+        directory.mkdirs();
+
+        final File jidsFile = new File(directory, JIDS_FILE);
+        if (jidsFile.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(jidsFile)))) {
+                final int size = in.readInt();
+                for (int i = 0; i < size; i++) {
+                    final String jid = in.readUTF();
+                    final int count = in.readInt();
+                    jidIds.put(jid, jids.size());
+                    jids.add(jid);
+                    flushedCounts.add(count);
+                    indexedCounts.add(count);
+                }
+            } catch (IOException e) {
+                Log.error("Unable to read the transcript search index, rebuilding it", e);
+                clear();
+            }
+        }
+
+        final File[] files = directory.listFiles();
+        final List<Integer> numbers = new ArrayList<>();
+        if (files != null) {
+            for (File file : files) {
+                final String name = file.getName();
+                if (name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        numbers.add(Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                    } catch (NumberFormatException e) {
+                        // Not a segment
+                    }
+                }
+            }
+        }
+        Collections.sort(numbers);
+        for (Integer number : numbers) {
+            final File file = new File(directory, number + SEGMENT_SUFFIX);
+            try {
+                segments.add(Segment.open(file));
+            } catch (IOException e) {
+                Log.error("Unable to open the transcript search index, rebuilding it", e);
+                clear();
+                break;
+            }
+            nextSegment = number + 1;
+        }
+    }
+
+    /**
+     * Throws away everything on disk, the next {@link #synchronize()} rebuilds
+     * the index.
+     */
+    private void clear() {
+        jids.clear();
+        jidIds.clear();
+        flushedCounts.clear();
+        indexedCounts.clear();
+        segments.clear();
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    private void writeJids() throws IOException {
+        final File temp = new File(directory, JIDS_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(jids.size());
+            for (int i = 0; i < jids.size(); i++) {
+                out.writeUTF(jids.get(i));
+                out.writeInt(flushedCounts.get(i));
+            }
+        }
+        AtomicFile.replace(temp, new File(directory, JIDS_FILE));
+    }
+
+    private Segment writeSegment(Map<String, List<Posting>> postings) throws IOException {
+        try (SegmentWriter writer = new SegmentWriter(newSegmentFile())) {
+            for (Map.Entry<String, List<Posting>> term : postings.entrySet()) {
+                writer.startTerm(term.getKey());
+                for (Posting posting : term.getValue()) {
+                    writer.add(posting.jid, posting.number, posting.time);
+                }
+                writer.endTerm();
+            }
+            return writer.finish();
+        }
+    }
+
+    private File newSegmentFile() {
+        return new File(directory, nextSegment++ + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * Merges segments of similar size. A segment is in tier <i>n</i> while it
+     * holds fewer than <code>FLUSH_THRESHOLD * MERGE_FACTOR^(n + 1)</code>
+     * postings, and the smallest segments of a tier are merged once it holds
+     * {@link #MERGE_FACTOR} of them. Every posting is thus rewritten once per
+     * tier, and the number of segments grows with the logarithm of the index
+     * size.
+     */
+    private void mergeSegments() throws IOException {
+        while (true) {
+            final Map<Integer, List<Segment>> tiers = new TreeMap<>();
+            for (Segment segment : segments) {
+                tiers.computeIfAbsent(getTier(segment), (tier) -> new ArrayList<>()).add(segment);
+            }
+
+            List<Segment> merged = null;
+            for (List<Segment> tier : tiers.values()) {
+                if (tier.size() >= MERGE_FACTOR) {
+                    tier.sort((a, b) -> Long.compare(a.postings, b.postings));
+                    merged = tier.subList(0, MERGE_FACTOR);
+                    break;
+                }
+            }
+            if (merged == null) {
+                return;
+            }
+
+            final Segment segment = merge(merged);
+            segments.removeAll(merged);
+            segments.add(segment);
+            for (Segment old : merged) {
+                old.file.delete();
+            }
+        }
+    }
+
+    private static int getTier(Segment segment) {
+        int tier = 0;
+        for (long limit = (long) FLUSH_THRESHOLD * MERGE_FACTOR; segment.postings >= limit; limit *= MERGE_FACTOR) {
+            tier++;
+        }
+        return tier;
+    }
+
+    /**
+     * Writes the postings of several segments into a new one. The sorted term
+     * lists of the segments are merged, reading each segment once from start
+     * to end.
+     */
+    private Segment merge(List<Segment> merged) throws IOException {
+        final List<SegmentReader> readers = new ArrayList<>(merged.size());
+        try (SegmentWriter writer = new SegmentWriter(newSegmentFile())) {
+            final PriorityQueue<SegmentReader> queue = new PriorityQueue<>(merged.size(),
+                    (a, b) -> a.getTerm().compareTo(b.getTerm()));
+            for (Segment segment : merged) {
+                final SegmentReader reader = new SegmentReader(segment);
+                readers.add(reader);
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+
+            while (!queue.isEmpty()) {
+                final String term = queue.peek().getTerm();
+                writer.startTerm(term);
+                while (!queue.isEmpty() && queue.peek().getTerm().equals(term)) {
+                    final SegmentReader reader = queue.poll();
+                    reader.copyPostings(writer, -1);
+                    if (reader.next()) {
+                        queue.add(reader);
+                    }
+                }
+                writer.endTerm();
+            }
+            return writer.finish();
+        } finally {
+            for (SegmentReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Writes a copy of a segment without the postings of a JID.
+     */
+    private Segment rewriteSegment(Segment segment, int excluded) throws IOException {
+        try (SegmentReader reader = new SegmentReader(segment);
+                SegmentWriter writer = new SegmentWriter(newSegmentFile())) {
+            while (reader.next()) {
+                writer.startTerm(reader.getTerm());
+                reader.copyPostings(writer, excluded);
+                writer.endTerm();
+            }
+            return writer.finish();
+        }
+    }
+
+    /**
+     * A message matching a query.
+     */
+    public static class Hit {
+
+        private final String jid;
+        private final int messageNumber;
+        private final Date date;
+
+        Hit(String jid, int messageNumber, Date date) {
+            this.jid = jid;
+            this.messageNumber = messageNumber;
+            this.date = date;
+        }
+
+        public String getJid() {
+            return jid;
+        }
+
+        public int getMessageNumber() {
+            return messageNumber;
+        }
+
+        public Date getDate() {
+            return date;
+        }
+    }
+
+    private interface PostingVisitor {
+
+        void visit(int jid, int number, long time);
+    }
+
+    private static final class Posting {
+
+        static final int SIZE = 16;
+
+        final int jid;
+        final int number;
+        final long time;
+
+        Posting(int jid, int number, long time) {
+            this.jid = jid;
+            this.number = number;
+            this.time = time;
+        }
+    }
+
+    /**
+     * An immutable index file. The postings of all terms come first, followed
+     * by the sorted term dictionary, its offset and a magic number.
+     */
+    private static final class Segment {
+
+        private final File file;
+        private final String[] terms;
+        private final long[] offsets;
+        private final int[] counts;
+        private final long postings;
+
+        Segment(File file, String[] terms, long[] offsets, int[] counts) {
+            this.file = file;
+            this.terms = terms;
+            this.offsets = offsets;
+            this.counts = counts;
+            long total = 0;
+            for (int count : counts) {
+                total += count;
+            }
+            this.postings = total;
+        }
+
+        static Segment open(File file) throws IOException {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                if (raf.length() < 12) {
+                    throw new IOException("Truncated index file " + file);
+                }
+                raf.seek(raf.length() - 12);
+                final long dictionary = raf.readLong();
+                if (raf.readInt() != SEGMENT_MAGIC) {
+                    throw new IOException("Corrupt index file " + file);
+                }
+                final byte[] bytes = new byte[(int) (raf.length() - 12 - dictionary)];
+                raf.seek(dictionary);
+                raf.readFully(bytes);
+                final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+                final int size = in.readInt();
+                final String[] terms = new String[size];
+                final long[] offsets = new long[size];
+                final int[] counts = new int[size];
+                for (int i = 0; i < size; i++) {
+                    terms[i] = in.readUTF();
+                    offsets[i] = in.readLong();
+                    counts[i] = in.readInt();
+                }
+                return new Segment(file, terms, offsets, counts);
+            }
+        }
+
+        void visit(String term, boolean prefix, PostingVisitor visitor) throws IOException {
+            int i = Arrays.binarySearch(terms, term);
+            if (i < 0) {
+                if (!prefix) {
+                    return;
+                }
+                i = -i - 1;
+            }
+            if (i == terms.length || !(prefix ? terms[i].startsWith(term) : terms[i].equals(term))) {
+                return;
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                for (; i < terms.length && (prefix ? terms[i].startsWith(term) : terms[i].equals(term)); i++) {
+                    read(raf, i, visitor);
+                }
+            }
+        }
+
+        private void read(RandomAccessFile raf, int i, PostingVisitor visitor) throws IOException {
+            final byte[] bytes = new byte[counts[i] * Posting.SIZE];
+            raf.seek(offsets[i]);
+            raf.readFully(bytes);
+            final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            for (int j = 0; j < counts[i]; j++) {
+                visitor.visit(in.readInt(), in.readInt(), in.readLong());
+            }
+        }
+    }
+
+    /**
+     * Reads the terms of a segment in order, together with their postings.
+     * The postings of the terms follow each other from the start of the
+     * file, so the segment is read sequentially.
+     */
+    private static final class SegmentReader implements Closeable {
+
+        private final Segment segment;
+        private final DataInputStream in;
+        private int term = -1;
+
+        SegmentReader(Segment segment) throws IOException {
+            this.segment = segment;
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.file)));
+        }
+
+        /**
+         * Moves to the next term.
+         *
+         * @return false if there are no more terms.
+         */
+        boolean next() {
+            return ++term < segment.terms.length;
+        }
+
+        String getTerm() {
+            return segment.terms[term];
+        }
+
+        /**
+         * Copies the postings of the current term.
+         *
+         * @param writer the segment being written.
+         * @param excluded the JID whose postings are skipped, or -1.
+         */
+        void copyPostings(SegmentWriter writer, int excluded) throws IOException {
+            for (int i = segment.counts[term]; i > 0; i--) {
+                final int jid = in.readInt();
+                final int number = in.readInt();
+                final long time = in.readLong();
+                if (jid != excluded) {
+                    writer.add(jid, number, time);
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes a segment one term at a time, in sorted order. The postings go
+     * straight to disk, only the term dictionary is kept in memory.
+     */
+    private static final class SegmentWriter implements Closeable {
+
+        private final File file;
+        private final File temp;
+        private final DataOutputStream out;
+        private final List<String> terms = new ArrayList<>();
+        private long[] offsets = new long[256];
+        private int[] counts = new int[256];
+        private long position;
+        private String term;
+        private long start;
+        private boolean finished;
+
+        SegmentWriter(File file) throws IOException {
+            this.file = file;
+            this.temp = new File(file.getPath() + ".tmp");
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        }
+
+        void startTerm(String term) {
+            this.term = term;
+            start = position;
+        }
+
+        void add(int jid, int number, long time) throws IOException {
+            out.writeInt(jid);
+            out.writeInt(number);
+            out.writeLong(time);
+            position += Posting.SIZE;
+        }
+
+        /**
+         * Ends the current term. Terms without postings are left out.
+         */
+        void endTerm() {
+            if (position == start) {
+                return;
+            }
+            final int i = terms.size();
+            if (i == offsets.length) {
+                offsets = Arrays.copyOf(offsets, i * 2);
+                counts = Arrays.copyOf(counts, i * 2);
+            }
+            terms.add(term);
+            offsets[i] = start;
+            counts[i] = (int) ((position - start) / Posting.SIZE);
+        }
+
+        /**
+         * Writes the term dictionary and moves the file in place.
+         *
+         * @return the segment.
+         */
+        Segment finish() throws IOException {
+            out.writeInt(terms.size());
+            for (int i = 0; i < terms.size(); i++) {
+                out.writeUTF(terms.get(i));
+                out.writeLong(offsets[i]);
+                out.writeInt(counts[i]);
+            }
+            out.writeLong(position);
+            out.writeInt(SEGMENT_MAGIC);
+            out.close();
+            AtomicFile.replace(temp, file);
+            finished = true;
+            return new Segment(file, terms.toArray(new String[terms.size()]), Arrays.copyOf(offsets, terms.size()),
+                    Arrays.copyOf(counts, terms.size()));
+        }
+
+        /**
+         * Closes the writer, throwing away the file unless it was finished.
+         */
+        @Override
+        public void close() throws IOException {
+            if (!finished) {
+                out.close();
+                temp.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 2004-2011 Jive Software. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.jivesoftware.sparkimpl.plugin.transcripts;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A storage engine for chat transcripts. The default engine used by
+ * {@link ChatTranscripts} is the {@link SegmentedTranscriptStore}, the
+ * {@link XMLTranscriptStore} keeps the old one file per JID format.
+ * <p>
+ * Messages of a JID are numbered in the order they were appended, starting
+ * with 0. That number is stable and can be used to refer to a single message.
+ */
+public interface TranscriptStore {
+
+    /**
+     * Appends messages to the transcript of a JID. The messages are forced to
+     * disk by the next {@link #flush()}.
+     *
+     * @param jid the jid of the user.
+     * @param messages the messages to append.
+     */
+    void append(String jid, Collection<HistoryMessage> messages);
+
+    /**
+     * Returns the last messages of a transcript.
+     *
+     * @param jid the jid of the user.
+     * @param count the maximum number of messages to return.
+     * @return the ChatTranscript holding the last messages.
+     */
+    ChatTranscript getLastMessages(String jid, int count);
+
+    /**
+     * Returns a range of messages of a transcript.
+     *
+     * @param jid the jid of the user.
+     * @param fromIndex the number of the first message to return.
+     * @param count the maximum number of messages to return.
+     * @return the ChatTranscript holding the messages.
+     */
+    ChatTranscript getMessages(String jid, int fromIndex, int count);
+
+    /**
+     * Returns the full transcript of a JID.
+     *
+     * @param jid the jid of the user.
+     * @return the ChatTranscript.
+     */
+    ChatTranscript getChatTranscript(String jid);
+
+    /**
+     * Returns single messages of a transcript.
+     *
+     * @param jid the jid of the user.
+     * @param numbers the numbers of the messages in ascending order.
+     * @return the messages, numbers that do not exist are skipped.
+     */
+    List<HistoryMessage> getMessages(String jid, int[] numbers);
+
+    /**
+     * Returns the number of messages stored for a JID.
+     *
+     * @param jid the jid of the user.
+     * @return the number of messages.
+     */
+    int getMessageCount(String jid);
+
+    /**
+     * Returns true if a transcript exists for a JID.
+     *
+     * @param jid the jid of the user.
+     * @return true if a transcript exists.
+     */
+    boolean hasTranscript(String jid);
+
+    /**
+     * Returns the JIDs a transcript is stored for.
+     *
+     * @return the JIDs.
+     */
+    List<String> getTranscriptJIDs();
+
+    /**
+     * Returns the space the transcript of a JID takes on disk.
+     *
+     * @param jid the jid of the user.
+     * @return the size in bytes, 0 if there is no transcript.
+     */
+    long getTranscriptSize(String jid);
+
+    /**
+     * Deletes the transcript of a JID.
+     *
+     * @param jid the jid of the user.
+     */
+    void delete(String jid);
+
+    /**
+     * Deletes the transcripts of all JIDs.
+     */
+    void deleteAll();
+
+    /**
+     * Forces all appended messages to disk.
+     */
+    void flush();
+}
@@ -0,0 +1,335 @@
+/**
+ * Copyright (C) 2004-2011 Jive Software. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.jivesoftware.sparkimpl.plugin.transcripts;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import org.jivesoftware.spark.SparkManager;
+import org.jivesoftware.spark.UserManager;
+import org.jivesoftware.spark.util.StringUtils;
+import org.jivesoftware.spark.util.log.Log;
+import org.xmlpull.mxp1.MXParser;
+import org.xmlpull.v1.XmlPullParser;
+
+/**
+ * The original transcript format of Spark. Every JID has a
+ * <code>transcripts/&lt;jid&gt;.xml</code> file holding the full history and a
+ * <code>transcripts/&lt;jid&gt;_current.xml</code> file holding the last 20
+ * messages.
+ *
+ * @author Derek DeMoro
+ */
+public class XMLTranscriptStore implements TranscriptStore {
+
+    /**
+     * Default Date Formatter *
+     */
+    private static final DateFormat FORMATTER;
+
+    static {
+        FORMATTER = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.S z");
+    }
+
+    @Override
+    public synchronized void append(String jid, Collection<HistoryMessage> messages) {
+        final File transcriptFile = getTranscriptFile(jid);
+
+        // Write Full Transcript, appending the messages.
+        writeToFile(transcriptFile, messages, true);
+
+        // Write to current history File
+        final File currentHistoryFile = getCurrentHistoryFile(jid);
+        ChatTranscript tempTranscript = getTranscript(currentHistoryFile);
+        messages.stream().forEach((message) -> {
+            tempTranscript.addHistoryMessage(message);
+        });
+        writeToFile(currentHistoryFile, tempTranscript.getNumberOfEntries(20), false);
+    }
+
+    @Override
+    public ChatTranscript getLastMessages(String jid, int count) {
+        final ChatTranscript transcript = count <= 20
+                ? getTranscript(getCurrentHistoryFile(jid))
+                : getChatTranscript(jid);
+        transcript.setList(new ArrayList<>(transcript.getNumberOfEntries(count)));
+        return transcript;
+    }
+
+    @Override
+    public ChatTranscript getMessages(String jid, int fromIndex, int count) {
+        final ChatTranscript transcript = getChatTranscript(jid);
+        final List<HistoryMessage> messages = transcript.getMessages();
+        final int from = Math.max(0, Math.min(fromIndex, messages.size()));
+        final int to = Math.min(messages.size(), from + count);
+        transcript.setList(new ArrayList<>(messages.subList(from, to)));
+        return transcript;
+    }
+
+    @Override
+    public ChatTranscript getChatTranscript(String jid) {
+        return getTranscript(getTranscriptFile(jid));
+    }
+
+    @Override
+    public List<HistoryMessage> getMessages(String jid, int[] numbers) {
+        final ChatTranscript transcript = getChatTranscript(jid);
+        final List<HistoryMessage> messages = new ArrayList<>(numbers.length);
+        for (int number : numbers) {
+            final HistoryMessage message = transcript.getMessage(number);
+            if (message != null) {
+                messages.add(message);
+            }
+        }
+        return messages;
+    }
+
+    @Override
+    public int getMessageCount(String jid) {
+        return getChatTranscript(jid).size();
+    }
+
+    @Override
+    public boolean hasTranscript(String jid) {
+        return getTranscriptFile(jid).exists();
+    }
+
+    @Override
+    public List<String> getTranscriptJIDs() {
+        final List<String> jids = new ArrayList<>();
+        final File[] files = new File(SparkManager.getUserDirectory(), "transcripts").listFiles();
+        if (files != null) {
+            for (File file : files) {
+                final String name = file.getName();
+                if (file.isFile() && name.endsWith(".xml") && !name.endsWith("_current.xml")) {
+                    jids.add(name.substring(0, name.length() - ".xml".length()));
+                }
+            }
+        }
+        return jids;
+    }
+
+    @Override
+    public long getTranscriptSize(String jid) {
+        return getTranscriptFile(jid).length();
+    }
+
+    @Override
+    public synchronized void delete(String jid) {
+        getTranscriptFile(jid).delete();
+        getCurrentHistoryFile(jid).delete();
+    }
+
+    @Override
+    public synchronized void deleteAll() {
+        final File[] files = new File(SparkManager.getUserDirectory(), "transcripts").listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile() && file.getName().endsWith(".xml")) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void flush() {
+        // Every append is written through.
+    }
+
+    private static void writeToFile(File transcriptFile, Collection<HistoryMessage> messages, boolean append) {
+        final StringBuilder builder = new StringBuilder();
+
+        final String one = " ";
+        final String two = "  ";
+        final String three = "   ";
+
+        // Handle new transcript file.
+        if (!transcriptFile.exists() || !append) {
+            builder.append("<transcript>\n");
+            builder.append(one + "<messages>\n");
+        }
+
+        messages.stream().map((m) -> {
+            builder.append(two + "<message>\n");
+            builder.append(three + "<to>").append(m.getTo()).append("</to>\n");
+            return m;
+        }).map((m) -> {
+            builder.append(three + "<from>").append(m.getFrom()).append("</from>\n");
+            return m;
+        }).map((m) -> {
+            builder.append(three + "<body>").append(StringUtils.escapeForXML(m.getBody())).append("</body>\n");
+            return m;
+        }).map((m) -> FORMATTER.format(m.getDate())).map((dateString) -> {
+            builder.append(three + "<date>").append(dateString).append("</date>\n");
+            return dateString;
+        }).forEach((_item) -> {
+            builder.append(two + "</message>\n");
+        });
+
+        if (!transcriptFile.exists() || !append) {
+            builder.append(one + "</messages>\n");
+            builder.append("</transcript>");
+        }
+
+        if (!transcriptFile.exists() || !append) {
+            // Write out new File
+            try {
+                transcriptFile.getParentFile().mkdirs();
+                BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(transcriptFile), "UTF-8"));
+                out.write(builder.toString());
+                out.close();
+            } catch (IOException e) {
+                Log.error(e);
+            }
+            return;
+        }
+
+        // Append to File
+        try {
+            final RandomAccessFile raf = new RandomAccessFile(transcriptFile, "rw");
+
+            // We want to append near the end of the document as the last
+            // child in the transcript.
+            final String endTag = " </messages>\n</transcript>";
+
+            String line = raf.readLine();
+            if (line.contains("</messages></transcript>")) {
+                // replace the old one with the new one
+                line = line.replace("</messages></transcript>", endTag);
+                raf.write(line.getBytes("UTF-8"));
+            }
+
+            builder.append(endTag);
+
+            raf.seek(transcriptFile.length() - endTag.length());
+
+            // Append to the end
+            raf.write(builder.toString().getBytes("UTF-8"));
+            raf.close();
+        } catch (IOException e) {
+            Log.error(e);
+        }
+    }
+
+    /**
+     * Reads in the transcript file using the Xml Pull Parser.
+     *
+     * @param transcriptFile the transcript file to read.
+     * @return the ChatTranscript.
+     */
+    public static ChatTranscript getTranscript(File transcriptFile) {
+        final ChatTranscript transcript = new ChatTranscript();
+        if (!transcriptFile.exists()) {
+            return transcript;
+        }
+
+        try {
+            final MXParser parser = new MXParser();
+            parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(transcriptFile), "UTF-8"));
+            parser.setInput(in);
+            try {
+                boolean done = false;
+                while (!done) {
+                    int eventType = parser.next();
+                    if (eventType == XmlPullParser.START_TAG && "message".equals(parser.getName())) {
+                        transcript.addHistoryMessage(getHistoryMessage(parser));
+                    } else if (eventType == XmlPullParser.END_TAG && "transcript".equals(parser.getName())) {
+                        done = true;
+                    } else if (eventType == XmlPullParser.END_DOCUMENT) {
+                        done = true;
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        return transcript;
+    }
+
+    /**
+     * Returns the full transcript file of a jid.
+     *
+     * @param jid the jid of the user.
+     * @return the transcript file.
+     */
+    public static File getTranscriptFile(String jid) {
+        // Unescape Node
+        jid = UserManager.unescapeJID(jid);
+
+        return new File(SparkManager.getUserDirectory(), "transcripts/" + jid + ".xml");
+    }
+
+    /**
+     * Returns the current transcript (20 messages) for a particular jid.
+     *
+     * @param jid the jid of the user.
+     * @return the current transcript file.
+     */
+    public static File getCurrentHistoryFile(String jid) {
+        // Unescape Node
+        jid = UserManager.unescapeJID(jid);
+
+        return new File(SparkManager.getUserDirectory(), "transcripts/" + jid + "_current.xml");
+    }
+
+    private static HistoryMessage getHistoryMessage(XmlPullParser parser) throws Exception {
+        HistoryMessage message = new HistoryMessage();
+
+        // Check for nickname
+        boolean done = false;
+        while (!done) {
+            int eventType = parser.next();
+            if (eventType == XmlPullParser.START_TAG && "to".equals(parser.getName())) {
+                message.setTo(parser.nextText());
+            } else if (eventType == XmlPullParser.START_TAG && "from".equals(parser.getName())) {
+                message.setFrom(parser.nextText());
+            } else if (eventType == XmlPullParser.START_TAG && "body".equals(parser.getName())) {
+                message.setBody(StringUtils.unescapeFromXML(parser.nextText()));
+            } else if (eventType == XmlPullParser.START_TAG && "date".equals(parser.getName())) {
+                Date d;
+                try {
+                    d = FORMATTER.parse(parser.nextText());
+                } catch (ParseException e) {
+                    d = new Date();
+                }
+                message.setDate(d);
+            } else if (eventType == XmlPullParser.END_TAG && "message".equals(parser.getName())) {
+                done = true;
+            }
+        }
+
+        return message;
+    }
+
+}
@@ -85,6 +85,7 @@ public class GroupChatPreference implements Preference {
                 panel.setMucHighNameEnabled(highlightMyName);
                 panel.setMucHighTextEnabled(highlightMyText);
                 panel.setMuchHighToastEnabled(highlightPopName);
+                panel.setMucHighlightKeywords(localPreferences.getMucHighlightKeywords());
                 panel.setShowJoinLeaveMessagesEnabled(showjoinleavemessage);
                 panel.setShowRoleIconInsteadStatusIcon(showroleicons);
                 panel.setAutoAcceptMuc(autoAcceptMucInvite);
@@ -104,6 +105,7 @@ public class GroupChatPreference implements Preference {
         pref.setMucHighNameEnabled(panel.isMucHighNameEnabled());
         pref.setMucHighTextEnabled(panel.isMucHighTextEnabled());
         pref.setMuchHighToastEnabled(panel.isMucHighToastEnabled());
+        pref.setMucHighlightKeywords(panel.getMucHighlightKeywords());
         pref.setShowJoinLeaveMessagesEnabled(panel.isShowJoinLeaveMessagesEnabled());
         pref.setShowRoleIconInsteadStatusIcon(panel.isShowingRoleIcons());
         pref.setAutoAcceptMucInvite(panel.isAutoAcceptMuc());
@@ -22,7 +22,9 @@ import java.awt.GridBagLayout;
 import java.awt.Insets;
 import javax.swing.BorderFactory;
 import javax.swing.JCheckBox;
+import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.JTextField;
 import org.jivesoftware.resource.Res;
 import org.jivesoftware.spark.component.VerticalFlowLayout;
 import org.jivesoftware.spark.util.ResourceUtils;
@@ -36,6 +38,8 @@ public class GroupChatPreferencePanel extends JPanel {
     private final JCheckBox highlightMyName = new JCheckBox();
     private final JCheckBox highlightMyText = new JCheckBox();
     private final JCheckBox highlightPopName = new JCheckBox();
+    private final JLabel highlightKeywordsLabel = new JLabel();
+    private final JTextField highlightKeywords = new JTextField();
     private final JCheckBox showjoinleavemessage = new JCheckBox();
     private final JCheckBox showroleicons = new JCheckBox();
     private final JCheckBox _autoAcceptInvites = new JCheckBox();
@@ -58,6 +62,7 @@ public class GroupChatPreferencePanel extends JPanel {
         ResourceUtils.resButton(highlightMyName, Res.getString("menuitem.add.groupchat.myname"));
         ResourceUtils.resButton(highlightMyText, Res.getString("menuitem.add.groupchat.mytext"));
         ResourceUtils.resButton(highlightPopName, Res.getString("menuitem.add.groupchat.popname"));
+        ResourceUtils.resLabel(highlightKeywordsLabel, highlightKeywords, Res.getString("menuitem.add.groupchat.keywords"));
         ResourceUtils.resButton(showjoinleavemessage, Res.getString("menuitem.add.groupchat.showjoinleavemessage"));
         ResourceUtils.resButton(showroleicons, Res.getString("menuitem.add.groupchat.showrolesinsteadofstatus"));
         ResourceUtils.resButton(_autoAcceptInvites, Res.getString("menuitem.add.groupchat.auto.accept.invite"));
@@ -78,6 +83,8 @@ public class GroupChatPreferencePanel extends JPanel {
         gCPanel.add(showroleicons, new GridBagConstraints(0, 5, 2, 1, 1.0, 1.0, GridBagConstraints.NORTHWEST, GridBagConstraints.NONE, new Insets(5, 5, 5, 5), 0, 0));
         gCPanel.add(_autoAcceptInvites, new GridBagConstraints(0, 6, 2, 1, 1.0, 1.0, GridBagConstraints.NORTHWEST, GridBagConstraints.NONE, new Insets(5, 5, 5, 5), 0, 0));
         gCPanel.add(inviteToBookmark, new GridBagConstraints(0, 7, 2, 1, 1.0, 1.0, GridBagConstraints.NORTHWEST, GridBagConstraints.NONE, new Insets(5, 5, 5, 5), 0, 0));
+        gCPanel.add(highlightKeywordsLabel, new GridBagConstraints(0, 8, 1, 1, 0.0, 1.0, GridBagConstraints.WEST, GridBagConstraints.NONE, new Insets(5, 5, 5, 5), 0, 0));
+        gCPanel.add(highlightKeywords, new GridBagConstraints(1, 8, 1, 1, 1.0, 1.0, GridBagConstraints.WEST, GridBagConstraints.HORIZONTAL, new Insets(5, 5, 5, 5), 0, 0));
 
     }
 
@@ -93,6 +100,14 @@ public class GroupChatPreferencePanel extends JPanel {
         highlightPopName.setSelected(mucPHigh);
     }
 
+    public void setMucHighlightKeywords(String keywords) {
+        highlightKeywords.setText(keywords);
+    }
+
+    public String getMucHighlightKeywords() {
+        return highlightKeywords.getText().trim();
+    }
+
     public void setShowJoinLeaveMessagesEnabled(boolean mucPHigh) {
         showjoinleavemessage.setSelected(mucPHigh);
     }
@@ -0,0 +1,205 @@
+/**
+ * Copyright (C) 2004-2011 Jive Software. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.jivesoftware.sparkimpl.profile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.swing.ImageIcon;
+import org.jivesoftware.spark.util.GraphicUtils;
+import org.jivesoftware.spark.util.ModelUtil;
+import org.jivesoftware.spark.util.log.Log;
+
+/**
+ * Caches avatars decoded and scaled to the sizes they are shown at. Avatars
+ * are keyed by their hash, so contacts sharing an avatar share the image.
+ * Also remembers which avatar files exist, so presences carrying an avatar
+ * hash do not touch the disk.
+ */
+public class AvatarCache {
+
+    private static final int MAX_IMAGES = 512;
+
+    /**
+     * Time a missing avatar file is remembered, in milliseconds.
+     */
+    private static final long MISSING_TTL = 60 * 1000;
+
+    private final File directory;
+
+    private final Map<String, ImageIcon> images = new LinkedHashMap<String, ImageIcon>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ImageIcon> eldest) {
+            return size() > MAX_IMAGES;
+        }
+    };
+
+    private final Set<String> existingFiles = ConcurrentHashMap.newKeySet();
+    private final Map<String, Long> missingFiles = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates a cache for the avatars stored in a directory.
+     *
+     * @param directory the directory holding one file per avatar hash.
+     */
+    public AvatarCache(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns true if the avatar file of a hash exists. A file that exists is
+     * remembered, a missing one for {@link #MISSING_TTL} or until
+     * {@link #avatarWritten(String)} is called for the hash.
+     *
+     * @param hash the avatar hash.
+     * @return true if the avatar is stored.
+     */
+    public boolean exists(String hash) {
+        if (!ModelUtil.hasLength(hash)) {
+            return false;
+        }
+        if (existingFiles.contains(hash)) {
+            return true;
+        }
+
+        final long now = System.currentTimeMillis();
+        final Long checked = missingFiles.get(hash);
+        if (checked != null && now - checked < MISSING_TTL) {
+            return false;
+        }
+        if (new File(directory, hash).exists()) {
+            existingFiles.add(hash);
+            missingFiles.remove(hash);
+            return true;
+        }
+        missingFiles.put(hash, now);
+        return false;
+    }
+
+    /**
+     * Called after the avatar file of a hash has been (re)written.
+     *
+     * @param hash the avatar hash.
+     */
+    public void avatarWritten(String hash) {
+        existingFiles.add(hash);
+        missingFiles.remove(hash);
+        synchronized (images) {
+            images.keySet().removeIf(key -> key.startsWith(hash + '@'));
+        }
+    }
+
+    /**
+     * Returns the stored avatar of a hash, scaled to fit a square.
+     *
+     * @param hash the avatar hash.
+     * @param size the width and height to fit the avatar in.
+     * @return the avatar, or null if it is not stored.
+     */
+    public ImageIcon getAvatar(String hash, int size) {
+        return getAvatar(hash, size, null);
+    }
+
+    /**
+     * Returns an avatar scaled to fit a square.
+     *
+     * @param hash the avatar hash.
+     * @param size the width and height to fit the avatar in.
+     * @param data the image data, or null to read the stored avatar.
+     * @return the avatar, or null if it could not be read.
+     */
+    public ImageIcon getAvatar(String hash, int size, byte[] data) {
+        if (!ModelUtil.hasLength(hash)) {
+            return null;
+        }
+
+        final String key = hash + '@' + size;
+        synchronized (images) {
+            final ImageIcon icon = images.get(key);
+            if (icon != null) {
+                hits.incrementAndGet();
+                return icon;
+            }
+        }
+        if (misses.incrementAndGet() % 100 == 0) {
+            Log.debug("Avatar cache hits: " + hits.get() + ", misses: " + misses.get());
+        }
+
+        if (data == null) {
+            if (!exists(hash)) {
+                return null;
+            }
+            try {
+                data = Files.readAllBytes(new File(directory, hash).toPath());
+            } catch (IOException e) {
+                Log.warning("Unable to read avatar " + hash, e);
+                existingFiles.remove(hash);
+                return null;
+            }
+        }
+
+        final ImageIcon icon = scale(new ImageIcon(data), size);
+        if (icon == null) {
+            return null;
+        }
+        synchronized (images) {
+            images.put(key, icon);
+        }
+        return icon;
+    }
+
+    /**
+     * Returns the number of avatars found in the cache.
+     *
+     * @return the number of hits.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of avatars that had to be decoded.
+     *
+     * @return the number of misses.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    private static ImageIcon scale(ImageIcon icon, int size) {
+        if (icon.getIconWidth() <= 0 || icon.getIconHeight() <= 0) {
+            return null;
+        }
+
+        // Render the scaled image once, instead of scaling it on every paint.
+        final ImageIcon scaled = GraphicUtils.scale(icon, size, size);
+        try {
+            return new ImageIcon(GraphicUtils.convert(scaled.getImage()));
+        } catch (IOException | InterruptedException | IllegalArgumentException e) {
+            return scaled;
+        }
+    }
+}
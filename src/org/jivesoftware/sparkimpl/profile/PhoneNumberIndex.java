@@ -0,0 +1,171 @@
+/**
+ * Copyright (C) 2004-2011 Jive Software. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.jivesoftware.sparkimpl.profile;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the user a phone number belongs to. The digits of every number are
+ * stored reversed in a trie, so the numbers ending with the digits of a query
+ * are found in time proportional to the length of the query, regardless of
+ * the number of users.
+ */
+class PhoneNumberIndex {
+
+    private final Node root = new Node();
+    private final Map<String, List<String>> numbersByJID = new HashMap<>();
+
+    /**
+     * Sets the phone numbers of a user, replacing the ones set before.
+     *
+     * @param jid the bare jid of the user.
+     * @param numbers the phone numbers, only their digits are indexed.
+     */
+    synchronized void put(String jid, List<String> numbers) {
+        final List<String> old = numbersByJID.remove(jid);
+        if (old != null) {
+            old.stream().forEach((number) -> {
+                remove(number, jid);
+            });
+        }
+
+        final List<String> digits = new ArrayList<>();
+        numbers.stream().map(PhoneNumberIndex::getDigits).filter((number) -> !number.isEmpty()).forEach((number) -> {
+            if (!digits.contains(number)) {
+                digits.add(number);
+                add(number, jid);
+            }
+        });
+        if (!digits.isEmpty()) {
+            numbersByJID.put(jid, digits);
+        }
+    }
+
+    /**
+     * Returns a user having a phone number that ends with the digits of a
+     * number.
+     *
+     * @param number the number to search for.
+     * @return the bare jid of the user, or null if no number matches.
+     */
+    synchronized String find(String number) {
+        final String digits = getDigits(number);
+        if (digits.isEmpty()) {
+            return null;
+        }
+
+        Node node = root;
+        for (int i = digits.length() - 1; i >= 0 && node != null; i--) {
+            node = node.children[digits.charAt(i) - '0'];
+        }
+        if (node == null) {
+            return null;
+        }
+
+        // Every node on the way down leads to at least one number.
+        while (node.jids == null || node.jids.isEmpty()) {
+            Node next = null;
+            for (Node child : node.children) {
+                if (child != null) {
+                    next = child;
+                    break;
+                }
+            }
+            node = next;
+        }
+        return node.jids.iterator().next();
+    }
+
+    /**
+     * Returns the digits of a phone number.
+     *
+     * @param number the phone number, may be null.
+     * @return the digits, empty if there are none.
+     */
+    static String getDigits(String number) {
+        if (number == null) {
+            return "";
+        }
+
+        final StringBuilder builder = new StringBuilder(number.length());
+        for (int i = 0; i < number.length(); i++) {
+            final char c = number.charAt(i);
+            if (c >= '0' && c <= '9') {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    private void add(String digits, String jid) {
+        Node node = root;
+        for (int i = digits.length() - 1; i >= 0; i--) {
+            final int digit = digits.charAt(i) - '0';
+            if (node.children[digit] == null) {
+                node.children[digit] = new Node();
+            }
+            node = node.children[digit];
+        }
+        if (node.jids == null) {
+            node.jids = new LinkedHashSet<>();
+        }
+        node.jids.add(jid);
+    }
+
+    private void remove(String digits, String jid) {
+        final Node[] path = new Node[digits.length() + 1];
+        path[0] = root;
+        for (int i = 0; i < digits.length(); i++) {
+            path[i + 1] = path[i].children[digits.charAt(digits.length() - 1 - i) - '0'];
+            if (path[i + 1] == null) {
+                return;
+            }
+        }
+
+        final Node node = path[digits.length()];
+        if (node.jids == null || !node.jids.remove(jid)) {
+            return;
+        }
+
+        // Prune the nodes that no longer lead to a number.
+        for (int i = digits.length(); i > 0 && path[i].isEmpty(); i--) {
+            path[i - 1].children[digits.charAt(digits.length() - i) - '0'] = null;
+        }
+    }
+
+    private static class Node {
+
+        private final Node[] children = new Node[10];
+        private Set<String> jids;
+
+        boolean isEmpty() {
+            if (jids != null && !jids.isEmpty()) {
+                return false;
+            }
+            for (Node child : children) {
+                if (child != null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/**
+ * Copyright (C) 2004-2011 Jive Software. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.jivesoftware.sparkimpl.profile;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import org.jivesoftware.spark.util.AtomicFile;
+import org.jivesoftware.spark.util.log.Log;
+
+/**
+ * Index of the vCards cached on disk, holding the avatar hash, the phone
+ * numbers and the time each vCard was stored. It lets the avatar of a
+ * contact be found, and a stale vCard be detected, without parsing the
+ * cached vCard itself.
+ * <p>
+ * The index is a text file with one
+ * <code>jid TAB hash TAB timestamp TAB numbers</code> line per vCard, the
+ * numbers being separated by commas. Lines written before the numbers were
+ * indexed lack the last field. The file is written in the background
+ * shortly after changes.
+ */
+class VCardCacheIndex {
+
+    /**
+     * Contains a dot, so it can not clash with the Base64 names of the
+     * cached vCards.
+     */
+    static final String FILE_NAME = "vcards.index";
+
+    private static final long SAVE_DELAY = 5000;
+
+    private final AtomicFile file;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Loads the index of a vCard directory.
+     *
+     * @param directory the directory holding the cached vCards.
+     */
+    VCardCacheIndex(File directory) {
+        file = new AtomicFile(new File(directory, FILE_NAME), SAVE_DELAY, this::save);
+        load();
+    }
+
+    /**
+     * Returns the entry of a JID.
+     *
+     * @param jid the bare jid of the user.
+     * @return the entry, or null if the vCard of the JID is not indexed.
+     */
+    Entry get(String jid) {
+        return entries.get(jid);
+    }
+
+    /**
+     * Performs an action for every indexed vCard.
+     *
+     * @param action the action, called with the jid and the entry.
+     */
+    void forEach(BiConsumer<String, Entry> action) {
+        entries.forEach(action);
+    }
+
+    /**
+     * Records a cached vCard.
+     *
+     * @param jid the bare jid of the user.
+     * @param hash the avatar hash, or null if the vCard has no avatar.
+     * @param timestamp the time the vCard was stored.
+     * @param phoneNumbers the digits of the phone numbers in the vCard.
+     */
+    void put(String jid, String hash, long timestamp, List<String> phoneNumbers) {
+        if (jid.indexOf('\t') >= 0 || jid.indexOf('\n') >= 0) {
+            return;
+        }
+        entries.put(jid, new Entry(hash != null ? hash : "", timestamp, phoneNumbers));
+        file.scheduleSave();
+    }
+
+    private void load() {
+        if (!file.getFile().exists()) {
+            return;
+        }
+
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file.getFile()), "UTF-8"))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                final String[] fields = line.split("\t", -1);
+                if (fields.length == 3 || fields.length == 4) {
+                    final List<String> phoneNumbers;
+                    if (fields.length == 3) {
+                        phoneNumbers = null;
+                    } else if (fields[3].isEmpty()) {
+                        phoneNumbers = Collections.emptyList();
+                    } else {
+                        phoneNumbers = Arrays.asList(fields[3].split(","));
+                    }
+                    try {
+                        entries.put(fields[0], new Entry(fields[1], Long.parseLong(fields[2]), phoneNumbers));
+                    } catch (NumberFormatException e) {
+                        // Skip the broken line.
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.warning("Unable to read the vCard index.", e);
+        }
+    }
+
+    private synchronized void save() {
+        try {
+            file.writeText((out) -> {
+                for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                    out.write(entry.getKey());
+                    out.write('\t');
+                    out.write(entry.getValue().getHash());
+                    out.write('\t');
+                    out.write(Long.toString(entry.getValue().getTimestamp()));
+                    if (entry.getValue().getPhoneNumbers() != null) {
+                        out.write('\t');
+                        out.write(String.join(",", entry.getValue().getPhoneNumbers()));
+                    }
+                    out.write('\n');
+                }
+            });
+        } catch (IOException e) {
+            Log.warning("Unable to write the vCard index.", e);
+        }
+    }
+
+    /**
+     * The indexed state of one cached vCard.
+     */
+    static class Entry {
+
+        private final String hash;
+        private final long timestamp;
+        private final List<String> phoneNumbers;
+
+        Entry(String hash, long timestamp, List<String> phoneNumbers) {
+            this.hash = hash;
+            this.timestamp = timestamp;
+            this.phoneNumbers = phoneNumbers;
+        }
+
+        /**
+         * Returns the avatar hash.
+         *
+         * @return the avatar hash, empty if the vCard has no avatar.
+         */
+        String getHash() {
+            return hash;
+        }
+
+        long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * Returns the digits of the phone numbers.
+         *
+         * @return the phone numbers, or null if they were not indexed.
+         */
+        List<String> getPhoneNumbers() {
+            return phoneNumbers;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2004-2011 Jive Software. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.jivesoftware.sparkimpl.profile;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import org.jivesoftware.spark.util.TaskEngine;
+import org.jivesoftware.spark.util.log.Log;
+
+/**
+ * Queue of JIDs whose vCards have to be loaded from the server. The vCards
+ * are loaded by a bounded number of workers, so that at most that many
+ * requests are in flight at once. A JID is only queued once, and JIDs the
+ * user is looking at are loaded before the rest.
+ */
+class VCardFetchQueue {
+
+    private final Consumer<String> loader;
+    private final Predicate<String> priority;
+    private final int maxRequests;
+
+    private final Set<String> urgent = new LinkedHashSet<>();
+    private final Set<String> normal = new LinkedHashSet<>();
+    private final Set<String> inFlight = new HashSet<>();
+    private int workers;
+
+    /**
+     * Creates a new queue.
+     *
+     * @param loader loads the vCard of a JID, blocking until it is loaded.
+     * @param priority tells if a JID should be loaded before the others.
+     * @param maxRequests the maximum number of vCards loaded at once.
+     */
+    VCardFetchQueue(Consumer<String> loader, Predicate<String> priority, int maxRequests) {
+        this.loader = loader;
+        this.priority = priority;
+        this.maxRequests = Math.max(1, maxRequests);
+    }
+
+    /**
+     * Queues a JID, unless it is already queued or being loaded.
+     *
+     * @param jid the bare jid of the user.
+     */
+    void add(String jid) {
+        final boolean isUrgent = priority.test(jid);
+        synchronized (this) {
+            if (inFlight.contains(jid) || urgent.contains(jid)) {
+                return;
+            }
+            if (isUrgent) {
+                normal.remove(jid);
+                urgent.add(jid);
+            } else if (!normal.add(jid)) {
+                return;
+            }
+
+            if (workers < maxRequests) {
+                workers++;
+                TaskEngine.getInstance().submit(this::work);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of JIDs waiting to be loaded.
+     *
+     * @return the number of queued JIDs.
+     */
+    synchronized int size() {
+        return urgent.size() + normal.size();
+    }
+
+    private void work() {
+        while (true) {
+            final String jid;
+            synchronized (this) {
+                jid = poll();
+                if (jid == null) {
+                    workers--;
+                    return;
+                }
+                inFlight.add(jid);
+            }
+
+            try {
+                loader.accept(jid);
+            } catch (Exception e) {
+                Log.error("Unable to load vCard of " + jid, e);
+            } finally {
+                synchronized (this) {
+                    inFlight.remove(jid);
+                }
+            }
+        }
+    }
+
+    private String poll() {
+        final Set<String> queue = !urgent.isEmpty() ? urgent : normal;
+        final Iterator<String> iterator = queue.iterator();
+        if (!iterator.hasNext()) {
+            return null;
+        }
+        final String jid = iterator.next();
+        iterator.remove();
+        return jid;
+    }
+}
@@ -38,7 +38,6 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.LinkedBlockingQueue;
 import javax.imageio.ImageIO;
 import javax.swing.ImageIcon;
 import javax.swing.JComponent;
@@ -61,7 +60,9 @@ import org.jivesoftware.smack.util.StringUtils;
 import org.jivesoftware.smackx.packet.VCard;
 import org.jivesoftware.smackx.provider.VCardProvider;
 import org.jivesoftware.spark.SparkManager;
+import org.jivesoftware.spark.ui.ContactGroup;
 import org.jivesoftware.spark.ui.ContactItem;
+import org.jivesoftware.spark.ui.ContactList;
 import org.jivesoftware.spark.util.Base64;
 import org.jivesoftware.spark.util.GraphicUtils;
 import org.jivesoftware.spark.util.ModelUtil;
@@ -72,6 +73,7 @@ import org.jivesoftware.spark.util.log.Log;
 import org.jivesoftware.sparkimpl.plugin.manager.Enterprise;
 import org.jivesoftware.sparkimpl.profile.ext.JabberAvatarExtension;
 import org.jivesoftware.sparkimpl.profile.ext.VCardUpdateExtension;
+import org.jivesoftware.sparkimpl.settings.local.SettingsManager;
 import org.xmlpull.mxp1.MXParser;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
@@ -83,6 +85,11 @@ import org.xmlpull.v1.XmlPullParserException;
  */
 public class VCardManager {
 
+    /**
+     * Cached vCards older than this are reloaded from the server.
+     */
+    private static final long VCARD_MAX_AGE = 60 * 60 * 1000;
+
     private VCard personalVCard;
 
     private final Map<String, VCard> vcards = Collections.synchronizedMap(new HashMap<String, VCard>());
@@ -99,10 +106,16 @@ public class VCardManager {
 
     final MXParser parser;
 
-    private final LinkedBlockingQueue<String> queue = new LinkedBlockingQueue<>();
+    private final VCardFetchQueue fetchQueue;
+
+    private final VCardCacheIndex cacheIndex;
+
+    private final PhoneNumberIndex phoneIndex = new PhoneNumberIndex();
 
     private final File contactsDir;
 
+    private final AvatarCache avatarCache;
+
     private final List<VCardListener> listeners = new ArrayList<>();
 
     private final List<String> writingQueue = Collections.synchronizedList(new ArrayList<String>());
@@ -128,10 +141,16 @@ public class VCardManager {
         // Set VCard Storage
         vcardStorageDirectory = new File(SparkManager.getUserDirectory(), "vcards");
         vcardStorageDirectory.mkdirs();
+        cacheIndex = new VCardCacheIndex(vcardStorageDirectory);
+        indexPhoneNumbers();
+
+        fetchQueue = new VCardFetchQueue(this::reloadVCard, this::isPriorityContact,
+                SettingsManager.getLocalPreferences().getVCardRequestLimit());
 
         // Set the current user directory.
         contactsDir = new File(SparkManager.getUserDirectory(), "contacts");
         contactsDir.mkdirs();
+        avatarCache = new AvatarCache(contactsDir);
 
         initializeUI();
 
@@ -172,23 +191,9 @@ public class VCardManager {
     }
 
     /**
-     * Listens for new VCards to lookup in a queue.
+     * Listens for vCards that arrive after their request has timed out.
      */
     private void startQueueListener() {
-        final Runnable queueListener = () -> {
-            while (true) {
-                try {
-                    String jid = queue.take();
-                    reloadVCard(jid);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                    break;
-                }
-            }
-        };
-
-        TaskEngine.getInstance().submit(queueListener);
-
         PacketFilter filter = new PacketTypeFilter(VCard.class);
         PacketListener myListener = (Packet packet) -> {
             if (packet instanceof VCard) {
@@ -213,10 +218,34 @@ public class VCardManager {
      * @param jid the jid to lookup.
      */
     public void addToQueue(String jid) {
-        if (!queue.contains(jid)) {
-            queue.add(jid);
+        if (jid != null) {
+            fetchQueue.add(StringUtils.parseBareAddress(jid));
+        }
+    }
+
+    /**
+     * Returns true if the user is looking at a contact, either in an open
+     * chat or in an expanded group of the contact list. Their vCards are
+     * loaded first.
+     *
+     * @param jid the bare jid of the user.
+     * @return true if the vCard should be loaded before the others.
+     */
+    private boolean isPriorityContact(String jid) {
+        if (SparkManager.getChatManager().chatRoomExists(jid)) {
+            return true;
         }
 
+        final ContactList contactList = SparkManager.getWorkspace().getContactList();
+        if (contactList == null) {
+            return false;
+        }
+        final ContactItem item = contactList.getContactItemByJID(jid);
+        if (item == null || item.getGroupName() == null) {
+            return false;
+        }
+        final ContactGroup group = contactList.getContactGroup(item.getGroupName());
+        return group != null && group.isVisible() && !group.isCollapsed();
     }
 
     /**
@@ -478,7 +507,9 @@ public class VCardManager {
             if (vcard.getNickName() != null && vcard.getNickName().length() > 0) {
                 // update nickname.
                 ContactItem item = SparkManager.getWorkspace().getContactList().getContactItemByJID(jid);
-                item.setNickname(vcard.getNickName());
+                if (item != null) {
+                    item.setNickname(vcard.getNickName());
+                }
                 // TODO: this doesn't work if someone removes his nickname. If we remove it in that case, it will cause problems with people using another way to manage their nicknames.
             }
             addVCard(jid, vcard);
@@ -577,20 +608,73 @@ public class VCardManager {
      * @return the vCard which contains the phone number.
      */
     public VCard searchPhoneNumber(String phoneNumber) {
-        for (VCard vcard : vcards.values()) {
-            String homePhone = getNumbersFromPhone(vcard.getPhoneHome("VOICE"));
-            String workPhone = getNumbersFromPhone(vcard.getPhoneWork("VOICE"));
-            String cellPhone = getNumbersFromPhone(vcard.getPhoneWork("CELL"));
-
-            String query = getNumbersFromPhone(phoneNumber);
-            if ((homePhone != null && homePhone.endsWith(query))
-                    || (workPhone != null && workPhone.endsWith(query))
-                    || (cellPhone != null && cellPhone.endsWith(query))) {
-                return vcard;
+        final String jid = phoneIndex.find(phoneNumber);
+        if (jid == null) {
+            return null;
+        }
+
+        final VCard vcard = vcards.get(jid);
+        return vcard != null ? vcard : loadFromFileSystem(jid);
+    }
+
+    /**
+     * Returns the digits of the phone numbers in a vCard.
+     *
+     * @param vcard the vCard.
+     * @return the digits of the home, work and cell phone numbers.
+     */
+    private static List<String> getPhoneNumbers(VCard vcard) {
+        final List<String> numbers = new ArrayList<>();
+        for (String number : new String[]{vcard.getPhoneHome("VOICE"), vcard.getPhoneWork("VOICE"), vcard.getPhoneWork("CELL")}) {
+            final String digits = PhoneNumberIndex.getDigits(number);
+            if (!digits.isEmpty() && !numbers.contains(digits)) {
+                numbers.add(digits);
             }
         }
+        return numbers;
+    }
 
-        return null;
+    /**
+     * Indexes the phone numbers of all cached vCards. The numbers are taken
+     * from the cache index, the vCards cached before the index held the
+     * numbers are read in the background.
+     */
+    private void indexPhoneNumbers() {
+        cacheIndex.forEach((jid, entry) -> {
+            if (entry.getPhoneNumbers() != null) {
+                phoneIndex.put(jid, entry.getPhoneNumbers());
+            }
+        });
+
+        TaskEngine.getInstance().submit(() -> {
+            final File[] files = vcardStorageDirectory.listFiles();
+            if (files == null) {
+                return;
+            }
+            for (File file : files) {
+                // Skips the index, the vCards are stored under Base64 names.
+                if (file.getName().indexOf('.') >= 0) {
+                    continue;
+                }
+                try {
+                    final String jid = new String(Base64.decode(file.getName()));
+                    final VCardCacheIndex.Entry entry = cacheIndex.get(jid);
+                    if (entry != null && entry.getPhoneNumbers() != null) {
+                        continue;
+                    }
+
+                    final VCard vcard = readVCard(file);
+                    final List<String> numbers = getPhoneNumbers(vcard);
+                    final String timestamp = vcard.getField("timestamp");
+                    byte[] bytes = vcard.getAvatar();
+                    cacheIndex.put(jid, bytes != null && bytes.length > 0 ? vcard.getAvatarHash() : null,
+                            timestamp != null ? Long.parseLong(timestamp) : file.lastModified(), numbers);
+                    phoneIndex.put(jid, numbers);
+                } catch (Exception e) {
+                    Log.warning("Unable to index vCard " + file.getName(), e);
+                }
+            }
+        });
     }
 
     /**
@@ -612,6 +696,15 @@ public class VCardManager {
         return number;
     }
 
+    /**
+     * Returns the cache of the decoded avatars of the contacts.
+     *
+     * @return the AvatarCache.
+     */
+    public AvatarCache getAvatarCache() {
+        return avatarCache;
+    }
+
     /**
      * Sets the personal vcard of the user.
      *
@@ -622,21 +715,44 @@ public class VCardManager {
     }
 
     public URL getAvatarURL(String jid) {
-        VCard vcard = getVCard(jid);
+        String hash = getAvatarHashIfAvailable(jid);
+        if (!ModelUtil.hasLength(hash)) {
+            return null;
+        }
+
+        final File avatarFile = new File(contactsDir, hash);
+        try {
+            return avatarFile.toURI().toURL();
+        } catch (MalformedURLException e) {
+            Log.error(e);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the avatar hash of a user. The hash is taken from the vCard in
+     * memory or from the cache index, only if neither knows the user the
+     * vCard is loaded.
+     *
+     * @param jid the users jid.
+     * @return the avatar hash, or null if the user has no avatar.
+     */
+    public String getAvatarHashIfAvailable(String jid) {
+        final String bareJID = StringUtils.parseBareAddress(jid);
+        final VCard vcard = vcards.get(bareJID);
         if (vcard != null) {
-            String hash = vcard.getAvatarHash();
-            if (!ModelUtil.hasLength(hash)) {
-                return null;
-            }
+            return vcard.getAvatarHash();
+        }
 
-            final File avatarFile = new File(contactsDir, hash);
-            try {
-                return avatarFile.toURI().toURL();
-            } catch (MalformedURLException e) {
-                Log.error(e);
+        final VCardCacheIndex.Entry entry = cacheIndex.get(bareJID);
+        if (entry != null) {
+            if (System.currentTimeMillis() - entry.getTimestamp() > VCARD_MAX_AGE) {
+                addToQueue(bareJID);
             }
+            return entry.getHash();
         }
-        return null;
+
+        return getVCard(bareJID).getAvatarHash();
     }
 
     /**
@@ -649,12 +765,7 @@ public class VCardManager {
      *
      */
     public URL getAvatarURLIfAvailable(String jid) {
-        if (getVCard(jid) != null) {
-            return getAvatarURL(jid);
-        } else {
-            addToQueue(jid);
-            return null;
-        }
+        return getAvatarURL(jid);
     }
 
     /**
@@ -676,11 +787,12 @@ public class VCardManager {
         // remove new line (Windows)
         fileName = fileName.replaceAll("\r", "");
 
+        String hash = null;
         byte[] bytes = vcard.getAvatar();
         if (bytes != null && bytes.length > 0) {
             vcard.setAvatar(bytes);
             try {
-                String hash = vcard.getAvatarHash();
+                hash = vcard.getAvatarHash();
                 final File avatarFile = new File(contactsDir, hash);
                 ImageIcon icon = new ImageIcon(bytes);
                 icon = VCardManager.scale(icon);
@@ -697,6 +809,7 @@ public class VCardManager {
                             ImageIO.write(image, "PNG", avatarFile);
                             writingQueue.remove(jid);
                         }
+                        avatarCache.avatarWritten(hash);
 
                     }
                 }
@@ -706,7 +819,8 @@ public class VCardManager {
         }
 
         // Set timestamp
-        vcard.setField("timestamp", Long.toString(System.currentTimeMillis()));
+        final long timestamp = System.currentTimeMillis();
+        vcard.setField("timestamp", Long.toString(timestamp));
 
         final String xml = vcard.toString();
 
@@ -717,6 +831,9 @@ public class VCardManager {
             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(vcardFile), "UTF-8"));
             out.write(xml);
             out.close();
+            final List<String> numbers = getPhoneNumbers(vcard);
+            cacheIndex.put(jid, hash, timestamp, numbers);
+            phoneIndex.put(jid, numbers);
         } catch (IOException e) {
             Log.error(e);
         }
@@ -754,21 +871,26 @@ public class VCardManager {
 
         try {
             // Otherwise load from file system.
-            BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(vcardFile), "UTF-8"));
-            VCardProvider provider = new VCardProvider();
-            parser.setInput(in);
-            VCard vcard = (VCard) provider.parseIQ(parser);
+            final VCard vcard = readVCard(vcardFile);
 
-            // Check to see if the file is older 10 minutes. If so, reload.
+            // Check to see if the file is older than an hour. If so, reload.
             String timestamp = vcard.getField("timestamp");
             if (timestamp != null) {
                 long time = Long.parseLong(timestamp);
                 long now = System.currentTimeMillis();
 
-                long hour = (1000 * 60) * 60;
-                if (now - time > hour) {
+                if (now - time > VCARD_MAX_AGE) {
                     addToQueue(jid);
                 }
+
+                final VCardCacheIndex.Entry entry = cacheIndex.get(jid);
+                if (entry == null || entry.getPhoneNumbers() == null) {
+                    // Cached by a version without the index.
+                    final List<String> numbers = getPhoneNumbers(vcard);
+                    byte[] bytes = vcard.getAvatar();
+                    cacheIndex.put(jid, bytes != null && bytes.length > 0 ? vcard.getAvatarHash() : null, time, numbers);
+                    phoneIndex.put(jid, numbers);
+                }
             }
 
             addVCard(jid, vcard);
@@ -780,6 +902,17 @@ public class VCardManager {
         return null;
     }
 
+    private VCard readVCard(File vcardFile) throws Exception {
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(vcardFile), "UTF-8"))) {
+            VCardProvider provider = new VCardProvider();
+            // The parser is shared by all threads reading vCards.
+            synchronized (parser) {
+                parser.setInput(in);
+                return (VCard) provider.parseIQ(parser);
+            }
+        }
+    }
+
     /**
      * Add <code>VCardListener</code>. Listens to the personalVCard.
      *
@@ -20,9 +20,13 @@ package org.jivesoftware.sparkimpl.settings.local;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.swing.UIManager;
 import org.jivesoftware.Spark;
 import org.jivesoftware.resource.Default;
@@ -38,8 +42,23 @@ import org.jivesoftware.sparkimpl.settings.JiveInfo;
  */
 public class LocalPreferences {
 
+    /**
+     * Marks the cached properties that are not set.
+     */
+    private static final Object ABSENT = new Object();
+
     private Properties props;
 
+    /**
+     * Parsed values of the boolean and integer properties, by name.
+     */
+    private final Map<String, Object> values = new ConcurrentHashMap<>();
+
+    /**
+     * Names of the properties changed since the listeners were last notified.
+     */
+    private final Set<String> changes = new LinkedHashSet<>();
+
     public LocalPreferences(Properties props) {
         this.props = props;
     }
@@ -58,7 +77,7 @@ public class LocalPreferences {
      * @return the XMPP Port to communicate on. Default is 5222.
      */
     public int getXmppPort() {
-        return Integer.parseInt(props.getProperty("xmppPort", "5222"));
+        return getInt("xmppPort", 5222);
     }
 
     /**
@@ -67,7 +86,7 @@ public class LocalPreferences {
      * @param xmppPort the XMPP Port to communicate on. Default is 5222.
      */
     public void setXmppPort(int xmppPort) {
-        props.setProperty("xmppPort", Integer.toString(xmppPort));
+        setInt("xmppPort", xmppPort);
     }
 
     /**
@@ -76,7 +95,7 @@ public class LocalPreferences {
      * @return the smack timeout for requests.
      */
     public int getTimeOut() {
-        return Integer.parseInt(props.getProperty("timeout", "10"));
+        return getInt("timeout", 10);
     }
 
     /**
@@ -86,7 +105,7 @@ public class LocalPreferences {
      * @param timeOut the smack timeout.
      */
     public void setTimeOut(int timeOut) {
-        props.setProperty("timeout", Integer.toString(timeOut));
+        setInt("timeout", timeOut);
     }
 
     /**
@@ -131,7 +150,7 @@ public class LocalPreferences {
     public void setPasswordForUser(String barejid, String password) throws Exception {
         String user = "password" + Encryptor.encrypt(barejid);
         String pw = Encryptor.encrypt(password);
-        props.setProperty(user, pw);
+        setString(user, pw);
     }
 
     /**
@@ -141,7 +160,7 @@ public class LocalPreferences {
      * @return true if IDLE is on.
      */
     public boolean isIdleOn() {
-        return Boolean.parseBoolean(props.getProperty("idleOn", "true"));
+        return getBoolean("idleOn", true);
     }
 
     /**
@@ -151,7 +170,7 @@ public class LocalPreferences {
      * @param idleOn true to turn idle on.
      */
     public void setIdleOn(boolean idleOn) {
-        props.setProperty("idleOn", Boolean.toString(idleOn));
+        setBoolean("idleOn", idleOn);
     }
 
     /**
@@ -200,7 +219,7 @@ public class LocalPreferences {
      * @param message
      */
     public void setIdleMessage(String message) {
-        props.setProperty("idleOnMessage", message);
+        setString("idleOnMessage", message);
     }
 
     /**
@@ -210,7 +229,7 @@ public class LocalPreferences {
      * @return the number of minutes before checking for IDLE computer.
      */
     public int getIdleTime() {
-        return Integer.parseInt(props.getProperty("idleTime", "3"));
+        return getInt("idleTime", 3);
     }
 
     /**
@@ -220,7 +239,7 @@ public class LocalPreferences {
      * @param secondIdleTime the number of minutes.
      */
     public void setIdleTime(int secondIdleTime) {
-        props.setProperty("idleTime", Integer.toString(secondIdleTime));
+        setInt("idleTime", secondIdleTime);
     }
 
     /**
@@ -229,8 +248,7 @@ public class LocalPreferences {
      * @return true if Auto Login is on.
      */
     public boolean isAutoLogin() {
-        return Boolean.parseBoolean(props.getProperty("autoLoginEnabled",
-                "false"));
+        return getBoolean("autoLoginEnabled", false);
     }
 
     /**
@@ -240,7 +258,7 @@ public class LocalPreferences {
      * @param autoLogin true if Auto Login should be on.
      */
     public void setAutoLogin(boolean autoLogin) {
-        props.setProperty("autoLoginEnabled", Boolean.toString(autoLogin));
+        setBoolean("autoLoginEnabled", autoLogin);
     }
 
     /**
@@ -249,8 +267,7 @@ public class LocalPreferences {
      * @return true if Auto Login is on.
      */
     public boolean isLoginAsInvisible() {
-        return Boolean.parseBoolean(props.getProperty("loginAsInvisibleEnabled",
-                "false"));
+        return getBoolean("loginAsInvisibleEnabled", false);
     }
 
     /**
@@ -259,7 +276,7 @@ public class LocalPreferences {
      * @param autoLogin true if Auto Login should be on.
      */
     public void setLoginAsInvisible(boolean loginAsInvisible) {
-        props.setProperty("loginAsInvisibleEnabled", Boolean.toString(loginAsInvisible));
+        setBoolean("loginAsInvisibleEnabled", loginAsInvisible);
     }
 
     /**
@@ -268,8 +285,7 @@ public class LocalPreferences {
      * @return true if the password is encoded and persisted.
      */
     public boolean isSavePassword() {
-        return Boolean
-                .parseBoolean(props.getProperty("passwordSaved", "false"));
+        return getBoolean("passwordSaved", false);
     }
 
     /**
@@ -279,7 +295,7 @@ public class LocalPreferences {
      * @param savePassword true if the password should be saved.
      */
     public void setSavePassword(boolean savePassword) {
-        props.setProperty("passwordSaved", Boolean.toString(savePassword));
+        setBoolean("passwordSaved", savePassword);
     }
 
     /**
@@ -297,7 +313,7 @@ public class LocalPreferences {
      * @param username the agents username.
      */
     public void setLastUsername(String username) {
-        props.setProperty("username", username);
+        setString("username", username);
     }
 
     /**
@@ -315,7 +331,7 @@ public class LocalPreferences {
      * @param server the last Server accessed.
      */
     public void setServer(String server) {
-        props.setProperty("server", server);
+        setString("server", server);
     }
 
     /**
@@ -324,7 +340,7 @@ public class LocalPreferences {
      * @return true if a fresh install.
      */
     public boolean isNewInstall() {
-        return Boolean.parseBoolean(props.getProperty("newInstall", "false"));
+        return getBoolean("newInstall", false);
     }
 
     /**
@@ -333,7 +349,7 @@ public class LocalPreferences {
      * @param newInstall true if this is a fresh install.
      */
     public void setNewInstall(boolean newInstall) {
-        props.setProperty("newInstall", Boolean.toString(newInstall));
+        setBoolean("newInstall", newInstall);
     }
 
     /**
@@ -342,7 +358,7 @@ public class LocalPreferences {
      * @return true if we should connect via SSL.
      */
     public boolean isSSL() {
-        return Boolean.parseBoolean(props.getProperty("sslEnabled", "false"));
+        return getBoolean("sslEnabled", false);
     }
 
     /**
@@ -351,7 +367,7 @@ public class LocalPreferences {
      * @param ssl true if we should be using SSL.
      */
     public void setSSL(boolean ssl) {
-        props.setProperty("sslEnabled", Boolean.toString(ssl));
+        setBoolean("sslEnabled", ssl);
     }
 
     /**
@@ -383,7 +399,7 @@ public class LocalPreferences {
     }
 
     public void setDownloadDir(String downloadDir) {
-        props.setProperty("downloadDirectory", downloadDir);
+        setString("downloadDirectory", downloadDir);
     }
 
     public String getFileExplorer() {
@@ -391,7 +407,7 @@ public class LocalPreferences {
     }
 
     public void setFileExplorer(String fileExplorer) {
-        props.setProperty("fileExplorer", fileExplorer);
+        setString("fileExplorer", fileExplorer);
     }
 
     public boolean isProxyEnabled() {
@@ -407,7 +423,7 @@ public class LocalPreferences {
     }
 
     public void setHost(String host) {
-        props.setProperty("host", host);
+        setString("host", host);
     }
 
     public String getPort() {
@@ -415,7 +431,7 @@ public class LocalPreferences {
     }
 
     public void setPort(String port) {
-        props.setProperty("port", port);
+        setString("port", port);
     }
 
     public String getProxyUsername() {
@@ -423,7 +439,7 @@ public class LocalPreferences {
     }
 
     public void setProxyUsername(String proxyUsername) {
-        props.setProperty("proxyUsername", proxyUsername);
+        setString("proxyUsername", proxyUsername);
     }
 
     public String getProxyPassword() {
@@ -431,7 +447,7 @@ public class LocalPreferences {
     }
 
     public void setProxyPassword(String proxyPassword) {
-        props.setProperty("proxyPassword", proxyPassword);
+        setString("proxyPassword", proxyPassword);
     }
 
     public String getProtocol() {
@@ -439,7 +455,7 @@ public class LocalPreferences {
     }
 
     public void setProtocol(String protocol) {
-        props.setProperty("protocol", protocol);
+        setString("protocol", protocol);
     }
 
     public String getDefaultNickname() {
@@ -447,11 +463,11 @@ public class LocalPreferences {
     }
 
     public void setDefaultNickname(String defaultNickname) {
-        props.setProperty("defaultNickname", defaultNickname);
+        setString("defaultNickname", defaultNickname);
     }
 
     public int getCheckForUpdates() {
-        return Integer.parseInt(props.getProperty("checkForUpdates", "7"));
+        return getInt("checkForUpdates", 7);
     }
 
     public Date getLastCheckForUpdates() {
@@ -467,7 +483,7 @@ public class LocalPreferences {
 
     public void setLastCheckForUpdates(Date lastCheckForUpdates) {
         String time = Long.toString(lastCheckForUpdates.getTime());
-        props.setProperty("lastUpdateCheck", time);
+        setString("lastUpdateCheck", time);
     }
 
     public String getXmppHost() {
@@ -475,7 +491,7 @@ public class LocalPreferences {
     }
 
     public void setXmppHost(String xmppHost) {
-        props.setProperty("xmppHost", xmppHost);
+        setString("xmppHost", xmppHost);
     }
 
     public boolean isHostAndPortConfigured() {
@@ -496,7 +512,7 @@ public class LocalPreferences {
     }
 
     public void setResource(String resource) {
-        props.setProperty("resource", resource);
+        setString("resource", resource);
     }
 
     public boolean isStartedHidden() {
@@ -524,7 +540,7 @@ public class LocalPreferences {
     }
 
     public void setTimeFormat(String format) {
-        props.setProperty("timeFormat", format);
+        setString("timeFormat", format);
     }
 
     public String getTimeFormat() {
@@ -598,26 +614,23 @@ public class LocalPreferences {
     }
 
     public int getFileTransferTimeout() {
-        return Integer.parseInt(props.getProperty("fileTransferTimeout", "30"));
+        return getInt("fileTransferTimeout", 30);
     }
 
     public void setFileTransferTimeout(int minutes) {
-        props.setProperty("fileTransferTimeout", Integer.toString(minutes));
+        setInt("fileTransferTimeout", minutes);
     }
 
     public void setChatLengthDefaultTimeout(int minutes) {
-        props
-                .setProperty("defaultChatLengthTimeout", Integer
-                        .toString(minutes));
+        setInt("defaultChatLengthTimeout", minutes);
     }
 
     public int getChatLengthDefaultTimeout() {
-        return Integer.parseInt(props.getProperty("defaultChatLengthTimeout",
-                "15"));
+        return getInt("defaultChatLengthTimeout", 15);
     }
 
     public void setNickname(String nickname) {
-        props.setProperty("nickname", nickname);
+        setString("nickname", nickname);
     }
 
     public String getNickname() {
@@ -683,7 +696,7 @@ public class LocalPreferences {
     }
 
     public void setTheme(String theme) {
-        props.setProperty("theme", theme);
+        setString("theme", theme);
     }
 
     public String getTheme() {
@@ -691,7 +704,7 @@ public class LocalPreferences {
     }
 
     public void setEmoticonPack(String pack) {
-        props.setProperty("emoticonPack", pack);
+        setString("emoticonPack", pack);
     }
 
     public String getEmoticonPack() {
@@ -834,6 +847,20 @@ public class LocalPreferences {
         setBoolean("isMucHighToastOn", setMucPHigh);
     }
 
+    /**
+     * Returns the comma separated keywords that highlight a group chat
+     * message, besides the user's own name.
+     *
+     * @return the keywords, empty if there are none.
+     */
+    public String getMucHighlightKeywords() {
+        return getString("mucHighlightKeywords", "");
+    }
+
+    public void setMucHighlightKeywords(String keywords) {
+        setString("mucHighlightKeywords", keywords);
+    }
+
     public void setShowRoleIconInsteadStatusIcon(boolean roleicons) {
         setBoolean("isShowingRoleIcons", roleicons);
     }
@@ -855,7 +882,7 @@ public class LocalPreferences {
     }
 
     public void setSSOMethod(String method) {
-        props.setProperty("ssoMethod", method);
+        setString("ssoMethod", method);
     }
 
     public String getSSOMethod() {
@@ -863,7 +890,7 @@ public class LocalPreferences {
     }
 
     public void setSSORealm(String realm) {
-        props.setProperty("ssoRealm", realm);
+        setString("ssoRealm", realm);
     }
 
     public String getSSORealm() {
@@ -871,7 +898,7 @@ public class LocalPreferences {
     }
 
     public void setSSOKDC(String kdc) {
-        props.setProperty("ssoKDC", kdc);
+        setString("ssoKDC", kdc);
     }
 
     public String getSSOKDC() {
@@ -887,7 +914,7 @@ public class LocalPreferences {
     }
 
     public void setPKIStore(String type) {
-        props.setProperty("pkiStore", type);
+        setString("pkiStore", type);
     }
 
     public String getPKIStore() {
@@ -895,7 +922,7 @@ public class LocalPreferences {
     }
 
     public void setJKSPath(String file) {
-        props.setProperty("jksPath", file);
+        setString("jksPath", file);
     }
 
     public String getJKSPath() {
@@ -903,7 +930,7 @@ public class LocalPreferences {
     }
 
     public void setPKCS11Library(String file) {
-        props.setProperty("pkcs11Library", file);
+        setString("pkcs11Library", file);
     }
 
     public String getPKCS11Library() {
@@ -911,7 +938,7 @@ public class LocalPreferences {
     }
 
     public void setTrustStorePath(String file) {
-        props.setProperty("trustStorePath", file);
+        setString("trustStorePath", file);
     }
 
     public String getTrustStorePath() {
@@ -919,7 +946,7 @@ public class LocalPreferences {
     }
 
     public void setTrustStorePassword(String password) {
-        props.setProperty("trustStorePassword", password);
+        setString("trustStorePassword", password);
     }
 
     public String getTrustStorePassword() {
@@ -958,6 +985,47 @@ public class LocalPreferences {
         return getInt("contactListIconSize", 24);
     }
 
+    /**
+     * Sets the maximum number of vCards requested from the server at once.
+     *
+     * @param limit the maximum number of vCard requests.
+     */
+    public void setVCardRequestLimit(int limit) {
+        setInt("vcardRequestLimit", limit);
+    }
+
+    public int getVCardRequestLimit() {
+        return getInt("vcardRequestLimit", 4);
+    }
+
+    /**
+     * Sets the maximum number of messages shown in a chat window, older
+     * messages are removed from the window.
+     *
+     * @param limit the maximum number of messages, 0 for unlimited.
+     */
+    public void setChatScrollbackLimit(int limit) {
+        setInt("chatScrollbackLimit", limit);
+    }
+
+    public int getChatScrollbackLimit() {
+        return getInt("chatScrollbackLimit", 1000);
+    }
+
+    /**
+     * Sets the JPEG quality of the screenshots sent. With 0, screenshots are
+     * sent as PNG or JPEG depending on their content.
+     *
+     * @param quality the quality in percent, 0 to choose automatically.
+     */
+    public void setScreenshotQuality(int quality) {
+        setInt("screenshotQuality", quality);
+    }
+
+    public int getScreenshotQuality() {
+        return getInt("screenshotQuality", 0);
+    }
+
     public void setChatRoomFontSize(int fontSize) {
         setInt("chatRoomFontSize", fontSize);
     }
@@ -967,7 +1035,7 @@ public class LocalPreferences {
     }
 
     public void setLanguage(String language) {
-        props.setProperty("language", language);
+        setString("language", language);
     }
 
     public String getLanguage() {
@@ -991,7 +1059,7 @@ public class LocalPreferences {
     }
 
     public void setAudioSystem(String device) {
-        props.setProperty("audioSystem", device);
+        setString("audioSystem", device);
     }
 
     public String getAudioSystem() {
@@ -999,7 +1067,7 @@ public class LocalPreferences {
     }
 
     public void setAudioDevice(String device) {
-        props.setProperty("audioDevice", device);
+        setString("audioDevice", device);
     }
 
     public String getAudioDevice() {
@@ -1007,7 +1075,7 @@ public class LocalPreferences {
     }
 
     public void setPlaybackDevice(String device) {
-        props.setProperty("playbackDevice", device);
+        setString("playbackDevice", device);
     }
 
     public String getPlaybackDevice() {
@@ -1015,7 +1083,7 @@ public class LocalPreferences {
     }
 
     public void setVideoDevice(String device) {
-        props.setProperty("videoDevice", device);
+        setString("videoDevice", device);
     }
 
     public String getVideoDevice() {
@@ -1087,21 +1155,51 @@ public class LocalPreferences {
     }
 
     private boolean getBoolean(String property, boolean defaultValue) {
-        return Boolean.parseBoolean(props.getProperty(property, Boolean
-                .toString(defaultValue)));
+        final Object value = getValue(property, Boolean.class);
+        return value != ABSENT ? (Boolean) value : defaultValue;
     }
 
     private void setBoolean(String property, boolean value) {
-        props.setProperty(property, Boolean.toString(value));
+        setString(property, Boolean.toString(value));
     }
 
     private int getInt(String property, int defaultValue) {
-        return Integer.parseInt(props.getProperty(property, Integer
-                .toString(defaultValue)));
+        final Object value = getValue(property, Integer.class);
+        return value != ABSENT ? (Integer) value : defaultValue;
     }
 
     private void setInt(String property, int value) {
-        props.setProperty(property, Integer.toString(value));
+        setString(property, Integer.toString(value));
+    }
+
+    /**
+     * Returns the parsed value of a property, parsing it on first use.
+     *
+     * @param property the name of the property.
+     * @param type Boolean or Integer.
+     * @return the value, or ABSENT if the property is not set or not valid.
+     */
+    private Object getValue(String property, Class<?> type) {
+        final Object value = values.get(property);
+        if (value != null && (value == ABSENT || type.isInstance(value))) {
+            return value;
+        }
+
+        // Parse under the lock, so a concurrent set cannot be overwritten
+        // with the old value.
+        synchronized (values) {
+            final String text = props.getProperty(property);
+            Object parsed = ABSENT;
+            if (text != null) {
+                try {
+                    parsed = type == Integer.class ? Integer.valueOf(text.trim()) : Boolean.valueOf(text.trim());
+                } catch (NumberFormatException e) {
+                    // Use the default value.
+                }
+            }
+            values.put(property, parsed);
+            return parsed;
+        }
     }
 
     private String getString(String property, String defaultValue) {
@@ -1109,7 +1207,26 @@ public class LocalPreferences {
     }
 
     private void setString(String property, String value) {
-        props.setProperty(property, value);
+        synchronized (values) {
+            final Object old = props.setProperty(property, value);
+            values.remove(property);
+            if (!value.equals(old)) {
+                changes.add(property);
+            }
+        }
+    }
+
+    /**
+     * Returns the names of the properties changed since the last call.
+     *
+     * @return the changed properties, in the order they were first changed.
+     */
+    Set<String> takeChanges() {
+        synchronized (values) {
+            final Set<String> changed = new LinkedHashSet<>(changes);
+            changes.clear();
+            return changed;
+        }
     }
 
     public boolean isAutoAcceptMucInvite() {
@@ -17,6 +17,8 @@
  */
 package org.jivesoftware.sparkimpl.settings.local;
 
+import java.util.Set;
+
 /**
  * Implement this interface to be notified that the preferences have been
  * changed.
@@ -31,4 +33,16 @@ public interface PreferenceListener {
      * @param preference the new preferences.
      */
     void preferencesChanged(LocalPreferences preference);
+
+    /**
+     * Notified when preferences are changed, with the names of the properties
+     * that changed. Listeners interested in a few properties can override this
+     * method to ignore the other changes.
+     *
+     * @param preference the new preferences.
+     * @param changes the names of the changed properties.
+     */
+    default void preferencesChanged(LocalPreferences preference, Set<String> changes) {
+        preferencesChanged(preference);
+    }
 }
@@ -21,12 +21,19 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TimerTask;
 import org.jivesoftware.Spark;
 import org.jivesoftware.resource.SparkRes;
+import org.jivesoftware.spark.util.AtomicFile;
+import org.jivesoftware.spark.util.TaskEngine;
 import org.jivesoftware.spark.util.WinRegistry;
 import org.jivesoftware.spark.util.log.Log;
 
@@ -41,6 +48,20 @@ public class SettingsManager {
 
     private static boolean fileExists = false;
 
+    /**
+     * Time saves are collected before the settings are written, in
+     * milliseconds.
+     */
+    private static final long SAVE_DELAY = 500;
+
+    private static final Object WRITE_LOCK = new Object();
+
+    private static TimerTask saveTask;
+
+    private static boolean shutdownHookAdded;
+
+    private static Boolean registeredStartOnStartup;
+
     private SettingsManager() {
     }
 
@@ -73,17 +94,76 @@ public class SettingsManager {
     }
 
     /**
-     * Persists the settings to the local file system.
+     * Persists the settings to the local file system. The settings are
+     * written in the background shortly after, together with the changes made
+     * in the meantime.
      */
     public static void saveSettings() {
-        final Properties props = localPreferences.getProperties();
+        synchronized (SettingsManager.class) {
+            if (saveTask != null) {
+                return;
+            }
+            if (!shutdownHookAdded) {
+                Runtime.getRuntime().addShutdownHook(new Thread(SettingsManager::flushSettings, "Settings Writer"));
+                shutdownHookAdded = true;
+            }
+            saveTask = new TimerTask() {
+                @Override
+                public void run() {
+                    synchronized (SettingsManager.class) {
+                        if (saveTask != this) {
+                            return;
+                        }
+                        saveTask = null;
+                    }
+                    writeSettings();
+                }
+            };
+            TaskEngine.getInstance().schedule(saveTask, SAVE_DELAY, TaskEngine.TaskType.IO);
+        }
+    }
 
-        try {
-            props.store(new FileOutputStream(getSettingsFile()), "Spark Settings");
-        } catch (IOException e) {
-            Log.error("Error saving settings.", e);
+    /**
+     * Writes the settings now if a save is pending.
+     */
+    public static void flushSettings() {
+        synchronized (SettingsManager.class) {
+            if (saveTask == null) {
+                return;
+            }
+            TaskEngine.getInstance().cancelScheduledTask(saveTask);
+            saveTask = null;
         }
+        writeSettings();
+    }
+
+    private static void writeSettings() {
+        synchronized (WRITE_LOCK) {
+            final Properties props = localPreferences.getProperties();
+            final File file = getSettingsFile();
+            final File temp = new File(file.getPath() + ".tmp");
 
+            final long start = System.currentTimeMillis();
+            try {
+                try (OutputStream out = new FileOutputStream(temp)) {
+                    props.store(out, "Spark Settings");
+                }
+                AtomicFile.replace(temp, file);
+            } catch (IOException e) {
+                Log.error("Error saving settings.", e);
+            }
+            Log.debug("Saved settings in " + (System.currentTimeMillis() - start) + " ms");
+
+            // Only touch the registry when the setting changed.
+            final boolean startOnStartup = localPreferences.getStartOnStartup();
+            if (registeredStartOnStartup == null || registeredStartOnStartup != startOnStartup) {
+                registeredStartOnStartup = startOnStartup;
+                updateStartOnStartup();
+            }
+        }
+    }
+
+    private static void updateStartOnStartup() {
         if (localPreferences.getStartOnStartup()) {
             try {
                 if (Spark.isWindows()) {
@@ -148,8 +228,8 @@ public class SettingsManager {
 
     private static LocalPreferences load() {
         final Properties props = new Properties();
-        try {
-            props.load(new FileInputStream(getSettingsFile()));
+        try (InputStream in = new FileInputStream(getSettingsFile())) {
+            props.load(in);
         } catch (IOException e) {
             Log.error(e);
             return new LocalPreferences();
@@ -158,8 +238,8 @@ public class SettingsManager {
         // Override with global settings file
         File globalSettingsFile = new File("spark.properties");
         if (globalSettingsFile.exists()) {
-            try {
-                props.load(new FileInputStream(globalSettingsFile));
+            try (InputStream in = new FileInputStream(globalSettingsFile)) {
+                props.load(in);
             } catch (IOException e) {
                 Log.error(e);
             }
@@ -176,9 +256,20 @@ public class SettingsManager {
         listeners.remove(listener);
     }
 
+    /**
+     * Notifies the listeners of the preferences changed since the last
+     * notification. Nothing is sent if no preference changed.
+     */
     public static void fireListeners() {
+        if (localPreferences == null) {
+            return;
+        }
+        final Set<String> changes = Collections.unmodifiableSet(localPreferences.takeChanges());
+        if (changes.isEmpty()) {
+            return;
+        }
         listeners.stream().forEach((listener) -> {
-            listener.preferencesChanged(localPreferences);
+            listener.preferencesChanged(localPreferences, changes);
         });
     }
 }
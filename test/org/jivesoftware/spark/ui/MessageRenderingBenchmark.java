@@ -0,0 +1,213 @@
+package org.jivesoftware.spark.ui;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.StringTokenizer;
+import javax.swing.ImageIcon;
+import javax.swing.JTextPane;
+import javax.swing.SwingUtilities;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+import org.jivesoftware.sparkimpl.plugin.emoticons.Emoticon;
+import org.jivesoftware.sparkimpl.plugin.emoticons.EmoticonMatcher;
+
+/**
+ * Times rendering messages the way ChatArea.insert did before and after
+ * MessageTokenizer. Not part of the JUnit suite, run it with
+ * <code>java org.jivesoftware.spark.ui.MessageRenderingBenchmark [messages] [rounds]</code>.
+ * <p>
+ * A ChatArea needs a running Spark for its emoticons and settings, so both
+ * variants replay the steps of ChatArea.insert on a text pane:
+ * <ul>
+ * <li>before: split with a StringTokenizer, look up every word in the
+ * emoticon pack one equivalent at a time, insert every word on its own;</li>
+ * <li>after: find the spans with MessageTokenizer and EmoticonMatcher, insert
+ * the message as one ChatDocument batch.</li>
+ * </ul>
+ */
+public class MessageRenderingBenchmark {
+
+    private static final String[] WORDS = {
+        "the", "meeting", "is", "moved", "to", "tomorrow", "morning", "can", "you", "check", "build", "again",
+        "thanks", "ok", "see", "logs", "server", "restarted", "deploy", "done", "lunch", "anyone", "sure", "why",
+        "not", "let", "me", "know", "when", "ready", "ticket", "updated", "review", "please", "merged", "yes"};
+
+    private static final String[] LINKS = {
+        "http://www.igniterealtime.org/projects/spark/", "https://example.com/build/1234/console",
+        "www.example.org/wiki/Release_Notes", "ftp://files.example.com/pub/spark.tar.gz"};
+
+    private static final String[] ADDRESSES = {"\\\\fileserver\\share\\notes.txt", "smb://fileserver/share"};
+
+    private static final List<Emoticon> PACK = new ArrayList<>();
+
+    static {
+        // The size of a typical pack, most emoticons with a few equivalents.
+        final String[] faces = {":)", ":-)", ":(", ":-(", ";)", ";-)", ":D", ":-D", ":P", ":-P", ":o", ":-O", ":|",
+            ":-|", ":/", ":-/", ":'(", ":*", ":-*", "8)", "8-)", ":$", ":-$", ":@", ":-@", "<3", "</3", "(y)", "(n)",
+            "(beer)", "(coffee)", "(cake)", "(music)", "(mail)", "(phone)", "(star)", "(sun)", "(moon)", "(rain)",
+            "(umbrella)", "(flower)", "(gift)", "(clock)", "(ok)", "(wave)", "(think)", "(angel)", "(devil)"};
+        for (int i = 0; i < faces.length; i += 2) {
+            final List<String> equivalents = i + 1 < faces.length
+                    ? Arrays.asList(faces[i], faces[i + 1]) : Arrays.asList(faces[i]);
+            PACK.add(new Emoticon("emoticon" + i + ".png", "emoticon" + i, equivalents, null));
+        }
+    }
+
+    private static final ImageIcon ICON = new ImageIcon(new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB));
+
+    public static void main(String[] args) throws Exception {
+        final int messages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        final List<String> corpus = createCorpus(messages, new Random(11));
+        final EmoticonMatcher matcher = new EmoticonMatcher(PACK);
+
+        SwingUtilities.invokeAndWait(() -> {
+            try {
+                // Warm up both variants before measuring.
+                for (int i = 0; i < 3; i++) {
+                    renderBefore(corpus);
+                    renderAfter(corpus, matcher);
+                }
+                long before = Long.MAX_VALUE;
+                long after = Long.MAX_VALUE;
+                for (int i = 0; i < rounds; i++) {
+                    before = Math.min(before, renderBefore(corpus));
+                    after = Math.min(after, renderAfter(corpus, matcher));
+                }
+                System.out.println(messages + " messages, best of " + rounds + " rounds");
+                System.out.printf("before: %8.1f ms, %6.1f us/message%n", before / 1e6, before / 1e3 / messages);
+                System.out.printf("after:  %8.1f ms, %6.1f us/message%n", after / 1e6, after / 1e3 / messages);
+            } catch (BadLocationException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    /**
+     * Creates chat messages: mostly short lines of words, some with
+     * emoticons, links or addresses, and a few long pasted lines.
+     */
+    private static List<String> createCorpus(int count, Random random) {
+        final List<String> corpus = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final int length = random.nextInt(20) == 0 ? 80 + random.nextInt(120) : 2 + random.nextInt(14);
+            final StringBuilder message = new StringBuilder();
+            for (int j = 0; j < length; j++) {
+                if (j > 0) {
+                    message.append(random.nextInt(30) == 0 ? "\n" : " ");
+                }
+                final int kind = random.nextInt(100);
+                if (kind < 6) {
+                    final List<String> equivalents = PACK.get(random.nextInt(PACK.size())).getEquivalants();
+                    message.append(equivalents.get(random.nextInt(equivalents.size())));
+                } else if (kind < 8) {
+                    message.append(LINKS[random.nextInt(LINKS.length)]);
+                } else if (kind < 9) {
+                    message.append(ADDRESSES[random.nextInt(ADDRESSES.length)]);
+                } else {
+                    message.append(WORDS[random.nextInt(WORDS.length)]);
+                }
+            }
+            corpus.add(message.toString());
+        }
+        return corpus;
+    }
+
+    private static long renderBefore(List<String> corpus) throws BadLocationException {
+        final JTextPane pane = new JTextPane(new ChatDocument());
+        final Document doc = pane.getDocument();
+        final SimpleAttributeSet text = new SimpleAttributeSet();
+        final SimpleAttributeSet link = linkAttributes();
+        final SimpleAttributeSet image = imageAttributes();
+
+        final long start = System.nanoTime();
+        for (String message : corpus) {
+            final StringTokenizer tokenizer = new StringTokenizer(message, " \n \t", true);
+            while (tokenizer.hasMoreTokens()) {
+                final String textFound = tokenizer.nextToken();
+                if ((textFound.startsWith("http://") || textFound.startsWith("ftp://")
+                        || textFound.startsWith("https://") || textFound.startsWith("www."))
+                        && textFound.indexOf('.') > 1) {
+                    insert(pane, doc, textFound, link);
+                } else if (textFound.startsWith("\\\\") || (textFound.indexOf("://") > 0 && textFound.indexOf('.') < 1)) {
+                    insert(pane, doc, textFound, link);
+                } else if (getEmoticon(textFound) != null) {
+                    insert(pane, doc, " ", image);
+                } else {
+                    insert(pane, doc, textFound, text);
+                }
+            }
+            insert(pane, doc, "\n", text);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long renderAfter(List<String> corpus, EmoticonMatcher matcher) throws BadLocationException {
+        final JTextPane pane = new JTextPane(new ChatDocument());
+        final ChatDocument doc = (ChatDocument) pane.getDocument();
+        final SimpleAttributeSet text = new SimpleAttributeSet();
+        final SimpleAttributeSet link = linkAttributes();
+        final SimpleAttributeSet image = imageAttributes();
+
+        final long start = System.nanoTime();
+        for (String message : corpus) {
+            int plainStart = 0;
+            for (MessageTokenizer.Span span : MessageTokenizer.tokenize(message, matcher)) {
+                if (span.start > plainStart) {
+                    doc.addBatchString(message.substring(plainStart, span.start), text);
+                }
+                if (span.type == MessageTokenizer.Type.EMOTICON) {
+                    doc.addBatchString(" ", image);
+                } else {
+                    doc.addBatchString(message.substring(span.start, span.end), link);
+                }
+                plainStart = span.end;
+            }
+            if (plainStart < message.length()) {
+                doc.addBatchString(message.substring(plainStart), text);
+            }
+            doc.addBatchString("\n", text);
+            doc.insertBatch(doc.getLength());
+            pane.setCaretPosition(doc.getLength());
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void insert(JTextPane pane, Document doc, String text, SimpleAttributeSet attributes)
+            throws BadLocationException {
+        doc.insertString(doc.getLength(), text, attributes);
+        pane.setCaretPosition(doc.getLength());
+    }
+
+    private static SimpleAttributeSet linkAttributes() {
+        final SimpleAttributeSet attributes = new SimpleAttributeSet();
+        attributes.addAttribute("link", "link");
+        StyleConstants.setUnderline(attributes, true);
+        return attributes;
+    }
+
+    private static SimpleAttributeSet imageAttributes() {
+        final SimpleAttributeSet attributes = new SimpleAttributeSet();
+        StyleConstants.setIcon(attributes, ICON);
+        return attributes;
+    }
+
+    /**
+     * Looks up an emoticon the way EmoticonManager used to.
+     */
+    private static Emoticon getEmoticon(String key) {
+        for (Emoticon emoticon : PACK) {
+            for (String string : emoticon.getEquivalants()) {
+                if (key.toLowerCase().equals(string.toLowerCase())) {
+                    return emoticon;
+                }
+            }
+        }
+        return null;
+    }
+}
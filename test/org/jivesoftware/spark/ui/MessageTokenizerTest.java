@@ -0,0 +1,144 @@
+package org.jivesoftware.spark.ui;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.StringTokenizer;
+import org.jivesoftware.sparkimpl.plugin.emoticons.Emoticon;
+import org.jivesoftware.sparkimpl.plugin.emoticons.EmoticonMatcher;
+import org.junit.Test;
+
+public class MessageTokenizerTest {
+
+    private static final Emoticon SMILE = emoticon("smile", ":)", ":-)");
+    private static final Emoticon LAUGH = emoticon("laugh", ":))", ":-))");
+    private static final Emoticon GRIN = emoticon("grin", ":D");
+    private static final Emoticon SURPRISED = emoticon("surprised", ":o");
+    // Shares its equivalent with SURPRISED, which comes first.
+    private static final Emoticon SHOCKED = emoticon("shocked", ":O", "8-O");
+    private static final Emoticon HEART = emoticon("heart", "<3");
+    private static final Emoticon HEARTS = emoticon("hearts", "<33", "<333");
+    private static final Emoticon THUMBS_UP = emoticon("thumbs up", "(y)");
+
+    private static final List<Emoticon> PACK = Arrays.asList(SMILE, LAUGH, GRIN, SURPRISED, SHOCKED, HEART, HEARTS,
+            THUMBS_UP);
+
+    private static final String[] FRAGMENTS = {
+        "http://", "https://", "ftp://", "www.", "://", "\\\\", "\\", ".", "..", ":", "/", "-",
+        ":)", ":))", ":-)", ":-))", ":D", ":d", ":o", ":O", "8-O", "<3", "<33", "<333", "(y)", "(Y)",
+        "a", "B", "spark", "example.com", "x.y", "1", " ", " ", "  ", "\n", "\t"};
+
+    @Test
+    public void testLongestEquivalentMatches() {
+        final EmoticonMatcher matcher = new EmoticonMatcher(PACK);
+        assertSame(SMILE, matcher.match(":)"));
+        assertSame(LAUGH, matcher.match(":))"));
+        assertSame(LAUGH, matcher.match(":-))"));
+        assertSame(HEART, matcher.match("<3"));
+        assertSame(HEARTS, matcher.match("<33"));
+        assertSame(HEARTS, matcher.match("<333"));
+        assertNull(matcher.match(":)))"));
+        assertNull(matcher.match("<3333"));
+        assertNull(matcher.match(":"));
+    }
+
+    @Test
+    public void testOverlappingEquivalents() {
+        final EmoticonMatcher matcher = new EmoticonMatcher(PACK);
+        // Equivalents are matched ignoring case, the first emoticon wins.
+        assertSame(SURPRISED, matcher.match(":o"));
+        assertSame(SURPRISED, matcher.match(":O"));
+        assertSame(SHOCKED, matcher.match("8-o"));
+        assertSame(GRIN, matcher.match(":d"));
+        assertSame(THUMBS_UP, matcher.match("(Y)"));
+        for (String equivalent : new String[]{":)", ":))", ":-)", ":-))", ":D", ":o", ":O", "8-O", "<3", "<33",
+            "<333", "(y)", "(Y)", "x", ""}) {
+            assertSame(equivalent, getEmoticon(equivalent), matcher.match(equivalent));
+        }
+    }
+
+    @Test
+    public void testEmoticonsMatchWholeWords() {
+        final EmoticonMatcher matcher = new EmoticonMatcher(PACK);
+        assertEquals("[EMOTICON 0-3, EMOTICON 4-6]", describe(MessageTokenizer.tokenize(":))\t:)", matcher)));
+        assertEquals("[]", describe(MessageTokenizer.tokenize("a:) :)b", matcher)));
+        assertEquals("[]", describe(MessageTokenizer.tokenize(":) :D", null)));
+    }
+
+    @Test
+    public void testSameClassificationAsBefore() {
+        final EmoticonMatcher matcher = new EmoticonMatcher(PACK);
+        final Random random = new Random(11);
+        for (int i = 0; i < 20000; i++) {
+            final StringBuilder text = new StringBuilder();
+            for (int j = random.nextInt(12); j > 0; j--) {
+                text.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+            }
+            final String message = text.toString();
+            final boolean emoticons = random.nextInt(4) != 0;
+
+            final List<MessageTokenizer.Span> spans = MessageTokenizer.tokenize(message, emoticons ? matcher : null);
+            assertEquals(message, classifyAsBefore(message, emoticons), describe(spans));
+            for (MessageTokenizer.Span span : spans) {
+                if (span.type == MessageTokenizer.Type.EMOTICON) {
+                    final String word = message.substring(span.start, span.end);
+                    assertSame(word, getEmoticon(word), matcher.match(message, span.start, span.end));
+                }
+            }
+        }
+    }
+
+    /**
+     * Splits a message and classifies its words the way ChatArea used to.
+     */
+    private static String classifyAsBefore(String text, boolean emoticons) {
+        final List<String> spans = new ArrayList<>();
+        final StringTokenizer tokenizer = new StringTokenizer(text, " \n \t", true);
+        int position = 0;
+        while (tokenizer.hasMoreTokens()) {
+            final String textFound = tokenizer.nextToken();
+            final int start = position;
+            position += textFound.length();
+            if ((textFound.startsWith("http://") || textFound.startsWith("ftp://")
+                    || textFound.startsWith("https://") || textFound.startsWith("www."))
+                    && textFound.indexOf('.') > 1) {
+                spans.add("LINK " + start + "-" + position);
+            } else if (textFound.startsWith("\\\\") || (textFound.indexOf("://") > 0 && textFound.indexOf('.') < 1)) {
+                spans.add("ADDRESS " + start + "-" + position);
+            } else if (emoticons && getEmoticon(textFound) != null) {
+                spans.add("EMOTICON " + start + "-" + position);
+            }
+        }
+        return spans.toString();
+    }
+
+    /**
+     * Looks up an emoticon the way EmoticonManager used to.
+     */
+    private static Emoticon getEmoticon(String key) {
+        for (Emoticon emoticon : PACK) {
+            for (String string : emoticon.getEquivalants()) {
+                if (key.toLowerCase().equals(string.toLowerCase())) {
+                    return emoticon;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String describe(List<MessageTokenizer.Span> spans) {
+        final List<String> described = new ArrayList<>();
+        for (MessageTokenizer.Span span : spans) {
+            described.add(span.type + " " + span.start + "-" + span.end);
+        }
+        return described.toString();
+    }
+
+    private static Emoticon emoticon(String name, String... equivalents) {
+        return new Emoticon(name + ".png", name, Arrays.asList(equivalents), null);
+    }
+}
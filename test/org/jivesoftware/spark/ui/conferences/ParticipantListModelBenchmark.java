@@ -0,0 +1,69 @@
+package org.jivesoftware.spark.ui.conferences;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Times the join and part flood of a room with thousands of occupants. Not
+ * part of the JUnit suite, run it with
+ * <code>java org.jivesoftware.spark.ui.conferences.ParticipantListModelBenchmark [occupants] [rounds]</code>.
+ */
+public class ParticipantListModelBenchmark {
+
+    private static final String[][] ROLES = {
+        {"owner", "moderator"}, {"admin", "moderator"}, {"member", "moderator"}, {"none", "moderator"},
+        {"member", "participant"}, {"none", "participant"}, {"none", "visitor"}};
+
+    /**
+     * Presences arrive in batches, as they are drained on the event dispatch
+     * thread.
+     */
+    private static final int BATCH = 200;
+
+    public static void main(String[] args) {
+        final int occupants = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        final Random random = new Random(42);
+        final List<String> nicknames = new ArrayList<>();
+        final List<String[]> roles = new ArrayList<>();
+        for (int i = 0; i < occupants; i++) {
+            nicknames.add("user" + Integer.toString(random.nextInt(Integer.MAX_VALUE), 36) + i);
+            roles.add(ROLES[random.nextInt(ROLES.length)]);
+        }
+
+        long join = Long.MAX_VALUE;
+        long part = Long.MAX_VALUE;
+        // The first rounds warm up.
+        for (int round = -3; round < rounds; round++) {
+            final ParticipantListModel model = new ParticipantListModel();
+            model.setSortByRank(true);
+
+            long start = System.nanoTime();
+            for (int i = 0; i < occupants; i += BATCH) {
+                model.beginUpdate();
+                for (int j = i; j < Math.min(occupants, i + BATCH); j++) {
+                    model.put(nicknames.get(j), null, roles.get(j)[0], roles.get(j)[1]);
+                }
+                model.endUpdate();
+            }
+            final long joined = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            model.beginUpdate();
+            for (String nickname : nicknames) {
+                model.remove(nickname);
+            }
+            model.endUpdate();
+            final long parted = System.nanoTime() - start;
+
+            if (round >= 0) {
+                join = Math.min(join, joined);
+                part = Math.min(part, parted);
+            }
+        }
+        System.out.println(occupants + " occupants in batches of " + BATCH + ", best of " + rounds + " rounds");
+        System.out.printf("join: %6.1f ms%n", join / 1e6);
+        System.out.printf("part: %6.1f ms%n", part / 1e6);
+    }
+}
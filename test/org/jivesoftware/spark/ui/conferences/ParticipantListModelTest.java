@@ -0,0 +1,124 @@
+package org.jivesoftware.spark.ui.conferences;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import org.junit.Test;
+
+public class ParticipantListModelTest {
+
+    private static final String[][] ROLES = {
+        {"owner", "moderator"}, {"admin", "moderator"}, {"member", "moderator"}, {"none", "moderator"},
+        {"member", "participant"}, {"none", "participant"}, {"none", "visitor"}};
+
+    @Test
+    public void testSortedByRankAndNickname() {
+        ParticipantListModel model = new ParticipantListModel();
+        model.setSortByRank(true);
+        model.put("zed", null, "owner", "moderator");
+        model.put("Bob", null, "none", "participant");
+        model.put("alice", null, "none", "participant");
+        model.put("carol", null, "none", "visitor");
+        model.put("invited", null, null, null);
+
+        assertEquals("[zed, alice, Bob, carol, invited]", model.getParticipants().toString());
+        assertEquals(2, model.indexOf("Bob"));
+
+        // A role change moves the occupant.
+        model.put("carol", null, "admin", "moderator");
+        assertEquals("[zed, carol, alice, Bob, invited]", model.getParticipants().toString());
+
+        model.setSortByRank(false);
+        assertEquals("[alice, Bob, carol, invited, zed]", model.getParticipants().toString());
+
+        assertTrue(model.remove("Bob"));
+        assertFalse(model.remove("Bob"));
+        assertEquals(-1, model.indexOf("Bob"));
+        assertEquals(4, model.getSize());
+    }
+
+    /**
+     * Replays the join and part flood of a large room in batches and checks
+     * that the list is notified once per batch.
+     */
+    @Test
+    public void testBatchedUpdates() {
+        final int occupants = 1000;
+        final int batch = 200;
+        final Random random = new Random(42);
+
+        ParticipantListModel model = new ParticipantListModel();
+        model.setSortByRank(true);
+        final List<ListDataEvent> events = new ArrayList<>();
+        model.addListDataListener(new ListDataListener() {
+            @Override
+            public void intervalAdded(ListDataEvent e) {
+                events.add(e);
+            }
+
+            @Override
+            public void intervalRemoved(ListDataEvent e) {
+                events.add(e);
+            }
+
+            @Override
+            public void contentsChanged(ListDataEvent e) {
+                events.add(e);
+            }
+        });
+
+        for (int i = 0; i < occupants; i += batch) {
+            model.beginUpdate();
+            for (int j = i; j < i + batch; j++) {
+                String[] role = ROLES[random.nextInt(ROLES.length)];
+                model.put("user" + Integer.toString(random.nextInt(Integer.MAX_VALUE), 36) + j, null, role[0], role[1]);
+            }
+            assertTrue(events.isEmpty());
+            model.endUpdate();
+
+            // The new rows are added at the end, the old ones may all have
+            // moved.
+            assertEquals(i == 0 ? 1 : 2, events.size());
+            assertEvent(events.get(0), ListDataEvent.INTERVAL_ADDED, i, i + batch - 1);
+            if (i > 0) {
+                assertEvent(events.get(1), ListDataEvent.CONTENTS_CHANGED, 0, i - 1);
+            }
+            events.clear();
+        }
+
+        assertEquals(occupants, model.getSize());
+        for (int i = 1; i < model.getSize(); i++) {
+            ParticipantListModel.Participant p1 = model.getElementAt(i - 1);
+            ParticipantListModel.Participant p2 = model.getElementAt(i);
+            assertTrue(p1.getRank() < p2.getRank() || (p1.getRank() == p2.getRank()
+                    && p1.getNickname().toLowerCase().compareTo(p2.getNickname().toLowerCase()) < 0));
+        }
+
+        // Everybody leaves but one.
+        final ParticipantListModel.Participant last = model.getElementAt(occupants - 1);
+        model.beginUpdate();
+        for (ParticipantListModel.Participant participant : new ArrayList<>(model.getParticipants())) {
+            if (participant != last) {
+                model.remove(participant.getNickname());
+            }
+        }
+        assertTrue(events.isEmpty());
+        model.endUpdate();
+
+        assertEquals(2, events.size());
+        assertEvent(events.get(0), ListDataEvent.INTERVAL_REMOVED, 1, occupants - 1);
+        assertEvent(events.get(1), ListDataEvent.CONTENTS_CHANGED, 0, 0);
+        assertEquals("[" + last.getNickname() + "]", model.getParticipants().toString());
+    }
+
+    private static void assertEvent(ListDataEvent event, int type, int index0, int index1) {
+        assertEquals(type, event.getType());
+        assertEquals(index0, event.getIndex0());
+        assertEquals(index1, event.getIndex1());
+    }
+}